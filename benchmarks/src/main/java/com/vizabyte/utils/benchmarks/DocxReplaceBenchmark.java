@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vizabyte.utils.DocxUtils;
+
+/**
+ * Template variable replacement, through the docx4j object model and
+ * through the streaming replacer, on templates of each bundled size.
+ *
+ * @author Drona
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DocxReplaceBenchmark {
+
+	@Param({ "small", "medium", "large" })
+	public String templateSize;
+
+	private byte[] template;
+	private Map<String, String> mappings;
+
+	@Setup
+	public void setUp() throws Exception {
+		template = Fixtures.template(templateSize);
+		mappings = Fixtures.mappings();
+	}
+
+	@Benchmark
+	public byte[] jaxb() throws Exception {
+		return DocxUtils.replaceVariables(new ByteArrayInputStream(template), mappings);
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream streaming() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(template.length);
+		DocxUtils.replaceVariablesStreaming(new ByteArrayInputStream(template), mappings, out);
+		return out;
+	}
+
+}
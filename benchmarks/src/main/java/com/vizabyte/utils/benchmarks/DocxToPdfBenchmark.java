@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vizabyte.utils.DocxUtils;
+
+/**
+ * Conversion of the bundled templates to PDF, as they are and with their
+ * variables replaced on the way.
+ *
+ * @author Drona
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DocxToPdfBenchmark {
+
+	@Param({ "small", "medium", "large" })
+	public String templateSize;
+
+	private byte[] template;
+	private Map<String, String> mappings;
+
+	@Setup
+	public void setUp() throws Exception {
+		template = Fixtures.template(templateSize);
+		mappings = Fixtures.mappings();
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream toPdf() throws Exception {
+		ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+		DocxUtils.toPdf(new ByteArrayInputStream(template), pdf);
+		return pdf;
+	}
+
+	@Benchmark
+	public ByteArrayOutputStream replaceAndConvert() throws Exception {
+		ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+		DocxUtils.toPdf(new ByteArrayInputStream(template), mappings, pdf);
+		return pdf;
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.vizabyte.utils.IOUtils;
+
+/**
+ * Loads the sample documents bundled under /fixtures, so that every run and
+ * every release is measured on the same input.
+ * <ul>
+ * <li>template-small.docx, template-medium.docx and template-large.docx:
+ * templates of 20, 500 and 5000 paragraphs, one in ten holding the
+ * ${name}, ${order}, ${date} and ${city} variables</li>
+ * <li>orders.xml: 500 orders of 1 to 4 items each, about 160 KB</li>
+ * </ul>
+ *
+ * @author Drona
+ *
+ */
+final class Fixtures {
+
+	private Fixtures() {
+	}
+
+	/**
+	 * @param name
+	 *            - the file name of the fixture
+	 * @return the content of the fixture
+	 * @throws IOException
+	 *             - when the fixture is missing
+	 */
+	static byte[] load(String name) throws IOException {
+		InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name);
+		if (in == null) {
+			throw new IOException("Missing fixture " + name);
+		}
+		try {
+			return IOUtils.toByteArray(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @param size
+	 *            - small, medium or large
+	 * @return the template of that size
+	 * @throws IOException
+	 *             - when the fixture is missing
+	 */
+	static byte[] template(String size) throws IOException {
+		return load("template-" + size + ".docx");
+	}
+
+	/**
+	 * @return values for every variable of the templates
+	 */
+	static Map<String, String> mappings() {
+		Map<String, String> mappings = new HashMap<String, String>();
+		mappings.put("name", "Ann Smith");
+		mappings.put("order", "SO-000042");
+		mappings.put("date", "1 June 2017");
+		mappings.put("city", "Paris");
+		return mappings;
+	}
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vizabyte.utils.Argon2PasswordHasher;
+import com.vizabyte.utils.BCryptPasswordHasher;
+import com.vizabyte.utils.PasswordHasher;
+import com.vizabyte.utils.ScryptPasswordHasher;
+
+/**
+ * Verification with the other password hashers at their default settings,
+ * to weigh their cost against PBKDF2 in {@link PasswordHashingBenchmark}.
+ *
+ * @author Drona
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MemoryHardHashingBenchmark {
+
+	private static final String PASSWORD = "correct horse battery staple";
+
+	@Param({ "bcrypt", "scrypt", "argon2id" })
+	public String algorithm;
+
+	private PasswordHasher hasher;
+	private String encoded;
+
+	@Setup
+	public void setUp() {
+		if (algorithm.equals("bcrypt")) {
+			hasher = new BCryptPasswordHasher();
+		} else if (algorithm.equals("scrypt")) {
+			hasher = new ScryptPasswordHasher();
+		} else {
+			hasher = new Argon2PasswordHasher();
+		}
+		encoded = hasher.hash(PASSWORD);
+	}
+
+	@Benchmark
+	public boolean verify() {
+		return hasher.verify(PASSWORD, encoded);
+	}
+
+}
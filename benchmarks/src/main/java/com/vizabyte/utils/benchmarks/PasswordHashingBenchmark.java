@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vizabyte.utils.Pbkdf2PasswordHasher;
+import com.vizabyte.utils.SecurityUtils;
+
+/**
+ * PBKDF2 password hashing and verification at each iteration constant of
+ * {@link SecurityUtils}: MINIMUM_ITERATIONS, BALANCED_ITERATIONS and
+ * EXTREME_ITERATIONS, with the default key and salt lengths.
+ *
+ * @author Drona
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasswordHashingBenchmark {
+
+	private static final String PASSWORD = "correct horse battery staple";
+
+	@Param({ "" + SecurityUtils.MINIMUM_ITERATIONS, "" + SecurityUtils.BALANCED_ITERATIONS,
+			"" + SecurityUtils.EXTREME_ITERATIONS })
+	public int iterations;
+
+	private Pbkdf2PasswordHasher hasher;
+	private String encoded;
+	private byte[] salt;
+
+	@Setup
+	public void setUp() {
+		hasher = new Pbkdf2PasswordHasher(Pbkdf2PasswordHasher.PBKDF2_SHA512, iterations,
+				SecurityUtils.SAFER_KEY_LENGTH, SecurityUtils.SAFE_SALT_LENGTH);
+		encoded = hasher.hash(PASSWORD);
+		salt = SecurityUtils.generateSalt();
+	}
+
+	@Benchmark
+	public String hash() {
+		return hasher.hash(PASSWORD);
+	}
+
+	@Benchmark
+	public boolean verify() {
+		return hasher.verify(PASSWORD, encoded);
+	}
+
+	/**
+	 * The legacy salt and hash pair, always at MINIMUM_ITERATIONS; measured
+	 * once per iteration count as a baseline.
+	 */
+	@Benchmark
+	public byte[] legacyHashPassword() {
+		return SecurityUtils.hashPassword(PASSWORD, salt);
+	}
+
+}
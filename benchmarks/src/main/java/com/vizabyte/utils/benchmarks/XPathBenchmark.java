@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.xpath.XPathConstants;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+
+import com.vizabyte.utils.XPathQueries;
+import com.vizabyte.utils.XPathResults;
+import com.vizabyte.utils.XmlProcessorUtils;
+
+/**
+ * XPath extraction from the bundled orders.xml: with the compiled expression
+ * cache emptied before each call (cold) or filled (warm), on a DOM parsed
+ * each time or once, and streaming without a DOM. The last expression sits
+ * near the end of the document, so the streaming evaluator reads most of it.
+ *
+ * @author Drona
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XPathBenchmark {
+
+	private byte[] xml;
+	private Document document;
+	private XPathQueries queries;
+
+	@Setup
+	public void setUp() throws Exception {
+		xml = Fixtures.load("orders.xml");
+		document = XmlProcessorUtils.getXmlDocument(xml, 0, xml.length);
+		queries = new XPathQueries().add("count", "/orders/@count", XPathConstants.NUMBER)
+				.add("firstCustomer", "/orders/order[1]/customer/name", XPathConstants.STRING)
+				.add("firstShipped", "//order[@status='shipped'][1]/@id", XPathConstants.STRING)
+				.add("lateTotal", "//order[@id='450']/total", XPathConstants.NUMBER);
+	}
+
+	@Benchmark
+	public XPathResults domCold() throws Exception {
+		XmlProcessorUtils.getXPathExpressionCache().clear();
+		return XmlProcessorUtils.getElementValues(new ByteArrayInputStream(xml), queries);
+	}
+
+	@Benchmark
+	public XPathResults domWarm() throws Exception {
+		return XmlProcessorUtils.getElementValues(new ByteArrayInputStream(xml), queries);
+	}
+
+	@Benchmark
+	public XPathResults parsedDomCold() throws Exception {
+		XmlProcessorUtils.getXPathExpressionCache().clear();
+		return XmlProcessorUtils.getElementValues(document, queries);
+	}
+
+	@Benchmark
+	public XPathResults parsedDomWarm() throws Exception {
+		return XmlProcessorUtils.getElementValues(document, queries);
+	}
+
+	@Benchmark
+	public XPathResults streaming() throws Exception {
+		return XmlProcessorUtils.getElementValuesStreaming(new ByteArrayInputStream(xml), queries);
+	}
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * The parts shared by the password hashers: the String methods, passed on to
+ * the char[] ones on a copy that is cleared afterwards, password encoding and
+ * the Base64 of the PHC string format.
+ *
+ * @author Drona
+ *
+ */
+abstract class AbstractPasswordHasher implements PasswordHasher {
+
+	static final Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+	static final Base64.Decoder decoder = Base64.getDecoder();
+
+	public String hash(String password) {
+		if (password == null) {
+			throw new NullPointerException();
+		}
+		char[] chars = password.toCharArray();
+		try {
+			return hash(chars);
+		} finally {
+			Arrays.fill(chars, '\0');
+		}
+	}
+
+	public boolean verify(String password, String encodedHash) {
+		if (password == null) {
+			throw new NullPointerException();
+		}
+		char[] chars = password.toCharArray();
+		try {
+			return verify(chars, encodedHash);
+		} finally {
+			Arrays.fill(chars, '\0');
+		}
+	}
+
+	/**
+	 * Returns the UTF-8 encoding of the NFD normalized password, in an array
+	 * of its own that the caller clears once done.
+	 */
+	static byte[] encodePassword(char[] password) {
+		CharBuffer chars = CharBuffer.wrap(password);
+		if (!Normalizer.isNormalized(chars, Normalizer.Form.NFD)) {
+			chars = CharBuffer.wrap(Normalizer.normalize(chars, Normalizer.Form.NFD));
+		}
+		ByteBuffer encoded = StandardCharsets.UTF_8.encode(chars);
+		byte[] bytes = new byte[encoded.remaining()];
+		encoded.get(bytes);
+		if (encoded.hasArray()) {
+			Arrays.fill(encoded.array(), (byte) 0);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Parses the comma separated name=value parameters of a PHC string.
+	 *
+	 * @return the values, in the order of the names
+	 * @throws IllegalArgumentException
+	 *             - when a parameter is missing or not a number
+	 */
+	static int[] parameters(String text, String... names) {
+		String[] pairs = text.split(",", -1);
+		if (pairs.length != names.length) {
+			throw new IllegalArgumentException("Expected parameters " + Arrays.toString(names));
+		}
+		int[] values = new int[names.length];
+		for (int i = 0; i < names.length; i++) {
+			if (!pairs[i].startsWith(names[i] + "=")) {
+				throw new IllegalArgumentException("Expected parameter " + names[i]);
+			}
+			values[i] = Integer.parseInt(pairs[i].substring(names[i].length() + 1));
+		}
+		return values;
+	}
+
+}
@@ -0,0 +1,513 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.util.Arrays;
+
+import com.vizabyte.utils.Instrumentation.Phase;
+
+/**
+ * Hashes passwords with Argon2id version 1.3 (RFC 9106), the memory-hard
+ * winner of the Password Hashing Competition, resisting both GPU guessing and
+ * side-channel attacks.
+ * <p>
+ * The encoded form follows the PHC string format, for instance
+ * {@code $argon2id$v=19$m=19456,t=2,p=1$<salt>$<hash>}, where m is the
+ * memory in KiB, t the number of passes over it and p the number of lanes.
+ * The defaults are those recommended by OWASP. The lanes are filled one after
+ * the other on the calling thread, so p changes the hash but not the time it
+ * takes.
+ * <p>
+ * Instances are immutable and thread safe.
+ *
+ * @author Drona
+ *
+ */
+public final class Argon2PasswordHasher extends AbstractPasswordHasher {
+
+	public static final int DEFAULT_MEMORY = 19456;
+	public static final int DEFAULT_ITERATIONS = 2;
+	public static final int DEFAULT_PARALLELISM = 1;
+	public static final int DEFAULT_KEY_LENGTH = 32;
+	public static final int DEFAULT_SALT_LENGTH = 16;
+
+	private static final String PREFIX = "$argon2id$";
+	private static final int VERSION = 0x13;
+	private static final int TYPE_ID = 2;
+	private static final int SYNC_POINTS = 4;
+	private static final int BLOCK_WORDS = 128;
+	private static final int BLOCK_LENGTH = BLOCK_WORDS * 8;
+	private static final byte[] EMPTY = new byte[0];
+
+	private final int memory;
+	private final int iterations;
+	private final int parallelism;
+	private final int keyLength;
+	private final int saltLength;
+
+	/**
+	 * Creates a hasher using 19 MiB of memory, 2 passes and 1 lane, with a
+	 * key of 32 bytes and a salt of 16 bytes.
+	 */
+	public Argon2PasswordHasher() {
+		this(DEFAULT_MEMORY, DEFAULT_ITERATIONS, DEFAULT_PARALLELISM, DEFAULT_KEY_LENGTH, DEFAULT_SALT_LENGTH);
+	}
+
+	/**
+	 * @param memory
+	 *            - the memory of new hashes in KiB, at least 8 per lane
+	 * @param iterations
+	 *            - the number of passes over the memory of new hashes
+	 * @param parallelism
+	 *            - the number of lanes of new hashes
+	 * @param keyLength
+	 *            - the length in bytes of new hashes, at least 4
+	 * @param saltLength
+	 *            - the length in bytes of the salt of new hashes, at least 8
+	 * @throws IllegalArgumentException
+	 *             - when a parameter is out of the bounds of RFC 9106
+	 */
+	public Argon2PasswordHasher(int memory, int iterations, int parallelism, int keyLength, int saltLength) {
+		checkParameters(memory, iterations, parallelism);
+		if (keyLength < 4 || saltLength < 8) {
+			throw new IllegalArgumentException("Invalid Argon2 key or salt length");
+		}
+		this.memory = memory;
+		this.iterations = iterations;
+		this.parallelism = parallelism;
+		this.keyLength = keyLength;
+		this.saltLength = saltLength;
+	}
+
+	/**
+	 * @return the memory of new hashes in KiB
+	 */
+	public int getMemory() {
+		return memory;
+	}
+
+	/**
+	 * @return the number of passes of new hashes
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * @return the number of lanes of new hashes
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public String hash(char[] password) {
+		if (password == null) {
+			throw new NullPointerException();
+		}
+		byte[] salt = SecurityUtils.getNextSalt(saltLength);
+		byte[] key = new byte[keyLength];
+		derive(password, salt, memory, iterations, parallelism, key);
+		return PREFIX + "v=" + VERSION + "$m=" + memory + ",t=" + iterations + ",p=" + parallelism + "$"
+				+ encoder.encodeToString(salt) + "$" + encoder.encodeToString(key);
+	}
+
+	public boolean verify(char[] password, String encodedHash) {
+		if (password == null) {
+			throw new NullPointerException();
+		}
+		Encoded encoded = Encoded.parse(encodedHash);
+		byte[] actual = new byte[encoded.hash.length];
+		derive(password, encoded.salt, encoded.memory, encoded.iterations, encoded.parallelism, actual);
+		return SecurityUtils.constantTimeEquals(actual, encoded.hash);
+	}
+
+	public boolean needsRehash(String encodedHash) {
+		if (!supports(encodedHash)) {
+			return true;
+		}
+		Encoded encoded = Encoded.parse(encodedHash);
+		return encoded.memory < memory || encoded.iterations < iterations || encoded.parallelism != parallelism
+				|| encoded.salt.length < saltLength || encoded.hash.length != keyLength;
+	}
+
+	public boolean supports(String encodedHash) {
+		return encodedHash.startsWith(PREFIX);
+	}
+
+	private static void checkParameters(int memory, int iterations, int parallelism) {
+		if (iterations < 1 || parallelism < 1 || parallelism > 0xffffff || memory < 8 * parallelism) {
+			throw new IllegalArgumentException("Invalid Argon2 parameters");
+		}
+		if (memory > Integer.MAX_VALUE / BLOCK_WORDS) {
+			throw new IllegalArgumentException("Argon2 parameters need more than 16 GB");
+		}
+	}
+
+	private static void derive(char[] password, byte[] salt, int memory, int iterations, int parallelism,
+			byte[] key) {
+		long start = Instrumentation.start();
+		byte[] encoded = encodePassword(password);
+		try {
+			derive(encoded, salt, EMPTY, EMPTY, memory, iterations, parallelism, key);
+			Instrumentation.end(Phase.KDF, start, 0, 0);
+		} finally {
+			Arrays.fill(encoded, (byte) 0);
+		}
+	}
+
+	/**
+	 * Derives a key with Argon2id.
+	 *
+	 * @param password
+	 *            - the password bytes
+	 * @param salt
+	 *            - the salt
+	 * @param secret
+	 *            - the secret value K, possibly empty
+	 * @param associatedData
+	 *            - the associated data X, possibly empty
+	 * @param memory
+	 *            - the memory in KiB
+	 * @param iterations
+	 *            - the number of passes
+	 * @param parallelism
+	 *            - the number of lanes
+	 * @param key
+	 *            - receives the key, as long as the array
+	 */
+	static void derive(byte[] password, byte[] salt, byte[] secret, byte[] associatedData, int memory,
+			int iterations, int parallelism, byte[] key) {
+		Blake2b blake2b = new Blake2b();
+		byte[] h0 = new byte[Blake2b.MAX_DIGEST_LENGTH + 8];
+		blake2b.updateInt(parallelism);
+		blake2b.updateInt(key.length);
+		blake2b.updateInt(memory);
+		blake2b.updateInt(iterations);
+		blake2b.updateInt(VERSION);
+		blake2b.updateInt(TYPE_ID);
+		blake2b.updateInt(password.length);
+		blake2b.update(password);
+		blake2b.updateInt(salt.length);
+		blake2b.update(salt);
+		blake2b.updateInt(secret.length);
+		blake2b.update(secret);
+		blake2b.updateInt(associatedData.length);
+		blake2b.update(associatedData);
+		blake2b.digest(h0, 0);
+
+		Instance instance = new Instance(memory, iterations, parallelism);
+		byte[] block = new byte[BLOCK_LENGTH];
+		try {
+			for (int lane = 0; lane < parallelism; lane++) {
+				for (int column = 0; column < 2; column++) {
+					setInt(h0, Blake2b.MAX_DIGEST_LENGTH, column);
+					setInt(h0, Blake2b.MAX_DIGEST_LENGTH + 4, lane);
+					hashLong(blake2b, h0, block);
+					instance.load(lane * instance.laneLength + column, block);
+				}
+			}
+			instance.fill();
+			instance.finish(block);
+			hashLong(blake2b, block, key);
+		} finally {
+			Arrays.fill(h0, (byte) 0);
+			Arrays.fill(block, (byte) 0);
+			instance.clear();
+			blake2b.clear();
+		}
+	}
+
+	/**
+	 * The variable length hash H' of Argon2.
+	 */
+	private static void hashLong(Blake2b blake2b, byte[] input, byte[] out) {
+		if (out.length <= Blake2b.MAX_DIGEST_LENGTH) {
+			blake2b.reset(out.length);
+			blake2b.updateInt(out.length);
+			blake2b.update(input);
+			blake2b.digest(out, 0);
+			return;
+		}
+		byte[] v = new byte[Blake2b.MAX_DIGEST_LENGTH];
+		blake2b.reset(Blake2b.MAX_DIGEST_LENGTH);
+		blake2b.updateInt(out.length);
+		blake2b.update(input);
+		blake2b.digest(v, 0);
+		System.arraycopy(v, 0, out, 0, 32);
+		int offset = 32;
+		while (out.length - offset > Blake2b.MAX_DIGEST_LENGTH) {
+			blake2b.update(v);
+			blake2b.digest(v, 0);
+			System.arraycopy(v, 0, out, offset, 32);
+			offset += 32;
+		}
+		blake2b.reset(out.length - offset);
+		blake2b.update(v);
+		blake2b.digest(out, offset);
+		Arrays.fill(v, (byte) 0);
+	}
+
+	private static void setInt(byte[] data, int offset, int value) {
+		data[offset] = (byte) value;
+		data[offset + 1] = (byte) (value >>> 8);
+		data[offset + 2] = (byte) (value >>> 16);
+		data[offset + 3] = (byte) (value >>> 24);
+	}
+
+	/**
+	 * The memory of one hash and the filling of its blocks.
+	 */
+	private static final class Instance {
+
+		final int iterations;
+		final int lanes;
+		final int laneLength;
+		final int segmentLength;
+		final int blockCount;
+		final long[] memory;
+		final long[] r = new long[BLOCK_WORDS];
+		final long[] z = new long[BLOCK_WORDS];
+		final long[] input = new long[BLOCK_WORDS];
+		final long[] addresses = new long[BLOCK_WORDS];
+		final long[] zero = new long[BLOCK_WORDS];
+
+		Instance(int memoryKib, int iterations, int lanes) {
+			this.iterations = iterations;
+			this.lanes = lanes;
+			this.segmentLength = memoryKib / (lanes * SYNC_POINTS);
+			this.laneLength = segmentLength * SYNC_POINTS;
+			this.blockCount = laneLength * lanes;
+			this.memory = new long[blockCount * BLOCK_WORDS];
+		}
+
+		void load(int index, byte[] block) {
+			int base = index * BLOCK_WORDS;
+			for (int i = 0; i < BLOCK_WORDS; i++) {
+				long value = 0;
+				for (int j = 7; j >= 0; j--) {
+					value = value << 8 | block[i * 8 + j] & 0xff;
+				}
+				memory[base + i] = value;
+			}
+		}
+
+		/**
+		 * XORs the last block of every lane into the given array.
+		 */
+		void finish(byte[] block) {
+			long[] last = z;
+			Arrays.fill(last, 0);
+			for (int lane = 0; lane < lanes; lane++) {
+				int base = (lane * laneLength + laneLength - 1) * BLOCK_WORDS;
+				for (int i = 0; i < BLOCK_WORDS; i++) {
+					last[i] ^= memory[base + i];
+				}
+			}
+			for (int i = 0; i < BLOCK_WORDS; i++) {
+				for (int j = 0; j < 8; j++) {
+					block[i * 8 + j] = (byte) (last[i] >>> (j << 3));
+				}
+			}
+		}
+
+		void clear() {
+			Arrays.fill(memory, 0);
+			Arrays.fill(r, 0);
+			Arrays.fill(z, 0);
+			Arrays.fill(addresses, 0);
+		}
+
+		void fill() {
+			for (int pass = 0; pass < iterations; pass++) {
+				for (int slice = 0; slice < SYNC_POINTS; slice++) {
+					for (int lane = 0; lane < lanes; lane++) {
+						fillSegment(pass, slice, lane);
+					}
+				}
+			}
+		}
+
+		private void fillSegment(int pass, int slice, int lane) {
+			// Argon2id addresses independently of the data in the first half
+			// of the first pass, against side channels
+			boolean independent = pass == 0 && slice < SYNC_POINTS / 2;
+			if (independent) {
+				Arrays.fill(input, 0);
+				input[0] = pass;
+				input[1] = lane;
+				input[2] = slice;
+				input[3] = blockCount;
+				input[4] = iterations;
+				input[5] = TYPE_ID;
+			}
+			int start = 0;
+			if (pass == 0 && slice == 0) {
+				// the first two blocks of each lane come from H0
+				start = 2;
+				if (independent) {
+					nextAddresses();
+				}
+			}
+			int current = lane * laneLength + slice * segmentLength + start;
+			int previous = current % laneLength == 0 ? current + laneLength - 1 : current - 1;
+			for (int i = start; i < segmentLength; i++, current++, previous++) {
+				if (current % laneLength == 1) {
+					previous = current - 1;
+				}
+				long random;
+				if (independent) {
+					if (i % BLOCK_WORDS == 0) {
+						nextAddresses();
+					}
+					random = addresses[i % BLOCK_WORDS];
+				} else {
+					random = memory[previous * BLOCK_WORDS];
+				}
+				int referenceLane = (int) ((random >>> 32) % lanes);
+				if (pass == 0 && slice == 0) {
+					referenceLane = lane;
+				}
+				int reference = referenceLane * laneLength
+						+ referenceIndex(pass, slice, i, random & 0xffffffffL, referenceLane == lane);
+				compress(memory, previous * BLOCK_WORDS, memory, reference * BLOCK_WORDS, memory,
+						current * BLOCK_WORDS, pass > 0);
+			}
+		}
+
+		private int referenceIndex(int pass, int slice, int index, long random, boolean sameLane) {
+			long area;
+			if (pass == 0) {
+				if (slice == 0) {
+					area = index - 1;
+				} else if (sameLane) {
+					area = slice * segmentLength + index - 1;
+				} else {
+					area = slice * segmentLength + (index == 0 ? -1 : 0);
+				}
+			} else if (sameLane) {
+				area = laneLength - segmentLength + index - 1;
+			} else {
+				area = laneLength - segmentLength + (index == 0 ? -1 : 0);
+			}
+			long relative = random * random >>> 32;
+			relative = area - 1 - (area * relative >>> 32);
+			long start = pass != 0 && slice != SYNC_POINTS - 1 ? (slice + 1) * segmentLength : 0;
+			return (int) ((start + relative) % laneLength);
+		}
+
+		private void nextAddresses() {
+			input[6]++;
+			compress(zero, 0, input, 0, addresses, 0, false);
+			compress(zero, 0, addresses, 0, addresses, 0, false);
+		}
+
+		/**
+		 * The compression function G, writing G(x, y) to the next block, or
+		 * XORing it in when the block was already filled by a previous pass.
+		 */
+		private void compress(long[] x, int xOffset, long[] y, int yOffset, long[] next, int nextOffset,
+				boolean xor) {
+			for (int i = 0; i < BLOCK_WORDS; i++) {
+				r[i] = x[xOffset + i] ^ y[yOffset + i];
+			}
+			System.arraycopy(r, 0, z, 0, BLOCK_WORDS);
+			for (int i = 0; i < 8; i++) {
+				int row = i * 16;
+				permute(row, row + 1, row + 2, row + 3, row + 4, row + 5, row + 6, row + 7, row + 8, row + 9,
+						row + 10, row + 11, row + 12, row + 13, row + 14, row + 15);
+			}
+			for (int i = 0; i < 8; i++) {
+				int column = i * 2;
+				permute(column, column + 1, column + 16, column + 17, column + 32, column + 33, column + 48,
+						column + 49, column + 64, column + 65, column + 80, column + 81, column + 96, column + 97,
+						column + 112, column + 113);
+			}
+			if (xor) {
+				for (int i = 0; i < BLOCK_WORDS; i++) {
+					next[nextOffset + i] ^= z[i] ^ r[i];
+				}
+			} else {
+				for (int i = 0; i < BLOCK_WORDS; i++) {
+					next[nextOffset + i] = z[i] ^ r[i];
+				}
+			}
+		}
+
+		private void permute(int v0, int v1, int v2, int v3, int v4, int v5, int v6, int v7, int v8, int v9,
+				int v10, int v11, int v12, int v13, int v14, int v15) {
+			mix(v0, v4, v8, v12);
+			mix(v1, v5, v9, v13);
+			mix(v2, v6, v10, v14);
+			mix(v3, v7, v11, v15);
+			mix(v0, v5, v10, v15);
+			mix(v1, v6, v11, v12);
+			mix(v2, v7, v8, v13);
+			mix(v3, v4, v9, v14);
+		}
+
+		private void mix(int a, int b, int c, int d) {
+			long[] v = z;
+			v[a] += v[b] + 2 * (v[a] & 0xffffffffL) * (v[b] & 0xffffffffL);
+			v[d] = Long.rotateRight(v[d] ^ v[a], 32);
+			v[c] += v[d] + 2 * (v[c] & 0xffffffffL) * (v[d] & 0xffffffffL);
+			v[b] = Long.rotateRight(v[b] ^ v[c], 24);
+			v[a] += v[b] + 2 * (v[a] & 0xffffffffL) * (v[b] & 0xffffffffL);
+			v[d] = Long.rotateRight(v[d] ^ v[a], 16);
+			v[c] += v[d] + 2 * (v[c] & 0xffffffffL) * (v[d] & 0xffffffffL);
+			v[b] = Long.rotateRight(v[b] ^ v[c], 63);
+		}
+	}
+
+	/**
+	 * The parts of an encoded hash.
+	 */
+	private static final class Encoded {
+
+		int memory;
+		int iterations;
+		int parallelism;
+		byte[] salt;
+		byte[] hash;
+
+		static Encoded parse(String encodedHash) {
+			if (encodedHash == null) {
+				throw new NullPointerException();
+			}
+			String[] parts = encodedHash.split("\\$", -1);
+			if (parts.length != 6 || !parts[0].isEmpty() || !parts[1].equals("argon2id")
+					|| !parts[2].equals("v=" + VERSION)) {
+				throw new IllegalArgumentException("Not an encoded Argon2id hash");
+			}
+			Encoded encoded = new Encoded();
+			try {
+				int[] values = parameters(parts[3], "m", "t", "p");
+				encoded.memory = values[0];
+				encoded.iterations = values[1];
+				encoded.parallelism = values[2];
+				checkParameters(encoded.memory, encoded.iterations, encoded.parallelism);
+				encoded.salt = decoder.decode(parts[4]);
+				encoded.hash = decoder.decode(parts[5]);
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Not an encoded Argon2id hash", e);
+			}
+			if (encoded.hash.length < 4) {
+				throw new IllegalArgumentException("Not an encoded Argon2id hash");
+			}
+			return encoded;
+		}
+	}
+
+}
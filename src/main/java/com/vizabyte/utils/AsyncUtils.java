@@ -0,0 +1,495 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+import javax.xml.namespace.QName;
+
+import org.w3c.dom.Document;
+
+/**
+ * Asynchronous entry points to {@link DocxUtils}, {@link XmlProcessorUtils}
+ * and {@link SecurityUtils}, taking {@link Path}s and NIO channels and
+ * returning {@link CompletableFuture}s. Each call runs as one task of the
+ * executor of the instance, and its future fails with the very exception the
+ * blocking method would have thrown.
+ * <p>
+ * The default instance runs the calls on a fixed pool of daemon threads, one
+ * per processor, so the per-thread caches of parsers, XPath expressions and
+ * key derivation engines stay warm from one call to the next.
+ * {@link #newVirtualThreadExecutor()} runs each call on its own virtual thread
+ * on Java 21 and later instead; those caches then start cold on every call.
+ * The paths these calls take wait on I/O and on each other with
+ * {@link java.util.concurrent.locks.ReentrantLock}s. The monitors of
+ * {@link JaxpProvider}, {@link PdfConversionService}, {@link DocxTemplateCache}
+ * and {@link RenderCache} guard short in-memory updates only, so a virtual
+ * thread is pinned to its carrier for no longer than those updates take.
+ * <p>
+ * Password hashing is not bounded here; {@link PasswordVerificationService}
+ * limits how many hashes run at once.
+ *
+ * @author Drona
+ *
+ */
+public final class AsyncUtils {
+
+	private static final AsyncUtils defaultInstance = new AsyncUtils(newDefaultExecutor());
+
+	private final Executor executor;
+
+	/**
+	 * @param executor
+	 *            - the executor running the calls
+	 */
+	public AsyncUtils(Executor executor) {
+		if (executor == null) {
+			throw new NullPointerException();
+		}
+		this.executor = executor;
+	}
+
+	/**
+	 * @return the instance running the calls on a fixed pool of daemon threads,
+	 *         one per processor
+	 */
+	public static AsyncUtils getDefault() {
+		return defaultInstance;
+	}
+
+	/**
+	 * @return a fixed pool of daemon threads, one per processor
+	 */
+	static ExecutorService newDefaultExecutor() {
+		final AtomicInteger count = new AtomicInteger();
+		return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "async-utils-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Creates an executor running each task on its own virtual thread, found by
+	 * reflection as this library builds on older JDKs. The per-thread caches
+	 * of parsers, XPath expressions and key derivation engines are not shared
+	 * between virtual threads, so every call run on it starts with them cold.
+	 *
+	 * @return a virtual thread per task executor
+	 * @throws UnsupportedOperationException
+	 *             - before Java 21
+	 */
+	public static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			throw new UnsupportedOperationException("virtual threads need Java 21 or later", e);
+		}
+	}
+
+	/**
+	 * @return the executor running the calls
+	 */
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Replaces variables represented as ${variable-name} in a .docx file and
+	 * saves the result as {@link DocxUtils#replaceVariables(InputStream, Map, OutputStream, int)}
+	 * does, through a temporary file renamed over the output file once
+	 * complete.
+	 *
+	 * @param docxPath
+	 *            - input file in the .docx format
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @param outPath
+	 *            - output file
+	 * @return a future completing with the output file
+	 */
+	public CompletableFuture<Path> replaceVariables(final Path docxPath, final Map<String, String> mappings,
+			final Path outPath) {
+		if (docxPath == null || mappings == null || outPath == null) {
+			throw new NullPointerException();
+		}
+		return submit(new Callable<Path>() {
+			public Path call() throws Exception {
+				InputStream in = Files.newInputStream(docxPath);
+				try {
+					AtomicFileOutputStream out = new AtomicFileOutputStream(outPath);
+					try {
+						DocxUtils.replaceVariables(in, mappings, out, Deflater.DEFAULT_COMPRESSION);
+						return out.commit();
+					} finally {
+						out.discard();
+					}
+				} finally {
+					IOUtils.closeQuietly(in);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Replaces variables represented as ${variable-name} in a .docx file as
+	 * {@link DocxUtils#replaceVariables(InputStream, Map)} does.
+	 *
+	 * @param docxPath
+	 *            - input file in the .docx format
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @return a future completing with the result as a byte array
+	 */
+	public CompletableFuture<byte[]> replaceVariables(final Path docxPath, final Map<String, String> mappings) {
+		if (docxPath == null || mappings == null) {
+			throw new NullPointerException();
+		}
+		return submit(new Callable<byte[]>() {
+			public byte[] call() throws Exception {
+				InputStream in = Files.newInputStream(docxPath);
+				try {
+					return DocxUtils.replaceVariables(in, mappings);
+				} finally {
+					IOUtils.closeQuietly(in);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Replaces variables represented as ${variable-name} in a .docx package
+	 * read from a channel and writes the result to another channel, as
+	 * {@link DocxUtils#replaceVariables(InputStream, Map, OutputStream, int)}
+	 * does. Neither channel is closed; both must be blocking.
+	 *
+	 * @param docxChannel
+	 *            - channel on a .docx package
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @param outChannel
+	 *            - the channel the .docx result is written to
+	 * @return a future completing once the result is written
+	 */
+	public CompletableFuture<Void> replaceVariables(final ReadableByteChannel docxChannel,
+			final Map<String, String> mappings, final WritableByteChannel outChannel) {
+		if (docxChannel == null || mappings == null || outChannel == null) {
+			throw new NullPointerException();
+		}
+		return submit(new Callable<Void>() {
+			public Void call() throws Exception {
+				OutputStream out = new BufferedOutputStream(Channels.newOutputStream(outChannel));
+				DocxUtils.replaceVariables(Channels.newInputStream(docxChannel), mappings, out,
+						Deflater.DEFAULT_COMPRESSION);
+				out.flush();
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Replaces variables represented as ${variable-name} in a .docx template
+	 * and saves the result as PDF, as
+	 * {@link DocxUtils#toPdf(InputStream, Map, Path)} does.
+	 *
+	 * @param docxPath
+	 *            - the template in the .docx format
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @param pdfPath
+	 *            - output file
+	 * @return a future completing with the output file
+	 */
+	public CompletableFuture<Path> toPdf(final Path docxPath, final Map<String, String> mappings,
+			final Path pdfPath) {
+		if (docxPath == null || mappings == null || pdfPath == null) {
+			throw new NullPointerException();
+		}
+		return submit(new Callable<Path>() {
+			public Path call() throws Exception {
+				InputStream in = Files.newInputStream(docxPath);
+				try {
+					return DocxUtils.toPdf(in, mappings, pdfPath);
+				} finally {
+					IOUtils.closeQuietly(in);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Replaces variables represented as ${variable-name} in a .docx template
+	 * read from a channel and writes the result as PDF to another channel, as
+	 * {@link DocxUtils#toPdf(InputStream, Map, WritableByteChannel)} does.
+	 * Neither channel is closed; both must be blocking.
+	 *
+	 * @param docxChannel
+	 *            - channel on a .docx template
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @param pdfChannel
+	 *            - the channel the PDF is written to
+	 * @return a future completing once the PDF is written
+	 */
+	public CompletableFuture<Void> toPdf(final ReadableByteChannel docxChannel, final Map<String, String> mappings,
+			final WritableByteChannel pdfChannel) {
+		if (docxChannel == null || mappings == null || pdfChannel == null) {
+			throw new NullPointerException();
+		}
+		return submit(new Callable<Void>() {
+			public Void call() throws Exception {
+				DocxUtils.toPdf(Channels.newInputStream(docxChannel), mappings, pdfChannel);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Parses an XML file as {@link XmlProcessorUtils#getXmlDocument(InputStream)}
+	 * does.
+	 *
+	 * @param xmlPath
+	 *            - the XML file
+	 * @return a future completing with the parsed document
+	 */
+	public CompletableFuture<Document> getXmlDocument(final Path xmlPath) {
+		if (xmlPath == null) {
+			throw new NullPointerException();
+		}
+		return submit(new Callable<Document>() {
+			public Document call() throws Exception {
+				InputStream in = Files.newInputStream(xmlPath);
+				try {
+					return XmlProcessorUtils.getXmlDocument(in);
+				} finally {
+					IOUtils.closeQuietly(in);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Evaluates an XPath expression on an XML file as
+	 * {@link XmlProcessorUtils#getElementValue(InputStream, String, QName)}
+	 * does.
+	 *
+	 * @param xmlPath
+	 *            - the XML file
+	 * @param xpathExpr
+	 *            - the XPath expression
+	 * @param returnType
+	 *            - the expected return type, one of the
+	 *            {@link javax.xml.xpath.XPathConstants}
+	 * @return a future completing with the value of the expression
+	 */
+	public CompletableFuture<Object> getElementValue(final Path xmlPath, final String xpathExpr,
+			final QName returnType) {
+		if (xmlPath == null || xpathExpr == null || returnType == null) {
+			throw new NullPointerException();
+		}
+		return submit(new Callable<Object>() {
+			public Object call() throws Exception {
+				InputStream in = Files.newInputStream(xmlPath);
+				try {
+					return XmlProcessorUtils.getElementValue(in, xpathExpr, returnType);
+				} finally {
+					IOUtils.closeQuietly(in);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Evaluates a set of XPath queries on an XML file parsed once, as
+	 * {@link XmlProcessorUtils#getElementValues(InputStream, XPathQueries)}
+	 * does.
+	 *
+	 * @param xmlPath
+	 *            - the XML file
+	 * @param queries
+	 *            - the queries
+	 * @return a future completing with the results of every query
+	 */
+	public CompletableFuture<XPathResults> getElementValues(final Path xmlPath, final XPathQueries queries) {
+		if (xmlPath == null || queries == null) {
+			throw new NullPointerException();
+		}
+		return submit(new Callable<XPathResults>() {
+			public XPathResults call() throws Exception {
+				InputStream in = Files.newInputStream(xmlPath);
+				try {
+					return XmlProcessorUtils.getElementValues(in, queries);
+				} finally {
+					IOUtils.closeQuietly(in);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Evaluates a set of XPath queries on an XML document read from a blocking
+	 * channel, which is not closed, as
+	 * {@link XmlProcessorUtils#getElementValues(InputStream, XPathQueries)}
+	 * does.
+	 *
+	 * @param xmlChannel
+	 *            - channel on the XML document
+	 * @param queries
+	 *            - the queries
+	 * @return a future completing with the results of every query
+	 */
+	public CompletableFuture<XPathResults> getElementValues(final ReadableByteChannel xmlChannel,
+			final XPathQueries queries) {
+		if (xmlChannel == null || queries == null) {
+			throw new NullPointerException();
+		}
+		return submit(new Callable<XPathResults>() {
+			public XPathResults call() throws Exception {
+				return XmlProcessorUtils.getElementValues(Channels.newInputStream(xmlChannel), queries);
+			}
+		});
+	}
+
+	/**
+	 * Hashes a password as {@link SecurityUtils#hashPassword(char[], byte[])}
+	 * does. The array must be left as is until the future completes; clear it
+	 * then.
+	 *
+	 * @param password
+	 *            - the password
+	 * @param salt
+	 *            - the salt
+	 * @return a future completing with the hash
+	 */
+	public CompletableFuture<byte[]> hashPassword(final char[] password, final byte[] salt) {
+		if (password == null || salt == null) {
+			throw new NullPointerException();
+		}
+		return submit(new Callable<byte[]>() {
+			public byte[] call() {
+				return SecurityUtils.hashPassword(password, salt);
+			}
+		});
+	}
+
+	/**
+	 * Matches a password with a hash made by
+	 * {@link SecurityUtils#hashPassword(String, byte[])}.
+	 *
+	 * @param password
+	 *            - the password
+	 * @param salt
+	 *            - the salt used
+	 * @param expectedHash
+	 *            - the stored hash
+	 * @return a future completing with whether the password matches
+	 */
+	public CompletableFuture<Boolean> matchPassword(final String password, final byte[] salt,
+			final byte[] expectedHash) {
+		if (password == null || salt == null || expectedHash == null) {
+			throw new NullPointerException();
+		}
+		return submit(new Callable<Boolean>() {
+			public Boolean call() {
+				return SecurityUtils.matchPassword(password, salt, expectedHash);
+			}
+		});
+	}
+
+	/**
+	 * Hashes a password with a new salt as
+	 * {@link SecurityUtils#encodePassword(String)} does.
+	 *
+	 * @param password
+	 *            - the password
+	 * @return a future completing with the encoded hash
+	 */
+	public CompletableFuture<String> encodePassword(final String password) {
+		if (password == null) {
+			throw new NullPointerException();
+		}
+		return submit(new Callable<String>() {
+			public String call() {
+				return SecurityUtils.encodePassword(password);
+			}
+		});
+	}
+
+	/**
+	 * Checks a password against an encoded hash as
+	 * {@link SecurityUtils#verifyPassword(String, String)} does.
+	 *
+	 * @param password
+	 *            - the password
+	 * @param encodedHash
+	 *            - the stored hash
+	 * @return a future completing with whether the password matches
+	 */
+	public CompletableFuture<Boolean> verifyPassword(final String password, final String encodedHash) {
+		if (password == null || encodedHash == null) {
+			throw new NullPointerException();
+		}
+		return submit(new Callable<Boolean>() {
+			public Boolean call() {
+				return SecurityUtils.verifyPassword(password, encodedHash);
+			}
+		});
+	}
+
+	private <T> CompletableFuture<T> submit(final Callable<T> call) {
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					if (result.isDone()) {
+						// cancelled before it started
+						return;
+					}
+					try {
+						result.complete(call.call());
+					} catch (Throwable e) {
+						result.completeExceptionally(e);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			result.completeExceptionally(e);
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Writes a file through a temporary file in the same directory, which
+ * replaces the target by a rename once {@link #commit()} is called. Readers
+ * of the target see either its previous content or the complete new one,
+ * never a partial file, and a failed write leaves the target untouched.
+ * <p>
+ * Closing the stream does not commit it, so it may be handed to code that
+ * closes the streams it writes to. {@link #discard()} deletes the temporary
+ * file unless the stream was committed, and is meant for a finally block.
+ *
+ * @author Drona
+ *
+ */
+final class AtomicFileOutputStream extends OutputStream {
+
+	private final Path target;
+	private final Path temp;
+	private final OutputStream out;
+	private boolean closed;
+	private boolean committed;
+
+	/**
+	 * @param target
+	 *            - the file to write
+	 * @throws IOException
+	 *             - when the temporary file cannot be created
+	 */
+	AtomicFileOutputStream(Path target) throws IOException {
+		this.target = target.toAbsolutePath();
+		this.temp = createSibling(this.target);
+		this.out = new BufferedOutputStream(Files.newOutputStream(temp));
+	}
+
+	/**
+	 * Creates an empty file next to the target with the default permissions,
+	 * unlike {@link Files#createTempFile}, which makes it readable by the
+	 * owner only.
+	 */
+	private static Path createSibling(Path target) throws IOException {
+		while (true) {
+			String name = "." + target.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong())
+					+ ".tmp";
+			try {
+				return Files.createFile(target.resolveSibling(name));
+			} catch (FileAlreadyExistsException e) {
+				// another writer picked the same name, try another one
+			}
+		}
+	}
+
+	/**
+	 * Renames a file over another one, atomically where the file system
+	 * supports it.
+	 *
+	 * @param source
+	 *            - the file to rename
+	 * @param target
+	 *            - the file replaced
+	 * @throws IOException
+	 *             - when the file cannot be renamed
+	 */
+	static void move(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		out.write(b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			out.close();
+		}
+	}
+
+	/**
+	 * Closes the stream, forces the temporary file to the storage device and
+	 * renames it over the target.
+	 *
+	 * @return the target
+	 * @throws IOException
+	 *             - when the content cannot be written or renamed
+	 */
+	Path commit() throws IOException {
+		close();
+		force(temp);
+		move(temp, target);
+		committed = true;
+		return target;
+	}
+
+	/**
+	 * Writes the content of a file to the storage device, so that it survives
+	 * a crash once renamed.
+	 */
+	private static void force(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+		try {
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Closes the stream and deletes the temporary file, unless the stream was
+	 * committed.
+	 */
+	void discard() {
+		if (committed) {
+			return;
+		}
+		IOUtils.closeQuietly(this);
+		try {
+			Files.deleteIfExists(temp);
+		} catch (IOException e) {
+			// nothing more can be done about it
+		}
+	}
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.util.Arrays;
+
+/**
+ * BLAKE2b (RFC 7693) without a key, with digests of 1 to 64 bytes, as needed
+ * by Argon2. An instance hashes one message at a time and is not thread
+ * safe.
+ *
+ * @author Drona
+ *
+ */
+final class Blake2b {
+
+	private static final long[] IV = { 0x6a09e667f3bcc908L, 0xbb67ae8584caa73bL, 0x3c6ef372fe94f82bL,
+			0xa54ff53a5f1d36f1L, 0x510e527fade682d1L, 0x9b05688c2b3e6c1fL, 0x1f83d9abfb41bd6bL,
+			0x5be0cd19137e2179L };
+
+	private static final byte[][] SIGMA = { { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15 },
+			{ 14, 10, 4, 8, 9, 15, 13, 6, 1, 12, 0, 2, 11, 7, 5, 3 },
+			{ 11, 8, 12, 0, 5, 2, 15, 13, 10, 14, 3, 6, 7, 1, 9, 4 },
+			{ 7, 9, 3, 1, 13, 12, 11, 14, 2, 6, 5, 10, 4, 0, 15, 8 },
+			{ 9, 0, 5, 7, 2, 4, 10, 15, 14, 1, 11, 12, 6, 8, 3, 13 },
+			{ 2, 12, 6, 10, 0, 11, 8, 3, 4, 13, 7, 5, 15, 14, 1, 9 },
+			{ 12, 5, 1, 15, 14, 13, 4, 10, 0, 7, 6, 3, 9, 2, 8, 11 },
+			{ 13, 11, 7, 14, 12, 1, 3, 9, 5, 0, 15, 4, 8, 6, 2, 10 },
+			{ 6, 15, 14, 9, 11, 3, 0, 8, 12, 2, 13, 7, 1, 4, 10, 5 },
+			{ 10, 2, 8, 4, 7, 6, 1, 5, 15, 11, 9, 14, 3, 12, 13, 0 } };
+
+	static final int BLOCK_LENGTH = 128;
+	static final int MAX_DIGEST_LENGTH = 64;
+
+	private final long[] h = new long[8];
+	private final long[] v = new long[16];
+	private final long[] m = new long[16];
+	private final byte[] buffer = new byte[BLOCK_LENGTH];
+	private final byte[] word = new byte[4];
+	private int buffered;
+	private long counter;
+	private int digestLength;
+
+	Blake2b() {
+		reset(MAX_DIGEST_LENGTH);
+	}
+
+	/**
+	 * Starts a new message.
+	 *
+	 * @param digestLength
+	 *            - the length of the digest in bytes, from 1 to 64
+	 */
+	void reset(int digestLength) {
+		if (digestLength < 1 || digestLength > MAX_DIGEST_LENGTH) {
+			throw new IllegalArgumentException("Invalid BLAKE2b digest length " + digestLength);
+		}
+		this.digestLength = digestLength;
+		System.arraycopy(IV, 0, h, 0, 8);
+		h[0] ^= 0x01010000L | digestLength;
+		Arrays.fill(buffer, (byte) 0);
+		buffered = 0;
+		counter = 0;
+	}
+
+	void update(byte[] data, int offset, int length) {
+		while (length > 0) {
+			// the last block is kept until the digest, to be flagged as such
+			if (buffered == BLOCK_LENGTH) {
+				counter += BLOCK_LENGTH;
+				compress(buffer, 0, false);
+				buffered = 0;
+			}
+			int count = Math.min(length, BLOCK_LENGTH - buffered);
+			System.arraycopy(data, offset, buffer, buffered, count);
+			buffered += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	void update(byte[] data) {
+		update(data, 0, data.length);
+	}
+
+	/**
+	 * Adds a 32 bit little-endian integer to the message.
+	 */
+	void updateInt(int value) {
+		word[0] = (byte) value;
+		word[1] = (byte) (value >>> 8);
+		word[2] = (byte) (value >>> 16);
+		word[3] = (byte) (value >>> 24);
+		update(word, 0, 4);
+	}
+
+	/**
+	 * Completes the message and starts a new one of the same digest length.
+	 *
+	 * @param out
+	 *            - receives the digest
+	 * @param offset
+	 *            - where the digest starts in out
+	 */
+	void digest(byte[] out, int offset) {
+		counter += buffered;
+		Arrays.fill(buffer, buffered, BLOCK_LENGTH, (byte) 0);
+		compress(buffer, 0, true);
+		for (int i = 0; i < digestLength; i++) {
+			out[offset + i] = (byte) (h[i >> 3] >>> ((i & 7) << 3));
+		}
+		reset(digestLength);
+	}
+
+	/**
+	 * Clears the state of the last message.
+	 */
+	void clear() {
+		Arrays.fill(h, 0);
+		Arrays.fill(v, 0);
+		Arrays.fill(m, 0);
+		Arrays.fill(buffer, (byte) 0);
+	}
+
+	private void compress(byte[] block, int offset, boolean last) {
+		for (int i = 0; i < 16; i++) {
+			long value = 0;
+			for (int j = 7; j >= 0; j--) {
+				value = value << 8 | block[offset + i * 8 + j] & 0xff;
+			}
+			m[i] = value;
+		}
+		System.arraycopy(h, 0, v, 0, 8);
+		System.arraycopy(IV, 0, v, 8, 8);
+		v[12] ^= counter;
+		if (last) {
+			v[14] = ~v[14];
+		}
+		for (int round = 0; round < 12; round++) {
+			byte[] s = SIGMA[round % 10];
+			mix(0, 4, 8, 12, m[s[0]], m[s[1]]);
+			mix(1, 5, 9, 13, m[s[2]], m[s[3]]);
+			mix(2, 6, 10, 14, m[s[4]], m[s[5]]);
+			mix(3, 7, 11, 15, m[s[6]], m[s[7]]);
+			mix(0, 5, 10, 15, m[s[8]], m[s[9]]);
+			mix(1, 6, 11, 12, m[s[10]], m[s[11]]);
+			mix(2, 7, 8, 13, m[s[12]], m[s[13]]);
+			mix(3, 4, 9, 14, m[s[14]], m[s[15]]);
+		}
+		for (int i = 0; i < 8; i++) {
+			h[i] ^= v[i] ^ v[i + 8];
+		}
+	}
+
+	private void mix(int a, int b, int c, int d, long x, long y) {
+		v[a] += v[b] + x;
+		v[d] = Long.rotateRight(v[d] ^ v[a], 32);
+		v[c] += v[d];
+		v[b] = Long.rotateRight(v[b] ^ v[c], 24);
+		v[a] += v[b] + y;
+		v[d] = Long.rotateRight(v[d] ^ v[a], 16);
+		v[c] += v[d];
+		v[b] = Long.rotateRight(v[b] ^ v[c], 63);
+	}
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.Reader;
+
+/**
+ * A reader over the characters of a {@link CharSequence}, read in place
+ * rather than through a String copy. The sequence must not change while it
+ * is read.
+ *
+ * @author Drona
+ *
+ */
+final class CharSequenceReader extends Reader {
+
+	private final CharSequence chars;
+	private int position;
+	private int mark;
+
+	CharSequenceReader(CharSequence chars) {
+		this.chars = chars;
+	}
+
+	@Override
+	public int read() {
+		return position < chars.length() ? chars.charAt(position++) : -1;
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) {
+		if (len == 0) {
+			return 0;
+		}
+		int end = Math.min(chars.length(), position + len);
+		if (position >= end) {
+			return -1;
+		}
+		if (chars instanceof String) {
+			((String) chars).getChars(position, end, cbuf, off);
+		} else if (chars instanceof StringBuilder) {
+			((StringBuilder) chars).getChars(position, end, cbuf, off);
+		} else if (chars instanceof StringBuffer) {
+			((StringBuffer) chars).getChars(position, end, cbuf, off);
+		} else {
+			for (int i = position, j = off; i < end; i++, j++) {
+				cbuf[j] = chars.charAt(i);
+			}
+		}
+		int count = end - position;
+		position = end;
+		return count;
+	}
+
+	@Override
+	public long skip(long n) {
+		int count = (int) Math.max(0, Math.min(n, chars.length() - position));
+		position += count;
+		return count;
+	}
+
+	@Override
+	public boolean ready() {
+		return true;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public void mark(int readAheadLimit) {
+		mark = position;
+	}
+
+	@Override
+	public void reset() {
+		position = mark;
+	}
+
+	@Override
+	public void close() {
+	}
+
+}
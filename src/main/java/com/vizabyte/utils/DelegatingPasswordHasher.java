@@ -0,0 +1,130 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hashes new passwords with one hasher and verifies stored hashes with
+ * whichever hasher recognizes their prefix, so that an application can move
+ * to another algorithm while its users still log in with their old hashes.
+ * Hashes of any other algorithm than that of the default hasher are reported
+ * by {@link #needsRehash(String)}, to be replaced at the next login.
+ * <p>
+ * Instances are immutable and thread safe.
+ *
+ * @author Drona
+ *
+ */
+public final class DelegatingPasswordHasher implements PasswordHasher {
+
+	private final PasswordHasher defaultHasher;
+	private final List<PasswordHasher> verifiers;
+
+	/**
+	 * Creates a hasher verifying the PBKDF2, bcrypt, scrypt and Argon2id
+	 * hashes of this library, with the default settings of each.
+	 *
+	 * @param defaultHasher
+	 *            - the hasher of new hashes
+	 */
+	public DelegatingPasswordHasher(PasswordHasher defaultHasher) {
+		this(defaultHasher, new Pbkdf2PasswordHasher(), new BCryptPasswordHasher(), new ScryptPasswordHasher(),
+				new Argon2PasswordHasher());
+	}
+
+	/**
+	 * @param defaultHasher
+	 *            - the hasher of new hashes, also tried first on verification
+	 * @param verifiers
+	 *            - the hashers verifying other hashes, tried in order
+	 */
+	public DelegatingPasswordHasher(PasswordHasher defaultHasher, PasswordHasher... verifiers) {
+		if (defaultHasher == null) {
+			throw new NullPointerException();
+		}
+		PasswordHasher[] all = new PasswordHasher[verifiers.length + 1];
+		all[0] = defaultHasher;
+		System.arraycopy(verifiers, 0, all, 1, verifiers.length);
+		for (PasswordHasher verifier : all) {
+			if (verifier == null) {
+				throw new NullPointerException();
+			}
+		}
+		this.defaultHasher = defaultHasher;
+		this.verifiers = Arrays.asList(all);
+	}
+
+	/**
+	 * @return the hasher of new hashes
+	 */
+	public PasswordHasher getDefaultHasher() {
+		return defaultHasher;
+	}
+
+	public String hash(String password) {
+		return defaultHasher.hash(password);
+	}
+
+	public String hash(char[] password) {
+		return defaultHasher.hash(password);
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             - when no hasher recognizes the hash
+	 */
+	public boolean verify(String password, String encodedHash) {
+		return verifier(encodedHash).verify(password, encodedHash);
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             - when no hasher recognizes the hash
+	 */
+	public boolean verify(char[] password, String encodedHash) {
+		return verifier(encodedHash).verify(password, encodedHash);
+	}
+
+	public boolean needsRehash(String encodedHash) {
+		return defaultHasher.needsRehash(encodedHash);
+	}
+
+	public boolean supports(String encodedHash) {
+		for (PasswordHasher verifier : verifiers) {
+			if (verifier.supports(encodedHash)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private PasswordHasher verifier(String encodedHash) {
+		if (encodedHash == null) {
+			throw new NullPointerException();
+		}
+		for (PasswordHasher verifier : verifiers) {
+			if (verifier.supports(encodedHash)) {
+				return verifier;
+			}
+		}
+		int end = encodedHash.indexOf('$', 1);
+		throw new IllegalArgumentException(
+				"Unsupported hash " + (encodedHash.startsWith("$") && end > 0 ? encodedHash.substring(0, end + 1) : ""));
+	}
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Renders one {@link DocxTemplate} once per record of variable - value
+ * mappings, in parallel, and hands the documents to a {@link MailMergeSink}.
+ * <p>
+ * Records are pulled from the input only as fast as the workers render them:
+ * at most maxInFlight records are queued or being rendered at any time, so
+ * memory stays bounded however many records come in. A record that fails is
+ * reported in the {@link MailMergeResult} and does not stop the others.
+ *
+ * @author Drona
+ *
+ */
+public class DocxMailMerge {
+
+	public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+	private final DocxTemplate template;
+	private final Executor executor;
+	private final int maxInFlight;
+
+	/**
+	 * Creates a merge running on a thread pool with one thread per processor,
+	 * created for each merge and shut down when it completes.
+	 *
+	 * @param template
+	 *            - the template to merge
+	 */
+	public DocxMailMerge(DocxTemplate template) {
+		this(template, null, DEFAULT_PARALLELISM * 2);
+	}
+
+	/**
+	 * @param template
+	 *            - the template to merge
+	 * @param executor
+	 *            - the executor rendering the documents; it is not shut down
+	 * @param maxInFlight
+	 *            - the maximum number of records queued or being rendered at
+	 *            any time
+	 */
+	public DocxMailMerge(DocxTemplate template, Executor executor, int maxInFlight) {
+		if (template == null) {
+			throw new NullPointerException();
+		}
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException("maxInFlight must be positive");
+		}
+		this.template = template;
+		this.executor = executor;
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * Renders a document for every record and waits for all of them to be
+	 * written.
+	 *
+	 * @param records
+	 *            - the variable - value mappings of each document
+	 * @param sink
+	 *            - where the documents are written
+	 * @return the number of documents written and the records that failed
+	 * @throws InterruptedException
+	 *             - when the calling thread is interrupted while waiting
+	 * @throws IOException
+	 *             - when the sink cannot be finished
+	 */
+	public MailMergeResult merge(Iterable<? extends Map<String, String>> records, MailMergeSink sink)
+			throws InterruptedException, IOException {
+		if (records == null) {
+			throw new NullPointerException();
+		}
+		return merge(records.iterator(), sink);
+	}
+
+	/**
+	 * Renders a document for every record of the stream and waits for all of
+	 * them to be written.
+	 *
+	 * @param records
+	 *            - the variable - value mappings of each document
+	 * @param sink
+	 *            - where the documents are written
+	 * @return the number of documents written and the records that failed
+	 * @throws InterruptedException
+	 *             - when the calling thread is interrupted while waiting
+	 * @throws IOException
+	 *             - when the sink cannot be finished
+	 */
+	public MailMergeResult merge(Stream<? extends Map<String, String>> records, MailMergeSink sink)
+			throws InterruptedException, IOException {
+		if (records == null) {
+			throw new NullPointerException();
+		}
+		return merge(records.iterator(), sink);
+	}
+
+	/**
+	 * Renders a document for every record and waits for all of them to be
+	 * written.
+	 *
+	 * @param records
+	 *            - the variable - value mappings of each document
+	 * @param sink
+	 *            - where the documents are written
+	 * @return the number of documents written and the records that failed
+	 * @throws InterruptedException
+	 *             - when the calling thread is interrupted while waiting
+	 * @throws IOException
+	 *             - when the sink cannot be finished
+	 */
+	public MailMergeResult merge(Iterator<? extends Map<String, String>> records, final MailMergeSink sink)
+			throws InterruptedException, IOException {
+		if (records == null || sink == null) {
+			throw new NullPointerException();
+		}
+
+		ExecutorService ownExecutor = null;
+		Executor workers = executor;
+		if (workers == null) {
+			ownExecutor = Executors.newFixedThreadPool(DEFAULT_PARALLELISM);
+			workers = ownExecutor;
+		}
+
+		final Semaphore inFlight = new Semaphore(maxInFlight);
+		final AtomicInteger succeeded = new AtomicInteger();
+		final ConcurrentLinkedQueue<MailMergeResult.Failure> failures = new ConcurrentLinkedQueue<MailMergeResult.Failure>();
+		try {
+			int index = 0;
+			while (records.hasNext()) {
+				final int recordIndex = index++;
+				final Map<String, String> mappings = records.next();
+				inFlight.acquire();
+				try {
+					workers.execute(new Runnable() {
+						public void run() {
+							try {
+								sink.write(recordIndex, mappings, template);
+								succeeded.incrementAndGet();
+							} catch (Exception e) {
+								failures.add(new MailMergeResult.Failure(recordIndex, mappings, e));
+							} finally {
+								inFlight.release();
+							}
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					failures.add(new MailMergeResult.Failure(recordIndex, mappings, e));
+					inFlight.release();
+				}
+			}
+			// every permit is back once the last record has been written
+			inFlight.acquire(maxInFlight);
+			inFlight.release(maxInFlight);
+		} finally {
+			if (ownExecutor != null) {
+				ownExecutor.shutdown();
+			}
+		}
+		sink.finish();
+
+		List<MailMergeResult.Failure> sorted = new ArrayList<MailMergeResult.Failure>(failures);
+		Collections.sort(sorted, new Comparator<MailMergeResult.Failure>() {
+			public int compare(MailMergeResult.Failure a, MailMergeResult.Failure b) {
+				return a.getIndex() < b.getIndex() ? -1 : a.getIndex() == b.getIndex() ? 0 : 1;
+			}
+		});
+		return new MailMergeResult(succeeded.get(), Collections.unmodifiableList(sorted));
+	}
+
+}
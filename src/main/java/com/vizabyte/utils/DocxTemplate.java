@@ -0,0 +1,346 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+
+import org.docx4j.openpackaging.exceptions.Docx4JException;
+import org.docx4j.openpackaging.packages.WordprocessingMLPackage;
+import org.docx4j.openpackaging.parts.Part;
+import org.docx4j.openpackaging.parts.WordprocessingML.FooterPart;
+import org.docx4j.openpackaging.parts.WordprocessingML.HeaderPart;
+
+import com.vizabyte.utils.Instrumentation.Phase;
+import com.vizabyte.utils.PlaceholderIndex.Location;
+import com.vizabyte.utils.PlaceholderIndex.Placeholder;
+
+/**
+ * A .docx template that has been parsed once and can be rendered any number of
+ * times, from any number of threads, without reading or parsing the source
+ * package again.
+ * <p>
+ * Compiling loads the package with docx4j and saves it once, so the parts
+ * are in the form {@link DocxUtils#replaceVariables(InputStream, Map)} writes
+ * them. The main document part, and the headers and footers holding
+ * variables, are then split into literal text and ${variable-name} slots,
+ * which also gives the {@link PlaceholderIndex} of the template. Rendering only
+ * joins those segments with the mapped values; the other parts are copied
+ * still compressed from the saved package.
+ * <p>
+ * Like {@link DocxUtils#replaceVariables(InputStream, Map)}, rendering
+ * replaces the variables of the main document part only, unless asked to
+ * with {@link #render(Map, OutputStream, int, boolean)}, and then writes the
+ * same result as that method. Unmapped variables are replaced by their names,
+ * as docx4j does.
+ * <p>
+ * Compiled templates are cached by content hash in
+ * {@link DocxTemplateCache#getDefault()}, so compiling the same bytes twice
+ * returns the same instance.
+ *
+ * @author Drona
+ *
+ */
+public final class DocxTemplate {
+
+	private final String contentHash;
+	private final ZipArchive archive;
+	private final String mainPartName;
+	private final Map<String, TemplateText> parts;
+	private final PlaceholderIndex placeholderIndex;
+	private final long weight;
+
+	private DocxTemplate(String contentHash, ZipArchive archive, String mainPartName, Map<String, TemplateText> parts,
+			PlaceholderIndex placeholderIndex) {
+		this.contentHash = contentHash;
+		this.archive = archive;
+		this.mainPartName = mainPartName;
+		this.parts = parts;
+		this.placeholderIndex = placeholderIndex;
+		long weight = archive.getBuffer().capacity();
+		for (TemplateText part : parts.values()) {
+			weight += part.getLength();
+		}
+		this.weight = weight;
+	}
+
+	/**
+	 * Compiles a .docx template, or returns the cached compiled form of a
+	 * template with the same content.
+	 *
+	 * @param docxFile
+	 *            - input file in the .docx format
+	 * @return the compiled template
+	 * @throws Docx4JException
+	 *             - when errors are encountered while reading the input .docx
+	 *             file
+	 * @throws IOException
+	 *             - when the file cannot be read
+	 */
+	public static DocxTemplate compile(File docxFile) throws Docx4JException, IOException {
+		return DocxTemplateCache.getDefault().compile(docxFile);
+	}
+
+	/**
+	 * Compiles a .docx template, or returns the cached compiled form of a
+	 * template with the same content. The stream is read fully but not closed.
+	 *
+	 * @param docxInputStream
+	 *            - input stream on a .docx file
+	 * @return the compiled template
+	 * @throws Docx4JException
+	 *             - when errors are encountered while reading the input .docx
+	 *             file
+	 * @throws IOException
+	 *             - when the stream cannot be read
+	 */
+	public static DocxTemplate compile(InputStream docxInputStream) throws Docx4JException, IOException {
+		return DocxTemplateCache.getDefault().compile(docxInputStream);
+	}
+
+	/**
+	 * Compiles a .docx template, or returns the cached compiled form of a
+	 * template with the same content.
+	 *
+	 * @param docxBytes
+	 *            - the content of a .docx file
+	 * @return the compiled template
+	 * @throws Docx4JException
+	 *             - when errors are encountered while reading the input .docx
+	 *             file
+	 */
+	public static DocxTemplate compile(byte[] docxBytes) throws Docx4JException {
+		return DocxTemplateCache.getDefault().compile(docxBytes);
+	}
+
+	/**
+	 * Parses the given .docx content without consulting any cache.
+	 */
+	@SuppressWarnings("deprecation")
+	static DocxTemplate parse(byte[] docxBytes, String contentHash) throws Docx4JException {
+		WordprocessingMLPackage wordMLPackage = DocxUtils.load(new ByteArrayInputStream(docxBytes), docxBytes.length);
+		String mainPartName = entryName(wordMLPackage.getMainDocumentPart());
+		Map<String, Location> locations = new LinkedHashMap<String, Location>();
+		locations.put(mainPartName, Location.BODY);
+		Map<String, Location> headersAndFooters = new TreeMap<String, Location>();
+		for (Part part : wordMLPackage.getParts().getParts().values()) {
+			if (part instanceof HeaderPart) {
+				headersAndFooters.put(entryName(part), Location.HEADER);
+			} else if (part instanceof FooterPart) {
+				headersAndFooters.put(entryName(part), Location.FOOTER);
+			}
+		}
+		locations.putAll(headersAndFooters);
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(docxBytes.length);
+		// named in full, as javac warns about deprecated imports
+		new org.docx4j.openpackaging.io.SaveToZipFile(wordMLPackage).save(baos);
+
+		try {
+			ZipArchive archive = ZipArchive.open(ByteBuffer.wrap(baos.toByteArray()));
+			Map<String, TemplateText> parts = new HashMap<String, TemplateText>();
+			List<Placeholder> placeholders = new ArrayList<Placeholder>();
+			for (Map.Entry<String, Location> location : locations.entrySet()) {
+				ZipArchive.Entry entry = archive.getEntry(location.getKey());
+				if (entry == null) {
+					throw new Docx4JException(location.getKey() + " missing from the saved package");
+				}
+				InputStream in = archive.getInputStream(entry);
+				TemplateText text;
+				try {
+					text = TemplateText.parse(new String(IOUtils.toByteArray(in), StandardCharsets.UTF_8));
+				} finally {
+					IOUtils.closeQuietly(in);
+				}
+				String[] keys = text.getKeys();
+				for (int i = 0; i < keys.length; i++) {
+					placeholders.add(
+							new Placeholder(keys[i], location.getKey(), location.getValue(), text.getOffset(i)));
+				}
+				if (text.hasVariables() || location.getValue() == Location.BODY) {
+					parts.put(location.getKey(), text);
+				}
+			}
+			return new DocxTemplate(contentHash, archive, mainPartName, parts, new PlaceholderIndex(placeholders));
+		} catch (IOException e) {
+			throw new Docx4JException("Error reading the saved package", e);
+		}
+	}
+
+	private static String entryName(Part part) {
+		return part.getPartName().getName().substring(1);
+	}
+
+	/**
+	 * Replaces variables represented as ${variable-name} in the main document
+	 * part of this template with the corresponding values specified by the
+	 * variable names as the key in the input map and writes the resulting
+	 * .docx to the output stream. The stream is not closed.
+	 *
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @param out
+	 *            - the stream the .docx result is written to
+	 * @throws IOException
+	 *             - when the result cannot be written
+	 */
+	public void render(Map<String, String> mappings, OutputStream out) throws IOException {
+		render(mappings, out, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * Replaces variables represented as ${variable-name} in the main document
+	 * part of this template with the corresponding values specified by the
+	 * variable names as the key in the input map and writes the resulting
+	 * .docx to the output stream. The stream is not closed.
+	 * <p>
+	 * The other parts are copied still compressed from the compiled package;
+	 * only the main document part is deflated, at the given level.
+	 *
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @param out
+	 *            - the stream the .docx result is written to
+	 * @param compressionLevel
+	 *            - the compression level of the main document part, from
+	 *            {@link Deflater#NO_COMPRESSION} to
+	 *            {@link Deflater#BEST_COMPRESSION}, or
+	 *            {@link Deflater#DEFAULT_COMPRESSION}
+	 * @throws IOException
+	 *             - when the result cannot be written
+	 */
+	public void render(Map<String, String> mappings, OutputStream out, int compressionLevel) throws IOException {
+		render(mappings, out, compressionLevel, false);
+	}
+
+	/**
+	 * Replaces variables represented as ${variable-name} in this template with
+	 * the corresponding values specified by the variable names as the key in
+	 * the input map and writes the resulting .docx to the output stream. The
+	 * stream is not closed.
+	 * <p>
+	 * Parts without variables are copied still compressed from the compiled
+	 * package; only the main document part, and the headers and footers
+	 * holding variables when they are replaced, are deflated, at the given
+	 * level.
+	 *
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @param out
+	 *            - the stream the .docx result is written to
+	 * @param compressionLevel
+	 *            - the compression level of the parts whose variables are
+	 *            replaced, from {@link Deflater#NO_COMPRESSION} to
+	 *            {@link Deflater#BEST_COMPRESSION}, or
+	 *            {@link Deflater#DEFAULT_COMPRESSION}
+	 * @param headersAndFooters
+	 *            - whether to replace the variables of the headers and
+	 *            footers too, which {@link DocxUtils#replaceVariables(InputStream, Map)}
+	 *            leaves as they are
+	 * @throws IOException
+	 *             - when the result cannot be written
+	 */
+	public void render(Map<String, String> mappings, OutputStream out, int compressionLevel,
+			boolean headersAndFooters) throws IOException {
+		if (mappings == null || out == null) {
+			throw new NullPointerException();
+		}
+
+		long start = Instrumentation.start();
+		OutputStream counted = Instrumentation.count(out);
+		try {
+			ZipArchiveWriter writer = new ZipArchiveWriter(counted, compressionLevel);
+			for (ZipArchive.Entry entry : archive.getEntries()) {
+				TemplateText text = headersAndFooters || entry.getName().equals(mainPartName)
+						? parts.get(entry.getName()) : null;
+				if (text != null) {
+					OutputStream part = new BufferedOutputStream(writer.newEntry(entry.getName()), 8192);
+					text.render(mappings, part);
+					part.close();
+				} else {
+					writer.copy(archive, entry);
+				}
+			}
+			writer.finish();
+		} catch (Exception e) {
+			Instrumentation.error(Phase.REPLACE, e);
+			throw e;
+		}
+		Instrumentation.end(Phase.REPLACE, start, 0, Instrumentation.countOf(counted));
+	}
+
+	/**
+	 * Replaces variables represented as ${variable-name} in the main document
+	 * part of this template with the corresponding values specified by the
+	 * variable names as the key in the input map and returns the resulting
+	 * .docx as a byte array.
+	 *
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @return the result as a byte array
+	 * @throws IOException
+	 *             - when the result cannot be written
+	 */
+	public byte[] render(Map<String, String> mappings) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream((int) Math.min(weight, Integer.MAX_VALUE - 8));
+		render(mappings, baos);
+		return baos.toByteArray();
+	}
+
+	/**
+	 * @return the hex encoded SHA-256 hash of the template content
+	 */
+	public String getContentHash() {
+		return contentHash;
+	}
+
+	/**
+	 * @return the name of the zip entry holding the main document part
+	 */
+	public String getMainPartName() {
+		return mainPartName;
+	}
+
+	/**
+	 * @return the placeholders found in the body, headers and footers of this
+	 *         template
+	 */
+	public PlaceholderIndex getPlaceholderIndex() {
+		return placeholderIndex;
+	}
+
+	/**
+	 * @return the approximate number of bytes this template keeps on the heap
+	 */
+	public long getWeight() {
+		return weight;
+	}
+
+}
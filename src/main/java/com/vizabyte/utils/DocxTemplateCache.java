@@ -0,0 +1,231 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.docx4j.openpackaging.exceptions.Docx4JException;
+
+/**
+ * A bounded cache of compiled {@link DocxTemplate}s keyed by the SHA-256 hash
+ * of the template content. Templates are evicted in least recently used order
+ * once either the number of templates or their total weight exceeds the
+ * configured limits.
+ * <p>
+ * Templates are compiled outside the cache lock, so a slow compile never
+ * blocks lookups of other templates.
+ *
+ * @author Drona
+ *
+ */
+public class DocxTemplateCache {
+
+	public static final int DEFAULT_MAX_ENTRIES = 64;
+	public static final long DEFAULT_MAX_WEIGHT = 128L * 1024 * 1024;
+
+	private static final DocxTemplateCache defaultCache = new DocxTemplateCache(DEFAULT_MAX_ENTRIES,
+			DEFAULT_MAX_WEIGHT);
+
+	private final int maxEntries;
+	private final long maxWeight;
+	private final LinkedHashMap<String, DocxTemplate> templates = new LinkedHashMap<String, DocxTemplate>(16, 0.75f,
+			true);
+	private long weight;
+
+	/**
+	 * @param maxEntries
+	 *            - the maximum number of templates kept
+	 * @param maxWeight
+	 *            - the maximum number of bytes the kept templates may take
+	 */
+	public DocxTemplateCache(int maxEntries, long maxWeight) {
+		if (maxEntries < 1 || maxWeight < 1) {
+			throw new IllegalArgumentException("Cache limits must be positive");
+		}
+		this.maxEntries = maxEntries;
+		this.maxWeight = maxWeight;
+	}
+
+	/**
+	 * @return the process wide cache used by the static
+	 *         {@link DocxTemplate#compile(byte[])} methods
+	 */
+	public static DocxTemplateCache getDefault() {
+		return defaultCache;
+	}
+
+	/**
+	 * Returns the compiled template for the given file, compiling it if it is
+	 * not cached yet.
+	 *
+	 * @param docxFile
+	 *            - input file in the .docx format
+	 * @return the compiled template
+	 * @throws Docx4JException
+	 *             - when errors are encountered while reading the input .docx
+	 *             file
+	 * @throws IOException
+	 *             - when the file cannot be read
+	 */
+	public DocxTemplate compile(File docxFile) throws Docx4JException, IOException {
+		if (docxFile == null) {
+			throw new NullPointerException();
+		}
+		FileInputStream fis = new FileInputStream(docxFile);
+		try {
+			return compile(fis);
+		} finally {
+			IOUtils.closeQuietly(fis);
+		}
+	}
+
+	/**
+	 * Returns the compiled template for the content of the given stream,
+	 * compiling it if it is not cached yet. The stream is read fully but not
+	 * closed.
+	 *
+	 * @param docxInputStream
+	 *            - input stream on a .docx file
+	 * @return the compiled template
+	 * @throws Docx4JException
+	 *             - when errors are encountered while reading the input .docx
+	 *             file
+	 * @throws IOException
+	 *             - when the stream cannot be read
+	 */
+	public DocxTemplate compile(InputStream docxInputStream) throws Docx4JException, IOException {
+		if (docxInputStream == null) {
+			throw new NullPointerException();
+		}
+		return compile(IOUtils.toByteArray(docxInputStream));
+	}
+
+	/**
+	 * Returns the compiled template for the given content, compiling it if it
+	 * is not cached yet.
+	 *
+	 * @param docxBytes
+	 *            - the content of a .docx file
+	 * @return the compiled template
+	 * @throws Docx4JException
+	 *             - when errors are encountered while reading the input .docx
+	 *             file
+	 */
+	public DocxTemplate compile(byte[] docxBytes) throws Docx4JException {
+		if (docxBytes == null) {
+			throw new NullPointerException();
+		}
+		String contentHash = contentHash(docxBytes);
+		DocxTemplate template = get(contentHash);
+		Instrumentation.cacheAccess(Instrumentation.TEMPLATE_CACHE, template != null);
+		if (template == null) {
+			template = put(DocxTemplate.parse(docxBytes, contentHash));
+		}
+		return template;
+	}
+
+	/**
+	 * @param contentHash
+	 *            - the hex encoded SHA-256 hash of the template content
+	 * @return the cached template, or null when it is not cached
+	 */
+	public synchronized DocxTemplate get(String contentHash) {
+		return templates.get(contentHash);
+	}
+
+	/**
+	 * Removes the template with the given content hash from the cache.
+	 *
+	 * @param contentHash
+	 *            - the hex encoded SHA-256 hash of the template content
+	 */
+	public synchronized void invalidate(String contentHash) {
+		DocxTemplate removed = templates.remove(contentHash);
+		if (removed != null) {
+			weight -= removed.getWeight();
+		}
+	}
+
+	/**
+	 * Removes every template from the cache.
+	 */
+	public synchronized void clear() {
+		templates.clear();
+		weight = 0;
+	}
+
+	/**
+	 * @return the number of cached templates
+	 */
+	public synchronized int size() {
+		return templates.size();
+	}
+
+	/**
+	 * @return the total weight of the cached templates in bytes
+	 */
+	public synchronized long getWeight() {
+		return weight;
+	}
+
+	private synchronized DocxTemplate put(DocxTemplate template) {
+		DocxTemplate existing = templates.get(template.getContentHash());
+		if (existing != null) {
+			// another thread compiled the same content first
+			return existing;
+		}
+		templates.put(template.getContentHash(), template);
+		weight += template.getWeight();
+
+		Iterator<DocxTemplate> eldest = templates.values().iterator();
+		while ((templates.size() > maxEntries || weight > maxWeight) && templates.size() > 1) {
+			DocxTemplate evicted = eldest.next();
+			eldest.remove();
+			weight -= evicted.getWeight();
+		}
+		return template;
+	}
+
+	/**
+	 * @param content
+	 *            - the bytes to hash
+	 * @return the hex encoded SHA-256 hash of the content
+	 */
+	static String contentHash(byte[] content) {
+		try {
+			return toHex(MessageDigest.getInstance("SHA-256").digest(content));
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	static String toHex(byte[] digest) {
+		StringBuilder hex = new StringBuilder(digest.length * 2);
+		for (byte b : digest) {
+			hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return hex.toString();
+	}
+
+}
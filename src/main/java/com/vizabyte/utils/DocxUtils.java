@@ -19,26 +19,34 @@
  */
 package com.vizabyte.utils;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
 import java.util.Map;
+import java.util.zip.Deflater;
 
 import javax.xml.bind.JAXBException;
 
-import org.docx4j.Docx4J;
-import org.docx4j.convert.out.FOSettings;
 import org.docx4j.openpackaging.exceptions.Docx4JException;
 import org.docx4j.openpackaging.io.SaveToZipFile;
 import org.docx4j.openpackaging.packages.WordprocessingMLPackage;
 import org.docx4j.openpackaging.parts.WordprocessingML.MainDocumentPart;
 
+import com.vizabyte.utils.Instrumentation.Phase;
+
 public class DocxUtils {
 	
 	/**
@@ -62,7 +70,7 @@ public class DocxUtils {
 		if (documentPart == null || mappings == null){
 			throw new NullPointerException();
 		}
-		documentPart.variableReplace(mappings);
+		replace(documentPart, mappings);
 		return documentPart;
 	}
 	
@@ -70,7 +78,8 @@ public class DocxUtils {
 	 * Replaces variables represented as ${variable-name} inside an input file
 	 * in the .docx file format to the corresponding values specified by the
 	 * variables names as the key in the input map and replaces the contents of
-	 * the original file with the result.
+	 * the original file with the result. The result is written to a temporary
+	 * file renamed over the original, which a failed save leaves untouched.
 	 * 
 	 * @param docxFile
 	 *            - input file in the .docx format
@@ -94,14 +103,12 @@ public class DocxUtils {
 			throw new NullPointerException();
 		}
 		
-		WordprocessingMLPackage wordMLPackage = WordprocessingMLPackage
-				.load(docxFile);
+		WordprocessingMLPackage wordMLPackage = load(docxFile);
 		MainDocumentPart documentPart = wordMLPackage.getMainDocumentPart();
 		
-		documentPart.variableReplace(mappings);
+		replace(documentPart, mappings);
 		
-		SaveToZipFile saver = new SaveToZipFile(wordMLPackage);
-		saver.save(docxFile.getCanonicalPath());
+		save(wordMLPackage, docxFile.getCanonicalFile());
 		return docxFile;
 	}
 
@@ -109,7 +116,7 @@ public class DocxUtils {
 	 * Replaces variables represented as ${variable-name} inside an input file
 	 * in the .docx file format to the corresponding values specified by the
 	 * variables names as the key in the input map and saves the result in the
-	 * file location specified by the outFile.
+	 * file location specified by the outFile, atomically.
 	 * 
 	 * @param docxFile
 	 *            - input file in the .docx format
@@ -123,7 +130,7 @@ public class DocxUtils {
 	 *             the input file
 	 * @throws Docx4JException
 	 *             - when errors are encountered while reading the input .docx
-	 *             file
+	 *             file or writing the output file
 	 */
 	@SuppressWarnings("deprecation")
 	public static File replaceVariables(File docxFile, Map<String, String> mappings, File outFile) throws Docx4JException, JAXBException{
@@ -131,14 +138,12 @@ public class DocxUtils {
 			throw new NullPointerException();
 		}
 		
-		WordprocessingMLPackage wordMLPackage = WordprocessingMLPackage
-				.load(docxFile);
+		WordprocessingMLPackage wordMLPackage = load(docxFile);
 		MainDocumentPart documentPart = wordMLPackage.getMainDocumentPart();
 		
-		documentPart.variableReplace(mappings);
+		replace(documentPart, mappings);
 		
-		SaveToZipFile saver = new SaveToZipFile(wordMLPackage);
-		saver.save(outFile);
+		save(wordMLPackage, outFile);
 		return outFile;
 	}
 	
@@ -146,6 +151,11 @@ public class DocxUtils {
 	 * Replaces variables represented as ${variable-name} inside an input stream
 	 * on a .docx file to the corresponding values specified by the variables
 	 * names as the key in the input map and returns the result as a byte array.
+	 * <p>
+	 * The whole main document part is searched for variables on every call;
+	 * no {@link PlaceholderIndex} is used. Compile templates rendered many
+	 * times with {@link DocxTemplate#compile(InputStream)}, which finds them
+	 * once.
 	 * 
 	 * @param docxInputStream
 	 *            - input stream on a .docx file
@@ -165,28 +175,487 @@ public class DocxUtils {
 		}
 		
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		
-		WordprocessingMLPackage wordMLPackage = WordprocessingMLPackage
-				.load(docxInputStream);
-		MainDocumentPart documentPart = wordMLPackage.getMainDocumentPart();
-		
-		documentPart.variableReplace(mappings);
-		
-		SaveToZipFile saver = new SaveToZipFile(wordMLPackage);
-		saver.save(baos);
+		replaceVariables(docxInputStream, mappings, baos);
 		return baos.toByteArray();
 	}
+
+	/**
+	 * Replaces variables represented as ${variable-name} inside an input stream
+	 * on a .docx file as {@link #replaceVariables(InputStream, Map)} does, and
+	 * writes the result straight to the output stream instead of holding it
+	 * in memory. Neither stream is closed.
+	 * 
+	 * @param docxInputStream
+	 *            - input stream on a .docx file
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @param out
+	 *            - the stream the .docx result is written to
+	 * @throws JAXBException
+	 *             - when errors are encountered while replacing variables in
+	 *             the input file
+	 * @throws Docx4JException
+	 *             - when errors are encountered while reading the input .docx
+	 *             file or writing the result
+	 */
+	public static void replaceVariables(InputStream docxInputStream, Map<String, String> mappings, OutputStream out)
+			throws JAXBException, Docx4JException {
+		if (docxInputStream == null || mappings == null || out == null) {
+			throw new NullPointerException();
+		}
+		WordprocessingMLPackage wordMLPackage = load(docxInputStream, -1);
+		replace(wordMLPackage.getMainDocumentPart(), mappings);
+		// the package is saved through a zip stream that closes what it writes to
+		save(wordMLPackage, new FilterOutputStream(out) {
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+
+			@Override
+			public void close() throws IOException {
+				flush();
+			}
+		});
+	}
+
+	/**
+	 * Replaces variables represented as ${variable-name} inside an input stream
+	 * on a .docx file as {@link #replaceVariables(InputStream, Map)} does, and
+	 * writes the result to a blocking channel. Neither the stream nor the
+	 * channel is closed.
+	 * 
+	 * @param docxInputStream
+	 *            - input stream on a .docx file
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @param channel
+	 *            - the channel the .docx result is written to
+	 * @throws JAXBException
+	 *             - when errors are encountered while replacing variables in
+	 *             the input file
+	 * @throws Docx4JException
+	 *             - when errors are encountered while reading the input .docx
+	 *             file
+	 * @throws IOException
+	 *             - when the channel fails
+	 */
+	public static void replaceVariables(InputStream docxInputStream, Map<String, String> mappings,
+			WritableByteChannel channel) throws JAXBException, Docx4JException, IOException {
+		if (channel == null) {
+			throw new NullPointerException();
+		}
+		OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+		replaceVariables(docxInputStream, mappings, out);
+		out.flush();
+	}
+
+	/**
+	 * Replaces variables represented as ${variable-name} inside an input stream
+	 * on a .docx file as {@link #replaceVariables(InputStream, Map)} does, and
+	 * saves the result in the given file. The result is written to a
+	 * temporary file in the same directory, renamed over the target once
+	 * complete, so the target never holds a partial document. The stream is
+	 * not closed.
+	 * 
+	 * @param docxInputStream
+	 *            - input stream on a .docx file
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @param outPath
+	 *            - output file
+	 * @return - the output file
+	 * @throws JAXBException
+	 *             - when errors are encountered while replacing variables in
+	 *             the input file
+	 * @throws Docx4JException
+	 *             - when errors are encountered while reading the input .docx
+	 *             file
+	 * @throws IOException
+	 *             - when the output file cannot be written
+	 */
+	public static Path replaceVariables(InputStream docxInputStream, Map<String, String> mappings, Path outPath)
+			throws JAXBException, Docx4JException, IOException {
+		if (docxInputStream == null || mappings == null || outPath == null) {
+			throw new NullPointerException();
+		}
+		AtomicFileOutputStream out = new AtomicFileOutputStream(outPath);
+		try {
+			replaceVariables(docxInputStream, mappings, out);
+			out.commit();
+		} finally {
+			out.discard();
+		}
+		return outPath;
+	}
 	
-	public static void toPdf(InputStream isDocument, OutputStream pdfStream) throws Docx4JException {
-		WordprocessingMLPackage wordMLPackage = WordprocessingMLPackage.load(isDocument);
-		FOSettings foSettings = Docx4J.createFOSettings();
-		foSettings.setWmlPackage(wordMLPackage);
-		Docx4J.toFO(foSettings, pdfStream, Docx4J.FLAG_EXPORT_PREFER_XSL);
-		
-		// Clean up, so any ObfuscatedFontPart temp files can be deleted
-		if (wordMLPackage.getMainDocumentPart().getFontTablePart() != null) {
-			wordMLPackage.getMainDocumentPart().getFontTablePart().deleteEmbeddedFontTempFiles();
+	/**
+	 * Replaces variables represented as ${variable-name} inside an input stream
+	 * on a .docx file as {@link #replaceVariables(InputStream, Map)} does,
+	 * unless the same template content was rendered with the same mappings
+	 * before, in which case the cached result is returned. The stream is read
+	 * fully but not closed.
+	 * 
+	 * @param docxInputStream
+	 *            - input stream on a .docx file
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @param cache
+	 *            - the cache of rendered results
+	 * @return - the result as a byte array
+	 * @throws JAXBException
+	 *             - when errors are encountered while replacing variables in
+	 *             the input file
+	 * @throws Docx4JException
+	 *             - when errors are encountered while reading the input .docx
+	 *             file
+	 * @throws IOException
+	 *             - when the stream cannot be read
+	 */
+	public static byte[] replaceVariables(InputStream docxInputStream, Map<String, String> mappings, RenderCache cache)
+			throws JAXBException, Docx4JException, IOException {
+		if (docxInputStream == null || mappings == null || cache == null) {
+			throw new NullPointerException();
+		}
+		byte[] template = IOUtils.toByteArray(docxInputStream);
+		String key = RenderCache.key(RenderCache.DOCX, DocxTemplateCache.contentHash(template), mappings);
+		byte[] result = cache.get(key);
+		if (result == null) {
+			result = replaceVariables(new ByteArrayInputStream(template), mappings);
+			cache.put(key, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Replaces variables represented as ${variable-name} inside an input stream
+	 * on a .docx file to the corresponding values specified by the variables
+	 * names as the key in the input map and writes the result to the output
+	 * stream. Neither stream is closed.
+	 * <p>
+	 * Only the main document part is marshalled and compressed again, at the
+	 * given level. Every other part, such as images, fonts, styles and themes,
+	 * is copied still compressed from the input package.
+	 * 
+	 * @param docxInputStream
+	 *            - input stream on a .docx file
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @param out
+	 *            - the stream the .docx result is written to
+	 * @param compressionLevel
+	 *            - the compression level of the main document part, from
+	 *            {@link Deflater#NO_COMPRESSION} to
+	 *            {@link Deflater#BEST_COMPRESSION}, or
+	 *            {@link Deflater#DEFAULT_COMPRESSION}
+	 * @throws JAXBException
+	 *             - when errors are encountered while replacing variables in
+	 *             the input file
+	 * @throws Docx4JException
+	 *             - when errors are encountered while reading the input .docx
+	 *             file
+	 * @throws IOException
+	 *             - when either stream fails
+	 */
+	public static void replaceVariables(InputStream docxInputStream, Map<String, String> mappings, OutputStream out,
+			int compressionLevel) throws JAXBException, Docx4JException, IOException {
+		if (docxInputStream == null || mappings == null || out == null) {
+			throw new NullPointerException();
+		}
+		ZipArchive source = ZipArchive.open(ByteBuffer.wrap(IOUtils.toByteArray(docxInputStream)));
+		replaceVariables(source, mappings, out, compressionLevel);
+	}
+
+	/**
+	 * Replaces variables represented as ${variable-name} inside an input file
+	 * in the .docx file format to the corresponding values specified by the
+	 * variables names as the key in the input map and saves the result in the
+	 * file location specified by the outFile.
+	 * <p>
+	 * Only the main document part is marshalled and compressed again, at the
+	 * given level. Every other part is copied still compressed from the input
+	 * file. The result is written to a temporary file renamed over the output
+	 * file once complete.
+	 * 
+	 * @param docxFile
+	 *            - input file in the .docx format
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @param outFile
+	 *            - output file
+	 * @param compressionLevel
+	 *            - the compression level of the main document part, from
+	 *            {@link Deflater#NO_COMPRESSION} to
+	 *            {@link Deflater#BEST_COMPRESSION}, or
+	 *            {@link Deflater#DEFAULT_COMPRESSION}
+	 * @return - the output file
+	 * @throws JAXBException
+	 *             - when errors are encountered while replacing variables in
+	 *             the input file
+	 * @throws Docx4JException
+	 *             - when errors are encountered while reading the input .docx
+	 *             file
+	 * @throws IOException
+	 *             - when either file cannot be accessed
+	 */
+	public static File replaceVariables(File docxFile, Map<String, String> mappings, File outFile,
+			int compressionLevel) throws JAXBException, Docx4JException, IOException {
+		if (docxFile == null || mappings == null || outFile == null) {
+			throw new NullPointerException();
+		}
+		ZipArchive source = openArchive(docxFile, outFile);
+		AtomicFileOutputStream out = new AtomicFileOutputStream(outFile.toPath());
+		try {
+			replaceVariables(source, mappings, out, compressionLevel);
+			out.commit();
+		} finally {
+			out.discard();
+		}
+		return outFile;
+	}
+
+	private static void replaceVariables(ZipArchive source, Map<String, String> mappings, OutputStream out,
+			int compressionLevel) throws JAXBException, Docx4JException, IOException {
+		ByteBuffer buffer = source.getBuffer();
+		WordprocessingMLPackage wordMLPackage = load(new ByteBufferInputStream(buffer), buffer.remaining());
+		MainDocumentPart documentPart = wordMLPackage.getMainDocumentPart();
+
+		replace(documentPart, mappings);
+
+		long start = Instrumentation.start();
+		OutputStream counted = Instrumentation.count(out);
+		try {
+			String mainPartName = documentPart.getPartName().getName().substring(1);
+			ZipArchiveWriter writer = new ZipArchiveWriter(counted, compressionLevel);
+			for (ZipArchive.Entry entry : source.getEntries()) {
+				if (entry.getName().equals(mainPartName)) {
+					OutputStream part = writer.newEntry(mainPartName);
+					documentPart.marshal(part);
+					part.close();
+				} else {
+					writer.copy(source, entry);
+				}
+			}
+			writer.finish();
+		} catch (Exception e) {
+			Instrumentation.error(Phase.SAVE, e);
+			throw e;
+		}
+		Instrumentation.end(Phase.SAVE, start, 0, Instrumentation.countOf(counted));
+	}
+
+	private static WordprocessingMLPackage load(File docxFile) throws Docx4JException {
+		long start = Instrumentation.start();
+		try {
+			WordprocessingMLPackage wordMLPackage = WordprocessingMLPackage.load(docxFile);
+			Instrumentation.end(Phase.LOAD, start, start == 0 ? 0 : docxFile.length(), 0);
+			return wordMLPackage;
+		} catch (Exception e) {
+			Instrumentation.error(Phase.LOAD, e);
+			throw e;
+		}
+	}
+
+	/**
+	 * @param length
+	 *            - the length of the package, or -1 to count the bytes read
+	 */
+	static WordprocessingMLPackage load(InputStream docxInputStream, long length) throws Docx4JException {
+		long start = Instrumentation.start();
+		InputStream in = length < 0 ? Instrumentation.count(docxInputStream) : docxInputStream;
+		try {
+			WordprocessingMLPackage wordMLPackage = WordprocessingMLPackage.load(in);
+			Instrumentation.end(Phase.LOAD, start, length < 0 ? Instrumentation.countOf(in) : length, 0);
+			return wordMLPackage;
+		} catch (Exception e) {
+			Instrumentation.error(Phase.LOAD, e);
+			throw e;
+		}
+	}
+
+	private static void replace(MainDocumentPart documentPart, Map<String, String> mappings)
+			throws JAXBException, Docx4JException {
+		long start = Instrumentation.start();
+		try {
+			documentPart.variableReplace(mappings);
+		} catch (Exception e) {
+			Instrumentation.error(Phase.REPLACE, e);
+			throw e;
 		}
+		Instrumentation.end(Phase.REPLACE, start, 0, 0);
+	}
+
+	@SuppressWarnings("deprecation")
+	private static void save(WordprocessingMLPackage wordMLPackage, OutputStream out) throws Docx4JException {
+		long start = Instrumentation.start();
+		OutputStream counted = Instrumentation.count(out);
+		try {
+			new SaveToZipFile(wordMLPackage).save(counted);
+		} catch (Exception e) {
+			Instrumentation.error(Phase.SAVE, e);
+			throw e;
+		}
+		Instrumentation.end(Phase.SAVE, start, 0, Instrumentation.countOf(counted));
+	}
+
+	/**
+	 * Saves the package through a temporary file renamed over the output file
+	 * once complete, so that a failed save leaves the output file, which may
+	 * be the template itself, as it was.
+	 */
+	private static void save(WordprocessingMLPackage wordMLPackage, File outFile) throws Docx4JException {
+		try {
+			AtomicFileOutputStream out = new AtomicFileOutputStream(outFile.toPath());
+			try {
+				save(wordMLPackage, out);
+				out.commit();
+			} finally {
+				out.discard();
+			}
+		} catch (IOException e) {
+			throw new Docx4JException("Error saving " + outFile, e);
+		}
+	}
+
+	/**
+	 * Maps the input file, unless it is also the output file, in which case it
+	 * is read into memory before the output truncates it.
+	 */
+	private static ZipArchive openArchive(File docxFile, File outFile) throws IOException {
+		if (docxFile.getCanonicalFile().equals(outFile.getCanonicalFile())) {
+			FileInputStream fis = new FileInputStream(docxFile);
+			try {
+				return ZipArchive.open(ByteBuffer.wrap(IOUtils.toByteArray(fis)));
+			} finally {
+				IOUtils.closeQuietly(fis);
+			}
+		}
+		return ZipArchive.open(docxFile);
+	}
+
+	/**
+	 * Replaces variables represented as ${variable-name} inside an input stream
+	 * on a .docx file to the corresponding values specified by the variables
+	 * names as the key in the input map and writes the result to the output
+	 * stream in a single streaming pass. Neither stream is closed.
+	 * <p>
+	 * Unlike {@link #replaceVariables(InputStream, Map)} the main document part
+	 * is never unmarshalled: it is read with StAX and written straight to the
+	 * output, holding only one paragraph in memory at a time. Variables split
+	 * across several runs of a paragraph are replaced as well, and the other
+	 * parts of the package are copied through unchanged.
+	 * 
+	 * @param docxInputStream
+	 *            - input stream on a .docx file
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @param out
+	 *            - the stream the .docx result is written to
+	 * @throws Docx4JException
+	 *             - when errors are encountered while reading the main
+	 *             document part
+	 * @throws IOException
+	 *             - when either stream fails
+	 */
+	public static void replaceVariablesStreaming(InputStream docxInputStream, Map<String, String> mappings,
+			OutputStream out) throws Docx4JException, IOException {
+		if (docxInputStream == null || mappings == null || out == null) {
+			throw new NullPointerException();
+		}
+		long start = Instrumentation.start();
+		InputStream in = Instrumentation.count(docxInputStream);
+		OutputStream counted = Instrumentation.count(out);
+		try {
+			StreamingVariableReplacer.replace(in, mappings, counted);
+		} catch (Exception e) {
+			Instrumentation.error(Phase.REPLACE, e);
+			throw e;
+		}
+		Instrumentation.end(Phase.REPLACE, start, Instrumentation.countOf(in), Instrumentation.countOf(counted));
+	}
+
+	/**
+	 * Replaces variables represented as ${variable-name} inside an input file
+	 * in the .docx file format to the corresponding values specified by the
+	 * variables names as the key in the input map in a single streaming pass
+	 * and saves the result in the file location specified by the outFile.
+	 * 
+	 * @param docxFile
+	 *            - input file in the .docx format
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @param outFile
+	 *            - output file
+	 * @return - the output file
+	 * @throws Docx4JException
+	 *             - when errors are encountered while reading the main
+	 *             document part
+	 * @throws IOException
+	 *             - when either file cannot be accessed
+	 * @see #replaceVariablesStreaming(File, Map, File, int)
+	 */
+	public static File replaceVariablesStreaming(File docxFile, Map<String, String> mappings, File outFile)
+			throws Docx4JException, IOException {
+		return replaceVariablesStreaming(docxFile, mappings, outFile, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * Replaces variables represented as ${variable-name} inside an input file
+	 * in the .docx file format to the corresponding values specified by the
+	 * variables names as the key in the input map in a single streaming pass
+	 * and saves the result in the file location specified by the outFile.
+	 * <p>
+	 * The main document part is streamed as described in
+	 * {@link #replaceVariablesStreaming(InputStream, Map, OutputStream)} and
+	 * compressed at the given level. Every other part is copied still
+	 * compressed from the input file. The result is written to a temporary
+	 * file renamed over the output file once complete.
+	 * 
+	 * @param docxFile
+	 *            - input file in the .docx format
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @param outFile
+	 *            - output file
+	 * @param compressionLevel
+	 *            - the compression level of the main document part, from
+	 *            {@link Deflater#NO_COMPRESSION} to
+	 *            {@link Deflater#BEST_COMPRESSION}, or
+	 *            {@link Deflater#DEFAULT_COMPRESSION}
+	 * @return - the output file
+	 * @throws Docx4JException
+	 *             - when errors are encountered while reading the main
+	 *             document part
+	 * @throws IOException
+	 *             - when either file cannot be accessed
+	 */
+	public static File replaceVariablesStreaming(File docxFile, Map<String, String> mappings, File outFile,
+			int compressionLevel) throws Docx4JException, IOException {
+		if (docxFile == null || mappings == null || outFile == null) {
+			throw new NullPointerException();
+		}
+		ZipArchive source = openArchive(docxFile, outFile);
+		AtomicFileOutputStream out = new AtomicFileOutputStream(outFile.toPath());
+		try {
+			long start = Instrumentation.start();
+			OutputStream counted = Instrumentation.count(out);
+			try {
+				StreamingVariableReplacer.replace(source, mappings, counted, compressionLevel);
+			} catch (Exception e) {
+				Instrumentation.error(Phase.REPLACE, e);
+				throw e;
+			}
+			Instrumentation.end(Phase.REPLACE, start, source.getBuffer().remaining(), Instrumentation.countOf(counted));
+			out.commit();
+		} finally {
+			out.discard();
+		}
+		return outFile;
+	}
+	
+	public static void toPdf(InputStream isDocument, OutputStream pdfStream) throws Docx4JException {
+		WordprocessingMLPackage wordMLPackage = load(isDocument, -1);
+		PdfConversionService.toPdf(wordMLPackage, pdfStream);
 	}
 			
 	public static void toPdf(File inputDocxFile, File outputPdfFile) throws FileNotFoundException, Docx4JException{
@@ -209,4 +678,186 @@ public class DocxUtils {
 		toPdf(inputFile, outputFile);
 	}
 
+	/**
+	 * Replaces variables represented as ${variable-name} inside an input stream
+	 * on a .docx template to the corresponding values specified by the
+	 * variables names as the key in the input map and converts the result to
+	 * PDF. Neither stream is closed.
+	 * <p>
+	 * The template is loaded once and the package with the variables replaced
+	 * is converted as it is in memory, without saving it as a .docx and
+	 * loading it again as {@link #replaceVariables(InputStream, Map)} followed
+	 * by {@link #toPdf(InputStream, OutputStream)} would.
+	 * 
+	 * @param docxInputStream
+	 *            - input stream on a .docx template
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @param pdfStream
+	 *            - the stream the PDF is written to
+	 * @throws JAXBException
+	 *             - when errors are encountered while replacing variables in
+	 *             the template
+	 * @throws Docx4JException
+	 *             - when errors are encountered while reading the template or
+	 *             converting it to PDF
+	 */
+	public static void toPdf(InputStream docxInputStream, Map<String, String> mappings, OutputStream pdfStream)
+			throws JAXBException, Docx4JException {
+		if (docxInputStream == null || mappings == null || pdfStream == null) {
+			throw new NullPointerException();
+		}
+		WordprocessingMLPackage wordMLPackage = load(docxInputStream, -1);
+		replace(wordMLPackage.getMainDocumentPart(), mappings);
+		PdfConversionService.toPdf(wordMLPackage, pdfStream);
+	}
+
+	/**
+	 * Replaces variables represented as ${variable-name} inside an input stream
+	 * on a .docx template and converts the result to PDF as
+	 * {@link #toPdf(InputStream, Map, OutputStream)} does, unless the same
+	 * template content was converted with the same mappings before, in which
+	 * case the cached PDF is written. Neither stream is closed.
+	 * 
+	 * @param docxInputStream
+	 *            - input stream on a .docx template
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @param pdfStream
+	 *            - the stream the PDF is written to
+	 * @param cache
+	 *            - the cache of rendered results
+	 * @throws JAXBException
+	 *             - when errors are encountered while replacing variables in
+	 *             the template
+	 * @throws Docx4JException
+	 *             - when errors are encountered while reading the template or
+	 *             converting it to PDF
+	 * @throws IOException
+	 *             - when either stream fails
+	 */
+	public static void toPdf(InputStream docxInputStream, Map<String, String> mappings, OutputStream pdfStream,
+			RenderCache cache) throws JAXBException, Docx4JException, IOException {
+		if (docxInputStream == null || mappings == null || pdfStream == null || cache == null) {
+			throw new NullPointerException();
+		}
+		byte[] template = IOUtils.toByteArray(docxInputStream);
+		String key = RenderCache.key(RenderCache.PDF, DocxTemplateCache.contentHash(template), mappings);
+		byte[] pdf = cache.lookup(key);
+		if (pdf == null) {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			toPdf(new ByteArrayInputStream(template), mappings, baos);
+			pdf = baos.toByteArray();
+			cache.store(key, pdf);
+		}
+		pdfStream.write(pdf);
+	}
+
+	/**
+	 * Replaces variables represented as ${variable-name} inside an input stream
+	 * on a .docx template and converts the result to PDF as
+	 * {@link #toPdf(InputStream, Map, OutputStream)} does, writing it to a
+	 * blocking channel. Neither the stream nor the channel is closed.
+	 * 
+	 * @param docxInputStream
+	 *            - input stream on a .docx template
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @param channel
+	 *            - the channel the PDF is written to
+	 * @throws JAXBException
+	 *             - when errors are encountered while replacing variables in
+	 *             the template
+	 * @throws Docx4JException
+	 *             - when errors are encountered while reading the template or
+	 *             converting it to PDF
+	 * @throws IOException
+	 *             - when the channel fails
+	 */
+	public static void toPdf(InputStream docxInputStream, Map<String, String> mappings, WritableByteChannel channel)
+			throws JAXBException, Docx4JException, IOException {
+		if (channel == null) {
+			throw new NullPointerException();
+		}
+		OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+		toPdf(docxInputStream, mappings, out);
+		out.flush();
+	}
+
+	/**
+	 * Replaces variables represented as ${variable-name} inside an input stream
+	 * on a .docx template and converts the result to PDF as
+	 * {@link #toPdf(InputStream, Map, OutputStream)} does, saving it in the
+	 * given file. The PDF is written to a temporary file in the same
+	 * directory, renamed over the target once complete. The stream is not
+	 * closed.
+	 * 
+	 * @param docxInputStream
+	 *            - input stream on a .docx template
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @param pdfPath
+	 *            - output file
+	 * @return - the output file
+	 * @throws JAXBException
+	 *             - when errors are encountered while replacing variables in
+	 *             the template
+	 * @throws Docx4JException
+	 *             - when errors are encountered while reading the template or
+	 *             converting it to PDF
+	 * @throws IOException
+	 *             - when the output file cannot be written
+	 */
+	public static Path toPdf(InputStream docxInputStream, Map<String, String> mappings, Path pdfPath)
+			throws JAXBException, Docx4JException, IOException {
+		if (docxInputStream == null || mappings == null || pdfPath == null) {
+			throw new NullPointerException();
+		}
+		AtomicFileOutputStream out = new AtomicFileOutputStream(pdfPath);
+		try {
+			toPdf(docxInputStream, mappings, out);
+			out.commit();
+		} finally {
+			out.discard();
+		}
+		return pdfPath;
+	}
+
+	/**
+	 * Replaces variables represented as ${variable-name} inside a .docx
+	 * template file to the corresponding values specified by the variables
+	 * names as the key in the input map and saves the result as PDF in the file
+	 * location specified by the outputPdfFile, through a temporary file renamed
+	 * over it once complete.
+	 * 
+	 * @param docxFile
+	 *            - the template in the .docx format
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @param outputPdfFile
+	 *            - output file
+	 * @return - the output file
+	 * @throws JAXBException
+	 *             - when errors are encountered while replacing variables in
+	 *             the template
+	 * @throws Docx4JException
+	 *             - when errors are encountered while reading the template or
+	 *             converting it to PDF
+	 * @throws IOException
+	 *             - when either file cannot be opened
+	 */
+	public static File toPdf(File docxFile, Map<String, String> mappings, File outputPdfFile)
+			throws JAXBException, Docx4JException, IOException {
+		if (docxFile == null || mappings == null || outputPdfFile == null) {
+			throw new NullPointerException();
+		}
+		FileInputStream fis = new FileInputStream(docxFile);
+		try {
+			toPdf(fis, mappings, outputPdfFile.toPath());
+		} finally {
+			IOUtils.closeQuietly(fis);
+		}
+		return outputPdfFile;
+	}
+
 }
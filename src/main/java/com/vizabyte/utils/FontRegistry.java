@@ -0,0 +1,254 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.docx4j.fonts.Mapper;
+import org.docx4j.fonts.PhysicalFont;
+import org.docx4j.fonts.PhysicalFonts;
+import org.docx4j.fonts.fop.fonts.FontCache;
+import org.docx4j.openpackaging.exceptions.Docx4JException;
+import org.docx4j.openpackaging.packages.WordprocessingMLPackage;
+import org.docx4j.openpackaging.parts.WordprocessingML.FontTablePart;
+import org.docx4j.wml.Fonts;
+
+/**
+ * The process wide registry of the physical fonts available to PDF export.
+ * <p>
+ * The font directories of the system are scanned once per process, on the
+ * first conversion or on an explicit {@link #warmUp()} at startup. The font
+ * metrics read while scanning can be kept in a cache file, so a later process
+ * only reads the font files that are new or changed since.
+ * <p>
+ * Each conversion gets its own light font mapper, resolving document fonts
+ * against the registry, because docx4j registers the fonts embedded in a
+ * document with the mapper of that document. The embedded fonts are written
+ * to temporary files named after the time they are extracted; the registry
+ * makes sure no two documents extract within the same millisecond, so
+ * cleaning up after one conversion never deletes the fonts of another.
+ *
+ * @author Drona
+ *
+ */
+public final class FontRegistry {
+
+	private static final ReentrantLock warmUpLock = new ReentrantLock();
+	private static final ReentrantLock embeddingLock = new ReentrantLock();
+
+	private static volatile boolean warm;
+	private static long lastEmbedding;
+
+	private FontRegistry() {
+	}
+
+	/**
+	 * Scans the system fonts unless that has been done already. Safe to call
+	 * from any number of threads; only the first call does any work.
+	 *
+	 * @throws Docx4JException
+	 *             - when the fonts cannot be scanned
+	 */
+	public static void warmUp() throws Docx4JException {
+		warmUp(null);
+	}
+
+	/**
+	 * Scans the system fonts unless that has been done already, reading and
+	 * updating the font metrics kept in the given cache file. The cache file
+	 * only has an effect on the call that does the scan.
+	 *
+	 * @param cacheFile
+	 *            - the font cache file; it is created when missing, and null
+	 *            uses the default docx4j cache in the user home directory
+	 * @throws Docx4JException
+	 *             - when the fonts cannot be scanned, or the cache file cannot
+	 *             be written, in which case the fonts are usable nonetheless
+	 */
+	public static void warmUp(File cacheFile) throws Docx4JException {
+		if (warm) {
+			return;
+		}
+		// a lock rather than a monitor, so virtual threads waiting on the
+		// font scan do not pin their carrier threads
+		warmUpLock.lock();
+		try {
+			if (warm) {
+				return;
+			}
+			try {
+				if (cacheFile != null) {
+					FontCacheAccess.load(cacheFile);
+				}
+				PhysicalFonts.discoverPhysicalFonts();
+			} catch (Exception e) {
+				throw new Docx4JException("Error scanning the system fonts", e);
+			}
+			warm = true;
+			if (cacheFile != null) {
+				try {
+					FontCacheAccess.saveTo(cacheFile);
+				} catch (IOException e) {
+					throw new Docx4JException("Error writing the font cache " + cacheFile, e);
+				}
+			}
+		} finally {
+			warmUpLock.unlock();
+		}
+	}
+
+	/**
+	 * @return true once the system fonts have been scanned
+	 */
+	public static boolean isWarm() {
+		return warm;
+	}
+
+	/**
+	 * @param fontName
+	 *            - the name of a font as used in documents
+	 * @return the physical font of that name, or null when there is none
+	 * @throws Docx4JException
+	 *             - when the fonts cannot be scanned
+	 */
+	public static PhysicalFont getPhysicalFont(String fontName) throws Docx4JException {
+		if (fontName == null) {
+			throw new NullPointerException();
+		}
+		warmUp();
+		return PhysicalFonts.get(fontName);
+	}
+
+	/**
+	 * Gives the package a font mapper backed by the registry, extracting its
+	 * embedded fonts. {@link #release(WordprocessingMLPackage)} must be called
+	 * once the package has been converted.
+	 */
+	static void prepare(WordprocessingMLPackage wordMLPackage) throws Docx4JException {
+		warmUp();
+		try {
+			if (wordMLPackage.getMainDocumentPart().getFontTablePart() == null) {
+				wordMLPackage.setFontMapper(new RegistryFontMapper());
+				return;
+			}
+			embeddingLock.lock();
+			try {
+				// the temporary files of the embedded fonts are prefixed with
+				// the current time in milliseconds
+				long now = System.currentTimeMillis();
+				while (now <= lastEmbedding) {
+					Thread.sleep(1);
+					now = System.currentTimeMillis();
+				}
+				lastEmbedding = now;
+				wordMLPackage.setFontMapper(new RegistryFontMapper());
+			} finally {
+				embeddingLock.unlock();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new Docx4JException("Interrupted while setting up fonts", e);
+		} catch (Exception e) {
+			throw new Docx4JException("Error setting up the document fonts", e);
+		}
+	}
+
+	/**
+	 * Deletes the temporary files of the fonts embedded in the package.
+	 */
+	static void release(WordprocessingMLPackage wordMLPackage) {
+		FontTablePart fontTablePart = wordMLPackage.getMainDocumentPart().getFontTablePart();
+		if (fontTablePart != null) {
+			fontTablePart.deleteEmbeddedFontTempFiles();
+		}
+	}
+
+	/**
+	 * Maps document fonts to the physical font of the same name, or to the
+	 * font embedded in the document, like the docx4j IdentityPlusMapper but
+	 * without scanning the system fonts again.
+	 */
+	private static final class RegistryFontMapper extends Mapper {
+
+		@Override
+		public void populateFontMappings(Set<String> documentFontNames, Fonts wmlFonts) {
+			for (String fontName : documentFontNames) {
+				PhysicalFont font = PhysicalFonts.get(fontName);
+				if (font == null) {
+					font = regularForms.get(fontName);
+				}
+				if (font == null) {
+					font = boldForms.get(fontName);
+				}
+				if (font == null) {
+					font = italicForms.get(fontName);
+				}
+				if (font == null) {
+					font = boldItalicForms.get(fontName);
+				}
+				if (font != null) {
+					put(fontName, font);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reaches the font metrics cache docx4j keeps for the font scan.
+	 */
+	private static final class FontCacheAccess extends PhysicalFonts {
+
+		static void load(File cacheFile) {
+			FontCache cache = FontCache.loadFrom(cacheFile);
+			if (cache != null) {
+				fontCache = cache;
+			}
+		}
+
+		/**
+		 * Writes the cache whether or not docx4j has saved it to its default
+		 * location already, replacing the file only once it is complete.
+		 */
+		static void saveTo(File cacheFile) throws IOException {
+			File parent = cacheFile.getAbsoluteFile().getParentFile();
+			if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+				throw new IOException("Cannot create directory " + parent);
+			}
+			File temp = File.createTempFile(cacheFile.getName(), ".tmp", parent);
+			try {
+				ObjectOutputStream out = new ObjectOutputStream(
+						new BufferedOutputStream(new FileOutputStream(temp)));
+				try {
+					out.writeObject(fontCache);
+				} finally {
+					out.close();
+				}
+				Files.move(temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				temp.delete();
+			}
+		}
+	}
+
+}
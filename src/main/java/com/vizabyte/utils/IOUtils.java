@@ -15,8 +15,11 @@
  */
 package com.vizabyte.utils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 public class IOUtils {
 	
@@ -30,4 +33,43 @@ public class IOUtils {
 		}
 	}
 
+	/**
+	 * Reads the remaining content of a stream into a byte array. The stream is
+	 * not closed.
+	 * 
+	 * @param in
+	 *            - the stream to read
+	 * @return the content read
+	 * @throws IOException
+	 *             - when the stream cannot be read
+	 */
+	public static byte[] toByteArray(InputStream in) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		copy(in, baos);
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Copies the remaining content of a stream to an output stream. Neither
+	 * stream is closed.
+	 * 
+	 * @param in
+	 *            - the stream to read
+	 * @param out
+	 *            - the stream to write to
+	 * @return the number of bytes copied
+	 * @throws IOException
+	 *             - when either stream fails
+	 */
+	public static long copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buffer = new byte[8192];
+		long count = 0;
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+			count += read;
+		}
+		return count;
+	}
+
 }
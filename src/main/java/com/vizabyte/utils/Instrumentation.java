@@ -0,0 +1,275 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Reports where the document, XML and password operations of this library
+ * spend their time to a registered {@link Listener}, such as a
+ * {@link MetricsRegistry} or an adapter to a tracing or metrics system.
+ * <p>
+ * Each operation is reported as the phases it goes through, with their
+ * duration and the bytes they read and wrote, together with its failures and
+ * the hits and misses of the caches involved. No listener is registered by
+ * default; the instrumented code then only reads one volatile field per
+ * phase and neither reads the clock nor counts bytes.
+ *
+ * @author Drona
+ *
+ */
+public final class Instrumentation {
+
+	/**
+	 * The phases of the instrumented operations.
+	 */
+	public enum Phase {
+		/** Loading a .docx package into docx4j. */
+		LOAD,
+		/** Replacing the variables of a template. */
+		REPLACE,
+		/** Saving a .docx package. */
+		SAVE,
+		/** Converting a loaded package to PDF through XSL-FO. */
+		FO_TRANSFORM,
+		/** Parsing an XML document into a DOM. */
+		PARSE,
+		/** Compiling an XPath expression missing from the cache. */
+		COMPILE,
+		/** Evaluating XPath expressions. */
+		EVALUATE,
+		/** Deriving a key from a password. */
+		KDF
+	}
+
+	public static final String XPATH_CACHE = "xpath";
+	public static final String TEMPLATE_CACHE = "docx-template";
+	public static final String RENDER_CACHE = "docx-render";
+
+	/**
+	 * Receives the events of the instrumented operations. Its methods are
+	 * called on the threads running the operations, possibly many at once, so
+	 * they must be thread safe and quick. Exceptions they throw are ignored.
+	 */
+	public interface Listener {
+
+		/**
+		 * @param phase
+		 *            - the phase that completed
+		 * @param nanos
+		 *            - the time it took
+		 * @param bytesIn
+		 *            - the bytes it read, or characters for text input, or 0
+		 * @param bytesOut
+		 *            - the bytes it wrote, or 0
+		 */
+		void phase(Phase phase, long nanos, long bytesIn, long bytesOut);
+
+		/**
+		 * @param phase
+		 *            - the phase that failed
+		 * @param error
+		 *            - the failure, thrown on to the caller afterwards
+		 */
+		void error(Phase phase, Throwable error);
+
+		/**
+		 * @param cache
+		 *            - the name of the cache, such as {@link #XPATH_CACHE}
+		 *            or {@link #TEMPLATE_CACHE}
+		 * @param hit
+		 *            - whether the entry was found
+		 */
+		void cacheAccess(String cache, boolean hit);
+	}
+
+	private static volatile Listener listener;
+
+	private Instrumentation() {
+	}
+
+	/**
+	 * @param listener
+	 *            - the listener receiving the events of every operation, or
+	 *            null to stop reporting them
+	 */
+	public static void setListener(Listener listener) {
+		Instrumentation.listener = listener;
+	}
+
+	/**
+	 * @return the registered listener, or null when there is none
+	 */
+	public static Listener getListener() {
+		return listener;
+	}
+
+	/**
+	 * @return whether a listener is registered
+	 */
+	static boolean isEnabled() {
+		return listener != null;
+	}
+
+	/**
+	 * @return the start time of a phase, or 0 when no listener is registered
+	 */
+	static long start() {
+		return listener == null ? 0 : System.nanoTime();
+	}
+
+	/**
+	 * Reports a phase started at the given time. Nothing is reported when the
+	 * phase started before a listener was registered.
+	 */
+	static void end(Phase phase, long start, long bytesIn, long bytesOut) {
+		Listener current = listener;
+		if (current != null && start != 0) {
+			try {
+				current.phase(phase, System.nanoTime() - start, bytesIn, bytesOut);
+			} catch (RuntimeException e) {
+				// the operation must not fail because of its instrumentation
+			}
+		}
+	}
+
+	static void error(Phase phase, Throwable error) {
+		Listener current = listener;
+		if (current != null) {
+			try {
+				current.error(phase, error);
+			} catch (RuntimeException e) {
+				// the operation must not fail because of its instrumentation
+			}
+		}
+	}
+
+	static void cacheAccess(String cache, boolean hit) {
+		Listener current = listener;
+		if (current != null) {
+			try {
+				current.cacheAccess(cache, hit);
+			} catch (RuntimeException e) {
+				// the operation must not fail because of its instrumentation
+			}
+		}
+	}
+
+	/**
+	 * @return the stream counting the bytes read, or the stream itself when
+	 *         no listener is registered
+	 */
+	static InputStream count(InputStream in) {
+		return listener == null ? in : new CountingInputStream(in);
+	}
+
+	/**
+	 * @return the stream counting the bytes written, or the stream itself
+	 *         when no listener is registered
+	 */
+	static OutputStream count(OutputStream out) {
+		return listener == null ? out : new CountingOutputStream(out);
+	}
+
+	/**
+	 * @return the bytes read through the stream when it was returned by
+	 *         {@link #count(InputStream)} with a listener registered, or 0
+	 */
+	static long countOf(InputStream in) {
+		return in instanceof CountingInputStream ? ((CountingInputStream) in).count : 0;
+	}
+
+	/**
+	 * @return the bytes written through the stream when it was returned by
+	 *         {@link #count(OutputStream)} with a listener registered, or 0
+	 */
+	static long countOf(OutputStream out) {
+		return out instanceof CountingOutputStream ? ((CountingOutputStream) out).count : 0;
+	}
+
+	private static final class CountingInputStream extends FilterInputStream {
+
+		long count;
+		private long mark;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if (b >= 0) {
+				count++;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = in.read(b, off, len);
+			if (n > 0) {
+				count += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = in.skip(n);
+			count += skipped;
+			return skipped;
+		}
+
+		@Override
+		public void mark(int readlimit) {
+			in.mark(readlimit);
+			mark = count;
+		}
+
+		@Override
+		public void reset() throws IOException {
+			in.reset();
+			count = mark;
+		}
+	}
+
+	private static final class CountingOutputStream extends FilterOutputStream {
+
+		long count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+
+}
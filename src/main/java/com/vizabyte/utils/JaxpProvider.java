@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathFactory;
+import javax.xml.xpath.XPathFactoryConfigurationException;
+
+/**
+ * Hands out DocumentBuilder and XPath objects that are safe to use from many
+ * threads at once. Each thread gets its own builder and XPath, created once
+ * from the configured factories and {@code reset()} before every use, so no
+ * parser or evaluator is built per call and none is shared between threads.
+ * <p>
+ * The JAXP factories themselves are not thread safe; they are only used under
+ * their own lock, the first time a thread asks for a builder or an XPath.
+ * <p>
+ * The objects handed out must not be kept beyond the current call or used
+ * reentrantly, for example from an entity resolver of a parse in progress on
+ * the same thread.
+ *
+ * @author Drona
+ *
+ */
+public class JaxpProvider {
+
+	private static final JaxpProvider defaultProvider = new JaxpProvider(DocumentBuilderFactory.newInstance(),
+			XPathFactory.newInstance());
+
+	private final DocumentBuilderFactory documentBuilderFactory;
+	private final XPathFactory xpathFactory;
+
+	private final ThreadLocal<DocumentBuilder> documentBuilders = new ThreadLocal<DocumentBuilder>();
+	private final ThreadLocal<XPath> xpaths = new ThreadLocal<XPath>();
+
+	/**
+	 * Creates a provider on configured factories. The factories must not be
+	 * used or changed elsewhere afterwards.
+	 *
+	 * @param documentBuilderFactory
+	 *            - the factory of the DOM parsers
+	 * @param xpathFactory
+	 *            - the factory of the XPath evaluators
+	 */
+	public JaxpProvider(DocumentBuilderFactory documentBuilderFactory, XPathFactory xpathFactory) {
+		if (documentBuilderFactory == null || xpathFactory == null) {
+			throw new NullPointerException();
+		}
+		this.documentBuilderFactory = documentBuilderFactory;
+		this.xpathFactory = xpathFactory;
+	}
+
+	/**
+	 * Creates a provider on specific JAXP implementations, whatever the
+	 * implementations found on the class path or selected by system
+	 * properties.
+	 *
+	 * @param documentBuilderFactoryClassName
+	 *            - the fully qualified name of a
+	 *            {@link DocumentBuilderFactory} implementation
+	 * @param xpathFactoryClassName
+	 *            - the fully qualified name of an {@link XPathFactory}
+	 *            implementation supporting the W3C DOM object model
+	 * @param classLoader
+	 *            - the class loader of the implementations, or null for the
+	 *            context class loader
+	 * @return the provider
+	 * @throws XPathFactoryConfigurationException
+	 *             - when the XPath factory cannot be created
+	 */
+	public static JaxpProvider newInstance(String documentBuilderFactoryClassName, String xpathFactoryClassName,
+			ClassLoader classLoader) throws XPathFactoryConfigurationException {
+		return new JaxpProvider(DocumentBuilderFactory.newInstance(documentBuilderFactoryClassName, classLoader),
+				XPathFactory.newInstance(XPathFactory.DEFAULT_OBJECT_MODEL_URI, xpathFactoryClassName, classLoader));
+	}
+
+	/**
+	 * @return the provider on the default JAXP implementations, with the
+	 *         default factory settings
+	 */
+	public static JaxpProvider getDefault() {
+		return defaultProvider;
+	}
+
+	/**
+	 * @return the DOM parser of the calling thread, reset to its initial
+	 *         configuration
+	 * @throws ParserConfigurationException
+	 *             - when the factory cannot create a parser
+	 */
+	public DocumentBuilder getDocumentBuilder() throws ParserConfigurationException {
+		DocumentBuilder builder = documentBuilders.get();
+		if (builder == null) {
+			synchronized (documentBuilderFactory) {
+				builder = documentBuilderFactory.newDocumentBuilder();
+			}
+			documentBuilders.set(builder);
+		} else {
+			builder.reset();
+		}
+		return builder;
+	}
+
+	/**
+	 * @return the XPath evaluator of the calling thread, reset to its initial
+	 *         configuration
+	 */
+	public XPath getXPath() {
+		XPath xpath = xpaths.get();
+		if (xpath == null) {
+			synchronized (xpathFactory) {
+				xpath = xpathFactory.newXPath();
+			}
+			xpaths.set(xpath);
+		} else {
+			xpath.reset();
+		}
+		return xpath;
+	}
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of a {@link DocxMailMerge}: how many documents were written and
+ * which records failed, and why.
+ *
+ * @author Drona
+ *
+ */
+public final class MailMergeResult {
+
+	private final int succeeded;
+	private final List<Failure> failures;
+
+	MailMergeResult(int succeeded, List<Failure> failures) {
+		this.succeeded = succeeded;
+		this.failures = failures;
+	}
+
+	/**
+	 * @return the number of documents written
+	 */
+	public int getSucceeded() {
+		return succeeded;
+	}
+
+	/**
+	 * @return the records that could not be written, in input order
+	 */
+	public List<Failure> getFailures() {
+		return failures;
+	}
+
+	/**
+	 * @return true when every record was written
+	 */
+	public boolean isSuccessful() {
+		return failures.isEmpty();
+	}
+
+	/**
+	 * A record that could not be written.
+	 */
+	public static final class Failure {
+
+		private final int index;
+		private final Map<String, String> mappings;
+		private final Exception cause;
+
+		Failure(int index, Map<String, String> mappings, Exception cause) {
+			this.index = index;
+			this.mappings = mappings;
+			this.cause = cause;
+		}
+
+		/**
+		 * @return the position of the record in the merge input
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * @return the variable - value mappings of the record
+		 */
+		public Map<String, String> getMappings() {
+			return mappings;
+		}
+
+		/**
+		 * @return the exception the record failed with
+		 */
+		public Exception getCause() {
+			return cause;
+		}
+	}
+
+}
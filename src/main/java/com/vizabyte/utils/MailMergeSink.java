@@ -0,0 +1,228 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * The destination of the documents rendered by a {@link DocxMailMerge}.
+ * {@link #write(int, Map, DocxTemplate)} is called concurrently from the merge
+ * worker threads, so implementations must be thread safe.
+ *
+ * @author Drona
+ *
+ */
+public abstract class MailMergeSink {
+
+	public static final String DEFAULT_NAME_PATTERN = "document-%06d.docx";
+
+	/**
+	 * Opens the stream a single rendered document is written to.
+	 */
+	public interface OutputStreamFactory {
+
+		/**
+		 * @param index
+		 *            - the position of the record in the merge input
+		 * @param mappings
+		 *            - the variable - value mappings of the record
+		 * @return the stream the document is written to; the merge closes it
+		 * @throws IOException
+		 *             - when the stream cannot be opened
+		 */
+		OutputStream open(int index, Map<String, String> mappings) throws IOException;
+	}
+
+	/**
+	 * Renders one record of the merge and stores the result.
+	 *
+	 * @param index
+	 *            - the position of the record in the merge input
+	 * @param mappings
+	 *            - the variable - value mappings of the record
+	 * @param template
+	 *            - the template being merged
+	 * @throws IOException
+	 *             - when the document cannot be rendered or stored
+	 */
+	public abstract void write(int index, Map<String, String> mappings, DocxTemplate template) throws IOException;
+
+	/**
+	 * Called once every record has been written.
+	 *
+	 * @throws IOException
+	 *             - when the sink cannot be completed
+	 */
+	public void finish() throws IOException {
+	}
+
+	/**
+	 * @param factory
+	 *            - opens one stream per document
+	 * @return a sink writing each document to its own stream
+	 */
+	public static MailMergeSink toStreams(final OutputStreamFactory factory) {
+		if (factory == null) {
+			throw new NullPointerException();
+		}
+		return new MailMergeSink() {
+
+			@Override
+			public void write(int index, Map<String, String> mappings, DocxTemplate template) throws IOException {
+				OutputStream out = factory.open(index, mappings);
+				try {
+					template.render(mappings, out);
+				} finally {
+					out.close();
+				}
+			}
+		};
+	}
+
+	/**
+	 * @param directory
+	 *            - the directory the documents are written to
+	 * @return a sink writing each document to a file named after
+	 *         {@link #DEFAULT_NAME_PATTERN}
+	 */
+	public static MailMergeSink toDirectory(File directory) {
+		return toDirectory(directory, DEFAULT_NAME_PATTERN);
+	}
+
+	/**
+	 * @param directory
+	 *            - the directory the documents are written to
+	 * @param namePattern
+	 *            - a {@link String#format(String, Object...)} pattern turning
+	 *            the record index into a file name
+	 * @return a sink writing each document to its own file, through a
+	 *         temporary file renamed once the document is complete, so the
+	 *         file of a document that fails to render is never created
+	 */
+	public static MailMergeSink toDirectory(final File directory, final String namePattern) {
+		if (directory == null || namePattern == null) {
+			throw new NullPointerException();
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IllegalArgumentException("Cannot create directory " + directory);
+		}
+		return new MailMergeSink() {
+
+			@Override
+			public void write(int index, Map<String, String> mappings, DocxTemplate template) throws IOException {
+				File file = new File(directory, String.format(namePattern, index));
+				AtomicFileOutputStream out = new AtomicFileOutputStream(file.toPath());
+				try {
+					template.render(mappings, out);
+					out.commit();
+				} finally {
+					out.discard();
+				}
+			}
+		};
+	}
+
+	/**
+	 * @param out
+	 *            - the stream the zip is written to; it is not closed
+	 * @return a sink writing every document as an entry, named after
+	 *         {@link #DEFAULT_NAME_PATTERN}, of a single zip
+	 */
+	public static MailMergeSink toZip(OutputStream out) {
+		return toZip(out, DEFAULT_NAME_PATTERN);
+	}
+
+	/**
+	 * Returns a sink writing every document as an entry of a single zip, as
+	 * {@link #toZip(OutputStream, String, int)} does with documents held in
+	 * memory up to {@link SpoolOutputStream#DEFAULT_THRESHOLD} bytes.
+	 *
+	 * @param out
+	 *            - the stream the zip is written to; it is not closed
+	 * @param namePattern
+	 *            - a {@link String#format(String, Object...)} pattern turning
+	 *            the record index into an entry name
+	 * @return the sink
+	 */
+	public static MailMergeSink toZip(OutputStream out, String namePattern) {
+		return toZip(out, namePattern, SpoolOutputStream.DEFAULT_THRESHOLD);
+	}
+
+	/**
+	 * Returns a sink writing every document as an entry of a single zip. The
+	 * documents are rendered in parallel, each into memory up to the given
+	 * number of bytes and into a temporary file beyond, and appended to the
+	 * zip one at a time. They are stored without further compression, as a
+	 * .docx package is compressed already.
+	 *
+	 * @param out
+	 *            - the stream the zip is written to; it is not closed
+	 * @param namePattern
+	 *            - a {@link String#format(String, Object...)} pattern turning
+	 *            the record index into an entry name
+	 * @param spoolThreshold
+	 *            - the number of bytes of a document held in memory before it
+	 *            is spooled to a temporary file
+	 * @return the sink
+	 */
+	public static MailMergeSink toZip(OutputStream out, final String namePattern, final int spoolThreshold) {
+		if (out == null || namePattern == null) {
+			throw new NullPointerException();
+		}
+		if (spoolThreshold < 0) {
+			throw new IllegalArgumentException("The spool threshold cannot be negative");
+		}
+		final ZipArchiveWriter writer = new ZipArchiveWriter(out, Deflater.NO_COMPRESSION);
+		final ReentrantLock lock = new ReentrantLock();
+		return new MailMergeSink() {
+
+			@Override
+			public void write(int index, Map<String, String> mappings, DocxTemplate template) throws IOException {
+				SpoolOutputStream document = new SpoolOutputStream(spoolThreshold, null);
+				try {
+					CRC32 crc = new CRC32();
+					template.render(mappings, new CheckedOutputStream(document, crc));
+					lock.lock();
+					try {
+						writer.write(String.format(namePattern, index), document, crc.getValue());
+					} finally {
+						lock.unlock();
+					}
+				} finally {
+					document.delete();
+				}
+			}
+
+			@Override
+			public void finish() throws IOException {
+				lock.lock();
+				try {
+					writer.finish();
+				} finally {
+					lock.unlock();
+				}
+			}
+		};
+	}
+
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.vizabyte.utils.Instrumentation.Phase;
+
+/**
+ * An {@link Instrumentation.Listener} keeping, in memory and without locks,
+ * the count, errors, bytes read and written and a latency histogram of each
+ * phase, and the hits and misses of each cache. Meant to be registered once
+ * and read by a monitoring endpoint or logged now and then:
+ *
+ * <pre>
+ * MetricsRegistry metrics = new MetricsRegistry();
+ * Instrumentation.setListener(metrics);
+ * ...
+ * long p99 = metrics.getHistogram(Phase.FO_TRANSFORM).getPercentileNanos(99);
+ * </pre>
+ *
+ * @author Drona
+ *
+ */
+public class MetricsRegistry implements Instrumentation.Listener {
+
+	private final Map<Phase, PhaseMetrics> phases = new EnumMap<Phase, PhaseMetrics>(Phase.class);
+	private final ConcurrentMap<String, CacheMetrics> caches = new ConcurrentHashMap<String, CacheMetrics>();
+
+	public MetricsRegistry() {
+		for (Phase phase : Phase.values()) {
+			phases.put(phase, new PhaseMetrics());
+		}
+	}
+
+	public void phase(Phase phase, long nanos, long bytesIn, long bytesOut) {
+		PhaseMetrics metrics = phases.get(phase);
+		metrics.latency.record(nanos);
+		if (bytesIn > 0) {
+			metrics.bytesIn.add(bytesIn);
+		}
+		if (bytesOut > 0) {
+			metrics.bytesOut.add(bytesOut);
+		}
+	}
+
+	public void error(Phase phase, Throwable error) {
+		phases.get(phase).errors.increment();
+	}
+
+	public void cacheAccess(String cache, boolean hit) {
+		CacheMetrics metrics = caches.get(cache);
+		if (metrics == null) {
+			CacheMetrics created = new CacheMetrics();
+			metrics = caches.putIfAbsent(cache, created);
+			if (metrics == null) {
+				metrics = created;
+			}
+		}
+		(hit ? metrics.hits : metrics.misses).increment();
+	}
+
+	/**
+	 * @param phase
+	 *            - the phase
+	 * @return the latencies of the completed runs of the phase
+	 */
+	public Histogram getHistogram(Phase phase) {
+		return phases.get(phase).latency;
+	}
+
+	/**
+	 * @param phase
+	 *            - the phase
+	 * @return the number of completed runs of the phase
+	 */
+	public long getCount(Phase phase) {
+		return phases.get(phase).latency.getCount();
+	}
+
+	/**
+	 * @param phase
+	 *            - the phase
+	 * @return the number of failed runs of the phase
+	 */
+	public long getErrorCount(Phase phase) {
+		return phases.get(phase).errors.sum();
+	}
+
+	/**
+	 * @param phase
+	 *            - the phase
+	 * @return the bytes read by the phase, or characters for text input
+	 */
+	public long getBytesIn(Phase phase) {
+		return phases.get(phase).bytesIn.sum();
+	}
+
+	/**
+	 * @param phase
+	 *            - the phase
+	 * @return the bytes written by the phase
+	 */
+	public long getBytesOut(Phase phase) {
+		return phases.get(phase).bytesOut.sum();
+	}
+
+	/**
+	 * @param cache
+	 *            - the name of the cache
+	 * @return the number of lookups that found their entry
+	 */
+	public long getCacheHits(String cache) {
+		CacheMetrics metrics = caches.get(cache);
+		return metrics == null ? 0 : metrics.hits.sum();
+	}
+
+	/**
+	 * @param cache
+	 *            - the name of the cache
+	 * @return the number of lookups that did not find their entry
+	 */
+	public long getCacheMisses(String cache) {
+		CacheMetrics metrics = caches.get(cache);
+		return metrics == null ? 0 : metrics.misses.sum();
+	}
+
+	/**
+	 * @param cache
+	 *            - the name of the cache
+	 * @return the share of lookups that found their entry, or 0 when there
+	 *         was none
+	 */
+	public double getCacheHitRate(String cache) {
+		long hits = getCacheHits(cache);
+		long total = hits + getCacheMisses(cache);
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	/**
+	 * @return one line per phase that ran and per cache used, with counts,
+	 *         mean, 50th, 99th percentile and maximum latencies in
+	 *         milliseconds, and bytes
+	 */
+	@Override
+	public String toString() {
+		StringBuilder report = new StringBuilder();
+		for (Map.Entry<Phase, PhaseMetrics> entry : phases.entrySet()) {
+			PhaseMetrics metrics = entry.getValue();
+			Histogram latency = metrics.latency;
+			long errors = metrics.errors.sum();
+			if (latency.getCount() == 0 && errors == 0) {
+				continue;
+			}
+			report.append(String.format("%-12s count=%d errors=%d mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms"
+					+ " in=%d out=%d%n", entry.getKey(), latency.getCount(), errors, latency.getMeanNanos() / 1e6,
+					latency.getPercentileNanos(50) / 1e6, latency.getPercentileNanos(99) / 1e6,
+					latency.getMaxNanos() / 1e6, metrics.bytesIn.sum(), metrics.bytesOut.sum()));
+		}
+		for (String cache : caches.keySet()) {
+			report.append(String.format("cache %-6s hits=%d misses=%d hitRate=%.3f%n", cache, getCacheHits(cache),
+					getCacheMisses(cache), getCacheHitRate(cache)));
+		}
+		return report.toString();
+	}
+
+	private static final class PhaseMetrics {
+
+		final Histogram latency = new Histogram();
+		final LongAdder errors = new LongAdder();
+		final LongAdder bytesIn = new LongAdder();
+		final LongAdder bytesOut = new LongAdder();
+	}
+
+	private static final class CacheMetrics {
+
+		final LongAdder hits = new LongAdder();
+		final LongAdder misses = new LongAdder();
+	}
+
+	/**
+	 * A lock-free histogram of non negative values, with 8 buckets per power
+	 * of two, so percentiles are within 12.5% of the recorded values. Values
+	 * below 8 are exact.
+	 */
+	public static final class Histogram {
+
+		private static final int SUB_BUCKET_BITS = 3;
+		private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+		private static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+		private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+		private final LongAdder count = new LongAdder();
+		private final LongAdder total = new LongAdder();
+		private final AtomicLong max = new AtomicLong();
+
+		/**
+		 * @param value
+		 *            - the value to record; negative values count as 0
+		 */
+		public void record(long value) {
+			if (value < 0) {
+				value = 0;
+			}
+			counts.incrementAndGet(bucket(value));
+			count.increment();
+			total.add(value);
+			long current;
+			while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+				// another thread raised the maximum meanwhile
+			}
+		}
+
+		/**
+		 * @return the number of recorded values
+		 */
+		public long getCount() {
+			return count.sum();
+		}
+
+		/**
+		 * @return the sum of the recorded values
+		 */
+		public long getTotalNanos() {
+			return total.sum();
+		}
+
+		/**
+		 * @return the mean of the recorded values, or 0 when there is none
+		 */
+		public double getMeanNanos() {
+			long n = count.sum();
+			return n == 0 ? 0 : (double) total.sum() / n;
+		}
+
+		/**
+		 * @return the highest recorded value
+		 */
+		public long getMaxNanos() {
+			return max.get();
+		}
+
+		/**
+		 * @param percentile
+		 *            - the percentile, from 0 to 100
+		 * @return the upper bound of the bucket holding the percentile, at
+		 *         most the highest recorded value, or 0 when there is none
+		 */
+		public long getPercentileNanos(double percentile) {
+			if (percentile < 0 || percentile > 100) {
+				throw new IllegalArgumentException("Invalid percentile " + percentile);
+			}
+			long[] snapshot = new long[BUCKETS];
+			long n = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				snapshot[i] = counts.get(i);
+				n += snapshot[i];
+			}
+			if (n == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += snapshot[i];
+				if (seen >= rank) {
+					return Math.min(upperBound(i), max.get());
+				}
+			}
+			return max.get();
+		}
+
+		static int bucket(long value) {
+			if (value < SUB_BUCKETS) {
+				return (int) value;
+			}
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+			return (exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS | sub;
+		}
+
+		static long upperBound(int bucket) {
+			if (bucket < SUB_BUCKETS) {
+				return bucket;
+			}
+			int shift = (bucket >> SUB_BUCKET_BITS) - 1;
+			long lower = (long) (SUB_BUCKETS | bucket & (SUB_BUCKETS - 1)) << shift;
+			return lower + (1L << shift) - 1;
+		}
+	}
+
+}
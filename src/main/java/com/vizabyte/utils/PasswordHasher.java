@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+/**
+ * Hashes passwords into self-describing strings and verifies passwords
+ * against them. The encoded hash starts with a $ prefix naming its
+ * algorithm, such as $pbkdf2-sha512$, $2b$, $scrypt$ or $argon2id$,
+ * followed by the parameters, salt and hash, so that hashes made with other
+ * settings can still be verified and recognized as in need of an upgrade.
+ * <p>
+ * Passwords are normalized to NFD and encoded in UTF-8 before hashing.
+ * Implementations are thread safe.
+ *
+ * @author Drona
+ *
+ * @see DelegatingPasswordHasher
+ */
+public interface PasswordHasher {
+
+	/**
+	 * Hashes a password with a new random salt.
+	 *
+	 * @param password
+	 *            - the password
+	 * @return the encoded hash
+	 */
+	String hash(String password);
+
+	/**
+	 * Hashes a password given as characters with a new random salt. The
+	 * array is not modified; clear it once done.
+	 *
+	 * @param password
+	 *            - the password
+	 * @return the encoded hash
+	 */
+	String hash(char[] password);
+
+	/**
+	 * Checks a password against an encoded hash, using the parameters
+	 * recorded in the hash.
+	 *
+	 * @param password
+	 *            - the password
+	 * @param encodedHash
+	 *            - the stored hash
+	 * @return whether the password matches
+	 * @throws IllegalArgumentException
+	 *             - when the hash is not in the format of this hasher
+	 */
+	boolean verify(String password, String encodedHash);
+
+	/**
+	 * Checks a password given as characters against an encoded hash. The
+	 * array is not modified; clear it once done.
+	 *
+	 * @param password
+	 *            - the password
+	 * @param encodedHash
+	 *            - the stored hash
+	 * @return whether the password matches
+	 * @throws IllegalArgumentException
+	 *             - when the hash is not in the format of this hasher
+	 */
+	boolean verify(char[] password, String encodedHash);
+
+	/**
+	 * Tells whether a hash was made with another algorithm or weaker
+	 * settings than those of this hasher, and should be replaced by a new one
+	 * the next time the password is verified.
+	 *
+	 * @param encodedHash
+	 *            - the stored hash
+	 * @return whether the hash should be made again
+	 */
+	boolean needsRehash(String encodedHash);
+
+	/**
+	 * @param encodedHash
+	 *            - a stored hash
+	 * @return whether the hash has the prefix of the algorithm of this hasher
+	 */
+	boolean supports(String encodedHash);
+
+}
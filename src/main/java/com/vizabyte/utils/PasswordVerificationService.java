@@ -0,0 +1,390 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Hashes and verifies passwords on a dedicated, bounded pool of worker
+ * threads, so that a burst of logins cannot tie up the request threads of a
+ * server in key derivation.
+ * <p>
+ * At most the configured number of hashes run at once, by default one per
+ * processor, and at most the configured number wait for a worker; any
+ * further call is rejected straight away. Every call has a time limit,
+ * counted from its submission, after which its future fails with a
+ * {@link TimeoutException}; a call that times out while waiting is never
+ * started. The service counts the calls it completes, rejects and times out,
+ * and the time they spend waiting and hashing.
+ *
+ * @author Drona
+ *
+ */
+public class PasswordVerificationService implements Closeable {
+
+	public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+	public static final int DEFAULT_QUEUE_CAPACITY = DEFAULT_PARALLELISM * 8;
+	public static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+
+	private static final AtomicInteger serviceCount = new AtomicInteger();
+
+	private final PasswordHasher hasher;
+	private final ThreadPoolExecutor workers;
+	private final ScheduledThreadPoolExecutor timer;
+	private final long timeoutMillis;
+
+	private final LongAdder completed = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder timedOut = new LongAdder();
+	private final LongAdder waitNanos = new LongAdder();
+	private final LongAdder hashNanos = new LongAdder();
+	private final AtomicLong maxWaitNanos = new AtomicLong();
+	private final AtomicLong maxHashNanos = new AtomicLong();
+
+	/**
+	 * Creates a service hashing with the hasher of {@link SecurityUtils} and
+	 * verifying the hashes of every algorithm of this library, with
+	 * one worker per processor, {@link #DEFAULT_QUEUE_CAPACITY} waiting calls
+	 * and a time limit of {@link #DEFAULT_TIMEOUT_MILLIS} per call.
+	 */
+	public PasswordVerificationService() {
+		this(new DelegatingPasswordHasher(SecurityUtils.getPasswordHasher()), DEFAULT_PARALLELISM,
+				DEFAULT_QUEUE_CAPACITY, DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param hasher
+	 *            - the hasher making new hashes and verifying existing ones,
+	 *            with the settings recorded in them
+	 * @param parallelism
+	 *            - the maximum number of hashes computed at once
+	 * @param queueCapacity
+	 *            - the maximum number of calls waiting for a worker
+	 * @param timeout
+	 *            - the default time limit of each call, counted from its
+	 *            submission
+	 * @param unit
+	 *            - the unit of the time limit
+	 */
+	public PasswordVerificationService(PasswordHasher hasher, int parallelism, int queueCapacity,
+			long timeout, TimeUnit unit) {
+		if (hasher == null || unit == null) {
+			throw new NullPointerException();
+		}
+		if (parallelism < 1 || queueCapacity < 1 || timeout < 1) {
+			throw new IllegalArgumentException("Pool limits and timeout must be positive");
+		}
+		String name = "password-hashing-" + serviceCount.incrementAndGet();
+		this.hasher = hasher;
+		this.workers = new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), threadFactory(name + "-worker-"),
+				new ThreadPoolExecutor.AbortPolicy());
+		this.timer = new ScheduledThreadPoolExecutor(1, threadFactory(name + "-timer-"));
+		this.timer.setRemoveOnCancelPolicy(true);
+		this.timeoutMillis = unit.toMillis(timeout);
+	}
+
+	private static ThreadFactory threadFactory(final String prefix) {
+		return new ThreadFactory() {
+
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, prefix + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * Checks a password against a hash encoded by a {@link PasswordHasher} in
+	 * the background.
+	 *
+	 * @param password
+	 *            - the password
+	 * @param encodedHash
+	 *            - the stored hash
+	 * @return a future completing with whether the password matches, or
+	 *         failing with a {@link RejectedExecutionException} when the
+	 *         service is saturated or closed, a {@link TimeoutException} when
+	 *         the time limit is exceeded or an
+	 *         {@link IllegalArgumentException} when the hash is malformed
+	 */
+	public CompletableFuture<Boolean> verifyAsync(String password, String encodedHash) {
+		return verifyAsync(password, encodedHash, timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Checks a password against a hash encoded by a {@link PasswordHasher} in
+	 * the background, within the given time limit.
+	 *
+	 * @param password
+	 *            - the password
+	 * @param encodedHash
+	 *            - the stored hash
+	 * @param timeout
+	 *            - the time limit of the call, counted from now
+	 * @param unit
+	 *            - the unit of the time limit
+	 * @return a future completing with whether the password matches; see
+	 *         {@link #verifyAsync(String, String)}
+	 */
+	public CompletableFuture<Boolean> verifyAsync(final String password, final String encodedHash, long timeout,
+			TimeUnit unit) {
+		if (password == null || encodedHash == null || unit == null) {
+			throw new NullPointerException();
+		}
+		return submit(new Callable<Boolean>() {
+			public Boolean call() {
+				return hasher.verify(password, encodedHash);
+			}
+		}, unit.toMillis(timeout));
+	}
+
+	/**
+	 * Matches a password with a hash made by
+	 * {@link SecurityUtils#hashPassword(String, byte[])} in the background.
+	 *
+	 * @param password
+	 *            - the password
+	 * @param salt
+	 *            - the salt used
+	 * @param expectedHash
+	 *            - the stored hash
+	 * @return a future completing with whether the password matches; see
+	 *         {@link #verifyAsync(String, String)}
+	 */
+	public CompletableFuture<Boolean> matchAsync(final String password, final byte[] salt,
+			final byte[] expectedHash) {
+		if (password == null || salt == null || expectedHash == null) {
+			throw new NullPointerException();
+		}
+		return submit(new Callable<Boolean>() {
+			public Boolean call() {
+				return SecurityUtils.matchPassword(password, salt, expectedHash);
+			}
+		}, timeoutMillis);
+	}
+
+	/**
+	 * Hashes a password with a new salt in the background.
+	 *
+	 * @param password
+	 *            - the password
+	 * @return a future completing with the encoded hash; see
+	 *         {@link #verifyAsync(String, String)}
+	 */
+	public CompletableFuture<String> hashAsync(final String password) {
+		if (password == null) {
+			throw new NullPointerException();
+		}
+		return submit(new Callable<String>() {
+			public String call() {
+				return hasher.hash(password);
+			}
+		}, timeoutMillis);
+	}
+
+	private <T> CompletableFuture<T> submit(final Callable<T> hashing, final long timeout) {
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		final long submitted = System.nanoTime();
+		final FutureTask<T> task = new FutureTask<T>(new Callable<T>() {
+			public T call() throws Exception {
+				long started = System.nanoTime();
+				record(waitNanos, maxWaitNanos, started - submitted);
+				try {
+					return hashing.call();
+				} finally {
+					record(hashNanos, maxHashNanos, System.nanoTime() - started);
+				}
+			}
+		}) {
+
+			@Override
+			protected void done() {
+				if (isCancelled()) {
+					result.cancel(false);
+					return;
+				}
+				try {
+					T value = get();
+					completed.increment();
+					result.complete(value);
+				} catch (ExecutionException e) {
+					result.completeExceptionally(e.getCause());
+				} catch (InterruptedException e) {
+					result.completeExceptionally(e);
+				}
+			}
+		};
+
+		try {
+			workers.execute(task);
+		} catch (RejectedExecutionException e) {
+			rejected.increment();
+			result.completeExceptionally(e);
+			return result;
+		}
+
+		final ScheduledFuture<?> deadline;
+		try {
+			deadline = timer.schedule(new Runnable() {
+				public void run() {
+					if (result.completeExceptionally(
+							new TimeoutException("Password hashing exceeded " + timeout + " ms"))) {
+						timedOut.increment();
+						// removes the call from the queue if it has not started
+						task.cancel(false);
+						workers.remove(task);
+					}
+				}
+			}, timeout, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// closed after the workers took the call: it must not run unbounded
+			rejected.increment();
+			result.completeExceptionally(e);
+			task.cancel(false);
+			workers.remove(task);
+			return result;
+		}
+
+		result.whenComplete(new BiConsumer<T, Throwable>() {
+			public void accept(T ignored, Throwable failure) {
+				deadline.cancel(false);
+				if (result.isCancelled()) {
+					task.cancel(false);
+					workers.remove(task);
+				}
+			}
+		});
+		return result;
+	}
+
+	private static void record(LongAdder total, AtomicLong max, long nanos) {
+		total.add(nanos);
+		long current;
+		while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) {
+			// another thread raised the maximum meanwhile
+		}
+	}
+
+	/**
+	 * @return the number of hashes being computed
+	 */
+	public int getActiveCount() {
+		return workers.getActiveCount();
+	}
+
+	/**
+	 * @return the number of calls waiting for a worker
+	 */
+	public int getQueuedCount() {
+		return workers.getQueue().size();
+	}
+
+	/**
+	 * @return the number of hashes computed to the end, whether or not the
+	 *         password matched
+	 */
+	public long getCompletedCount() {
+		return completed.sum();
+	}
+
+	/**
+	 * @return the number of calls rejected because the service was saturated
+	 *         or closed
+	 */
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+
+	/**
+	 * @return the number of calls that exceeded their time limit
+	 */
+	public long getTimedOutCount() {
+		return timedOut.sum();
+	}
+
+	/**
+	 * @return the total time calls waited for a worker, in nanoseconds
+	 */
+	public long getTotalWaitNanos() {
+		return waitNanos.sum();
+	}
+
+	/**
+	 * @return the longest time a call waited for a worker, in nanoseconds
+	 */
+	public long getMaxWaitNanos() {
+		return maxWaitNanos.get();
+	}
+
+	/**
+	 * @return the total time spent computing hashes, in nanoseconds
+	 */
+	public long getTotalHashNanos() {
+		return hashNanos.sum();
+	}
+
+	/**
+	 * @return the longest time a hash took, in nanoseconds
+	 */
+	public long getMaxHashNanos() {
+		return maxHashNanos.get();
+	}
+
+	/**
+	 * Stops accepting calls. Calls already submitted still run to completion
+	 * or until their time limit.
+	 */
+	public void close() {
+		workers.shutdown();
+		timer.shutdown();
+	}
+
+	/**
+	 * Waits for the calls submitted before {@link #close()} to finish.
+	 *
+	 * @param timeout
+	 *            - the maximum time to wait
+	 * @param unit
+	 *            - the unit of the timeout
+	 * @return whether every call finished in time
+	 * @throws InterruptedException
+	 *             - when the calling thread is interrupted while waiting
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return workers.awaitTermination(timeout, unit);
+	}
+
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.nio.CharBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.Arrays;
+
+import com.vizabyte.utils.Instrumentation.Phase;
+
+/**
+ * PBKDF2 (RFC 8018) with HMAC-SHA512, HMAC-SHA256 or HMAC-SHA1, computing
+ * the same keys as the JCA PBKDF2WithHmac* secret key factories.
+ * <p>
+ * Each thread keeps one engine per algorithm, holding its message digest and
+ * every buffer a derivation needs, so a derivation allocates nothing beyond
+ * its result and looks up no provider. The HMAC is computed directly on the
+ * digest, which avoids copying the password into key objects that cannot be
+ * cleared; the padded keys, intermediate blocks and encoded password are
+ * zeroed once the derivation is over.
+ * <p>
+ * Passwords given as characters are normalized to NFD and encoded in UTF-8,
+ * as {@link SecurityUtils#hashPassword(String, byte[])} does on platforms
+ * whose default charset is UTF-8. Passwords already in NFD, as most are, are
+ * encoded without any intermediate String.
+ *
+ * @author Drona
+ *
+ */
+final class Pbkdf2 {
+
+	private static final String[] ALGORITHMS = { Pbkdf2PasswordHasher.PBKDF2_SHA512,
+			Pbkdf2PasswordHasher.PBKDF2_SHA256, Pbkdf2PasswordHasher.PBKDF2_SHA1 };
+	private static final String[] DIGESTS = { "SHA-512", "SHA-256", "SHA-1" };
+	private static final int[] BLOCK_SIZES = { 128, 64, 64 };
+
+	private static final ThreadLocal<Pbkdf2[]> engines = new ThreadLocal<Pbkdf2[]>() {
+
+		@Override
+		protected Pbkdf2[] initialValue() {
+			return new Pbkdf2[ALGORITHMS.length];
+		}
+	};
+
+	private final MessageDigest digest;
+	private final int hashLength;
+	private final byte[] innerPad;
+	private final byte[] outerPad;
+	private final byte[] block;
+	private final byte[] sum;
+	private final byte[] counter = new byte[4];
+	private byte[] encoded = new byte[64];
+
+	private Pbkdf2(MessageDigest digest, int blockSize) {
+		this.digest = digest;
+		this.hashLength = digest.getDigestLength();
+		this.innerPad = new byte[blockSize];
+		this.outerPad = new byte[blockSize];
+		this.block = new byte[hashLength];
+		this.sum = new byte[hashLength];
+	}
+
+	/**
+	 * @param algorithm
+	 *            - the JCA name of the PBKDF2 algorithm
+	 * @return the engine of the calling thread for the algorithm
+	 */
+	static Pbkdf2 get(String algorithm) {
+		for (int i = 0; i < ALGORITHMS.length; i++) {
+			if (ALGORITHMS[i].equals(algorithm)) {
+				Pbkdf2[] threadEngines = engines.get();
+				if (threadEngines[i] == null) {
+					try {
+						threadEngines[i] = new Pbkdf2(MessageDigest.getInstance(DIGESTS[i]), BLOCK_SIZES[i]);
+					} catch (NoSuchAlgorithmException e) {
+						throw new RuntimeException(e);
+					}
+				}
+				return threadEngines[i];
+			}
+		}
+		throw new IllegalArgumentException("Unsupported algorithm " + algorithm);
+	}
+
+	/**
+	 * Derives a key from a password given as characters. The password array
+	 * is left as is; clearing it is up to the caller.
+	 *
+	 * @param password
+	 *            - the password
+	 * @param salt
+	 *            - the salt
+	 * @param iterations
+	 *            - the iteration count
+	 * @param keyLength
+	 *            - the length of the key in bits, a multiple of 8
+	 * @return the key
+	 */
+	byte[] derive(char[] password, byte[] salt, int iterations, int keyLength) {
+		CharBuffer chars = CharBuffer.wrap(password);
+		if (!Normalizer.isNormalized(chars, Normalizer.Form.NFD)) {
+			chars = CharBuffer.wrap(Normalizer.normalize(chars, Normalizer.Form.NFD));
+		}
+		return derive(chars, salt, iterations, keyLength);
+	}
+
+	/**
+	 * Derives a key from characters encoded in UTF-8 as they are, without
+	 * normalizing them, as the JCA secret key factories do. The password
+	 * array is left as is; clearing it is up to the caller.
+	 *
+	 * @param password
+	 *            - the password
+	 * @param salt
+	 *            - the salt
+	 * @param iterations
+	 *            - the iteration count
+	 * @param keyLength
+	 *            - the length of the key in bits, a multiple of 8
+	 * @return the key
+	 */
+	byte[] deriveUnnormalized(char[] password, byte[] salt, int iterations, int keyLength) {
+		return derive(CharBuffer.wrap(password), salt, iterations, keyLength);
+	}
+
+	private byte[] derive(CharBuffer chars, byte[] salt, int iterations, int keyLength) {
+		long start = Instrumentation.start();
+		byte[] key = new byte[keyLength / 8];
+		int length = encode(chars);
+		try {
+			derive(encoded, length, salt, iterations, key);
+		} finally {
+			Arrays.fill(encoded, 0, length, (byte) 0);
+		}
+		Instrumentation.end(Phase.KDF, start, 0, 0);
+		return key;
+	}
+
+	/**
+	 * Derives a key from a password given as bytes, used as they are.
+	 *
+	 * @param password
+	 *            - the password bytes
+	 * @param passwordLength
+	 *            - the number of password bytes
+	 * @param salt
+	 *            - the salt
+	 * @param iterations
+	 *            - the iteration count
+	 * @param key
+	 *            - receives the key, as long as the array
+	 */
+	void derive(byte[] password, int passwordLength, byte[] salt, int iterations, byte[] key) {
+		if (iterations < 1) {
+			throw new IllegalArgumentException("Iteration count must be positive");
+		}
+		try {
+			setKey(password, passwordLength);
+			for (int offset = 0, index = 1; offset < key.length; offset += hashLength, index++) {
+				counter[0] = (byte) (index >>> 24);
+				counter[1] = (byte) (index >>> 16);
+				counter[2] = (byte) (index >>> 8);
+				counter[3] = (byte) index;
+
+				digest.update(innerPad);
+				digest.update(salt);
+				digest.update(counter);
+				finishMac();
+				System.arraycopy(block, 0, sum, 0, hashLength);
+				for (int i = 1; i < iterations; i++) {
+					digest.update(innerPad);
+					digest.update(block);
+					finishMac();
+					for (int j = 0; j < hashLength; j++) {
+						sum[j] ^= block[j];
+					}
+				}
+				System.arraycopy(sum, 0, key, offset, Math.min(hashLength, key.length - offset));
+			}
+		} catch (DigestException e) {
+			throw new RuntimeException(e);
+		} finally {
+			digest.reset();
+			Arrays.fill(innerPad, (byte) 0);
+			Arrays.fill(outerPad, (byte) 0);
+			Arrays.fill(block, (byte) 0);
+			Arrays.fill(sum, (byte) 0);
+		}
+	}
+
+	private void setKey(byte[] password, int passwordLength) throws DigestException {
+		Arrays.fill(innerPad, (byte) 0);
+		if (passwordLength > innerPad.length) {
+			digest.update(password, 0, passwordLength);
+			digest.digest(innerPad, 0, hashLength);
+		} else {
+			System.arraycopy(password, 0, innerPad, 0, passwordLength);
+		}
+		for (int i = 0; i < innerPad.length; i++) {
+			outerPad[i] = (byte) (innerPad[i] ^ 0x5c);
+			innerPad[i] ^= 0x36;
+		}
+	}
+
+	/**
+	 * Completes the HMAC whose inner hash input has been fed to the digest,
+	 * leaving it in block.
+	 */
+	private void finishMac() throws DigestException {
+		digest.digest(block, 0, hashLength);
+		digest.update(outerPad);
+		digest.update(block);
+		digest.digest(block, 0, hashLength);
+	}
+
+	/**
+	 * Encodes characters in UTF-8 into the reusable buffer, replacing unpaired
+	 * surrogates with '?' as the JCA does.
+	 *
+	 * @return the number of bytes
+	 */
+	private int encode(CharBuffer chars) {
+		int needed = chars.remaining() * 3;
+		if (encoded.length < needed) {
+			Arrays.fill(encoded, (byte) 0);
+			encoded = new byte[Math.max(needed, encoded.length * 2)];
+		}
+		int length = 0;
+		while (chars.hasRemaining()) {
+			char c = chars.get();
+			if (c < 0x80) {
+				encoded[length++] = (byte) c;
+			} else if (c < 0x800) {
+				encoded[length++] = (byte) (0xc0 | c >> 6);
+				encoded[length++] = (byte) (0x80 | c & 0x3f);
+			} else if (Character.isHighSurrogate(c) && chars.hasRemaining()
+					&& Character.isLowSurrogate(chars.get(chars.position()))) {
+				int codePoint = Character.toCodePoint(c, chars.get());
+				encoded[length++] = (byte) (0xf0 | codePoint >> 18);
+				encoded[length++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+				encoded[length++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+				encoded[length++] = (byte) (0x80 | codePoint & 0x3f);
+			} else if (Character.isSurrogate(c)) {
+				encoded[length++] = '?';
+			} else {
+				encoded[length++] = (byte) (0xe0 | c >> 12);
+				encoded[length++] = (byte) (0x80 | c >> 6 & 0x3f);
+				encoded[length++] = (byte) (0x80 | c & 0x3f);
+			}
+		}
+		return length;
+	}
+
+}
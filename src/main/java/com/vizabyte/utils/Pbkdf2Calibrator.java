@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the PBKDF2 iteration count that fits a latency budget on the current
+ * machine, so that hashing costs about the same time across hosts of
+ * different speeds.
+ * <p>
+ * The cost per iteration is measured a few times, after a warm up, and the
+ * median is taken to ignore pauses and noisy neighbours. The resulting count
+ * is rounded down to a multiple of {@link #ITERATION_STEP} and never goes
+ * below the given floor, however slow the machine.
+ *
+ * @author Drona
+ *
+ */
+public final class Pbkdf2Calibrator {
+
+	public static final int ITERATION_STEP = 1000;
+
+	private static final int SAMPLES = 5;
+	private static final long MIN_SAMPLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+	private static final byte[] SALT = new byte[SecurityUtils.SAFE_SALT_LENGTH];
+
+	private Pbkdf2Calibrator() {
+	}
+
+	/**
+	 * Measures the highest iteration count whose hash takes no longer than
+	 * the budget on this machine.
+	 *
+	 * @param algorithm
+	 *            - the JCA name of the PBKDF2 algorithm
+	 * @param keyLength
+	 *            - the length in bits of the hashes
+	 * @param budgetMillis
+	 *            - the time one hash may take
+	 * @param minimumIterations
+	 *            - the lowest count returned, whatever the budget
+	 * @return the iteration count
+	 */
+	public static int calibrate(String algorithm, int keyLength, long budgetMillis, int minimumIterations) {
+		if (algorithm == null) {
+			throw new NullPointerException();
+		}
+		if (budgetMillis < 1 || minimumIterations < 1) {
+			throw new IllegalArgumentException("The budget and minimum iterations must be positive");
+		}
+		// lets the JIT compile the digest before anything is timed
+		for (int i = 0; i < 3; i++) {
+			time(algorithm, keyLength, ITERATION_STEP);
+		}
+
+		int probe = ITERATION_STEP;
+		long elapsed;
+		while ((elapsed = time(algorithm, keyLength, probe)) < MIN_SAMPLE_NANOS && probe < Integer.MAX_VALUE / 2) {
+			probe *= 2;
+		}
+		double[] nanosPerIteration = new double[SAMPLES];
+		nanosPerIteration[0] = (double) elapsed / probe;
+		for (int i = 1; i < SAMPLES; i++) {
+			nanosPerIteration[i] = (double) time(algorithm, keyLength, probe) / probe;
+		}
+		Arrays.sort(nanosPerIteration);
+		double median = nanosPerIteration[SAMPLES / 2];
+
+		double fitting = TimeUnit.MILLISECONDS.toNanos(budgetMillis) / median;
+		long iterations = (long) Math.min(fitting, Integer.MAX_VALUE) / ITERATION_STEP * ITERATION_STEP;
+		return (int) Math.max(iterations, minimumIterations);
+	}
+
+	/**
+	 * Creates a hasher using PBKDF2WithHmacSHA512 with as many iterations as
+	 * fit the budget on this machine, and the default key and salt lengths of
+	 * {@link Pbkdf2PasswordHasher#Pbkdf2PasswordHasher()}.
+	 *
+	 * @param budgetMillis
+	 *            - the time one hash may take
+	 * @param minimumIterations
+	 *            - the lowest iteration count used, whatever the budget
+	 * @return the hasher
+	 */
+	public static Pbkdf2PasswordHasher calibratedHasher(long budgetMillis, int minimumIterations) {
+		Pbkdf2PasswordHasher defaults = new Pbkdf2PasswordHasher();
+		int iterations = calibrate(defaults.getAlgorithm(), defaults.getKeyLength(), budgetMillis,
+				minimumIterations);
+		return new Pbkdf2PasswordHasher(defaults.getAlgorithm(), iterations, defaults.getKeyLength(),
+				defaults.getSaltLength());
+	}
+
+	private static long time(String algorithm, int keyLength, int iterations) {
+		long start = System.nanoTime();
+		Pbkdf2PasswordHasher.derive(algorithm, "calibration", SALT, iterations, keyLength);
+		return System.nanoTime() - start;
+	}
+
+}
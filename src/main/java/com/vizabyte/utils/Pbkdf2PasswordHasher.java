@@ -0,0 +1,313 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Hashes passwords with PBKDF2 into a self-describing string that records
+ * the algorithm, iteration count, salt and hash, so stored hashes can be
+ * verified whatever settings they were made with and moved to stronger ones
+ * over time.
+ * <p>
+ * The encoded form follows the PHC string format, with the salt and hash in
+ * unpadded Base64, for instance
+ * {@code $pbkdf2-sha512$i=5000$<salt>$<hash>}. The key length is that of the
+ * stored hash. Passwords are normalized to NFD and encoded in UTF-8 before
+ * hashing, as by {@link SecurityUtils#hashPassword(String, byte[])}.
+ * <p>
+ * Hashes made by {@link SecurityUtils#hashPassword(String, byte[])} where the
+ * default charset is not UTF-8 depend on that charset, which their encoded
+ * form records, as in {@code $pbkdf2-sha512$i=1000,enc=US-ASCII$<salt>$<hash>}.
+ * They are verified with that charset and always need a rehash.
+ * <p>
+ * Instances are immutable and thread safe.
+ *
+ * @author Drona
+ *
+ */
+public final class Pbkdf2PasswordHasher extends AbstractPasswordHasher {
+
+	public static final String PBKDF2_SHA512 = "PBKDF2WithHmacSHA512";
+	public static final String PBKDF2_SHA256 = "PBKDF2WithHmacSHA256";
+	public static final String PBKDF2_SHA1 = "PBKDF2WithHmacSHA1";
+
+	private final String algorithm;
+	private final int iterations;
+	private final int keyLength;
+	private final int saltLength;
+
+	/**
+	 * Creates a hasher using PBKDF2WithHmacSHA512 with
+	 * {@link SecurityUtils#BALANCED_ITERATIONS} iterations, a key of
+	 * {@link SecurityUtils#SAFER_KEY_LENGTH} bits and a salt of
+	 * {@link SecurityUtils#SAFE_SALT_LENGTH} bytes.
+	 */
+	public Pbkdf2PasswordHasher() {
+		this(PBKDF2_SHA512, SecurityUtils.BALANCED_ITERATIONS, SecurityUtils.SAFER_KEY_LENGTH,
+				SecurityUtils.SAFE_SALT_LENGTH);
+	}
+
+	/**
+	 * @param algorithm
+	 *            - one of {@link #PBKDF2_SHA512}, {@link #PBKDF2_SHA256} or
+	 *            {@link #PBKDF2_SHA1}
+	 * @param iterations
+	 *            - the iteration count of new hashes
+	 * @param keyLength
+	 *            - the length in bits of new hashes, a multiple of 8
+	 * @param saltLength
+	 *            - the length in bytes of the salt of new hashes
+	 * @throws IllegalArgumentException
+	 *             - when the algorithm is not supported or a length or count
+	 *             is not positive
+	 */
+	public Pbkdf2PasswordHasher(String algorithm, int iterations, int keyLength, int saltLength) {
+		if (algorithm == null) {
+			throw new NullPointerException();
+		}
+		id(algorithm);
+		if (iterations < 1 || keyLength < 8 || keyLength % 8 != 0 || saltLength < 1) {
+			throw new IllegalArgumentException("Invalid PBKDF2 parameters");
+		}
+		this.algorithm = algorithm;
+		this.iterations = iterations;
+		this.keyLength = keyLength;
+		this.saltLength = saltLength;
+	}
+
+	/**
+	 * @return the JCA name of the algorithm of new hashes
+	 */
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * @return the iteration count of new hashes
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	/**
+	 * @return the length in bits of new hashes
+	 */
+	public int getKeyLength() {
+		return keyLength;
+	}
+
+	/**
+	 * @return the length in bytes of the salt of new hashes
+	 */
+	public int getSaltLength() {
+		return saltLength;
+	}
+
+	/**
+	 * Hashes a password given as characters with a new random salt. The
+	 * array is not modified; clear it once done.
+	 *
+	 * @param password
+	 *            - the password
+	 * @return the encoded hash
+	 */
+	public String hash(char[] password) {
+		if (password == null) {
+			throw new NullPointerException();
+		}
+		byte[] salt = SecurityUtils.getNextSalt(saltLength);
+		return encode(algorithm, iterations, salt,
+				Pbkdf2.get(algorithm).derive(password, salt, iterations, keyLength));
+	}
+
+	/**
+	 * Checks a password given as characters against an encoded hash. The
+	 * array is not modified; clear it once done.
+	 *
+	 * @param password
+	 *            - the password
+	 * @param encodedHash
+	 *            - a hash encoded by this class
+	 * @return whether the password matches
+	 * @throws IllegalArgumentException
+	 *             - when the hash is not a PBKDF2 hash encoded by this class
+	 */
+	public boolean verify(char[] password, String encodedHash) {
+		if (password == null) {
+			throw new NullPointerException();
+		}
+		Encoded encoded = Encoded.parse(encodedHash);
+		Pbkdf2 engine = Pbkdf2.get(encoded.algorithm);
+		byte[] actual;
+		if (encoded.legacyCharset == null) {
+			actual = engine.derive(password, encoded.salt, encoded.iterations, encoded.hash.length * 8);
+		} else {
+			char[] legacy = SecurityUtils.legacyChars(CharBuffer.wrap(password), encoded.legacyCharset);
+			try {
+				actual = engine.deriveUnnormalized(legacy, encoded.salt, encoded.iterations, encoded.hash.length * 8);
+			} finally {
+				Arrays.fill(legacy, '\0');
+			}
+		}
+		return SecurityUtils.constantTimeEquals(actual, encoded.hash);
+	}
+
+	/**
+	 * Tells whether a hash was made with weaker settings than those of this
+	 * hasher: another algorithm, fewer iterations, a shorter salt or another
+	 * key length. Such a hash should be replaced by a new one the next time
+	 * the password is verified.
+	 *
+	 * @param encodedHash
+	 *            - a stored hash
+	 * @return whether the hash should be made again
+	 */
+	public boolean needsRehash(String encodedHash) {
+		if (!supports(encodedHash)) {
+			return true;
+		}
+		Encoded encoded = Encoded.parse(encodedHash);
+		return encoded.legacyCharset != null || !encoded.algorithm.equals(algorithm) || encoded.iterations < iterations
+				|| encoded.salt.length < saltLength || encoded.hash.length * 8 != keyLength;
+	}
+
+	/**
+	 * Tells whether a stored hash is a PBKDF2 hash in the PHC string format
+	 * this hasher verifies, as opposed to one made by another scheme.
+	 *
+	 * @param encodedHash
+	 *            - a stored hash
+	 * @return whether {@link #verify(char[], String)} can check the hash
+	 */
+	public boolean supports(String encodedHash) {
+		if (encodedHash == null) {
+			throw new NullPointerException();
+		}
+		return encodedHash.startsWith("$pbkdf2-sha512$") || encodedHash.startsWith("$pbkdf2-sha256$")
+				|| encodedHash.startsWith("$pbkdf2$");
+	}
+
+	/**
+	 * Encodes a hash made with the given parameters, for instance one made by
+	 * {@link SecurityUtils#hashPassword(String, byte[])}.
+	 *
+	 * @param algorithm
+	 *            - the JCA name of the algorithm
+	 * @param iterations
+	 *            - the iteration count
+	 * @param salt
+	 *            - the salt
+	 * @param hash
+	 *            - the hash
+	 * @return the encoded hash
+	 */
+	public static String encode(String algorithm, int iterations, byte[] salt, byte[] hash) {
+		return "$" + id(algorithm) + "$i=" + iterations + "$" + encoder.encodeToString(salt) + "$"
+				+ encoder.encodeToString(hash);
+	}
+
+	/**
+	 * Encodes a PBKDF2WithHmacSHA512 hash made by
+	 * {@link SecurityUtils#hashPassword(String, byte[])} on a platform whose
+	 * default charset is not UTF-8.
+	 */
+	static String encodeLegacy(int iterations, Charset platformCharset, byte[] salt, byte[] hash) {
+		return "$" + id(PBKDF2_SHA512) + "$i=" + iterations + ",enc=" + platformCharset.name() + "$"
+				+ encoder.encodeToString(salt) + "$" + encoder.encodeToString(hash);
+	}
+
+	static byte[] derive(String algorithm, String password, byte[] salt, int iterations, int keyLength) {
+		char[] chars = password.toCharArray();
+		try {
+			return Pbkdf2.get(algorithm).derive(chars, salt, iterations, keyLength);
+		} finally {
+			Arrays.fill(chars, '\0');
+		}
+	}
+
+	private static String id(String algorithm) {
+		if (PBKDF2_SHA512.equals(algorithm)) {
+			return "pbkdf2-sha512";
+		}
+		if (PBKDF2_SHA256.equals(algorithm)) {
+			return "pbkdf2-sha256";
+		}
+		if (PBKDF2_SHA1.equals(algorithm)) {
+			return "pbkdf2";
+		}
+		throw new IllegalArgumentException("Unsupported algorithm " + algorithm);
+	}
+
+	private static String algorithm(String id) {
+		if (id.equals("pbkdf2-sha512")) {
+			return PBKDF2_SHA512;
+		}
+		if (id.equals("pbkdf2-sha256")) {
+			return PBKDF2_SHA256;
+		}
+		if (id.equals("pbkdf2")) {
+			return PBKDF2_SHA1;
+		}
+		throw new IllegalArgumentException("Unsupported hash $" + id + "$");
+	}
+
+	/**
+	 * The parts of an encoded hash.
+	 */
+	private static final class Encoded {
+
+		String algorithm;
+		int iterations;
+		// the platform charset of a legacy hash, or null
+		Charset legacyCharset;
+		byte[] salt;
+		byte[] hash;
+
+		static Encoded parse(String encodedHash) {
+			if (encodedHash == null) {
+				throw new NullPointerException();
+			}
+			String[] parts = encodedHash.split("\\$", -1);
+			if (parts.length != 5 || !parts[0].isEmpty() || !parts[2].startsWith("i=")) {
+				throw new IllegalArgumentException("Not an encoded PBKDF2 hash");
+			}
+			Encoded encoded = new Encoded();
+			encoded.algorithm = algorithm(parts[1]);
+			try {
+				String[] parameters = parts[2].split(",", -1);
+				if (parameters.length > 2 || parameters.length == 2 && !parameters[1].startsWith("enc=")) {
+					throw new IllegalArgumentException("Not an encoded PBKDF2 hash");
+				}
+				encoded.iterations = Integer.parseInt(parameters[0].substring(2));
+				if (parameters.length == 2) {
+					encoded.legacyCharset = Charset.forName(parameters[1].substring(4));
+				}
+				encoded.salt = decoder.decode(parts[3]);
+				encoded.hash = decoder.decode(parts[4]);
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Not an encoded PBKDF2 hash", e);
+			}
+			if (encoded.iterations < 1 || encoded.hash.length == 0) {
+				throw new IllegalArgumentException("Not an encoded PBKDF2 hash");
+			}
+			return encoded;
+		}
+	}
+
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.apache.fop.apps.FOPException;
+import org.apache.fop.apps.FopFactory;
+import org.docx4j.Docx4J;
+import org.docx4j.convert.out.FOSettings;
+import org.docx4j.convert.out.fo.renderers.FORendererApacheFOP;
+import org.docx4j.openpackaging.exceptions.Docx4JException;
+import org.docx4j.openpackaging.packages.WordprocessingMLPackage;
+
+import com.vizabyte.utils.Instrumentation.Phase;
+
+/**
+ * Converts .docx documents to PDF on a bounded pool of worker threads.
+ * <p>
+ * At most the configured number of conversions run at once and at most the
+ * configured number wait for a worker; any further conversion is rejected
+ * straight away instead of queueing without limit, so the heap taken by
+ * conversions in progress stays bounded. Every conversion has a time limit
+ * after which its future fails with a {@link TimeoutException} and its worker
+ * is interrupted.
+ * <p>
+ * Setting up Apache FOP for a given configuration is far more expensive than
+ * rendering a small document, so FOP factories are created once per distinct
+ * configuration and shared by every conversion in the process, including
+ * those of {@link DocxUtils#toPdf(InputStream, OutputStream)}. The compiled
+ * docx to XSL-FO stylesheet is cached by docx4j itself.
+ *
+ * @author Drona
+ *
+ */
+public class PdfConversionService implements Closeable {
+
+	public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+	public static final long DEFAULT_TIMEOUT_MILLIS = 60000;
+
+	private static final int MAX_FOP_FACTORIES = 16;
+
+	private static final LinkedHashMap<String, FopFactory> fopFactories = new LinkedHashMap<String, FopFactory>(16,
+			0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, FopFactory> eldest) {
+			return size() > MAX_FOP_FACTORIES;
+		}
+	};
+
+	private static final AtomicInteger serviceCount = new AtomicInteger();
+
+	private final ThreadPoolExecutor workers;
+	private final ScheduledThreadPoolExecutor timer;
+	private final long timeoutMillis;
+
+	/**
+	 * Creates a service with one worker per processor, as many waiting
+	 * conversions as workers and a time limit of
+	 * {@link #DEFAULT_TIMEOUT_MILLIS} per conversion.
+	 */
+	public PdfConversionService() {
+		this(DEFAULT_PARALLELISM, DEFAULT_PARALLELISM, DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param parallelism
+	 *            - the maximum number of conversions running at once
+	 * @param queueCapacity
+	 *            - the maximum number of conversions waiting for a worker
+	 * @param timeout
+	 *            - the time limit of each conversion, counted from its
+	 *            submission
+	 * @param unit
+	 *            - the unit of the time limit
+	 */
+	public PdfConversionService(int parallelism, int queueCapacity, long timeout, TimeUnit unit) {
+		if (unit == null) {
+			throw new NullPointerException();
+		}
+		if (parallelism < 1 || queueCapacity < 1 || timeout < 1) {
+			throw new IllegalArgumentException("Pool limits and timeout must be positive");
+		}
+		String name = "pdf-conversion-" + serviceCount.incrementAndGet();
+		this.workers = new ThreadPoolExecutor(parallelism, parallelism, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), threadFactory(name + "-worker-"),
+				new ThreadPoolExecutor.AbortPolicy());
+		this.timer = new ScheduledThreadPoolExecutor(1, threadFactory(name + "-timer-"));
+		this.timer.setRemoveOnCancelPolicy(true);
+		this.timeoutMillis = unit.toMillis(timeout);
+	}
+
+	private static ThreadFactory threadFactory(final String prefix) {
+		return new ThreadFactory() {
+
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, prefix + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * Converts a .docx document to PDF in the background. Neither stream is
+	 * closed; both are used from a worker thread until the future completes.
+	 *
+	 * @param docxInputStream
+	 *            - input stream on a .docx file
+	 * @param pdfStream
+	 *            - the stream the PDF is written to
+	 * @return a future completing when the PDF has been written, or failing
+	 *         with a {@link RejectedExecutionException} when the service is
+	 *         saturated or closed, a {@link TimeoutException} when the time
+	 *         limit is exceeded or the {@link Docx4JException} the conversion
+	 *         failed with
+	 */
+	public CompletableFuture<Void> convertAsync(final InputStream docxInputStream, final OutputStream pdfStream) {
+		if (docxInputStream == null || pdfStream == null) {
+			throw new NullPointerException();
+		}
+		return submit(new Callable<Void>() {
+			public Void call() throws Docx4JException {
+				toPdf(DocxUtils.load(docxInputStream, -1), pdfStream);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Converts a loaded .docx package to PDF in the background. The package
+	 * must not be modified until the future completes.
+	 *
+	 * @param wordMLPackage
+	 *            - the package to convert
+	 * @param pdfStream
+	 *            - the stream the PDF is written to; it is not closed
+	 * @return a future completing when the PDF has been written; see
+	 *         {@link #convertAsync(InputStream, OutputStream)}
+	 */
+	public CompletableFuture<Void> convertAsync(final WordprocessingMLPackage wordMLPackage,
+			final OutputStream pdfStream) {
+		if (wordMLPackage == null || pdfStream == null) {
+			throw new NullPointerException();
+		}
+		return submit(new Callable<Void>() {
+			public Void call() throws Docx4JException {
+				toPdf(wordMLPackage, pdfStream);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Converts a .docx document to PDF on a worker thread and waits for the
+	 * result. Neither stream is closed.
+	 *
+	 * @param docxInputStream
+	 *            - input stream on a .docx file
+	 * @param pdfStream
+	 *            - the stream the PDF is written to
+	 * @throws Docx4JException
+	 *             - when the document cannot be converted or the time limit is
+	 *             exceeded
+	 * @throws RejectedExecutionException
+	 *             - when the service is saturated or closed
+	 * @throws InterruptedException
+	 *             - when the calling thread is interrupted while waiting
+	 */
+	public void convert(InputStream docxInputStream, OutputStream pdfStream)
+			throws Docx4JException, InterruptedException {
+		await(convertAsync(docxInputStream, pdfStream));
+	}
+
+	/**
+	 * Converts a .docx file to a PDF file on a worker thread and waits for the
+	 * result.
+	 *
+	 * @param inputDocxFile
+	 *            - input file in the .docx format
+	 * @param outputPdfFile
+	 *            - output file
+	 * @throws Docx4JException
+	 *             - when the document cannot be converted or the time limit is
+	 *             exceeded
+	 * @throws IOException
+	 *             - when either file cannot be opened
+	 * @throws RejectedExecutionException
+	 *             - when the service is saturated or closed
+	 * @throws InterruptedException
+	 *             - when the calling thread is interrupted while waiting
+	 */
+	public void convert(File inputDocxFile, File outputPdfFile)
+			throws Docx4JException, IOException, InterruptedException {
+		FileInputStream fis = null;
+		FileOutputStream fos = null;
+		try {
+			fis = new FileInputStream(inputDocxFile);
+			fos = new FileOutputStream(outputPdfFile);
+			convert(fis, fos);
+		} finally {
+			IOUtils.closeQuietly(fis);
+			IOUtils.closeQuietly(fos);
+		}
+	}
+
+	private static void await(CompletableFuture<Void> conversion) throws Docx4JException, InterruptedException {
+		try {
+			conversion.get();
+		} catch (InterruptedException e) {
+			conversion.cancel(true);
+			throw e;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Docx4JException) {
+				throw (Docx4JException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new Docx4JException(cause.getMessage(), (Exception) cause);
+		}
+	}
+
+	private CompletableFuture<Void> submit(Callable<Void> conversion) {
+		final CompletableFuture<Void> result = new CompletableFuture<Void>();
+		final FutureTask<Void> task = new FutureTask<Void>(conversion) {
+
+			@Override
+			protected void done() {
+				if (isCancelled()) {
+					result.cancel(false);
+					return;
+				}
+				try {
+					get();
+					result.complete(null);
+				} catch (ExecutionException e) {
+					result.completeExceptionally(e.getCause());
+				} catch (InterruptedException e) {
+					result.completeExceptionally(e);
+				}
+			}
+		};
+
+		try {
+			workers.execute(task);
+		} catch (RejectedExecutionException e) {
+			result.completeExceptionally(e);
+			return result;
+		}
+
+		final ScheduledFuture<?> deadline = timer.schedule(new Runnable() {
+			public void run() {
+				if (result.completeExceptionally(
+						new TimeoutException("PDF conversion exceeded " + timeoutMillis + " ms"))) {
+					task.cancel(true);
+				}
+			}
+		}, timeoutMillis, TimeUnit.MILLISECONDS);
+
+		result.whenComplete(new BiConsumer<Void, Throwable>() {
+			public void accept(Void ignored, Throwable failure) {
+				deadline.cancel(false);
+				if (result.isCancelled()) {
+					task.cancel(true);
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * @return the number of conversions running
+	 */
+	public int getActiveCount() {
+		return workers.getActiveCount();
+	}
+
+	/**
+	 * @return the number of conversions waiting for a worker
+	 */
+	public int getQueuedCount() {
+		return workers.getQueue().size();
+	}
+
+	/**
+	 * Stops accepting conversions. Conversions already submitted still run to
+	 * completion or until their time limit.
+	 */
+	public void close() {
+		workers.shutdown();
+		timer.shutdown();
+	}
+
+	/**
+	 * Waits for the conversions submitted before {@link #close()} to finish.
+	 *
+	 * @param timeout
+	 *            - the maximum time to wait
+	 * @param unit
+	 *            - the unit of the timeout
+	 * @return true when every conversion has finished
+	 * @throws InterruptedException
+	 *             - when the calling thread is interrupted while waiting
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return workers.awaitTermination(timeout, unit);
+	}
+
+	/**
+	 * Converts a loaded package to PDF on the calling thread, reusing the
+	 * shared FOP factories and the fonts of the {@link FontRegistry}, and
+	 * deletes the temporary files of any embedded fonts afterwards.
+	 */
+	static void toPdf(WordprocessingMLPackage wordMLPackage, OutputStream pdfStream) throws Docx4JException {
+		long start = Instrumentation.start();
+		OutputStream counted = Instrumentation.count(pdfStream);
+		FontRegistry.prepare(wordMLPackage);
+		try {
+			FOSettings foSettings = Docx4J.createFOSettings();
+			foSettings.setWmlPackage(wordMLPackage);
+			// a renderer per conversion, as docx4j keeps per document state in it
+			foSettings.setCustomFoRenderer(new CachingFopRenderer());
+			Docx4J.toFO(foSettings, counted, Docx4J.FLAG_EXPORT_PREFER_XSL);
+			Instrumentation.end(Phase.FO_TRANSFORM, start, 0, Instrumentation.countOf(counted));
+		} catch (Exception e) {
+			Instrumentation.error(Phase.FO_TRANSFORM, e);
+			throw e;
+		} finally {
+			// Clean up, so any ObfuscatedFontPart temp files can be deleted
+			FontRegistry.release(wordMLPackage);
+		}
+	}
+
+	/**
+	 * Returns the FOP factory for the given configuration, creating it outside
+	 * the lock if none is cached, so a slow setup never blocks conversions
+	 * using another configuration.
+	 */
+	static FopFactory getFopFactory(String configuration, CachingFopRenderer creator) throws FOPException {
+		synchronized (fopFactories) {
+			FopFactory factory = fopFactories.get(configuration);
+			if (factory != null) {
+				return factory;
+			}
+		}
+		FopFactory created = creator.createFopFactory(configuration);
+		if (created == null) {
+			throw new FOPException("Apache FOP could not be configured");
+		}
+		synchronized (fopFactories) {
+			FopFactory factory = fopFactories.get(configuration);
+			if (factory == null) {
+				fopFactories.put(configuration, created);
+				factory = created;
+			}
+			return factory;
+		}
+	}
+
+	/**
+	 * The docx4j FOP renderer, taking its factories from the shared cache
+	 * instead of configuring FOP again for every document.
+	 */
+	static final class CachingFopRenderer extends FORendererApacheFOP {
+
+		@Override
+		protected FopFactory getFopFactory(String userConfig) throws FOPException {
+			return PdfConversionService.getFopFactory(userConfig, this);
+		}
+
+		@Override
+		protected FopFactory createFopFactory(String userConfig) throws FOPException {
+			return super.createFopFactory(userConfig);
+		}
+	}
+
+}
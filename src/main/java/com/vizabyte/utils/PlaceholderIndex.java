@@ -0,0 +1,221 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The ${variable-name} placeholders of a {@link DocxTemplate}, found once when
+ * the template is compiled: their names, the parts holding them and where in
+ * those parts they are, and whether they sit in the body, a header or a
+ * footer.
+ * <p>
+ * The index is kept with the compiled template, so mappings can be checked
+ * against it before rendering at no cost beyond a few set lookups. The
+ * offsets describe the saved parts; rendering does not read them, as the
+ * compiled template already holds the text between placeholders. Instances
+ * are immutable and thread safe.
+ *
+ * @author Drona
+ *
+ */
+public final class PlaceholderIndex {
+
+	/**
+	 * The kind of part a placeholder sits in.
+	 */
+	public enum Location {
+		/** The main document part. */
+		BODY,
+		/** A header part. */
+		HEADER,
+		/** A footer part. */
+		FOOTER
+	}
+
+	/**
+	 * One occurrence of a placeholder.
+	 */
+	public static final class Placeholder {
+
+		private final String name;
+		private final String partName;
+		private final Location location;
+		private final int offset;
+
+		Placeholder(String name, String partName, Location location, int offset) {
+			this.name = name;
+			this.partName = partName;
+			this.location = location;
+			this.offset = offset;
+		}
+
+		/**
+		 * @return the variable name, without ${ and }
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the name of the zip entry of the part holding it
+		 */
+		public String getPartName() {
+			return partName;
+		}
+
+		/**
+		 * @return the kind of part holding it
+		 */
+		public Location getLocation() {
+			return location;
+		}
+
+		/**
+		 * @return the offset in characters of its ${ in the XML of the part
+		 */
+		public int getOffset() {
+			return offset;
+		}
+
+		@Override
+		public String toString() {
+			return "${" + name + "} in " + partName + " at " + offset;
+		}
+	}
+
+	private final List<Placeholder> placeholders;
+	private final Set<String> names;
+
+	PlaceholderIndex(List<Placeholder> placeholders) {
+		this.placeholders = Collections.unmodifiableList(new ArrayList<Placeholder>(placeholders));
+		Set<String> names = new LinkedHashSet<String>();
+		for (Placeholder placeholder : placeholders) {
+			names.add(placeholder.getName());
+		}
+		this.names = Collections.unmodifiableSet(names);
+	}
+
+	/**
+	 * @return every occurrence, body first, then headers and footers, each in
+	 *         document order
+	 */
+	public List<Placeholder> getPlaceholders() {
+		return placeholders;
+	}
+
+	/**
+	 * @param name
+	 *            - a variable name
+	 * @return the occurrences of the variable, empty when the template does
+	 *         not use it
+	 */
+	public List<Placeholder> getPlaceholders(String name) {
+		List<Placeholder> found = new ArrayList<Placeholder>();
+		for (Placeholder placeholder : placeholders) {
+			if (placeholder.getName().equals(name)) {
+				found.add(placeholder);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @return the distinct variable names, in the order they first appear
+	 */
+	public Set<String> getNames() {
+		return names;
+	}
+
+	/**
+	 * @param location
+	 *            - a kind of part
+	 * @return the distinct variable names used in that kind of part
+	 */
+	public Set<String> getNames(Location location) {
+		Set<String> found = new LinkedHashSet<String>();
+		for (Placeholder placeholder : placeholders) {
+			if (placeholder.getLocation() == location) {
+				found.add(placeholder.getName());
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @param name
+	 *            - a variable name
+	 * @return whether the template uses the variable
+	 */
+	public boolean contains(String name) {
+		return names.contains(name);
+	}
+
+	/**
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @return the variables of the template without a value in the mappings,
+	 *         which rendering would replace by their names
+	 */
+	public Set<String> getMissingNames(Map<String, String> mappings) {
+		Set<String> missing = new LinkedHashSet<String>();
+		for (String name : names) {
+			if (mappings.get(name) == null) {
+				missing.add(name);
+			}
+		}
+		return missing;
+	}
+
+	/**
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @return the mapped variables the template does not use
+	 */
+	public Set<String> getUnusedNames(Map<String, String> mappings) {
+		Set<String> unused = new LinkedHashSet<String>();
+		for (String name : mappings.keySet()) {
+			if (!names.contains(name)) {
+				unused.add(name);
+			}
+		}
+		return unused;
+	}
+
+	/**
+	 * Checks that the mappings give a value to every variable of the template.
+	 *
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @throws IllegalArgumentException
+	 *             - naming the variables without a value, when there is any
+	 */
+	public void validate(Map<String, String> mappings) {
+		if (mappings == null) {
+			throw new NullPointerException();
+		}
+		Set<String> missing = getMissingNames(mappings);
+		if (!missing.isEmpty()) {
+			throw new IllegalArgumentException("No value for the template variables " + missing);
+		}
+	}
+
+}
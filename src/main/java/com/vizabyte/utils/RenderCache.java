@@ -0,0 +1,428 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of rendered documents, such as the .docx and PDF results of
+ * {@link DocxUtils}, keyed by the SHA-256 hash of the output format, the
+ * template content and the variable mappings. Rendering the same template with
+ * the same mappings again, as reprints and retries do, reads the result back
+ * instead of rendering it.
+ * <p>
+ * Results are kept in memory up to the configured number of bytes. Beyond
+ * that, the least recently used ones are spilled to files in the configured
+ * directory, if any, from which they are read back on the next hit; the
+ * least recently used files are deleted once their total size exceeds the
+ * disk limit. Files are written to a temporary name and renamed, so a reader
+ * never sees a partial result, and those found in the directory on creation
+ * are reused, oldest first to be evicted.
+ * <p>
+ * Rendering happens outside the cache, so two threads missing the same key at
+ * once both render it. No file is read or written while the cache lock is
+ * held.
+ *
+ * @author Drona
+ *
+ */
+public class RenderCache {
+
+	public static final String DOCX = "docx";
+	public static final String PDF = "pdf";
+	public static final long DEFAULT_MAX_MEMORY = 64L * 1024 * 1024;
+
+	private static final String SUFFIX = ".render";
+
+	private final long maxMemory;
+	private final File directory;
+	private final long maxDisk;
+	private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+	private final LinkedHashMap<String, Long> disk = new LinkedHashMap<String, Long>(16, 0.75f, true);
+	private long memoryWeight;
+	private long diskWeight;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder diskHits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Creates a cache keeping results in memory only.
+	 *
+	 * @param maxMemory
+	 *            - the maximum number of bytes of results kept in memory
+	 */
+	public RenderCache(long maxMemory) {
+		if (maxMemory < 1) {
+			throw new IllegalArgumentException("Cache limits must be positive");
+		}
+		this.maxMemory = maxMemory;
+		this.directory = null;
+		this.maxDisk = 0;
+	}
+
+	/**
+	 * Creates a cache spilling results to the given directory, which is
+	 * created if needed and should not be used for anything else.
+	 *
+	 * @param maxMemory
+	 *            - the maximum number of bytes of results kept in memory
+	 * @param directory
+	 *            - the directory of the spilled results
+	 * @param maxDisk
+	 *            - the maximum number of bytes of results kept in the
+	 *            directory
+	 * @throws IOException
+	 *             - when the directory cannot be created or listed
+	 */
+	public RenderCache(long maxMemory, File directory, long maxDisk) throws IOException {
+		if (directory == null) {
+			throw new NullPointerException();
+		}
+		if (maxMemory < 1 || maxDisk < 1) {
+			throw new IllegalArgumentException("Cache limits must be positive");
+		}
+		this.maxMemory = maxMemory;
+		this.directory = directory;
+		this.maxDisk = maxDisk;
+
+		Files.createDirectories(directory.toPath());
+		File[] files = directory.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().endsWith(SUFFIX);
+			}
+		});
+		if (files == null) {
+			throw new IOException("Cannot list " + directory);
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File a, File b) {
+				return Long.compare(a.lastModified(), b.lastModified());
+			}
+		});
+		for (File file : files) {
+			String name = file.getName();
+			disk.put(name.substring(0, name.length() - SUFFIX.length()), file.length());
+			diskWeight += file.length();
+		}
+		deleteFiles(trimDisk());
+	}
+
+	/**
+	 * Computes the key of a rendered result. The mappings are normalized by
+	 * sorting them by variable name, so maps holding the same mappings in
+	 * another order give the same key.
+	 *
+	 * @param format
+	 *            - the output format, such as {@link #DOCX} or {@link #PDF}
+	 * @param templateHash
+	 *            - the hash of the template content, as given by
+	 *            {@link DocxTemplate#getContentHash()}
+	 * @param mappings
+	 *            - the variable - value mappings, without null names
+	 * @return the hex encoded SHA-256 key
+	 */
+	public static String key(String format, String templateHash, Map<String, String> mappings) {
+		if (format == null || templateHash == null || mappings == null) {
+			throw new NullPointerException();
+		}
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			update(digest, format);
+			update(digest, templateHash);
+			for (Map.Entry<String, String> mapping : new TreeMap<String, String>(mappings).entrySet()) {
+				update(digest, mapping.getKey());
+				update(digest, mapping.getValue());
+			}
+			return DocxTemplateCache.toHex(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Hashes a string with its length first, so that no two sequences of
+	 * strings hash the same bytes, and null apart from any string.
+	 */
+	private static void update(MessageDigest digest, String value) {
+		byte[] bytes = value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+		int length = bytes == null ? -1 : bytes.length;
+		digest.update(new byte[] { (byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8),
+				(byte) length });
+		if (bytes != null) {
+			digest.update(bytes);
+		}
+	}
+
+	/**
+	 * @param key
+	 *            - the key of the result
+	 * @return a copy of the cached result, or null when it is not cached
+	 */
+	public byte[] get(String key) {
+		byte[] value = lookup(key);
+		return value == null ? null : value.clone();
+	}
+
+	/**
+	 * Caches a result, spilling older ones to disk as needed. A result larger
+	 * than the memory limit goes straight to disk, or is not cached when the
+	 * cache has no directory.
+	 *
+	 * @param key
+	 *            - the key of the result, as given by
+	 *            {@link #key(String, String, Map)}
+	 * @param value
+	 *            - the result, copied by the cache
+	 */
+	public void put(String key, byte[] value) {
+		if (key == null || value == null) {
+			throw new NullPointerException();
+		}
+		store(key, value.clone());
+	}
+
+	/**
+	 * Looks a result up without copying it; the array must not be modified.
+	 */
+	byte[] lookup(String key) {
+		if (key == null) {
+			throw new NullPointerException();
+		}
+		byte[] value;
+		boolean onDisk;
+		synchronized (this) {
+			value = memory.get(key);
+			onDisk = value == null && disk.get(key) != null;
+		}
+		if (onDisk) {
+			try {
+				value = Files.readAllBytes(file(key));
+				diskHits.increment();
+				store(key, value);
+			} catch (IOException e) {
+				// deleted meanwhile, or the directory was cleaned up
+				synchronized (this) {
+					Long length = disk.remove(key);
+					if (length != null) {
+						diskWeight -= length;
+					}
+				}
+			}
+		}
+		if (value == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		Instrumentation.cacheAccess(Instrumentation.RENDER_CACHE, value != null);
+		return value;
+	}
+
+	/**
+	 * Caches a result without copying it; the array must not be modified
+	 * afterwards.
+	 */
+	void store(String key, byte[] value) {
+		List<Map.Entry<String, byte[]>> spilled = new ArrayList<Map.Entry<String, byte[]>>();
+		synchronized (this) {
+			byte[] previous = memory.remove(key);
+			if (previous != null) {
+				memoryWeight -= previous.length;
+			}
+			if (value.length > maxMemory) {
+				spilled.add(new AbstractMap.SimpleImmutableEntry<String, byte[]>(key, value));
+			} else {
+				memory.put(key, value);
+				memoryWeight += value.length;
+				Iterator<Map.Entry<String, byte[]>> eldest = memory.entrySet().iterator();
+				while (memoryWeight > maxMemory) {
+					Map.Entry<String, byte[]> evicted = eldest.next();
+					eldest.remove();
+					memoryWeight -= evicted.getValue().length;
+					spilled.add(evicted);
+				}
+			}
+		}
+		for (Map.Entry<String, byte[]> entry : spilled) {
+			spill(entry.getKey(), entry.getValue());
+		}
+	}
+
+	private void spill(String key, byte[] value) {
+		synchronized (this) {
+			if (directory == null || disk.containsKey(key)) {
+				return;
+			}
+		}
+		try {
+			Path temp = Files.createTempFile(directory.toPath(), key, ".tmp");
+			try {
+				Files.write(temp, value);
+				AtomicFileOutputStream.move(temp, file(key));
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		} catch (IOException e) {
+			// the disk tier is best effort, the result is rendered again
+			return;
+		}
+		List<String> deleted;
+		synchronized (this) {
+			Long previous = disk.put(key, (long) value.length);
+			if (previous != null) {
+				diskWeight -= previous;
+			}
+			diskWeight += value.length;
+			deleted = trimDisk();
+		}
+		deleteFiles(deleted);
+	}
+
+	/**
+	 * Evicts the least recently used files from the index until they fit the
+	 * disk limit, returning their keys.
+	 */
+	private List<String> trimDisk() {
+		List<String> evicted = new ArrayList<String>();
+		Iterator<Map.Entry<String, Long>> eldest = disk.entrySet().iterator();
+		while (diskWeight > maxDisk) {
+			Map.Entry<String, Long> entry = eldest.next();
+			eldest.remove();
+			diskWeight -= entry.getValue();
+			evicted.add(entry.getKey());
+		}
+		return evicted;
+	}
+
+	private void deleteFiles(List<String> keys) {
+		for (String key : keys) {
+			try {
+				Files.deleteIfExists(file(key));
+			} catch (IOException e) {
+				// left for the next clear
+			}
+		}
+	}
+
+	private Path file(String key) {
+		return new File(directory, key + SUFFIX).toPath();
+	}
+
+	/**
+	 * Removes a result from memory and disk.
+	 *
+	 * @param key
+	 *            - the key of the result
+	 */
+	public void invalidate(String key) {
+		boolean onDisk;
+		synchronized (this) {
+			byte[] removed = memory.remove(key);
+			if (removed != null) {
+				memoryWeight -= removed.length;
+			}
+			Long length = disk.remove(key);
+			if (length != null) {
+				diskWeight -= length;
+			}
+			onDisk = length != null;
+		}
+		if (onDisk) {
+			deleteFiles(Arrays.asList(key));
+		}
+	}
+
+	/**
+	 * Removes every result from memory and disk.
+	 */
+	public void clear() {
+		List<String> keys;
+		synchronized (this) {
+			memory.clear();
+			memoryWeight = 0;
+			keys = new ArrayList<String>(disk.keySet());
+			disk.clear();
+			diskWeight = 0;
+		}
+		if (directory != null) {
+			deleteFiles(keys);
+		}
+	}
+
+	/**
+	 * @return the number of bytes of results held in memory
+	 */
+	public synchronized long getMemoryWeight() {
+		return memoryWeight;
+	}
+
+	/**
+	 * @return the number of bytes of results held on disk
+	 */
+	public synchronized long getDiskWeight() {
+		return diskWeight;
+	}
+
+	/**
+	 * @return the number of lookups that found a result, in memory or on disk
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of lookups that read a result back from disk
+	 */
+	public long getDiskHitCount() {
+		return diskHits.sum();
+	}
+
+	/**
+	 * @return the number of lookups that found no result
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return the share of lookups that found a result, or 0 before the
+	 *         first lookup
+	 */
+	public double getHitRate() {
+		long hitCount = hits.sum();
+		long total = hitCount + misses.sum();
+		return total == 0 ? 0 : (double) hitCount / total;
+	}
+
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.util.Arrays;
+
+import com.vizabyte.utils.Instrumentation.Phase;
+
+/**
+ * Hashes passwords with scrypt (RFC 7914), whose cost is set in memory as
+ * well as time, so that guessing passwords on GPUs or dedicated hardware
+ * gains far less than with PBKDF2.
+ * <p>
+ * The encoded form follows the PHC string format, for instance
+ * {@code $scrypt$ln=15,r=8,p=1$<salt>$<hash>}, where ln is the base 2
+ * logarithm of the CPU/memory cost N, r the block size and p the
+ * parallelization. One hash takes 128 * r * N bytes of memory, 32 MB with
+ * the defaults; the p independent mixes are run one after the other.
+ * <p>
+ * Instances are immutable and thread safe.
+ *
+ * @author Drona
+ *
+ */
+public final class ScryptPasswordHasher extends AbstractPasswordHasher {
+
+	public static final int DEFAULT_LOG_COST = 15;
+	public static final int DEFAULT_BLOCK_SIZE = 8;
+	public static final int DEFAULT_PARALLELISM = 1;
+	public static final int DEFAULT_KEY_LENGTH = 32;
+	public static final int DEFAULT_SALT_LENGTH = 16;
+
+	private static final String PREFIX = "$scrypt$";
+
+	private final int logCost;
+	private final int blockSize;
+	private final int parallelism;
+	private final int keyLength;
+	private final int saltLength;
+
+	/**
+	 * Creates a hasher with N = 2^15, r = 8 and p = 1, a key of 32 bytes and
+	 * a salt of 16 bytes.
+	 */
+	public ScryptPasswordHasher() {
+		this(DEFAULT_LOG_COST, DEFAULT_BLOCK_SIZE, DEFAULT_PARALLELISM, DEFAULT_KEY_LENGTH, DEFAULT_SALT_LENGTH);
+	}
+
+	/**
+	 * @param logCost
+	 *            - the base 2 logarithm of the CPU/memory cost N of new
+	 *            hashes
+	 * @param blockSize
+	 *            - the block size r of new hashes, scaling memory and time
+	 * @param parallelism
+	 *            - the parallelization p of new hashes, scaling time only
+	 * @param keyLength
+	 *            - the length in bytes of new hashes
+	 * @param saltLength
+	 *            - the length in bytes of the salt of new hashes
+	 * @throws IllegalArgumentException
+	 *             - when the parameters are out of the bounds of RFC 7914 or
+	 *             a hash would need more than 2 GB
+	 */
+	public ScryptPasswordHasher(int logCost, int blockSize, int parallelism, int keyLength, int saltLength) {
+		checkParameters(logCost, blockSize, parallelism);
+		if (keyLength < 1 || saltLength < 1) {
+			throw new IllegalArgumentException("Invalid scrypt key or salt length");
+		}
+		this.logCost = logCost;
+		this.blockSize = blockSize;
+		this.parallelism = parallelism;
+		this.keyLength = keyLength;
+		this.saltLength = saltLength;
+	}
+
+	/**
+	 * @return the base 2 logarithm of the CPU/memory cost of new hashes
+	 */
+	public int getLogCost() {
+		return logCost;
+	}
+
+	/**
+	 * @return the block size of new hashes
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * @return the parallelization of new hashes
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public String hash(char[] password) {
+		if (password == null) {
+			throw new NullPointerException();
+		}
+		byte[] salt = SecurityUtils.getNextSalt(saltLength);
+		byte[] key = new byte[keyLength];
+		derive(password, salt, logCost, blockSize, parallelism, key);
+		return PREFIX + "ln=" + logCost + ",r=" + blockSize + ",p=" + parallelism + "$" + encoder.encodeToString(salt)
+				+ "$" + encoder.encodeToString(key);
+	}
+
+	public boolean verify(char[] password, String encodedHash) {
+		if (password == null) {
+			throw new NullPointerException();
+		}
+		Encoded encoded = Encoded.parse(encodedHash);
+		byte[] actual = new byte[encoded.hash.length];
+		derive(password, encoded.salt, encoded.logCost, encoded.blockSize, encoded.parallelism, actual);
+		return SecurityUtils.constantTimeEquals(actual, encoded.hash);
+	}
+
+	public boolean needsRehash(String encodedHash) {
+		if (!supports(encodedHash)) {
+			return true;
+		}
+		Encoded encoded = Encoded.parse(encodedHash);
+		return encoded.logCost < logCost || encoded.blockSize < blockSize || encoded.parallelism < parallelism
+				|| encoded.salt.length < saltLength || encoded.hash.length != keyLength;
+	}
+
+	public boolean supports(String encodedHash) {
+		return encodedHash.startsWith(PREFIX);
+	}
+
+	private static void checkParameters(int logCost, int blockSize, int parallelism) {
+		if (logCost < 1 || logCost > 30 || blockSize < 1 || parallelism < 1
+				|| (long) blockSize * parallelism >= 1 << 30) {
+			throw new IllegalArgumentException("Invalid scrypt parameters");
+		}
+		if (128L * blockSize << logCost > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("scrypt parameters need more than 2 GB");
+		}
+	}
+
+	private static void derive(char[] password, byte[] salt, int logCost, int blockSize, int parallelism,
+			byte[] key) {
+		long start = Instrumentation.start();
+		byte[] encoded = encodePassword(password);
+		try {
+			derive(encoded, salt, logCost, blockSize, parallelism, key);
+			Instrumentation.end(Phase.KDF, start, 0, 0);
+		} finally {
+			Arrays.fill(encoded, (byte) 0);
+		}
+	}
+
+	/**
+	 * Derives a key with scrypt from the password bytes.
+	 */
+	static void derive(byte[] password, byte[] salt, int logCost, int blockSize, int parallelism, byte[] key) {
+		Pbkdf2 pbkdf2 = Pbkdf2.get(Pbkdf2PasswordHasher.PBKDF2_SHA256);
+		int blockLength = 128 * blockSize;
+		byte[] blocks = new byte[blockLength * parallelism];
+		pbkdf2.derive(password, password.length, salt, 1, blocks);
+
+		int words = blockLength / 4;
+		int[] x = new int[words];
+		int[] v = new int[words << logCost];
+		int[] scratch = new int[16 + words];
+		try {
+			for (int i = 0; i < parallelism; i++) {
+				int offset = i * blockLength;
+				for (int k = 0; k < words; k++) {
+					int at = offset + k * 4;
+					x[k] = blocks[at] & 0xff | (blocks[at + 1] & 0xff) << 8 | (blocks[at + 2] & 0xff) << 16
+							| blocks[at + 3] << 24;
+				}
+				mix(x, v, scratch, blockSize, logCost);
+				for (int k = 0; k < words; k++) {
+					int at = offset + k * 4;
+					blocks[at] = (byte) x[k];
+					blocks[at + 1] = (byte) (x[k] >>> 8);
+					blocks[at + 2] = (byte) (x[k] >>> 16);
+					blocks[at + 3] = (byte) (x[k] >>> 24);
+				}
+			}
+			pbkdf2.derive(password, password.length, blocks, 1, key);
+		} finally {
+			Arrays.fill(blocks, (byte) 0);
+			Arrays.fill(x, 0);
+			Arrays.fill(v, 0);
+			Arrays.fill(scratch, 0);
+		}
+	}
+
+	/**
+	 * scryptROMix, in place on x.
+	 */
+	private static void mix(int[] x, int[] v, int[] scratch, int blockSize, int logCost) {
+		int words = x.length;
+		int n = 1 << logCost;
+		for (int i = 0; i < n; i++) {
+			System.arraycopy(x, 0, v, i * words, words);
+			blockMix(x, scratch, blockSize);
+		}
+		for (int i = 0; i < n; i++) {
+			int j = x[(2 * blockSize - 1) * 16] & (n - 1);
+			int base = j * words;
+			for (int k = 0; k < words; k++) {
+				x[k] ^= v[base + k];
+			}
+			blockMix(x, scratch, blockSize);
+		}
+	}
+
+	/**
+	 * scryptBlockMix, in place on b, with the even output blocks first.
+	 */
+	private static void blockMix(int[] b, int[] scratch, int blockSize) {
+		int[] y = scratch;
+		System.arraycopy(b, (2 * blockSize - 1) * 16, y, 0, 16);
+		for (int i = 0; i < 2 * blockSize; i++) {
+			for (int k = 0; k < 16; k++) {
+				y[k] ^= b[i * 16 + k];
+			}
+			salsa20(y);
+			// even blocks go to the first half, odd ones to the second
+			int target = (i >> 1) + (i & 1) * blockSize;
+			System.arraycopy(y, 0, y, 16 + target * 16, 16);
+		}
+		System.arraycopy(y, 16, b, 0, b.length);
+	}
+
+	/**
+	 * Salsa20/8 core, in place on the first 16 words.
+	 */
+	private static void salsa20(int[] b) {
+		int x0 = b[0], x1 = b[1], x2 = b[2], x3 = b[3], x4 = b[4], x5 = b[5], x6 = b[6], x7 = b[7];
+		int x8 = b[8], x9 = b[9], x10 = b[10], x11 = b[11], x12 = b[12], x13 = b[13], x14 = b[14], x15 = b[15];
+		for (int i = 0; i < 8; i += 2) {
+			x4 ^= Integer.rotateLeft(x0 + x12, 7);
+			x8 ^= Integer.rotateLeft(x4 + x0, 9);
+			x12 ^= Integer.rotateLeft(x8 + x4, 13);
+			x0 ^= Integer.rotateLeft(x12 + x8, 18);
+			x9 ^= Integer.rotateLeft(x5 + x1, 7);
+			x13 ^= Integer.rotateLeft(x9 + x5, 9);
+			x1 ^= Integer.rotateLeft(x13 + x9, 13);
+			x5 ^= Integer.rotateLeft(x1 + x13, 18);
+			x14 ^= Integer.rotateLeft(x10 + x6, 7);
+			x2 ^= Integer.rotateLeft(x14 + x10, 9);
+			x6 ^= Integer.rotateLeft(x2 + x14, 13);
+			x10 ^= Integer.rotateLeft(x6 + x2, 18);
+			x3 ^= Integer.rotateLeft(x15 + x11, 7);
+			x7 ^= Integer.rotateLeft(x3 + x15, 9);
+			x11 ^= Integer.rotateLeft(x7 + x3, 13);
+			x15 ^= Integer.rotateLeft(x11 + x7, 18);
+			x1 ^= Integer.rotateLeft(x0 + x3, 7);
+			x2 ^= Integer.rotateLeft(x1 + x0, 9);
+			x3 ^= Integer.rotateLeft(x2 + x1, 13);
+			x0 ^= Integer.rotateLeft(x3 + x2, 18);
+			x6 ^= Integer.rotateLeft(x5 + x4, 7);
+			x7 ^= Integer.rotateLeft(x6 + x5, 9);
+			x4 ^= Integer.rotateLeft(x7 + x6, 13);
+			x5 ^= Integer.rotateLeft(x4 + x7, 18);
+			x11 ^= Integer.rotateLeft(x10 + x9, 7);
+			x8 ^= Integer.rotateLeft(x11 + x10, 9);
+			x9 ^= Integer.rotateLeft(x8 + x11, 13);
+			x10 ^= Integer.rotateLeft(x9 + x8, 18);
+			x12 ^= Integer.rotateLeft(x15 + x14, 7);
+			x13 ^= Integer.rotateLeft(x12 + x15, 9);
+			x14 ^= Integer.rotateLeft(x13 + x12, 13);
+			x15 ^= Integer.rotateLeft(x14 + x13, 18);
+		}
+		b[0] += x0;
+		b[1] += x1;
+		b[2] += x2;
+		b[3] += x3;
+		b[4] += x4;
+		b[5] += x5;
+		b[6] += x6;
+		b[7] += x7;
+		b[8] += x8;
+		b[9] += x9;
+		b[10] += x10;
+		b[11] += x11;
+		b[12] += x12;
+		b[13] += x13;
+		b[14] += x14;
+		b[15] += x15;
+	}
+
+	/**
+	 * The parts of an encoded hash.
+	 */
+	private static final class Encoded {
+
+		int logCost;
+		int blockSize;
+		int parallelism;
+		byte[] salt;
+		byte[] hash;
+
+		static Encoded parse(String encodedHash) {
+			if (encodedHash == null) {
+				throw new NullPointerException();
+			}
+			String[] parts = encodedHash.split("\\$", -1);
+			if (parts.length != 5 || !parts[0].isEmpty() || !parts[1].equals("scrypt")) {
+				throw new IllegalArgumentException("Not an encoded scrypt hash");
+			}
+			Encoded encoded = new Encoded();
+			try {
+				int[] values = parameters(parts[2], "ln", "r", "p");
+				encoded.logCost = values[0];
+				encoded.blockSize = values[1];
+				encoded.parallelism = values[2];
+				checkParameters(encoded.logCost, encoded.blockSize, encoded.parallelism);
+				encoded.salt = decoder.decode(parts[3]);
+				encoded.hash = decoder.decode(parts[4]);
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException("Not an encoded scrypt hash", e);
+			}
+			if (encoded.hash.length == 0) {
+				throw new IllegalArgumentException("Not an encoded scrypt hash");
+			}
+			return encoded;
+		}
+	}
+
+}
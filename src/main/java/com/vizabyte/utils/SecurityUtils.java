@@ -16,19 +16,15 @@
 
 package com.vizabyte.utils;
 
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.security.spec.InvalidKeySpecException;
 import java.text.Normalizer;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.Base64.Encoder;
-import java.util.Random;
 
-import javax.crypto.SecretKey;
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.PBEKeySpec;
+import com.vizabyte.utils.Instrumentation.Phase;
 
 /**
  * @author "Dr0na ( https://github.com/Dr0na )"
@@ -54,27 +50,77 @@ public class SecurityUtils {
 	public static final int BALANCED_ITERATIONS = 5000;
 	public static final int EXTREME_ITERATIONS = 10000;
 
-	private static final Random randomizer = new SecureRandom();
+	private static volatile StripedSecureRandom randomizer = new StripedSecureRandom();
 	private static final Encoder base64Encoder = Base64.getEncoder();
+
+	private static volatile DelegatingPasswordHasher passwordHasher = new DelegatingPasswordHasher(
+			new Pbkdf2PasswordHasher());
 	
 	public static byte[] hashPassword(String password, byte[] salt) {
-		String nfcPassword = Normalizer.normalize(password, Normalizer.Form.NFD);
-		nfcPassword = new String(nfcPassword.getBytes(), DEFAULT_CHARSET);
-		return hash(nfcPassword.toCharArray(), salt, MINIMUM_ITERATIONS, SAFE_KEY_LENGTH);
+		return hash(legacyChars(password, Charset.defaultCharset()), salt, MINIMUM_ITERATIONS, SAFE_KEY_LENGTH);
 	}
 	
+	/**
+	 * Hashes a password given as characters, giving the same hash as
+	 * {@link #hashPassword(String, byte[])}. Where the default charset is
+	 * UTF-8 the password is hashed without going through a String. The array
+	 * is not modified; clear it once done.
+	 * @param password - the password
+	 * @param salt - salt to be used
+	 * @return the hash
+	 */
+	public static byte[] hashPassword(char[] password, byte[] salt) {
+		return hashPassword(password, salt, Charset.defaultCharset());
+	}
+
+	static byte[] hashPassword(char[] password, byte[] salt, Charset platformCharset) {
+		if (DEFAULT_CHARSET.equals(platformCharset)) {
+			return Pbkdf2.get(PBKDF2_SHA512).derive(password, salt, MINIMUM_ITERATIONS, SAFE_KEY_LENGTH);
+		}
+		return hash(legacyChars(CharBuffer.wrap(password), platformCharset), salt, MINIMUM_ITERATIONS,
+				SAFE_KEY_LENGTH);
+	}
+
+	/**
+	 * Encodes a password the way {@link #hashPassword(String, byte[])} always
+	 * has: its NFD form is encoded in the platform charset and decoded back as
+	 * UTF-8. Where the platform charset is not UTF-8 this changes every
+	 * character outside US-ASCII, and stored hashes depend on it. The result
+	 * is hashed as it is, without being normalized again, as the decoded
+	 * bytes may form precomposed characters.
+	 * @param password - the password
+	 * @param platformCharset - the default charset of the platform
+	 * @return the characters to hash, in an array the caller clears
+	 */
+	static char[] legacyChars(CharSequence password, Charset platformCharset) {
+		String nfdPassword = Normalizer.normalize(password, Normalizer.Form.NFD);
+		return new String(nfdPassword.getBytes(platformCharset), DEFAULT_CHARSET).toCharArray();
+	}
+
+	/**
+	 * Hashes a password given as the UTF-8 encoding of its NFD normalized
+	 * form, for instance as received from the network, with the settings of
+	 * {@link #hashPassword(String, byte[])}. The hashes are the same as those
+	 * of that method where the default charset is UTF-8, and for US-ASCII
+	 * passwords everywhere. The array is not modified; clear it once done.
+	 * @param password - the password bytes
+	 * @param salt - salt to be used
+	 * @return the hash
+	 */
+	public static byte[] hashPassword(byte[] password, byte[] salt) {
+		byte[] hash = new byte[SAFE_KEY_LENGTH / 8];
+		long start = Instrumentation.start();
+		Pbkdf2.get(PBKDF2_SHA512).derive(password, password.length, salt, MINIMUM_ITERATIONS, hash);
+		Instrumentation.end(Phase.KDF, start, 0, 0);
+		return hash;
+	}
+
 	private static byte[] hash(final char[] password, final byte[] salt, final int iterations,
 			final int keyLength) {
-
 		try {
-			SecretKeyFactory skf = SecretKeyFactory.getInstance(PBKDF2_SHA512);
-			PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, keyLength);
-			SecretKey key = skf.generateSecret(spec);
-			byte[] res = key.getEncoded();
-			return res;
-
-		} catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
-			throw new RuntimeException(e);
+			return Pbkdf2.get(PBKDF2_SHA512).deriveUnnormalized(password, salt, iterations, keyLength);
+		} finally {
+			Arrays.fill(password, '\0');
 		}
 	}
 
@@ -82,10 +128,37 @@ public class SecurityUtils {
 		return getNextSalt(SAFE_SALT_LENGTH);
 	}
 	
-	private static byte[] getNextSalt(int length) {
-		byte[] salt = new byte[length];
-		randomizer.nextBytes(salt);
-		return salt;
+	/**
+	 * Generates many salts of {@link #SAFE_SALT_LENGTH} bytes in one call.
+	 * @param count - the number of salts
+	 * @return the salts
+	 */
+	public static byte[][] generateSalts(int count) {
+		return randomizer.generateSalts(count, SAFE_SALT_LENGTH);
+	}
+
+	/**
+	 * @param length - the number of random bytes in the token
+	 * @return a URL-safe random token, for instance for password reset links
+	 */
+	public static String generateToken(int length) {
+		return randomizer.generateToken(length);
+	}
+
+	/**
+	 * Sets the generator of salts and tokens, for instance one using a
+	 * specific SecureRandom algorithm.
+	 * @param random - the generator
+	 */
+	public static void setSecureRandom(StripedSecureRandom random) {
+		if (random == null) {
+			throw new NullPointerException();
+		}
+		randomizer = random;
+	}
+
+	static byte[] getNextSalt(int length) {
+		return randomizer.generateSalt(length);
 	}
 
 	
@@ -98,22 +171,123 @@ public class SecurityUtils {
 	 */
 	public static boolean matchPassword(String password, byte[] salt, byte[] expectedHash) {
 		byte[] pwdHash = hashPassword(password, salt);
+		return constantTimeEquals(pwdHash, expectedHash);
+	} // matchPassword() ends
 
+	/**
+	 * Securely matches the input password, given as characters, with the
+	 * hashed password with the given salt
+	 * @param password - input password to be matched; not modified
+	 * @param salt - salt used 
+	 * @param expectedHash - hashed password
+	 * @return whether the password matches
+	 */
+	public static boolean matchPassword(char[] password, byte[] salt, byte[] expectedHash) {
+		return constantTimeEquals(hashPassword(password, salt), expectedHash);
+	}
+
+	/**
+	 * Compares two byte arrays in time that depends on their length only.
+	 */
+	static boolean constantTimeEquals(byte[] actual, byte[] expected) {
 		// secure match 
-		int diff = pwdHash.length ^ expectedHash.length;
-		for (int i = 0; i < pwdHash.length && i < expectedHash.length; i++) {
-			diff |= pwdHash[i] ^ expectedHash[i];
+		int diff = actual.length ^ expected.length;
+		for (int i = 0; i < actual.length && i < expected.length; i++) {
+			diff |= actual[i] ^ expected[i];
 		}
 		return diff == 0;
-	} // matchPassword() ends
+	}
 
-	public static String toBase64StringUTF8(byte[] bytes) {
-		return toBase64String(bytes, DEFAULT_CHARSET);
+	/**
+	 * Sets the hasher used by {@link #encodePassword(String)},
+	 * {@link #verifyPassword(String, String)} and {@link #needsRehash(String)}.
+	 * Hashes of the other algorithms of this library are still verified,
+	 * and reported as in need of a rehash.
+	 * @param hasher - the hasher of new hashes, for instance an
+	 *            {@link Argon2PasswordHasher}
+	 */
+	public static void setPasswordHasher(PasswordHasher hasher) {
+		passwordHasher = new DelegatingPasswordHasher(hasher);
 	}
-	
-	private static String toBase64String(byte[] bytes, Charset charset) {
-		byte[] encodedBytes = base64Encoder.encode(bytes);
-		return new String(encodedBytes, charset);
+
+	/**
+	 * @return the hasher used by {@link #encodePassword(String)},
+	 *         {@link #verifyPassword(String, String)} and
+	 *         {@link #needsRehash(String)}
+	 */
+	public static PasswordHasher getPasswordHasher() {
+		return passwordHasher.getDefaultHasher();
+	}
+
+	/**
+	 * Sets the password hasher to one using as many PBKDF2 iterations as fit
+	 * the given time per hash on this machine, measured now. Meant to be
+	 * called once at startup.
+	 * @param budgetMillis - the time one hash may take, for instance 50
+	 * @param minimumIterations - the lowest iteration count used, however
+	 *            slow the machine
+	 * @return the new hasher
+	 * @see Pbkdf2Calibrator
+	 */
+	public static Pbkdf2PasswordHasher calibratePasswordHasher(long budgetMillis, int minimumIterations) {
+		Pbkdf2PasswordHasher hasher = Pbkdf2Calibrator.calibratedHasher(budgetMillis, minimumIterations);
+		setPasswordHasher(hasher);
+		return hasher;
+	}
+
+	/**
+	 * Hashes the password with a new salt into a string recording the
+	 * algorithm, cost, salt and hash.
+	 * @param password - password to be hashed
+	 * @return the encoded hash, to be stored as is
+	 */
+	public static String encodePassword(String password) {
+		return passwordHasher.hash(password);
+	}
+
+	/**
+	 * Securely matches the input password with an encoded hash, using the
+	 * algorithm and settings recorded in the hash.
+	 * @param password - input password to be matched
+	 * @param encodedHash - hash returned by {@link #encodePassword(String)}
+	 * @return whether the password matches
+	 */
+	public static boolean verifyPassword(String password, String encodedHash) {
+		return passwordHasher.verify(password, encodedHash);
+	}
+
+	/**
+	 * @param encodedHash - hash returned by {@link #encodePassword(String)}
+	 * @return whether the hash was made with weaker settings than the current
+	 *         ones, and should be replaced once the password is verified
+	 */
+	public static boolean needsRehash(String encodedHash) {
+		return passwordHasher.needsRehash(encodedHash);
+	}
+
+	/**
+	 * Encodes a hash made by {@link #hashPassword(String, byte[])} and its
+	 * salt, so it can be verified by {@link #verifyPassword(String, String)}
+	 * and upgraded as reported by {@link #needsRehash(String)}. Where the
+	 * default charset is not UTF-8 the hash records that charset, which
+	 * non-ASCII passwords were encoded with.
+	 * @param salt - salt used
+	 * @param hash - hashed password
+	 * @return the encoded hash
+	 */
+	public static String toEncodedHash(byte[] salt, byte[] hash) {
+		return toEncodedHash(salt, hash, Charset.defaultCharset());
+	}
+
+	static String toEncodedHash(byte[] salt, byte[] hash, Charset platformCharset) {
+		if (DEFAULT_CHARSET.equals(platformCharset)) {
+			return Pbkdf2PasswordHasher.encode(PBKDF2_SHA512, MINIMUM_ITERATIONS, salt, hash);
+		}
+		return Pbkdf2PasswordHasher.encodeLegacy(MINIMUM_ITERATIONS, platformCharset, salt, hash);
+	}
+
+	public static String toBase64StringUTF8(byte[] bytes) {
+		return base64Encoder.encodeToString(bytes);
 	}
 	
 }
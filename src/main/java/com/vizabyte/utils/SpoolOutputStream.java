@@ -0,0 +1,266 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An output stream holding what is written to it in memory up to a
+ * configurable number of bytes, and in a temporary file beyond, so a
+ * document can be produced before it is known where it goes, or how long it
+ * is, without holding large ones on the heap.
+ * <p>
+ * The memory tier is a list of chunks of growing size rather than one array
+ * copied each time it grows, so the content is never copied in memory. Once
+ * the threshold is passed the chunks are written to the temporary file and
+ * dropped.
+ * <p>
+ * The content can be read back any number of times with
+ * {@link #writeTo(OutputStream)}, {@link #writeTo(WritableByteChannel)} or
+ * {@link #toInputStream()}, also once the stream is closed. Closing the
+ * stream keeps its content; {@link #delete()} drops it, along with the
+ * temporary file. Instances are not thread safe.
+ *
+ * @author Drona
+ *
+ */
+public class SpoolOutputStream extends OutputStream {
+
+	public static final int DEFAULT_THRESHOLD = 1024 * 1024;
+
+	private static final int MIN_CHUNK = 8192;
+	private static final int MAX_CHUNK = 1024 * 1024;
+
+	private final int threshold;
+	private final File directory;
+	private final List<byte[]> chunks = new ArrayList<byte[]>();
+	private int chunkPosition;
+	private long length;
+	private Path file;
+	private OutputStream fileOut;
+	private boolean closed;
+
+	/**
+	 * Creates a stream spooling to the default temporary directory past
+	 * {@link #DEFAULT_THRESHOLD} bytes.
+	 */
+	public SpoolOutputStream() {
+		this(DEFAULT_THRESHOLD, null);
+	}
+
+	/**
+	 * @param threshold
+	 *            - the number of bytes held in memory before the content
+	 *            moves to a temporary file, or 0 to always use a file
+	 * @param directory
+	 *            - the directory of the temporary file, or null for the
+	 *            default temporary directory
+	 */
+	public SpoolOutputStream(int threshold, File directory) {
+		if (threshold < 0) {
+			throw new IllegalArgumentException("The threshold cannot be negative");
+		}
+		this.threshold = threshold;
+		this.directory = directory;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (off < 0 || len < 0 || off > b.length - len) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+		if (fileOut == null && length + len > threshold) {
+			spill();
+		}
+		if (fileOut != null) {
+			fileOut.write(b, off, len);
+			length += len;
+			return;
+		}
+		while (len > 0) {
+			byte[] chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+			if (chunk == null || chunkPosition == chunk.length) {
+				int size = chunk == null ? MIN_CHUNK : Math.min(chunk.length * 2, MAX_CHUNK);
+				chunk = new byte[(int) Math.min(size, Math.max(threshold - length, len))];
+				chunks.add(chunk);
+				chunkPosition = 0;
+			}
+			int count = Math.min(len, chunk.length - chunkPosition);
+			System.arraycopy(b, off, chunk, chunkPosition, count);
+			chunkPosition += count;
+			off += count;
+			len -= count;
+			length += count;
+		}
+	}
+
+	/**
+	 * Moves the content held in memory to a new temporary file.
+	 */
+	private void spill() throws IOException {
+		file = directory == null ? Files.createTempFile("spool", ".tmp")
+				: Files.createTempFile(directory.toPath(), "spool", ".tmp");
+		fileOut = new BufferedOutputStream(Files.newOutputStream(file));
+		for (int i = 0; i < chunks.size(); i++) {
+			fileOut.write(chunks.get(i), 0, i == chunks.size() - 1 ? chunkPosition : chunks.get(i).length);
+		}
+		chunks.clear();
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (fileOut != null) {
+			fileOut.flush();
+		}
+	}
+
+	/**
+	 * Ends writing. The content stays available until {@link #delete()}.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			if (fileOut != null) {
+				fileOut.close();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of bytes written
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return whether the content is still held in memory
+	 */
+	public boolean isInMemory() {
+		return file == null;
+	}
+
+	/**
+	 * Writes the content to a stream, which is not closed.
+	 *
+	 * @param out
+	 *            - the stream to write to
+	 * @throws IOException
+	 *             - when the content cannot be read or written
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		if (file != null) {
+			flush();
+			Files.copy(file, out);
+			return;
+		}
+		for (int i = 0; i < chunks.size(); i++) {
+			out.write(chunks.get(i), 0, i == chunks.size() - 1 ? chunkPosition : chunks.get(i).length);
+		}
+	}
+
+	/**
+	 * Writes the content to a blocking channel, which is not closed. Content
+	 * spooled to a file is transferred by the file system where it can.
+	 *
+	 * @param channel
+	 *            - the channel to write to
+	 * @throws IOException
+	 *             - when the content cannot be read or written
+	 */
+	public void writeTo(WritableByteChannel channel) throws IOException {
+		if (file != null) {
+			flush();
+			FileChannel source = FileChannel.open(file, StandardOpenOption.READ);
+			try {
+				long position = 0;
+				while (position < length) {
+					position += source.transferTo(position, length - position, channel);
+				}
+			} finally {
+				source.close();
+			}
+			return;
+		}
+		for (int i = 0; i < chunks.size(); i++) {
+			ByteBuffer buffer = ByteBuffer.wrap(chunks.get(i), 0,
+					i == chunks.size() - 1 ? chunkPosition : chunks.get(i).length);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+	}
+
+	/**
+	 * @return a new stream reading the content from the start; close it once
+	 *         done
+	 * @throws IOException
+	 *             - when the temporary file cannot be opened
+	 */
+	public InputStream toInputStream() throws IOException {
+		if (file != null) {
+			flush();
+			return Files.newInputStream(file);
+		}
+		List<InputStream> streams = new ArrayList<InputStream>(chunks.size());
+		for (int i = 0; i < chunks.size(); i++) {
+			streams.add(new ByteArrayInputStream(chunks.get(i), 0,
+					i == chunks.size() - 1 ? chunkPosition : chunks.get(i).length));
+		}
+		return new SequenceInputStream(Collections.enumeration(streams));
+	}
+
+	/**
+	 * Closes the stream, drops the content held in memory and deletes the
+	 * temporary file, if any.
+	 */
+	public void delete() {
+		IOUtils.closeQuietly(this);
+		chunks.clear();
+		if (file != null) {
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				// left in the temporary directory
+			}
+		}
+	}
+
+}
@@ -0,0 +1,525 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.BufferedWriter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.docx4j.openpackaging.exceptions.Docx4JException;
+
+/**
+ * Replaces ${variable-name} tokens in the main document part of a .docx
+ * package in a single streaming pass, without building a JAXB tree.
+ * <p>
+ * The main document part is read with StAX and written straight to the output
+ * zip entry. Only one paragraph at a time is held in memory, which is what
+ * allows tokens that Word split across several runs to be found: the text of
+ * all the runs of a paragraph is matched as a whole, the value is written to
+ * the run the token starts in and the rest of the token is removed from the
+ * following runs. Tokens in other character data or in attribute values are
+ * replaced when they are not split. Every other entry of the package is copied
+ * through unchanged.
+ * <p>
+ * The part is written the way JAXB marshals it, so for templates saved by
+ * docx4j the output is the same as that of
+ * {@link DocxUtils#replaceVariables(java.io.InputStream, Map)} for tokens that
+ * are not split across runs.
+ *
+ * @author Drona
+ *
+ */
+final class StreamingVariableReplacer {
+
+	static final String MAIN_DOCUMENT_PART = "word/document.xml";
+
+	static final String WML_NS = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+
+	private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+
+	static {
+		inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+	}
+
+	private StreamingVariableReplacer() {
+	}
+
+	/**
+	 * Copies the .docx package from the input stream to the output stream,
+	 * replacing the variables of the main document part on the way. Neither
+	 * stream is closed.
+	 *
+	 * @param docxInputStream
+	 *            - input stream on a .docx file
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @param out
+	 *            - the stream the .docx result is written to
+	 * @throws Docx4JException
+	 *             - when the main document part is not well formed XML
+	 * @throws IOException
+	 *             - when either stream fails
+	 */
+	static void replace(InputStream docxInputStream, Map<String, String> mappings, OutputStream out)
+			throws Docx4JException, IOException {
+		ZipInputStream zis = new ZipInputStream(docxInputStream);
+		ZipOutputStream zos = new ZipOutputStream(out);
+		ZipEntry zipEntry;
+		while ((zipEntry = zis.getNextEntry()) != null) {
+			zos.putNextEntry(new ZipEntry(zipEntry.getName()));
+			if (zipEntry.getName().equals(MAIN_DOCUMENT_PART)) {
+				replacePart(new FilterInputStream(zis) {
+					@Override
+					public void close() {
+						// the zip stream is closed by the caller
+					}
+				}, mappings, new BufferedWriter(new OutputStreamWriter(zos, StandardCharsets.UTF_8)));
+			} else {
+				IOUtils.copy(zis, zos);
+			}
+			zos.closeEntry();
+		}
+		zos.finish();
+	}
+
+	/**
+	 * Writes the .docx package read from the archive to the output stream,
+	 * replacing the variables of the main document part on the way. The other
+	 * entries are copied without being inflated. The stream is not closed.
+	 *
+	 * @param source
+	 *            - the .docx package
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @param out
+	 *            - the stream the .docx result is written to
+	 * @param compressionLevel
+	 *            - the compression level of the main document part
+	 * @throws Docx4JException
+	 *             - when the main document part is not well formed XML
+	 * @throws IOException
+	 *             - when the stream fails
+	 */
+	static void replace(ZipArchive source, Map<String, String> mappings, OutputStream out, int compressionLevel)
+			throws Docx4JException, IOException {
+		ZipArchiveWriter writer = new ZipArchiveWriter(out, compressionLevel);
+		for (ZipArchive.Entry entry : source.getEntries()) {
+			if (entry.getName().equals(MAIN_DOCUMENT_PART)) {
+				InputStream in = source.getInputStream(entry);
+				OutputStream part = writer.newEntry(MAIN_DOCUMENT_PART);
+				try {
+					replacePart(in, mappings, new BufferedWriter(new OutputStreamWriter(part, StandardCharsets.UTF_8)));
+				} finally {
+					IOUtils.closeQuietly(in);
+				}
+				part.close();
+			} else {
+				writer.copy(source, entry);
+			}
+		}
+		writer.finish();
+	}
+
+	/**
+	 * Streams one XML part from the input to the writer, replacing variables.
+	 * The writer is flushed but not closed.
+	 */
+	static void replacePart(InputStream xml, Map<String, String> mappings, Writer out)
+			throws Docx4JException, IOException {
+		try {
+			XMLStreamReader reader = inputFactory.createXMLStreamReader(xml);
+			try {
+				new Pass(mappings, out).run(reader);
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new Docx4JException("Error replacing variables in " + MAIN_DOCUMENT_PART, e);
+		}
+		out.flush();
+	}
+
+	/**
+	 * A copy of the current event of a stream reader, kept while a paragraph
+	 * is buffered.
+	 */
+	private static final class Event {
+
+		private final int type;
+		private final String namespaceURI;
+		private final String localName;
+		private final String prefix;
+		private final String[] namespaces;
+		private String[] attributes;
+		private String text;
+		// the w:t start tag of run text
+		private Event textElement;
+
+		private Event(XMLStreamReader reader) {
+			type = reader.getEventType();
+			if (type == XMLStreamConstants.START_ELEMENT || type == XMLStreamConstants.END_ELEMENT) {
+				namespaceURI = reader.getNamespaceURI();
+				localName = reader.getLocalName();
+				prefix = reader.getPrefix();
+			} else {
+				namespaceURI = null;
+				localName = type == XMLStreamConstants.PROCESSING_INSTRUCTION ? reader.getPITarget() : null;
+				prefix = null;
+			}
+
+			if (type == XMLStreamConstants.START_ELEMENT) {
+				// prefix and namespace URI pairs, then prefix, local name and
+				// value triples, both in document order
+				namespaces = new String[reader.getNamespaceCount() * 2];
+				for (int i = 0; i < namespaces.length; i += 2) {
+					namespaces[i] = reader.getNamespacePrefix(i / 2);
+					namespaces[i + 1] = reader.getNamespaceURI(i / 2);
+				}
+				attributes = new String[reader.getAttributeCount() * 3];
+				for (int i = 0; i < attributes.length; i += 3) {
+					attributes[i] = reader.getAttributePrefix(i / 3);
+					attributes[i + 1] = reader.getAttributeLocalName(i / 3);
+					attributes[i + 2] = reader.getAttributeValue(i / 3);
+				}
+			} else {
+				namespaces = null;
+				attributes = null;
+			}
+
+			if (type == XMLStreamConstants.CHARACTERS || type == XMLStreamConstants.CDATA
+					|| type == XMLStreamConstants.SPACE || type == XMLStreamConstants.COMMENT) {
+				text = reader.getText();
+			} else if (type == XMLStreamConstants.PROCESSING_INSTRUCTION) {
+				text = reader.getPIData();
+			}
+		}
+
+		boolean isStart(String local) {
+			return type == XMLStreamConstants.START_ELEMENT && local.equals(localName) && WML_NS.equals(namespaceURI);
+		}
+
+		boolean isEnd(String local) {
+			return type == XMLStreamConstants.END_ELEMENT && local.equals(localName) && WML_NS.equals(namespaceURI);
+		}
+
+		boolean isCharacters() {
+			return type == XMLStreamConstants.CHARACTERS || type == XMLStreamConstants.CDATA
+					|| type == XMLStreamConstants.SPACE;
+		}
+
+		/**
+		 * Sets xml:space="preserve" on this start tag, so that Word keeps the
+		 * spaces at the edges of the text.
+		 */
+		void preserveSpace() {
+			for (int i = 0; i < attributes.length; i += 3) {
+				if ("xml".equals(attributes[i]) && "space".equals(attributes[i + 1])) {
+					attributes[i + 2] = "preserve";
+					return;
+				}
+			}
+			String[] preserved = new String[attributes.length + 3];
+			System.arraycopy(attributes, 0, preserved, 0, attributes.length);
+			preserved[attributes.length] = "xml";
+			preserved[attributes.length + 1] = "space";
+			preserved[attributes.length + 2] = "preserve";
+			attributes = preserved;
+		}
+
+		/**
+		 * JAXB writes elements holding a string value with an end tag even
+		 * when the value is empty.
+		 */
+		boolean hasTextContent() {
+			return WML_NS.equals(namespaceURI)
+					&& ("t".equals(localName) || "instrText".equals(localName) || "delText".equals(localName));
+		}
+	}
+
+	/**
+	 * The state of a single replacement pass over one part.
+	 */
+	private static final class Pass {
+
+		private final Map<String, String> mappings;
+		private final Writer out;
+		private final List<Event> paragraph = new ArrayList<Event>();
+		private int paragraphDepth;
+		private Event openStartTag;
+
+		Pass(Map<String, String> mappings, Writer out) {
+			this.mappings = mappings;
+			this.out = out;
+		}
+
+		void run(XMLStreamReader reader) throws XMLStreamException, IOException {
+			out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n");
+			while (reader.hasNext()) {
+				reader.next();
+				Event event = new Event(reader);
+				if (event.isStart("p")) {
+					paragraphDepth++;
+				}
+				if (paragraphDepth > 0) {
+					paragraph.add(event);
+					if (event.isEnd("p") && --paragraphDepth == 0) {
+						flushParagraph();
+					}
+				} else {
+					write(event, true);
+				}
+			}
+			out.write('\n');
+		}
+
+		/**
+		 * Replaces the tokens of the buffered paragraph, including those split
+		 * across runs, and writes it out.
+		 */
+		private void flushParagraph() throws IOException {
+			// group the w:t character events by their innermost paragraph, so
+			// that text boxes nested in a run are matched on their own
+			List<List<Event>> groups = new ArrayList<List<Event>>();
+			List<List<Event>> open = new ArrayList<List<Event>>();
+			boolean[] runText = new boolean[paragraph.size()];
+			Event textElement = null;
+			for (int i = 0; i < paragraph.size(); i++) {
+				Event event = paragraph.get(i);
+				if (event.type == XMLStreamConstants.START_ELEMENT) {
+					if (event.isStart("p")) {
+						List<Event> group = new ArrayList<Event>();
+						groups.add(group);
+						open.add(group);
+					}
+					textElement = event.isStart("t") ? event : null;
+				} else if (event.type == XMLStreamConstants.END_ELEMENT) {
+					if (event.isEnd("p")) {
+						open.remove(open.size() - 1);
+					}
+					textElement = null;
+				} else if (textElement != null && event.isCharacters()) {
+					event.textElement = textElement;
+					open.get(open.size() - 1).add(event);
+					runText[i] = true;
+				}
+			}
+
+			for (List<Event> group : groups) {
+				replaceSplitTokens(group);
+			}
+			for (int i = 0; i < paragraph.size(); i++) {
+				write(paragraph.get(i), !runText[i]);
+			}
+			paragraph.clear();
+		}
+
+		private void replaceSplitTokens(List<Event> group) {
+			StringBuilder joined = new StringBuilder();
+			// the start offset of each text within the joined paragraph text
+			int[] starts = new int[group.size() + 1];
+			for (int i = 0; i < group.size(); i++) {
+				joined.append(group.get(i).text);
+				starts[i + 1] = joined.length();
+			}
+			if (joined.indexOf("${") == -1) {
+				return;
+			}
+
+			StringBuilder[] replaced = new StringBuilder[group.size()];
+			for (int i = 0; i < replaced.length; i++) {
+				replaced[i] = new StringBuilder();
+			}
+			int offset = 0;
+			int node = 0;
+			while (true) {
+				int startKey = joined.indexOf("${", offset);
+				int keyEnd = startKey == -1 ? -1 : joined.indexOf("}", startKey);
+				int end = keyEnd == -1 ? joined.length() : startKey;
+				node = appendRange(joined, starts, offset, end, node, replaced);
+				if (keyEnd == -1) {
+					break;
+				}
+				String key = joined.substring(startKey + 2, keyEnd);
+				String value = mappings.get(key);
+				replaced[node].append(value == null ? key : value);
+				offset = keyEnd + 1;
+			}
+
+			for (int i = 0; i < replaced.length; i++) {
+				Event event = group.get(i);
+				event.text = replaced[i].toString();
+				if (hasEdgeSpace(event.text)) {
+					event.textElement.preserveSpace();
+				}
+			}
+		}
+
+		private static boolean hasEdgeSpace(String text) {
+			return text.length() > 0
+					&& (Character.isWhitespace(text.charAt(0)) || Character.isWhitespace(text.charAt(text.length() - 1)));
+		}
+
+		/**
+		 * Appends the joined text in [from, to) to the builders of the nodes
+		 * the characters came from.
+		 *
+		 * @return the node the position to lies in
+		 */
+		private static int appendRange(StringBuilder joined, int[] starts, int from, int to, int node,
+				StringBuilder[] replaced) {
+			while (node < replaced.length - 1 && starts[node + 1] <= from) {
+				node++;
+			}
+			while (from < to) {
+				int nodeEnd = Math.min(starts[node + 1], to);
+				replaced[node].append(joined, from, nodeEnd);
+				from = nodeEnd;
+				if (from < to) {
+					node++;
+				}
+			}
+			while (node < replaced.length - 1 && starts[node + 1] <= to) {
+				node++;
+			}
+			return node;
+		}
+
+		/**
+		 * Writes an event the way JAXB marshals it: empty elements are closed
+		 * with "/&gt;" and only the characters that have to be are escaped.
+		 */
+		private void write(Event event, boolean replaceTokens) throws IOException {
+			switch (event.type) {
+			case XMLStreamConstants.START_ELEMENT:
+				closeStartTag();
+				writeStartElement(event);
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				if (openStartTag != null && !openStartTag.hasTextContent()) {
+					out.write("/>");
+					openStartTag = null;
+				} else {
+					closeStartTag();
+					out.write("</");
+					writeName(event.prefix, event.localName);
+					out.write('>');
+				}
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+				closeStartTag();
+				TemplateText.writeEscaped(replaceTokens ? replaceTokens(event.text) : event.text, false, out);
+				break;
+			case XMLStreamConstants.COMMENT:
+				closeStartTag();
+				out.write("<!--");
+				out.write(event.text);
+				out.write("-->");
+				break;
+			case XMLStreamConstants.PROCESSING_INSTRUCTION:
+				closeStartTag();
+				out.write("<?");
+				out.write(event.localName);
+				if (event.text != null && event.text.length() > 0) {
+					out.write(' ');
+					out.write(event.text);
+				}
+				out.write("?>");
+				break;
+			default:
+				// the document start and end, DTDs and entity declarations
+				// are not part of WordprocessingML parts
+			}
+		}
+
+		private void writeStartElement(Event element) throws IOException {
+			out.write('<');
+			writeName(element.prefix, element.localName);
+			for (int i = 0; i < element.namespaces.length; i += 2) {
+				String prefix = element.namespaces[i];
+				out.write(prefix == null || prefix.length() == 0 ? " xmlns" : " xmlns:" + prefix);
+				out.write("=\"");
+				TemplateText.writeEscaped(element.namespaces[i + 1], true, out);
+				out.write('"');
+			}
+			for (int i = 0; i < element.attributes.length; i += 3) {
+				out.write(' ');
+				writeName(element.attributes[i], element.attributes[i + 1]);
+				out.write("=\"");
+				TemplateText.writeEscaped(replaceTokens(element.attributes[i + 2]), true, out);
+				out.write('"');
+			}
+			openStartTag = element;
+		}
+
+		private void writeName(String prefix, String localName) throws IOException {
+			if (prefix != null && prefix.length() > 0) {
+				out.write(prefix);
+				out.write(':');
+			}
+			out.write(localName);
+		}
+
+		private void closeStartTag() throws IOException {
+			if (openStartTag != null) {
+				out.write('>');
+				openStartTag = null;
+			}
+		}
+
+		/**
+		 * Replaces the tokens that lie entirely within the given text.
+		 */
+		private String replaceTokens(String text) {
+			int startKey = text.indexOf("${");
+			if (startKey == -1) {
+				return text;
+			}
+			StringBuilder result = new StringBuilder(text.length());
+			int offset = 0;
+			int keyEnd;
+			while (startKey != -1 && (keyEnd = text.indexOf('}', startKey)) != -1) {
+				result.append(text, offset, startKey);
+				String key = text.substring(startKey + 2, keyEnd);
+				String value = mappings.get(key);
+				result.append(value == null ? key : value);
+				offset = keyEnd + 1;
+				startKey = text.indexOf("${", offset);
+			}
+			return result.append(text, offset, text.length()).toString();
+		}
+	}
+
+}
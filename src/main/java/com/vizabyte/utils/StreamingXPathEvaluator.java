@@ -0,0 +1,491 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.xpath.XPathConstants;
+
+/**
+ * Evaluates a practical subset of XPath over a StAX stream, in memory bounded
+ * by the nesting depth of the document rather than its size, and stops
+ * reading as soon as every expression has its value.
+ * <p>
+ * The supported expressions are location paths made of child ({@code /}) and
+ * descendant ({@code //}) steps on element names or {@code *}, each step
+ * optionally filtered by positional ({@code [2]}) and attribute
+ * ({@code [@id]}, {@code [@id='7']}) predicates, and optionally ending in an
+ * attribute ({@code /@id}) or {@code /text()} step. Their value is that of
+ * the first matching node in document order, converted to a string, number
+ * or boolean as by the XPath string(), number() and boolean() functions.
+ * <p>
+ * Names with a namespace prefix are not supported, as they need a namespace
+ * context to mean anything; as with the default, namespace unaware, DOM of
+ * {@link XmlProcessorUtils}, elements and attributes are matched on their
+ * local name whatever their prefix in the document.
+ *
+ * @author Drona
+ *
+ */
+final class StreamingXPathEvaluator {
+
+	private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+
+	static {
+		inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+	}
+
+	private static final Pattern NAME = Pattern.compile("[\\p{L}_][\\p{L}\\p{N}_.\\-]*");
+	private static final Pattern NUMBER = Pattern.compile("-?([0-9]+(\\.[0-9]*)?|\\.[0-9]+)");
+
+	private final List<String> names;
+	private final List<Path> paths;
+
+	private StreamingXPathEvaluator(List<String> names, List<Path> paths) {
+		this.names = names;
+		this.paths = paths;
+	}
+
+	/**
+	 * @return an evaluator of the given expressions, or null when any of them
+	 *         is outside the supported subset or uses namespace prefixes
+	 *         bound by a namespace context
+	 */
+	static StreamingXPathEvaluator compile(XPathQueries queries) {
+		if (queries.getNamespaceContext() != null) {
+			return null;
+		}
+		List<String> names = new ArrayList<String>();
+		List<Path> paths = new ArrayList<Path>();
+		for (XPathQueries.Query query : queries.getQueries()) {
+			if (!XPathConstants.STRING.equals(query.returnType) && !XPathConstants.NUMBER.equals(query.returnType)
+					&& !XPathConstants.BOOLEAN.equals(query.returnType)) {
+				return null;
+			}
+			Path path = Path.parse(query.expression, query.returnType);
+			if (path == null) {
+				return null;
+			}
+			names.add(query.name);
+			paths.add(path);
+		}
+		return new StreamingXPathEvaluator(names, paths);
+	}
+
+	/**
+	 * Reads the stream up to the point where every expression has its value.
+	 * The stream is not closed.
+	 */
+	XPathResults evaluate(InputStream xmlInputStream) throws XMLStreamException {
+		int count = paths.size();
+		Object[] values = new Object[count];
+		int unresolved = count;
+
+		boolean[] capturing = new boolean[count];
+		List<Capture> captures = new ArrayList<Capture>();
+		List<List<State>> frames = new ArrayList<List<State>>();
+		List<State> documentFrame = new ArrayList<State>();
+		for (int i = 0; i < count; i++) {
+			documentFrame.add(new State(i, 0));
+		}
+		frames.add(documentFrame);
+
+		XMLStreamReader reader = inputFactory.createXMLStreamReader(xmlInputStream);
+		try {
+			while (unresolved > 0 && reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					String name = reader.getLocalName();
+					List<State> parent = frames.get(frames.size() - 1);
+					List<State> frame = new ArrayList<State>();
+					for (State state : parent) {
+						if (values[state.query] != null || capturing[state.query]) {
+							continue;
+						}
+						Path path = paths.get(state.query);
+						Step step = path.steps[state.step];
+						if (step.descendant) {
+							add(frame, new State(state.query, state.step));
+						}
+						if (!step.matches(name, reader, state)) {
+							continue;
+						}
+						int next = state.step + 1;
+						if (next < path.steps.length) {
+							add(frame, new State(state.query, next));
+						} else if (path.attribute != null) {
+							String value = attribute(reader, path.attribute);
+							if (value != null) {
+								values[state.query] = path.convert(value);
+								unresolved--;
+							}
+						} else if (path.text) {
+							captures.add(new Capture(state.query, frames.size(), true));
+						} else if (XPathConstants.BOOLEAN.equals(path.returnType)) {
+							values[state.query] = Boolean.TRUE;
+							unresolved--;
+						} else {
+							// the string value of the first element to start is
+							// the value of the expression, whatever follows
+							captures.add(new Capture(state.query, frames.size(), false));
+							capturing[state.query] = true;
+						}
+					}
+					frames.add(frame);
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					frames.remove(frames.size() - 1);
+					for (int i = captures.size() - 1; i >= 0; i--) {
+						Capture capture = captures.get(i);
+						if (capture.depth == frames.size()) {
+							captures.remove(i);
+							if (!capture.text) {
+								values[capture.query] = paths.get(capture.query).convert(capture.value.toString());
+								unresolved--;
+							}
+						}
+					}
+				} else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+						|| event == XMLStreamConstants.SPACE) {
+					for (Capture capture : captures) {
+						if (!capture.text) {
+							capture.value.append(reader.getText());
+						} else if (capture.depth == frames.size() - 1 && values[capture.query] == null) {
+							// the first text node child of a matching element
+							values[capture.query] = paths.get(capture.query).convert(reader.getText());
+							unresolved--;
+						}
+					}
+				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		Map<String, Object> results = new LinkedHashMap<String, Object>();
+		for (int i = 0; i < count; i++) {
+			Object value = values[i];
+			results.put(names.get(i), value == null ? paths.get(i).convert(null) : value);
+		}
+		return new XPathResults(results);
+	}
+
+	/**
+	 * @return the value of the unprefixed attribute of the current element,
+	 *         or null when it has no such attribute
+	 */
+	private static String attribute(XMLStreamReader reader, String name) {
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			if (reader.getAttributeLocalName(i).equals(name)) {
+				return reader.getAttributeValue(i);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Adds a state to a frame unless an equivalent one is there already, so
+	 * nested descendant steps do not multiply.
+	 */
+	private static void add(List<State> frame, State state) {
+		for (State existing : frame) {
+			if (existing.query == state.query && existing.step == state.step) {
+				return;
+			}
+		}
+		frame.add(state);
+	}
+
+	/**
+	 * A parsed location path.
+	 */
+	private static final class Path {
+
+		Step[] steps;
+		String attribute;
+		boolean text;
+		QName returnType;
+
+		static Path parse(String expression, QName returnType) {
+			String rest = expression.trim();
+			List<Step> steps = new ArrayList<Step>();
+			Path path = new Path();
+			path.returnType = returnType;
+
+			boolean descendant = false;
+			if (rest.startsWith("//")) {
+				descendant = true;
+				rest = rest.substring(2);
+			} else if (rest.startsWith("/")) {
+				rest = rest.substring(1);
+			}
+			while (true) {
+				if (rest.isEmpty()) {
+					return null;
+				}
+				int end = stepEnd(rest);
+				if (end < 0) {
+					return null;
+				}
+				String stepText = rest.substring(0, end);
+				rest = rest.substring(end);
+
+				if (stepText.startsWith("@") || stepText.equals("text()")) {
+					// a terminal step after // would also select the context node
+					// itself, which is not worth streaming
+					if (!rest.isEmpty() || descendant || steps.isEmpty()) {
+						return null;
+					}
+					if (stepText.startsWith("@")) {
+						path.attribute = stepText.substring(1);
+						if (!NAME.matcher(path.attribute).matches()) {
+							return null;
+						}
+					} else {
+						path.text = true;
+					}
+					break;
+				}
+				Step step = Step.parse(stepText, descendant);
+				if (step == null) {
+					return null;
+				}
+				steps.add(step);
+				if (rest.isEmpty()) {
+					break;
+				}
+				if (rest.startsWith("//")) {
+					descendant = true;
+					rest = rest.substring(2);
+				} else {
+					descendant = false;
+					rest = rest.substring(1);
+				}
+			}
+			path.steps = steps.toArray(new Step[steps.size()]);
+			return path;
+		}
+
+		/**
+		 * @return the index of the slash ending the first step, skipping
+		 *         slashes in quoted predicate values, or -1 when the quotes
+		 *         or brackets do not balance
+		 */
+		private static int stepEnd(String rest) {
+			char quote = 0;
+			int brackets = 0;
+			for (int i = 0; i < rest.length(); i++) {
+				char c = rest.charAt(i);
+				if (quote != 0) {
+					if (c == quote) {
+						quote = 0;
+					}
+				} else if (c == '\'' || c == '"') {
+					quote = c;
+				} else if (c == '[') {
+					brackets++;
+				} else if (c == ']') {
+					brackets--;
+				} else if (c == '/' && brackets == 0) {
+					return i;
+				}
+			}
+			return quote == 0 && brackets == 0 ? rest.length() : -1;
+		}
+
+		/**
+		 * Converts the string value of the first matching node, or null when
+		 * no node matched, to the return type.
+		 */
+		Object convert(String value) {
+			if (XPathConstants.BOOLEAN.equals(returnType)) {
+				return Boolean.valueOf(value != null);
+			}
+			if (XPathConstants.NUMBER.equals(returnType)) {
+				if (value == null) {
+					return Double.NaN;
+				}
+				String trimmed = value.trim();
+				return NUMBER.matcher(trimmed).matches() ? Double.valueOf(trimmed) : Double.NaN;
+			}
+			return value == null ? "" : value;
+		}
+	}
+
+	/**
+	 * An element step: a name test and its predicates.
+	 */
+	private static final class Step {
+
+		final boolean descendant;
+		String name;
+		final List<Predicate> predicates = new ArrayList<Predicate>();
+
+		Step(boolean descendant) {
+			this.descendant = descendant;
+		}
+
+		static Step parse(String text, boolean descendant) {
+			Step step = new Step(descendant);
+			int bracket = text.indexOf('[');
+			step.name = bracket < 0 ? text : text.substring(0, bracket);
+			if (!step.name.equals("*") && !NAME.matcher(step.name).matches()) {
+				return null;
+			}
+			String rest = bracket < 0 ? "" : text.substring(bracket);
+			while (!rest.isEmpty()) {
+				int end = closingBracket(rest);
+				if (!rest.startsWith("[") || end < 0) {
+					return null;
+				}
+				Predicate predicate = Predicate.parse(rest.substring(1, end).trim());
+				if (predicate == null) {
+					return null;
+				}
+				step.predicates.add(predicate);
+				rest = rest.substring(end + 1);
+			}
+			return step;
+		}
+
+		private static int closingBracket(String text) {
+			char quote = 0;
+			for (int i = 1; i < text.length(); i++) {
+				char c = text.charAt(i);
+				if (quote != 0) {
+					if (c == quote) {
+						quote = 0;
+					}
+				} else if (c == '\'' || c == '"') {
+					quote = c;
+				} else if (c == ']') {
+					return i;
+				} else if (c == '[') {
+					return -1;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Tests an element against this step, counting it towards the
+		 * positional predicates of the given context.
+		 */
+		boolean matches(String elementName, XMLStreamReader reader, State context) {
+			if (!name.equals("*") && !name.equals(elementName)) {
+				return false;
+			}
+			for (int i = 0; i < predicates.size(); i++) {
+				Predicate predicate = predicates.get(i);
+				if (predicate.position > 0) {
+					if (context.positions == null) {
+						context.positions = new int[predicates.size()];
+					}
+					if (++context.positions[i] != predicate.position) {
+						return false;
+					}
+				} else {
+					String value = attribute(reader, predicate.attribute);
+					if (value == null || (predicate.value != null && !predicate.value.equals(value))) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * A positional or attribute predicate.
+	 */
+	private static final class Predicate {
+
+		int position;
+		String attribute;
+		String value;
+
+		static Predicate parse(String text) {
+			Predicate predicate = new Predicate();
+			if (text.matches("[1-9][0-9]{0,8}")) {
+				predicate.position = Integer.parseInt(text);
+				return predicate;
+			}
+			if (!text.startsWith("@")) {
+				return null;
+			}
+			int equals = text.indexOf('=');
+			predicate.attribute = (equals < 0 ? text.substring(1) : text.substring(1, equals)).trim();
+			if (!NAME.matcher(predicate.attribute).matches()) {
+				return null;
+			}
+			if (equals >= 0) {
+				String literal = text.substring(equals + 1).trim();
+				if (literal.length() < 2 || (literal.charAt(0) != '\'' && literal.charAt(0) != '"')
+						|| literal.charAt(literal.length() - 1) != literal.charAt(0)
+						|| literal.indexOf(literal.charAt(0), 1) != literal.length() - 1) {
+					return null;
+				}
+				predicate.value = literal.substring(1, literal.length() - 1);
+			}
+			return predicate;
+		}
+	}
+
+	/**
+	 * A path of an expression partly matched up to an element, the context of
+	 * its next step.
+	 */
+	private static final class State {
+
+		final int query;
+		final int step;
+		int[] positions;
+
+		State(int query, int step) {
+			this.query = query;
+			this.step = step;
+		}
+	}
+
+	/**
+	 * The text of a matched element being collected.
+	 */
+	private static final class Capture {
+
+		final int query;
+		final int depth;
+		final boolean text;
+		final StringBuilder value = new StringBuilder();
+
+		Capture(int query, int depth, boolean text) {
+			this.query = query;
+			this.depth = depth;
+			this.text = text;
+		}
+	}
+
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Generates salts and random tokens from several independent
+ * {@link SecureRandom} instances, so that threads generating at the same time
+ * rarely wait on one another. Each thread is mapped to one stripe by its id.
+ * <p>
+ * Each stripe is seeded on its own and reseeded from its own
+ * {@link SecureRandom#generateSeed(int)} after a configurable number of
+ * bytes. The seed is read by one caller outside the lock of the stripe, so
+ * that the others keep generating while it waits on entropy. The algorithm is
+ * configurable: NativePRNGNonBlocking never blocks on entropy on Unix-like
+ * systems, and DRBG is available from Java 9.
+ * <p>
+ * Tokens are URL-safe Base64 without padding, which needs no escaping in
+ * URLs, cookies or file names.
+ *
+ * @author Drona
+ *
+ */
+public final class StripedSecureRandom {
+
+	public static final String NATIVE_NON_BLOCKING = "NativePRNGNonBlocking";
+	public static final String DRBG = "DRBG";
+	public static final long DEFAULT_RESEED_INTERVAL = 1 << 20;
+
+	private static final int SEED_LENGTH = 32;
+	private static final Base64.Encoder tokenEncoder = Base64.getUrlEncoder().withoutPadding();
+
+	private final Stripe[] stripes;
+	private final long reseedInterval;
+
+	/**
+	 * Creates a generator using the platform default SecureRandom algorithm,
+	 * with about two stripes per processor, reseeded every
+	 * {@link #DEFAULT_RESEED_INTERVAL} bytes.
+	 */
+	public StripedSecureRandom() {
+		this(null, Runtime.getRuntime().availableProcessors() * 2, DEFAULT_RESEED_INTERVAL);
+	}
+
+	/**
+	 * @param algorithm
+	 *            - the SecureRandom algorithm, for instance
+	 *            {@link #NATIVE_NON_BLOCKING} or {@link #DRBG}, or null for
+	 *            the platform default
+	 * @param stripes
+	 *            - the number of independent instances, rounded up to a power
+	 *            of two
+	 * @param reseedInterval
+	 *            - the number of bytes a stripe generates between reseeds, or
+	 *            0 to never reseed
+	 * @throws IllegalArgumentException
+	 *             - when the algorithm is not available
+	 */
+	public StripedSecureRandom(String algorithm, int stripes, long reseedInterval) {
+		if (stripes < 1 || reseedInterval < 0) {
+			throw new IllegalArgumentException("Invalid stripe count or reseed interval");
+		}
+		int count = Integer.highestOneBit(stripes);
+		if (count < stripes) {
+			count <<= 1;
+		}
+		this.stripes = new Stripe[count];
+		for (int i = 0; i < count; i++) {
+			try {
+				this.stripes[i] = new Stripe(
+						algorithm == null ? new SecureRandom() : SecureRandom.getInstance(algorithm));
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalArgumentException("Unavailable SecureRandom algorithm " + algorithm, e);
+			}
+		}
+		this.reseedInterval = reseedInterval;
+	}
+
+	/**
+	 * @param bytes
+	 *            - the array to fill with random bytes
+	 */
+	public void nextBytes(byte[] bytes) {
+		Stripe stripe = stripe();
+		byte[] seed = stripe.takeSeed(reseedInterval);
+		stripe.lock.lock();
+		try {
+			stripe.fill(bytes, seed);
+		} finally {
+			stripe.lock.unlock();
+		}
+	}
+
+	/**
+	 * @param length
+	 *            - the length of the salt in bytes
+	 * @return a new random salt
+	 */
+	public byte[] generateSalt(int length) {
+		byte[] salt = new byte[length];
+		nextBytes(salt);
+		return salt;
+	}
+
+	/**
+	 * Generates many salts at once, taking the stripe only once.
+	 *
+	 * @param count
+	 *            - the number of salts
+	 * @param length
+	 *            - the length of each salt in bytes
+	 * @return the salts
+	 */
+	public byte[][] generateSalts(int count, int length) {
+		byte[][] salts = new byte[count][length];
+		Stripe stripe = stripe();
+		byte[] seed = stripe.takeSeed(reseedInterval);
+		stripe.lock.lock();
+		try {
+			for (byte[] salt : salts) {
+				stripe.fill(salt, seed);
+				seed = null;
+			}
+		} finally {
+			stripe.lock.unlock();
+		}
+		return salts;
+	}
+
+	/**
+	 * @param length
+	 *            - the number of random bytes in the token
+	 * @return a URL-safe token encoding that many random bytes
+	 */
+	public String generateToken(int length) {
+		byte[] token = new byte[tokenLength(length)];
+		generateToken(length, token, 0);
+		return new String(token, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Generates many tokens at once, taking the stripe only once.
+	 *
+	 * @param count
+	 *            - the number of tokens
+	 * @param length
+	 *            - the number of random bytes in each token
+	 * @return the URL-safe tokens
+	 */
+	public String[] generateTokens(int count, int length) {
+		String[] tokens = new String[count];
+		byte[][] random = generateSalts(count, length);
+		for (int i = 0; i < count; i++) {
+			tokens[i] = tokenEncoder.encodeToString(random[i]);
+			Arrays.fill(random[i], (byte) 0);
+		}
+		return tokens;
+	}
+
+	/**
+	 * Writes a URL-safe token straight into a byte array as ASCII
+	 * characters, without creating any String.
+	 *
+	 * @param length
+	 *            - the number of random bytes in the token
+	 * @param destination
+	 *            - the array receiving the token characters
+	 * @param offset
+	 *            - where the token starts in the array
+	 * @return the number of characters written, {@link #tokenLength(int)}
+	 */
+	public int generateToken(int length, byte[] destination, int offset) {
+		int tokenLength = tokenLength(length);
+		if (offset < 0 || offset > destination.length - tokenLength) {
+			throw new IndexOutOfBoundsException();
+		}
+		byte[] random = generateSalt(length);
+		if (offset == 0) {
+			tokenEncoder.encode(random, destination);
+		} else {
+			byte[] encoded = tokenEncoder.encode(random);
+			System.arraycopy(encoded, 0, destination, offset, tokenLength);
+			Arrays.fill(encoded, (byte) 0);
+		}
+		Arrays.fill(random, (byte) 0);
+		return tokenLength;
+	}
+
+	/**
+	 * @param length
+	 *            - the number of random bytes in a token
+	 * @return the number of characters of the token
+	 */
+	public static int tokenLength(int length) {
+		return (length * 4 + 2) / 3;
+	}
+
+	private Stripe stripe() {
+		long id = Thread.currentThread().getId();
+		int hash = (int) (id ^ (id >>> 32)) * 0x9e3779b9;
+		return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+	}
+
+	/**
+	 * One SecureRandom and the bytes it generated since it was last seeded.
+	 */
+	private static final class Stripe {
+
+		final ReentrantLock lock = new ReentrantLock();
+		final SecureRandom random;
+		// set while a caller reads a new seed
+		final AtomicBoolean seeding = new AtomicBoolean();
+		// written under the lock, read without it to decide on a reseed
+		volatile long generated;
+
+		Stripe(SecureRandom random) {
+			this.random = random;
+		}
+
+		/**
+		 * Reads a new seed once the stripe has generated enough bytes, without
+		 * holding the lock, as the seed source may block on entropy. Only one
+		 * caller at a time reads a seed; the others carry on with the current
+		 * one.
+		 *
+		 * @return the seed to pass to {@link #fill(byte[], byte[])}, or null
+		 */
+		byte[] takeSeed(long reseedInterval) {
+			if (reseedInterval == 0 || generated < reseedInterval || !seeding.compareAndSet(false, true)) {
+				return null;
+			}
+			try {
+				return random.generateSeed(SEED_LENGTH);
+			} catch (RuntimeException e) {
+				seeding.set(false);
+				throw e;
+			}
+		}
+
+		/**
+		 * Applies the seed, if any, then fills the array. Called under the
+		 * lock.
+		 */
+		void fill(byte[] bytes, byte[] seed) {
+			if (seed != null) {
+				random.setSeed(seed);
+				Arrays.fill(seed, (byte) 0);
+				generated = 0;
+				seeding.set(false);
+			}
+			random.nextBytes(bytes);
+			generated += bytes.length;
+		}
+	}
+
+}
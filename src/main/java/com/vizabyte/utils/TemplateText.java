@@ -0,0 +1,186 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An XML part split once into literal text and ${variable-name} slots, so that
+ * rendering is a single pass over precomputed segments instead of a scan of
+ * the whole part. The literal segments are kept encoded in UTF-8, so
+ * rendering writes them as they are and only encodes the mapped values, which
+ * makes a long part with few variables about as cheap as a copy.
+ * <p>
+ * Keys are resolved the same way as
+ * {@link org.docx4j.openpackaging.parts.JaxbXmlPart#variableReplace(Map)}: a
+ * key without a mapping is replaced by the key name itself. Unlike docx4j the
+ * mapped values are XML escaped, so values containing markup characters do not
+ * corrupt the part.
+ *
+ * @author Drona
+ *
+ */
+final class TemplateText {
+
+	private final byte[][] literals;
+	private final String[] keys;
+	private final boolean[] inMarkup;
+	private final int[] offsets;
+	private final int literalLength;
+
+	private TemplateText(byte[][] literals, String[] keys, boolean[] inMarkup, int[] offsets) {
+		this.literals = literals;
+		this.keys = keys;
+		this.inMarkup = inMarkup;
+		this.offsets = offsets;
+		int length = 0;
+		for (byte[] literal : literals) {
+			length += literal.length;
+		}
+		this.literalLength = length;
+	}
+
+	/**
+	 * Splits the given XML text into literal segments and variable slots.
+	 *
+	 * @param xml
+	 *            - the XML text of a part
+	 * @return the parsed template text
+	 */
+	static TemplateText parse(String xml) {
+		List<byte[]> literals = new ArrayList<byte[]>();
+		List<String> keys = new ArrayList<String>();
+		List<Integer> offsets = new ArrayList<Integer>();
+
+		int offset = 0;
+		while (true) {
+			int startKey = xml.indexOf("${", offset);
+			int keyEnd = startKey == -1 ? -1 : xml.indexOf('}', startKey);
+			if (keyEnd == -1) {
+				literals.add(xml.substring(offset).getBytes(StandardCharsets.UTF_8));
+				break;
+			}
+			literals.add(xml.substring(offset, startKey).getBytes(StandardCharsets.UTF_8));
+			keys.add(xml.substring(startKey + 2, keyEnd));
+			offsets.add(startKey);
+			offset = keyEnd + 1;
+		}
+
+		boolean[] markup = new boolean[offsets.size()];
+		int[] keyOffsets = new int[offsets.size()];
+		for (int i = 0; i < markup.length; i++) {
+			keyOffsets[i] = offsets.get(i);
+			markup[i] = xml.lastIndexOf('<', keyOffsets[i]) > xml.lastIndexOf('>', keyOffsets[i]);
+		}
+		return new TemplateText(literals.toArray(new byte[literals.size()][]), keys.toArray(new String[keys.size()]),
+				markup, keyOffsets);
+	}
+
+	/**
+	 * @return the variable names in the order they appear, including repeats
+	 */
+	String[] getKeys() {
+		return keys.clone();
+	}
+
+	/**
+	 * @param index
+	 *            - the index of a variable in {@link #getKeys()}
+	 * @return the offset in characters of its ${ in the part
+	 */
+	int getOffset(int index) {
+		return offsets[index];
+	}
+
+	boolean hasVariables() {
+		return keys.length > 0;
+	}
+
+	/**
+	 * @return the number of bytes taken by the literal segments
+	 */
+	int getLength() {
+		return literalLength;
+	}
+
+	/**
+	 * Writes the text in UTF-8 with every variable replaced by its mapped
+	 * value.
+	 *
+	 * @param mappings
+	 *            - the variable - value mappings
+	 * @param out
+	 *            - the destination stream
+	 * @throws IOException
+	 *             - when the stream fails
+	 */
+	void render(Map<String, String> mappings, OutputStream out) throws IOException {
+		StringWriter escaped = new StringWriter();
+		for (int i = 0; i < keys.length; i++) {
+			out.write(literals[i]);
+			String value = mappings.get(keys[i]);
+			if (value == null) {
+				out.write(keys[i].getBytes(StandardCharsets.UTF_8));
+			} else {
+				escaped.getBuffer().setLength(0);
+				writeEscaped(value, inMarkup[i], escaped);
+				out.write(escaped.toString().getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		out.write(literals[keys.length]);
+	}
+
+	/**
+	 * Writes a value escaped for use as XML character data, or as an attribute
+	 * value when the variable sits inside a tag.
+	 */
+	static void writeEscaped(String value, boolean attribute, Writer out) throws IOException {
+		int start = 0;
+		for (int i = 0; i < value.length(); i++) {
+			String replacement;
+			switch (value.charAt(i)) {
+			case '&':
+				replacement = "&amp;";
+				break;
+			case '<':
+				replacement = "&lt;";
+				break;
+			case '>':
+				replacement = "&gt;";
+				break;
+			case '"':
+				replacement = attribute ? "&quot;" : null;
+				break;
+			default:
+				replacement = null;
+			}
+			if (replacement != null) {
+				out.write(value, start, i - start);
+				out.write(replacement);
+				start = i + 1;
+			}
+		}
+		out.write(value, start, value.length() - start);
+	}
+
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+
+import com.vizabyte.utils.Instrumentation.Phase;
+
+/**
+ * A bounded cache of compiled XPath expressions keyed by expression text and
+ * namespace context.
+ * <p>
+ * A compiled {@link XPathExpression} must not be evaluated by two threads at
+ * once, so every thread keeps its own compiled expressions, evicted in least
+ * recently used order once the thread holds more than the configured number.
+ * The hit, miss and eviction counts are kept for all threads together.
+ *
+ * @author Drona
+ *
+ */
+public class XPathExpressionCache {
+
+	public static final int DEFAULT_MAX_ENTRIES = 256;
+
+	private final JaxpProvider provider;
+	private final int maxEntries;
+	private final ThreadLocal<ThreadCache> caches = new ThreadLocal<ThreadCache>();
+	private final AtomicInteger generation = new AtomicInteger();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * @param provider
+	 *            - the provider of the XPath evaluators compiling the
+	 *            expressions
+	 * @param maxEntries
+	 *            - the maximum number of compiled expressions kept by each
+	 *            thread
+	 */
+	public XPathExpressionCache(JaxpProvider provider, int maxEntries) {
+		if (provider == null) {
+			throw new NullPointerException();
+		}
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("maxEntries must be positive");
+		}
+		this.provider = provider;
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * Returns the compiled form of an expression without namespace prefixes.
+	 * The result may only be used by the calling thread.
+	 *
+	 * @param expression
+	 *            - the XPath expression
+	 * @return the compiled expression
+	 * @throws XPathExpressionException
+	 *             - when the expression cannot be compiled
+	 */
+	public XPathExpression compile(String expression) throws XPathExpressionException {
+		return compile(expression, null);
+	}
+
+	/**
+	 * Returns the compiled form of an expression. The result may only be used
+	 * by the calling thread.
+	 *
+	 * @param expression
+	 *            - the XPath expression
+	 * @param namespaceContext
+	 *            - resolves the namespace prefixes of the expression, or null
+	 *            when it has none
+	 * @return the compiled expression
+	 * @throws XPathExpressionException
+	 *             - when the expression cannot be compiled
+	 */
+	public XPathExpression compile(String expression, NamespaceContext namespaceContext)
+			throws XPathExpressionException {
+		if (expression == null) {
+			throw new NullPointerException();
+		}
+		ThreadCache cache = caches.get();
+		int currentGeneration = generation.get();
+		if (cache == null) {
+			cache = new ThreadCache();
+			caches.set(cache);
+		}
+		if (cache.generation != currentGeneration) {
+			cache.clear();
+			cache.generation = currentGeneration;
+		}
+
+		Key key = new Key(expression, namespaceContext);
+		XPathExpression compiled = cache.get(key);
+		if (compiled != null) {
+			hits.increment();
+			Instrumentation.cacheAccess(Instrumentation.XPATH_CACHE, true);
+			return compiled;
+		}
+		misses.increment();
+		Instrumentation.cacheAccess(Instrumentation.XPATH_CACHE, false);
+		long start = Instrumentation.start();
+		XPath xpath = provider.getXPath();
+		if (namespaceContext != null) {
+			xpath.setNamespaceContext(namespaceContext);
+		}
+		try {
+			compiled = xpath.compile(expression);
+		} catch (XPathExpressionException e) {
+			Instrumentation.error(Phase.COMPILE, e);
+			throw e;
+		}
+		Instrumentation.end(Phase.COMPILE, start, 0, 0);
+		cache.put(key, compiled);
+		return compiled;
+	}
+
+	/**
+	 * Drops the compiled expressions of every thread; each thread drops its
+	 * own the next time it uses the cache.
+	 */
+	public void clear() {
+		generation.incrementAndGet();
+	}
+
+	/**
+	 * @return the number of lookups answered from the cache
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of lookups that had to compile the expression
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return the number of compiled expressions dropped to stay within the
+	 *         bound
+	 */
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	/**
+	 * @return the share of lookups answered from the cache, or 0 before the
+	 *         first lookup
+	 */
+	public double getHitRate() {
+		long hitCount = hits.sum();
+		long total = hitCount + misses.sum();
+		return total == 0 ? 0 : (double) hitCount / total;
+	}
+
+	/**
+	 * The compiled expressions of one thread, in access order.
+	 */
+	private final class ThreadCache extends LinkedHashMap<Key, XPathExpression> {
+
+		private static final long serialVersionUID = 1L;
+
+		int generation;
+
+		ThreadCache() {
+			super(16, 0.75f, true);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, XPathExpression> eldest) {
+			if (size() > maxEntries) {
+				evictions.increment();
+				return true;
+			}
+			return false;
+		}
+	}
+
+	private static final class Key {
+
+		private final String expression;
+		private final NamespaceContext namespaceContext;
+		private final int hash;
+
+		Key(String expression, NamespaceContext namespaceContext) {
+			this.expression = expression;
+			this.namespaceContext = namespaceContext;
+			this.hash = expression.hashCode() * 31 + (namespaceContext == null ? 0 : namespaceContext.hashCode());
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return expression.equals(other.expression) && (namespaceContext == null
+					? other.namespaceContext == null : namespaceContext.equals(other.namespaceContext));
+		}
+	}
+
+}
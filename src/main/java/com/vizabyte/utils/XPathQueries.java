@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
+
+/**
+ * A named set of XPath expressions, each with its return type, to be
+ * evaluated together against a single parse of a document with
+ * {@link XmlProcessorUtils#getElementValues(org.w3c.dom.Document, XPathQueries)}.
+ * <p>
+ * A set is built once and can then be used by any number of threads.
+ *
+ * @author Drona
+ *
+ */
+public final class XPathQueries {
+
+	private final NamespaceContext namespaceContext;
+	private final List<Query> queries = new ArrayList<Query>();
+
+	/**
+	 * Creates a set of expressions without namespace prefixes.
+	 */
+	public XPathQueries() {
+		this(null);
+	}
+
+	/**
+	 * @param namespaceContext
+	 *            - resolves the namespace prefixes of the expressions
+	 */
+	public XPathQueries(NamespaceContext namespaceContext) {
+		this.namespaceContext = namespaceContext;
+	}
+
+	/**
+	 * Adds an expression evaluated as a string.
+	 *
+	 * @param name
+	 *            - the name of the result
+	 * @param expression
+	 *            - the XPath expression
+	 * @return this set
+	 */
+	public XPathQueries add(String name, String expression) {
+		return add(name, expression, XPathConstants.STRING);
+	}
+
+	/**
+	 * Adds an expression.
+	 *
+	 * @param name
+	 *            - the name of the result
+	 * @param expression
+	 *            - the XPath expression
+	 * @param returnType
+	 *            - QName of the return type as defined in XPathConstants.class
+	 * @return this set
+	 */
+	public XPathQueries add(String name, String expression, QName returnType) {
+		if (name == null || expression == null || returnType == null) {
+			throw new NullPointerException();
+		}
+		for (Query query : queries) {
+			if (query.name.equals(name)) {
+				throw new IllegalArgumentException("Duplicate name " + name);
+			}
+		}
+		queries.add(new Query(name, expression, returnType));
+		return this;
+	}
+
+	/**
+	 * @return the number of expressions
+	 */
+	public int size() {
+		return queries.size();
+	}
+
+	NamespaceContext getNamespaceContext() {
+		return namespaceContext;
+	}
+
+	List<Query> getQueries() {
+		return Collections.unmodifiableList(queries);
+	}
+
+	/**
+	 * A named expression and its return type.
+	 */
+	static final class Query {
+
+		final String name;
+		final String expression;
+		final QName returnType;
+
+		Query(String name, String expression, QName returnType) {
+			this.name = name;
+			this.expression = expression;
+			this.returnType = returnType;
+		}
+	}
+
+}
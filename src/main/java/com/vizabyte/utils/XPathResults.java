@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * The values of a set of {@link XPathQueries}, by name, each of the Java type
+ * that maps to the return type of its expression.
+ *
+ * @author Drona
+ *
+ */
+public final class XPathResults {
+
+	private final Map<String, Object> values;
+
+	XPathResults(Map<String, Object> values) {
+		this.values = Collections.unmodifiableMap(values);
+	}
+
+	/**
+	 * @param name
+	 *            - the name of the expression
+	 * @return the value of the expression
+	 * @throws IllegalArgumentException
+	 *             - when no expression has that name
+	 */
+	public Object get(String name) {
+		if (!values.containsKey(name)) {
+			throw new IllegalArgumentException("No expression named " + name);
+		}
+		return values.get(name);
+	}
+
+	/**
+	 * @return the value of an expression of return type STRING
+	 */
+	public String getString(String name) {
+		return (String) get(name);
+	}
+
+	/**
+	 * @return the value of an expression of return type NUMBER
+	 */
+	public Double getNumber(String name) {
+		return (Double) get(name);
+	}
+
+	/**
+	 * @return the value of an expression of return type BOOLEAN
+	 */
+	public Boolean getBoolean(String name) {
+		return (Boolean) get(name);
+	}
+
+	/**
+	 * @return the value of an expression of return type NODE
+	 */
+	public Node getNode(String name) {
+		return (Node) get(name);
+	}
+
+	/**
+	 * @return the value of an expression of return type NODESET
+	 */
+	public NodeList getNodeList(String name) {
+		return (NodeList) get(name);
+	}
+
+	/**
+	 * @return every value by name, in the order the expressions were added
+	 */
+	public Map<String, Object> asMap() {
+		return values;
+	}
+
+}
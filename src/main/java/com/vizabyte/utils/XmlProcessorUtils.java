@@ -1,22 +1,37 @@
 package com.vizabyte.utils;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 
 import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
+import com.vizabyte.utils.Instrumentation.Phase;
+
 /**
  * Utility class to aid XML processing. Provides methods to retrieve element
  * values via XPath expressions.
@@ -26,8 +41,43 @@ import org.xml.sax.SAXException;
  */
 public class XmlProcessorUtils {
 
-	private static DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
-	private static XPathFactory xpathFactory = XPathFactory.newInstance();
+	private static volatile JaxpProvider provider = JaxpProvider.getDefault();
+	private static volatile XPathExpressionCache expressionCache = new XPathExpressionCache(provider,
+			XPathExpressionCache.DEFAULT_MAX_ENTRIES);
+
+	/**
+	 * Sets the provider of the DOM parsers and XPath evaluators used by this
+	 * class, for instance to plug in a specific JAXP implementation or
+	 * differently configured factories. The cache of compiled expressions
+	 * starts afresh on the new provider.
+	 * 
+	 * @param jaxpProvider
+	 *            - the provider
+	 */
+	public static void setJaxpProvider(JaxpProvider jaxpProvider) {
+		if (jaxpProvider == null) {
+			throw new NullPointerException();
+		}
+		provider = jaxpProvider;
+		expressionCache = new XPathExpressionCache(jaxpProvider, XPathExpressionCache.DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * @return the provider of the DOM parsers and XPath evaluators used by
+	 *         this class
+	 */
+	public static JaxpProvider getJaxpProvider() {
+		return provider;
+	}
+
+	/**
+	 * @return the cache of the expressions compiled by the methods taking the
+	 *         xpath expression as a string, with its hit, miss and eviction
+	 *         counts
+	 */
+	public static XPathExpressionCache getXPathExpressionCache() {
+		return expressionCache;
+	}
 
 	/**
 	 * Returns the xml element value as per the given xpath expression.
@@ -42,7 +92,20 @@ public class XmlProcessorUtils {
 	 */
 	public static Object getElementValue(Document doc, XPathExpression xpathExpr, QName returnType)
 			throws XPathExpressionException {
-		return xpathExpr.evaluate(doc, returnType);
+		return evaluate(xpathExpr, doc, returnType);
+	}
+
+	private static Object evaluate(XPathExpression expr, Document doc, QName returnType)
+			throws XPathExpressionException {
+		long start = Instrumentation.start();
+		try {
+			Object value = expr.evaluate(doc, returnType);
+			Instrumentation.end(Phase.EVALUATE, start, 0, 0);
+			return value;
+		} catch (Exception e) {
+			Instrumentation.error(Phase.EVALUATE, e);
+			throw e;
+		}
 	}
 
 	/**
@@ -136,8 +199,7 @@ public class XmlProcessorUtils {
 			throws ParserConfigurationException, SAXException, IOException, XPathExpressionException {
 		Document domDocument = getXmlDocument(xmlDocumentString);
 
-		XPath xPath = xpathFactory.newXPath();
-		XPathExpression expr = xPath.compile(xpathExpr);
+		XPathExpression expr = expressionCache.compile(xpathExpr);
 
 		return getElementValue(domDocument, expr, returnType);
 	}
@@ -171,30 +233,318 @@ public class XmlProcessorUtils {
 			throws ParserConfigurationException, SAXException, IOException, XPathExpressionException {
 		Document domDocument = getXmlDocument(xmlInputStream);
 
-		XPath xPath = xpathFactory.newXPath();
-		XPathExpression expr = xPath.compile(xpathExpr);
+		XPathExpression expr = expressionCache.compile(xpathExpr);
 
 		return getElementValue(domDocument, expr, returnType);
 	}
 
 	/**
-	 * Returns xml DOM from a given xml string
+	 * Evaluates a set of named xpath expressions against a single parse of the
+	 * given input stream.
 	 * 
-	 * @param xmlDocumentString
-	 *            - xml string
+	 * @param xmlInputStream
+	 *            - xml input stream
+	 * @param queries
+	 *            - the named expressions and their return types
+	 * @return the value of every expression by name
+	 * @throws ParserConfigurationException
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws XPathExpressionException
+	 */
+	public static XPathResults getElementValues(InputStream xmlInputStream, XPathQueries queries)
+			throws ParserConfigurationException, SAXException, IOException, XPathExpressionException {
+		return getElementValues(getXmlDocument(xmlInputStream), queries);
+	}
+
+	/**
+	 * Evaluates a set of named xpath expressions against a single parse of the
+	 * given input stream, spreading the expressions over the given executor.
+	 * 
+	 * @param xmlInputStream
+	 *            - xml input stream
+	 * @param queries
+	 *            - the named expressions and their return types
+	 * @param executor
+	 *            - the executor evaluating the expressions
+	 * @return the value of every expression by name
+	 * @throws ParserConfigurationException
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws XPathExpressionException
+	 * @throws InterruptedException
+	 *             - when the calling thread is interrupted while waiting
+	 * @see #getElementValues(Document, XPathQueries, Executor)
+	 */
+	public static XPathResults getElementValues(InputStream xmlInputStream, XPathQueries queries, Executor executor)
+			throws ParserConfigurationException, SAXException, IOException, XPathExpressionException,
+			InterruptedException {
+		return getElementValues(getXmlDocument(xmlInputStream), queries, executor);
+	}
+
+	/**
+	 * Evaluates a set of named xpath expressions while reading the given input
+	 * stream, without building a DOM, and stops reading once every expression
+	 * has its value. The stream is not closed and may be left partly read.
+	 * <p>
+	 * Only location paths of child and descendant steps on element names,
+	 * with positional and attribute predicates and an optional final attribute
+	 * or text() step, evaluated as strings, numbers or booleans, can be
+	 * streamed, for instance {@code /feed/header/@version} or
+	 * {@code //item[@type='book'][2]/title/text()}. When any expression of the
+	 * set is outside that subset, or the set has a namespace context, the
+	 * whole document is parsed into a DOM instead, as by
+	 * {@link #getElementValues(InputStream, XPathQueries)}.
+	 * 
+	 * @param xmlInputStream
+	 *            - xml input stream
+	 * @param queries
+	 *            - the named expressions and their return types
+	 * @return the value of every expression by name
+	 * @throws ParserConfigurationException
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws XPathExpressionException
+	 */
+	public static XPathResults getElementValuesStreaming(InputStream xmlInputStream, XPathQueries queries)
+			throws ParserConfigurationException, SAXException, IOException, XPathExpressionException {
+		if (xmlInputStream == null || queries == null) {
+			throw new NullPointerException();
+		}
+		StreamingXPathEvaluator evaluator = StreamingXPathEvaluator.compile(queries);
+		if (evaluator == null) {
+			return getElementValues(xmlInputStream, queries);
+		}
+		long start = Instrumentation.start();
+		InputStream in = Instrumentation.count(xmlInputStream);
+		try {
+			XPathResults results = evaluator.evaluate(in);
+			Instrumentation.end(Phase.EVALUATE, start, Instrumentation.countOf(in), 0);
+			return results;
+		} catch (XMLStreamException e) {
+			Instrumentation.error(Phase.EVALUATE, e);
+			throw new SAXException(e);
+		} catch (RuntimeException e) {
+			Instrumentation.error(Phase.EVALUATE, e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the xml element value as per the given xpath expression, read
+	 * without building a DOM when the expression allows it.
+	 * 
+	 * @param xmlInputStream
+	 *            - xml input stream
+	 * @param xpathExpr
+	 *            - xpath expression as string
+	 * @param returnType
+	 *            - QName of the return type as defined in XPathConstants.class
+	 * @return Java type that maps to the input QName
+	 * @throws ParserConfigurationException
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws XPathExpressionException
+	 * @see #getElementValuesStreaming(InputStream, XPathQueries)
+	 */
+	public static Object getElementValueStreaming(InputStream xmlInputStream, String xpathExpr, QName returnType)
+			throws ParserConfigurationException, SAXException, IOException, XPathExpressionException {
+		return getElementValuesStreaming(xmlInputStream, new XPathQueries().add("value", xpathExpr, returnType))
+				.get("value");
+	}
+
+	/**
+	 * Evaluates a set of named xpath expressions against a DOM.
+	 * 
+	 * @param doc
+	 *            - xml DOM
+	 * @param queries
+	 *            - the named expressions and their return types
+	 * @return the value of every expression by name
+	 * @throws XPathExpressionException
+	 */
+	public static XPathResults getElementValues(Document doc, XPathQueries queries) throws XPathExpressionException {
+		if (doc == null || queries == null) {
+			throw new NullPointerException();
+		}
+		XPathExpressionCache cache = expressionCache;
+		Map<String, Object> values = new LinkedHashMap<String, Object>();
+		for (XPathQueries.Query query : queries.getQueries()) {
+			XPathExpression expr = cache.compile(query.expression, queries.getNamespaceContext());
+			values.put(query.name, evaluate(expr, doc, query.returnType));
+		}
+		return new XPathResults(values);
+	}
+
+	/**
+	 * Evaluates a set of named xpath expressions against a DOM, spreading the
+	 * expressions over the given executor. This only pays off for large
+	 * documents and costly expressions.
+	 * <p>
+	 * DOM implementations may expand nodes lazily on first access, which is
+	 * not safe from several threads, so the whole document is visited once on
+	 * the calling thread before the expressions are handed out. The document
+	 * must not be modified until this method returns.
+	 * <p>
+	 * The expressions then read the one document from several threads at once.
+	 * The DOM specification makes no promise that this is safe, even for
+	 * reads; this method relies on the JDK's Xerces DOM tolerating concurrent
+	 * traversal of a fully expanded document, as it does in practice. Use
+	 * {@link #getElementValues(Document, XPathQueries)} for documents of
+	 * other DOM implementations.
+	 * <p>
+	 * When the executor rejects an expression, the ones already handed out are
+	 * cancelled and the
+	 * {@link java.util.concurrent.RejectedExecutionException} is thrown.
+	 * 
+	 * @param doc
+	 *            - xml DOM
+	 * @param queries
+	 *            - the named expressions and their return types
+	 * @param executor
+	 *            - the executor evaluating the expressions
+	 * @return the value of every expression by name
+	 * @throws XPathExpressionException
+	 * @throws InterruptedException
+	 *             - when the calling thread is interrupted while waiting
+	 */
+	public static XPathResults getElementValues(final Document doc, final XPathQueries queries, Executor executor)
+			throws XPathExpressionException, InterruptedException {
+		if (doc == null || queries == null || executor == null) {
+			throw new NullPointerException();
+		}
+		if (queries.size() < 2) {
+			return getElementValues(doc, queries);
+		}
+		expand(doc);
+
+		final XPathExpressionCache cache = expressionCache;
+		List<FutureTask<Object>> tasks = new ArrayList<FutureTask<Object>>();
+		Map<String, Object> values = new LinkedHashMap<String, Object>();
+		try {
+			for (final XPathQueries.Query query : queries.getQueries()) {
+				FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+					public Object call() throws XPathExpressionException {
+						return evaluate(cache.compile(query.expression, queries.getNamespaceContext()), doc,
+								query.returnType);
+					}
+				});
+				executor.execute(task);
+				tasks.add(task);
+			}
+
+			for (int i = 0; i < tasks.size(); i++) {
+				values.put(queries.getQueries().get(i).name, tasks.get(i).get());
+			}
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof XPathExpressionException) {
+				throw (XPathExpressionException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new XPathExpressionException(cause);
+		} finally {
+			for (FutureTask<Object> task : tasks) {
+				task.cancel(true);
+			}
+		}
+		return new XPathResults(values);
+	}
+
+	/**
+	 * Visits every node of the DOM, so a lazily built DOM is complete before
+	 * it is read from several threads.
+	 */
+	private static void expand(Document doc) {
+		Node node = doc.getFirstChild();
+		while (node != null) {
+			NamedNodeMap attributes = node.getAttributes();
+			if (attributes != null) {
+				for (int i = 0; i < attributes.getLength(); i++) {
+					attributes.item(i).getNodeValue();
+				}
+			}
+			node.getNodeValue();
+
+			Node next = node.getFirstChild();
+			while (next == null && node != doc) {
+				next = node.getNextSibling();
+				if (next == null) {
+					node = node.getParentNode();
+				}
+			}
+			node = next;
+		}
+	}
+
+	/**
+	 * Returns an xml DOM from xml content held in characters, read in place.
+	 * A String is parsed as the document itself, not as the URI of one.
+	 * 
+	 * @param xml
+	 *            - xml content, such as a String, StringBuilder or CharBuffer
 	 * @return xml DOM object
 	 * @throws SAXException
 	 * @throws IOException
 	 * @throws ParserConfigurationException
 	 */
-	private static Document getXmlDocument(String xmlDocumentString)
+	public static Document getXmlDocument(CharSequence xml)
 			throws SAXException, IOException, ParserConfigurationException {
-		DocumentBuilder domParser = docBuilderFactory.newDocumentBuilder();
-		return domParser.parse(xmlDocumentString);
+		if (xml == null) {
+			throw new NullPointerException();
+		}
+		return parse(new InputSource(new CharSequenceReader(xml)), xml.length(), null);
 	}
 
 	/**
-	 * Returns an xml DOM from a given xml file.
+	 * Returns an xml DOM from encoded xml content in part of a byte array,
+	 * read in place. The encoding is detected from the content.
+	 * 
+	 * @param xml
+	 *            - the bytes
+	 * @param offset
+	 *            - the start of the content
+	 * @param length
+	 *            - the length of the content
+	 * @return xml DOM object
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 */
+	public static Document getXmlDocument(byte[] xml, int offset, int length)
+			throws SAXException, IOException, ParserConfigurationException {
+		if (offset < 0 || length < 0 || offset > xml.length - length) {
+			throw new IndexOutOfBoundsException();
+		}
+		return getXmlDocument(new ByteArrayInputStream(xml, offset, length));
+	}
+
+	/**
+	 * Returns an xml DOM from the remaining bytes of a heap or direct buffer,
+	 * read in place. The position of the buffer is left unchanged. The
+	 * encoding is detected from the content.
+	 * 
+	 * @param xml
+	 *            - the buffer
+	 * @return xml DOM object
+	 * @throws SAXException
+	 * @throws IOException
+	 * @throws ParserConfigurationException
+	 */
+	public static Document getXmlDocument(ByteBuffer xml)
+			throws SAXException, IOException, ParserConfigurationException {
+		return getXmlDocument(new ByteBufferInputStream(xml));
+	}
+
+	/**
+	 * Returns an xml DOM from a given xml file, mapped into memory rather than
+	 * read through stream buffers. Relative references in the document
+	 * resolve against the file. Files over 2 GB are read as a stream.
 	 * 
 	 * @param xmlFile
 	 *            - xml file
@@ -203,11 +553,21 @@ public class XmlProcessorUtils {
 	 * @throws SAXException
 	 * @throws IOException
 	 */
-	@SuppressWarnings("unused")
-	private static Document getXmlDocument(File xmlFile)
+	public static Document getXmlDocument(File xmlFile)
 			throws ParserConfigurationException, SAXException, IOException {
-		DocumentBuilder domParser = docBuilderFactory.newDocumentBuilder();
-		return domParser.parse(xmlFile);
+		ByteBuffer mapped;
+		FileChannel channel = FileChannel.open(xmlFile.toPath(), StandardOpenOption.READ);
+		try {
+			if (channel.size() > Integer.MAX_VALUE) {
+				return parse(new InputSource(xmlFile.toURI().toString()), channel.size(), null);
+			}
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			channel.close();
+		}
+		InputSource source = new InputSource(new ByteBufferInputStream(mapped));
+		source.setSystemId(xmlFile.toURI().toString());
+		return parse(source, mapped.remaining(), null);
 	}
 
 	/**
@@ -220,10 +580,31 @@ public class XmlProcessorUtils {
 	 * @throws IOException
 	 * @throws ParserConfigurationException
 	 */
-	private static Document getXmlDocument(InputStream inputStream)
+	public static Document getXmlDocument(InputStream inputStream)
+			throws SAXException, IOException, ParserConfigurationException {
+		if (inputStream == null) {
+			throw new IllegalArgumentException("InputStream cannot be null");
+		}
+		InputStream in = Instrumentation.count(inputStream);
+		return parse(new InputSource(in), 0, in);
+	}
+
+	/**
+	 * Parses with the builder of the calling thread, reporting the length
+	 * given or the bytes read through the counted stream.
+	 */
+	private static Document parse(InputSource source, long length, InputStream counted)
 			throws SAXException, IOException, ParserConfigurationException {
-		DocumentBuilder domParser = docBuilderFactory.newDocumentBuilder();
-		return domParser.parse(inputStream);
+		DocumentBuilder domParser = provider.getDocumentBuilder();
+		long start = Instrumentation.start();
+		try {
+			Document document = domParser.parse(source);
+			Instrumentation.end(Phase.PARSE, start, counted == null ? length : Instrumentation.countOf(counted), 0);
+			return document;
+		} catch (Exception e) {
+			Instrumentation.error(Phase.PARSE, e);
+			throw e;
+		}
 	}
 
 }
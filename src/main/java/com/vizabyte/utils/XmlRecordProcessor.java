@@ -0,0 +1,459 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.xpath.XPathExpressionException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+/**
+ * Evaluates one {@link XPathQueries} set against every occurrence of a
+ * repeating element of a large xml document, in parallel.
+ * <p>
+ * The document is read with StAX and split at the record element; only the
+ * record being read is built into a DOM of its own, whose root element is the
+ * record, and the expressions are evaluated against it on the executor. At
+ * most maxInFlight records are read ahead of the results handed out, so
+ * memory stays bounded by the size of a record, not of the document. Records
+ * are matched on their local name wherever they occur, a record nested in
+ * another being part of the outer one.
+ * <p>
+ * The results are handed out on the calling thread, either in document order
+ * or as they are evaluated.
+ *
+ * @author Drona
+ *
+ */
+public class XmlRecordProcessor {
+
+	public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+	private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+
+	static {
+		inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+	}
+
+	/**
+	 * Receives the values of the expressions for each record.
+	 */
+	public interface RecordHandler {
+
+		/**
+		 * @param index
+		 *            - the position of the record in the document, from 0
+		 * @param results
+		 *            - the values of the expressions for the record
+		 * @throws IOException
+		 *             - when the values cannot be stored; processing stops
+		 */
+		void record(long index, XPathResults results) throws IOException;
+	}
+
+	private final String recordElement;
+	private final XPathQueries queries;
+	private final Executor executor;
+	private final int maxInFlight;
+	private final boolean ordered;
+
+	/**
+	 * Creates a processor evaluating records on the common fork-join pool,
+	 * handing out results in document order.
+	 *
+	 * @param recordElement
+	 *            - the local name of the repeating element
+	 * @param queries
+	 *            - the expressions evaluated against each record
+	 */
+	public XmlRecordProcessor(String recordElement, XPathQueries queries) {
+		this(recordElement, queries, ForkJoinPool.commonPool(), DEFAULT_PARALLELISM * 2, true);
+	}
+
+	/**
+	 * @param recordElement
+	 *            - the local name of the repeating element
+	 * @param queries
+	 *            - the expressions evaluated against each record
+	 * @param executor
+	 *            - the executor evaluating the records, for instance a
+	 *            {@link ForkJoinPool} or a virtual thread per task executor;
+	 *            it is not shut down
+	 * @param maxInFlight
+	 *            - the maximum number of records read but not yet handed out
+	 * @param ordered
+	 *            - whether results are handed out in document order rather
+	 *            than as soon as they are evaluated
+	 */
+	public XmlRecordProcessor(String recordElement, XPathQueries queries, Executor executor, int maxInFlight,
+			boolean ordered) {
+		if (recordElement == null || queries == null || executor == null) {
+			throw new NullPointerException();
+		}
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException("maxInFlight must be positive");
+		}
+		this.recordElement = recordElement;
+		this.queries = queries;
+		this.executor = executor;
+		this.maxInFlight = maxInFlight;
+		this.ordered = ordered;
+	}
+
+	/**
+	 * Evaluates the expressions against every record of the document and
+	 * hands the values to the handler, on the calling thread. The first
+	 * failure stops processing and is thrown. The stream is not closed.
+	 *
+	 * @param xmlInputStream
+	 *            - xml input stream
+	 * @param handler
+	 *            - receives the values of each record
+	 * @return the number of records processed
+	 * @throws SAXException
+	 *             - when the document is not well formed
+	 * @throws IOException
+	 *             - when the document cannot be read or the handler fails
+	 * @throws XPathExpressionException
+	 * @throws InterruptedException
+	 *             - when the calling thread is interrupted while waiting
+	 */
+	public long process(InputStream xmlInputStream, RecordHandler handler)
+			throws SAXException, IOException, XPathExpressionException, InterruptedException {
+		if (xmlInputStream == null || handler == null) {
+			throw new NullPointerException();
+		}
+		Run run = new Run(xmlInputStream);
+		try {
+			long count = 0;
+			RecordTask task;
+			while ((task = run.next()) != null) {
+				handler.record(task.index, run.get(task));
+				count++;
+			}
+			return count;
+		} finally {
+			run.close();
+		}
+	}
+
+	/**
+	 * Returns the values of the expressions for every record of the document,
+	 * read and evaluated as the stream is consumed. Closing the stream stops
+	 * reading and cancels the records in flight; the input stream itself is
+	 * not closed. Failures are thrown from the stream operations as
+	 * {@link UncheckedIOException} for I/O errors and as
+	 * {@link RuntimeException} otherwise.
+	 *
+	 * @param xmlInputStream
+	 *            - xml input stream
+	 * @return the values of each record
+	 * @throws SAXException
+	 *             - when the document cannot be opened
+	 */
+	public Stream<XPathResults> stream(InputStream xmlInputStream) throws SAXException {
+		if (xmlInputStream == null) {
+			throw new NullPointerException();
+		}
+		final Run run = new Run(xmlInputStream);
+		Iterator<XPathResults> results = new Iterator<XPathResults>() {
+
+			private RecordTask next;
+
+			public boolean hasNext() {
+				if (next == null) {
+					try {
+						next = run.next();
+					} catch (Exception e) {
+						throw unchecked(run, e);
+					}
+				}
+				return next != null;
+			}
+
+			public XPathResults next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				RecordTask task = next;
+				next = null;
+				try {
+					return run.get(task);
+				} catch (Exception e) {
+					throw unchecked(run, e);
+				}
+			}
+		};
+		int characteristics = Spliterator.NONNULL | (ordered ? Spliterator.ORDERED : 0);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(results, characteristics), false)
+				.onClose(new Runnable() {
+					public void run() {
+						run.close();
+					}
+				});
+	}
+
+	private static RuntimeException unchecked(Run run, Exception e) {
+		run.close();
+		if (e instanceof InterruptedException) {
+			Thread.currentThread().interrupt();
+		}
+		if (e instanceof RuntimeException) {
+			return (RuntimeException) e;
+		}
+		if (e instanceof IOException) {
+			return new UncheckedIOException((IOException) e);
+		}
+		return new RuntimeException(e);
+	}
+
+	/**
+	 * The evaluation of one record.
+	 */
+	private static final class RecordTask extends FutureTask<XPathResults> {
+
+		final long index;
+		private final LinkedBlockingQueue<RecordTask> completed;
+
+		RecordTask(long index, final Document record, final XPathQueries queries,
+				LinkedBlockingQueue<RecordTask> completed) {
+			super(new Callable<XPathResults>() {
+				public XPathResults call() throws XPathExpressionException {
+					return XmlProcessorUtils.getElementValues(record, queries);
+				}
+			});
+			this.index = index;
+			this.completed = completed;
+		}
+
+		@Override
+		protected void done() {
+			if (completed != null) {
+				completed.add(this);
+			}
+		}
+	}
+
+	/**
+	 * One pass over a document: reads records ahead of the consumer, up to
+	 * maxInFlight of them, and hands back their evaluations in order or as
+	 * they complete. Used from the consuming thread only.
+	 */
+	private final class Run implements Closeable {
+
+		private final XMLStreamReader reader;
+		private final DocumentBuilder builder;
+		private final ArrayDeque<RecordTask> pending = new ArrayDeque<RecordTask>();
+		private final LinkedBlockingQueue<RecordTask> completed;
+		private long index;
+		private boolean exhausted;
+		private boolean closed;
+
+		Run(InputStream xmlInputStream) throws SAXException {
+			try {
+				reader = inputFactory.createXMLStreamReader(xmlInputStream);
+				builder = XmlProcessorUtils.getJaxpProvider().getDocumentBuilder();
+			} catch (Exception e) {
+				throw e instanceof SAXException ? (SAXException) e : new SAXException(e);
+			}
+			completed = ordered ? null : new LinkedBlockingQueue<RecordTask>();
+		}
+
+		/**
+		 * @return the next evaluation to hand out, or null after the last
+		 *         record
+		 */
+		RecordTask next() throws SAXException, InterruptedException {
+			while (!closed && !exhausted && pending.size() < maxInFlight) {
+				Document record = read();
+				if (record == null) {
+					exhausted = true;
+					break;
+				}
+				RecordTask task = new RecordTask(index++, record, queries, completed);
+				pending.add(task);
+				executor.execute(task);
+			}
+			if (closed || pending.isEmpty()) {
+				return null;
+			}
+			if (ordered) {
+				return pending.poll();
+			}
+			RecordTask task = completed.take();
+			pending.remove(task);
+			return task;
+		}
+
+		XPathResults get(RecordTask task) throws XPathExpressionException, InterruptedException {
+			try {
+				return task.get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof XPathExpressionException) {
+					throw (XPathExpressionException) cause;
+				}
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				}
+				if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw new XPathExpressionException(cause);
+			}
+		}
+
+		/**
+		 * Reads up to the end of the next record and builds its DOM.
+		 *
+		 * @return the record, or null at the end of the document
+		 */
+		private Document read() throws SAXException {
+			try {
+				while (reader.hasNext()) {
+					if (reader.next() == XMLStreamConstants.START_ELEMENT
+							&& reader.getLocalName().equals(recordElement)) {
+						return build();
+					}
+				}
+				return null;
+			} catch (XMLStreamException e) {
+				throw new SAXException(e);
+			}
+		}
+
+		/**
+		 * Builds the DOM of the record whose start tag the reader is on, as
+		 * the configured document builder would have parsed it on its own.
+		 */
+		private Document build() throws XMLStreamException {
+			boolean namespaceAware = builder.isNamespaceAware();
+			Document document = builder.newDocument();
+			Node parent = document;
+			int depth = 0;
+			while (true) {
+				switch (reader.getEventType()) {
+				case XMLStreamConstants.START_ELEMENT:
+					Element element = namespaceAware
+							? document.createElementNS(emptyToNull(reader.getNamespaceURI()),
+									qualifiedName(reader.getPrefix(), reader.getLocalName()))
+							: document.createElement(qualifiedName(reader.getPrefix(), reader.getLocalName()));
+					for (int i = 0; i < reader.getNamespaceCount(); i++) {
+						String prefix = reader.getNamespacePrefix(i);
+						String name = prefix == null || prefix.isEmpty() ? XMLConstants.XMLNS_ATTRIBUTE
+								: XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix;
+						String uri = reader.getNamespaceURI(i) == null ? "" : reader.getNamespaceURI(i);
+						if (namespaceAware) {
+							element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, name, uri);
+						} else {
+							element.setAttribute(name, uri);
+						}
+					}
+					for (int i = 0; i < reader.getAttributeCount(); i++) {
+						String name = qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i));
+						if (namespaceAware) {
+							element.setAttributeNS(emptyToNull(reader.getAttributeNamespace(i)), name,
+									reader.getAttributeValue(i));
+						} else {
+							element.setAttribute(name, reader.getAttributeValue(i));
+						}
+					}
+					parent.appendChild(element);
+					parent = element;
+					depth++;
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					parent = parent.getParentNode();
+					depth--;
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					parent.appendChild(document.createTextNode(reader.getText()));
+					break;
+				case XMLStreamConstants.COMMENT:
+					parent.appendChild(document.createComment(reader.getText()));
+					break;
+				case XMLStreamConstants.PROCESSING_INSTRUCTION:
+					parent.appendChild(document.createProcessingInstruction(reader.getPITarget(), reader.getPIData()));
+					break;
+				default:
+					break;
+				}
+				if (depth == 0) {
+					return document;
+				}
+				reader.next();
+			}
+		}
+
+		/**
+		 * Stops reading and cancels the records in flight.
+		 */
+		public void close() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			for (RecordTask task : pending) {
+				task.cancel(true);
+			}
+			pending.clear();
+			try {
+				reader.close();
+			} catch (XMLStreamException e) {
+				// nothing left to release
+			}
+		}
+	}
+
+	private static String qualifiedName(String prefix, String localName) {
+		return prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+	}
+
+	private static String emptyToNull(String namespaceURI) {
+		return namespaceURI == null || namespaceURI.isEmpty() ? null : namespaceURI;
+	}
+
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * A read only view of a zip archive held in a byte buffer, giving access to
+ * the compressed bytes of each entry so they can be copied to another archive
+ * without being inflated and deflated again.
+ * <p>
+ * Only the central directory is parsed; entry data is read straight from the
+ * buffer. Zip64 archives are not supported, which is not a limitation for
+ * Office Open XML packages.
+ *
+ * @author Drona
+ *
+ */
+final class ZipArchive {
+
+	static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+	static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	static final int END_SIGNATURE = 0x06054b50;
+
+	private static final int LOCAL_HEADER_SIZE = 30;
+	private static final int CENTRAL_HEADER_SIZE = 46;
+	private static final int END_SIZE = 22;
+
+	private final ByteBuffer buffer;
+	private final List<Entry> entries;
+
+	private ZipArchive(ByteBuffer buffer, List<Entry> entries) {
+		this.buffer = buffer;
+		this.entries = entries;
+	}
+
+	/**
+	 * @param buffer
+	 *            - a buffer holding a complete zip archive from its position
+	 *            to its limit; it is not modified
+	 * @return the archive read from the buffer
+	 * @throws ZipException
+	 *             - when the buffer does not hold a zip archive
+	 */
+	static ZipArchive open(ByteBuffer buffer) throws ZipException {
+		ByteBuffer zip = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+
+		int end = zip.limit() - END_SIZE;
+		int stop = Math.max(0, end - 0xffff);
+		while (end >= stop && zip.getInt(end) != END_SIGNATURE) {
+			end--;
+		}
+		if (end < stop) {
+			throw new ZipException("End of central directory not found");
+		}
+
+		int count = zip.getShort(end + 10) & 0xffff;
+		long directoryOffset = zip.getInt(end + 16) & 0xffffffffL;
+		if (count == 0xffff || directoryOffset == 0xffffffffL) {
+			throw new ZipException("Zip64 archives are not supported");
+		}
+
+		List<Entry> entries = new ArrayList<Entry>(count);
+		int offset = (int) directoryOffset;
+		for (int i = 0; i < count; i++) {
+			if (offset + CENTRAL_HEADER_SIZE > end || zip.getInt(offset) != CENTRAL_HEADER_SIGNATURE) {
+				throw new ZipException("Invalid central directory header");
+			}
+			int nameLength = zip.getShort(offset + 28) & 0xffff;
+			int extraLength = zip.getShort(offset + 30) & 0xffff;
+			int commentLength = zip.getShort(offset + 32) & 0xffff;
+
+			Entry entry = new Entry();
+			entry.versionNeeded = zip.getShort(offset + 6) & 0xffff;
+			entry.flags = zip.getShort(offset + 8) & 0xffff;
+			entry.method = zip.getShort(offset + 10) & 0xffff;
+			entry.dosTime = zip.getInt(offset + 12);
+			entry.crc = zip.getInt(offset + 16) & 0xffffffffL;
+			entry.compressedSize = zip.getInt(offset + 20) & 0xffffffffL;
+			entry.size = zip.getInt(offset + 24) & 0xffffffffL;
+			entry.externalAttributes = zip.getInt(offset + 38);
+			entry.name = string(zip, offset + CENTRAL_HEADER_SIZE, nameLength);
+
+			int localHeader = zip.getInt(offset + 42);
+			entry.headerOffset = localHeader;
+			if (localHeader < 0 || localHeader + LOCAL_HEADER_SIZE > zip.limit()
+					|| zip.getInt(localHeader) != LOCAL_HEADER_SIGNATURE) {
+				throw new ZipException("Invalid local header for " + entry.name);
+			}
+			entry.dataOffset = localHeader + LOCAL_HEADER_SIZE + (zip.getShort(localHeader + 26) & 0xffff)
+					+ (zip.getShort(localHeader + 28) & 0xffff);
+			if (entry.dataOffset + entry.compressedSize > zip.limit()) {
+				throw new ZipException("Truncated data for " + entry.name);
+			}
+
+			entries.add(entry);
+			offset += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+		}
+		return new ZipArchive(zip, Collections.unmodifiableList(entries));
+	}
+
+	/**
+	 * Maps the given file into memory and reads it as a zip archive.
+	 *
+	 * @param zipFile
+	 *            - the zip file
+	 * @return the archive read from the file
+	 * @throws IOException
+	 *             - when the file cannot be read or is not a zip archive
+	 */
+	static ZipArchive open(File zipFile) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(zipFile, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			return open(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			IOUtils.closeQuietly(file);
+		}
+	}
+
+	private static String string(ByteBuffer zip, int offset, int length) {
+		byte[] bytes = new byte[length];
+		ByteBuffer source = zip.duplicate();
+		source.position(offset);
+		source.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the entries in central directory order
+	 */
+	List<Entry> getEntries() {
+		return entries;
+	}
+
+	/**
+	 * @return the entry with the given name, or null when there is none
+	 */
+	Entry getEntry(String name) {
+		for (Entry entry : entries) {
+			if (entry.name.equals(name)) {
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the whole archive, from its first to its last byte
+	 */
+	ByteBuffer getBuffer() {
+		return buffer.duplicate();
+	}
+
+	/**
+	 * @return the compressed bytes of the entry
+	 */
+	ByteBuffer getRawData(Entry entry) {
+		ByteBuffer data = buffer.duplicate();
+		data.limit((int) (entry.dataOffset + entry.compressedSize));
+		data.position((int) entry.dataOffset);
+		return data.slice();
+	}
+
+	/**
+	 * @return a stream on the uncompressed content of the entry
+	 * @throws ZipException
+	 *             - when the entry uses a compression method other than
+	 *             stored or deflated
+	 */
+	InputStream getInputStream(Entry entry) throws ZipException {
+		if (entry.method == ZipEntry.STORED) {
+			return new ByteBufferInputStream(getRawData(entry));
+		}
+		if (entry.method != ZipEntry.DEFLATED) {
+			throw new ZipException("Unsupported compression method " + entry.method + " for " + entry.name);
+		}
+		// the inflater may need one byte past the end of the compressed data,
+		// which is always there as another header follows every entry
+		ByteBuffer data = buffer.duplicate();
+		data.limit((int) Math.min(buffer.limit(), entry.dataOffset + entry.compressedSize + 1));
+		data.position((int) entry.dataOffset);
+		return new InflaterInputStream(new ByteBufferInputStream(data), new Inflater(true), 8192) {
+
+			private boolean closed;
+
+			@Override
+			public void close() throws IOException {
+				if (!closed) {
+					closed = true;
+					inf.end();
+					super.close();
+				}
+			}
+		};
+	}
+
+	/**
+	 * The central directory record of an entry.
+	 */
+	static final class Entry {
+
+		String name;
+		int versionNeeded;
+		int flags;
+		int method;
+		int dosTime;
+		long crc;
+		long compressedSize;
+		long size;
+		int externalAttributes;
+		long headerOffset;
+		long dataOffset;
+
+		String getName() {
+			return name;
+		}
+
+		long getSize() {
+			return size;
+		}
+	}
+
+}
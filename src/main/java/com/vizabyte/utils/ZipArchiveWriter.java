@@ -0,0 +1,372 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes a zip archive whose entries are either copied as they are, still
+ * compressed, from a {@link ZipArchive}, or deflated at a configurable
+ * compression level. Copying an entry costs no inflating or deflating at all,
+ * which is what makes it cheap to rewrite a package of which only a few parts
+ * changed.
+ *
+ * @author Drona
+ *
+ */
+final class ZipArchiveWriter {
+
+	private static final int VERSION = 20;
+	private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+	private static final int FLAG_UTF8 = 0x800;
+
+	private final PositionOutputStream archive;
+	private final int level;
+	private final List<ZipArchive.Entry> written = new ArrayList<ZipArchive.Entry>();
+	private final byte[] header = new byte[64];
+	private final int dosTime = dosTime(System.currentTimeMillis());
+	private boolean entryOpen;
+
+	/**
+	 * @param out
+	 *            - the stream the archive is written to; it is not closed
+	 * @param level
+	 *            - the compression level of the entries that are not copied,
+	 *            from {@link Deflater#NO_COMPRESSION} to
+	 *            {@link Deflater#BEST_COMPRESSION}, or
+	 *            {@link Deflater#DEFAULT_COMPRESSION}
+	 */
+	ZipArchiveWriter(OutputStream out, int level) {
+		if ((level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+				&& level != Deflater.DEFAULT_COMPRESSION) {
+			throw new IllegalArgumentException("Invalid compression level " + level);
+		}
+		this.archive = new PositionOutputStream(out);
+		this.level = level;
+	}
+
+	/**
+	 * Copies an entry of another archive without inflating it.
+	 *
+	 * @param source
+	 *            - the archive the entry belongs to
+	 * @param entry
+	 *            - the entry to copy
+	 * @throws IOException
+	 *             - when the stream fails
+	 */
+	void copy(ZipArchive source, ZipArchive.Entry entry) throws IOException {
+		checkNoOpenEntry();
+		ZipArchive.Entry copy = new ZipArchive.Entry();
+		copy.name = entry.name;
+		copy.versionNeeded = entry.versionNeeded;
+		copy.flags = entry.flags & ~FLAG_DATA_DESCRIPTOR;
+		copy.method = entry.method;
+		copy.dosTime = entry.dosTime;
+		copy.crc = entry.crc;
+		copy.compressedSize = entry.compressedSize;
+		copy.size = entry.size;
+		copy.externalAttributes = entry.externalAttributes;
+
+		writeLocalHeader(copy);
+		ByteBuffer data = source.getRawData(entry);
+		if (data.hasArray()) {
+			archive.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+		} else {
+			byte[] chunk = new byte[(int) Math.min(8192, data.remaining())];
+			while (data.hasRemaining()) {
+				int length = Math.min(chunk.length, data.remaining());
+				data.get(chunk, 0, length);
+				archive.write(chunk, 0, length);
+			}
+		}
+		written.add(copy);
+	}
+
+	/**
+	 * Starts a new deflated entry. The entry ends when the returned stream is
+	 * closed, which does not close the archive.
+	 *
+	 * @param name
+	 *            - the entry name
+	 * @return the stream the uncompressed content is written to
+	 * @throws IOException
+	 *             - when the stream fails
+	 */
+	OutputStream newEntry(String name) throws IOException {
+		checkNoOpenEntry();
+		final ZipArchive.Entry entry = new ZipArchive.Entry();
+		entry.name = name;
+		entry.versionNeeded = VERSION;
+		entry.flags = FLAG_DATA_DESCRIPTOR | FLAG_UTF8;
+		entry.method = ZipEntry.DEFLATED;
+		entry.dosTime = dosTime;
+		writeLocalHeader(entry);
+
+		entryOpen = true;
+		final long start = archive.position;
+		final Deflater deflater = new Deflater(level, true);
+		final CRC32 crc = new CRC32();
+		final DeflaterOutputStream deflated = new DeflaterOutputStream(new FilterOutputStream(archive) {
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				archive.write(b, off, len);
+			}
+
+			@Override
+			public void close() {
+				// the archive stays open
+			}
+		}, deflater, 8192);
+
+		return new CheckedOutputStream(deflated, crc) {
+
+			private boolean closed;
+
+			@Override
+			public void close() throws IOException {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				try {
+					deflated.finish();
+					entry.crc = crc.getValue();
+					entry.size = deflater.getBytesRead();
+					entry.compressedSize = archive.position - start;
+				} finally {
+					deflater.end();
+				}
+				writeInt(header, 0, ZipArchive.DATA_DESCRIPTOR_SIGNATURE);
+				writeInt(header, 4, (int) entry.crc);
+				writeInt(header, 8, (int) entry.compressedSize);
+				writeInt(header, 12, (int) entry.size);
+				archive.write(header, 0, 16);
+				written.add(entry);
+				entryOpen = false;
+			}
+		};
+	}
+
+	/**
+	 * Writes a complete entry, deflated at the configured level or stored
+	 * when the level is {@link Deflater#NO_COMPRESSION}.
+	 *
+	 * @param name
+	 *            - the entry name
+	 * @param data
+	 *            - the uncompressed content
+	 * @throws IOException
+	 *             - when the stream fails
+	 */
+	void write(String name, byte[] data) throws IOException {
+		if (level != Deflater.NO_COMPRESSION) {
+			OutputStream entry = newEntry(name);
+			entry.write(data);
+			entry.close();
+			return;
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		writeStoredHeader(name, data.length, crc.getValue());
+		archive.write(data);
+	}
+
+	/**
+	 * Writes a complete entry from spooled content, deflated at the
+	 * configured level or stored when the level is
+	 * {@link Deflater#NO_COMPRESSION}.
+	 *
+	 * @param name
+	 *            - the entry name
+	 * @param data
+	 *            - the uncompressed content
+	 * @param crc
+	 *            - the CRC-32 of the content
+	 * @throws IOException
+	 *             - when the content cannot be read or the stream fails
+	 */
+	void write(String name, SpoolOutputStream data, long crc) throws IOException {
+		if (level != Deflater.NO_COMPRESSION) {
+			OutputStream entry = newEntry(name);
+			data.writeTo(entry);
+			entry.close();
+			return;
+		}
+		writeStoredHeader(name, data.getLength(), crc);
+		data.writeTo(archive);
+	}
+
+	private void writeStoredHeader(String name, long size, long crc) throws IOException {
+		checkNoOpenEntry();
+		if (size > 0xffffffffL) {
+			throw new IOException("Entry too large without zip64 support");
+		}
+		ZipArchive.Entry entry = new ZipArchive.Entry();
+		entry.name = name;
+		entry.versionNeeded = 10;
+		entry.flags = FLAG_UTF8;
+		entry.method = ZipEntry.STORED;
+		entry.dosTime = dosTime;
+		entry.crc = crc;
+		entry.compressedSize = size;
+		entry.size = size;
+		writeLocalHeader(entry);
+		written.add(entry);
+	}
+
+	/**
+	 * Writes the central directory. The underlying stream is flushed but not
+	 * closed.
+	 *
+	 * @throws IOException
+	 *             - when the stream fails
+	 */
+	void finish() throws IOException {
+		checkNoOpenEntry();
+		long directoryOffset = archive.position;
+		for (ZipArchive.Entry entry : written) {
+			byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+			writeInt(header, 0, ZipArchive.CENTRAL_HEADER_SIGNATURE);
+			writeShort(header, 4, VERSION);
+			writeShort(header, 6, entry.versionNeeded);
+			writeShort(header, 8, entry.flags);
+			writeShort(header, 10, entry.method);
+			writeInt(header, 12, entry.dosTime);
+			writeInt(header, 16, (int) entry.crc);
+			writeInt(header, 20, (int) entry.compressedSize);
+			writeInt(header, 24, (int) entry.size);
+			writeShort(header, 28, name.length);
+			writeShort(header, 30, 0);
+			writeShort(header, 32, 0);
+			writeShort(header, 34, 0);
+			writeShort(header, 36, 0);
+			writeInt(header, 38, entry.externalAttributes);
+			writeInt(header, 42, (int) entry.headerOffset);
+			archive.write(header, 0, 46);
+			archive.write(name);
+		}
+		long directorySize = archive.position - directoryOffset;
+		if (written.size() > 0xffff || archive.position > 0xffffffffL) {
+			throw new IOException("Archive too large without zip64 support");
+		}
+
+		writeInt(header, 0, ZipArchive.END_SIGNATURE);
+		writeShort(header, 4, 0);
+		writeShort(header, 6, 0);
+		writeShort(header, 8, written.size());
+		writeShort(header, 10, written.size());
+		writeInt(header, 12, (int) directorySize);
+		writeInt(header, 16, (int) directoryOffset);
+		writeShort(header, 20, 0);
+		archive.write(header, 0, 22);
+		archive.flush();
+	}
+
+	/**
+	 * Writes the local header of an entry and records its offset, which the
+	 * central directory refers to.
+	 */
+	private void writeLocalHeader(ZipArchive.Entry entry) throws IOException {
+		byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+		boolean descriptor = (entry.flags & FLAG_DATA_DESCRIPTOR) != 0;
+		entry.headerOffset = archive.position;
+		writeInt(header, 0, ZipArchive.LOCAL_HEADER_SIGNATURE);
+		writeShort(header, 4, entry.versionNeeded);
+		writeShort(header, 6, entry.flags);
+		writeShort(header, 8, entry.method);
+		writeInt(header, 10, entry.dosTime);
+		writeInt(header, 14, descriptor ? 0 : (int) entry.crc);
+		writeInt(header, 18, descriptor ? 0 : (int) entry.compressedSize);
+		writeInt(header, 22, descriptor ? 0 : (int) entry.size);
+		writeShort(header, 26, name.length);
+		writeShort(header, 28, 0);
+		archive.write(header, 0, 30);
+		archive.write(name);
+	}
+
+	private void checkNoOpenEntry() {
+		if (entryOpen) {
+			throw new IllegalStateException("The previous entry has not been closed");
+		}
+	}
+
+	private static void writeShort(byte[] b, int offset, int value) {
+		b[offset] = (byte) value;
+		b[offset + 1] = (byte) (value >>> 8);
+	}
+
+	private static void writeInt(byte[] b, int offset, int value) {
+		b[offset] = (byte) value;
+		b[offset + 1] = (byte) (value >>> 8);
+		b[offset + 2] = (byte) (value >>> 16);
+		b[offset + 3] = (byte) (value >>> 24);
+	}
+
+	/**
+	 * @return the time in MS-DOS format: the time in the low and the date in
+	 *         the high 16 bits
+	 */
+	private static int dosTime(long millis) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(millis);
+		int year = calendar.get(Calendar.YEAR);
+		if (year < 1980) {
+			return (1 << 21) | (1 << 16);
+		}
+		return (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21
+				| calendar.get(Calendar.DAY_OF_MONTH) << 16 | calendar.get(Calendar.HOUR_OF_DAY) << 11
+				| calendar.get(Calendar.MINUTE) << 5 | calendar.get(Calendar.SECOND) >> 1;
+	}
+
+	/**
+	 * Keeps track of the number of bytes written, which gives the offsets
+	 * recorded in the central directory.
+	 */
+	private static final class PositionOutputStream extends FilterOutputStream {
+
+		private long position;
+
+		PositionOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			position++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			position += len;
+		}
+	}
+
+}
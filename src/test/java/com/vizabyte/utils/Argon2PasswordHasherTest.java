@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class Argon2PasswordHasherTest extends TestCase {
+
+	private static final String PASSWORD = "Caf\u00e9 s3cret";
+
+	public void testDerivesRfcVector() {
+		byte[] password = new byte[32];
+		byte[] salt = new byte[16];
+		byte[] secret = new byte[8];
+		byte[] associatedData = new byte[12];
+		Arrays.fill(password, (byte) 1);
+		Arrays.fill(salt, (byte) 2);
+		Arrays.fill(secret, (byte) 3);
+		Arrays.fill(associatedData, (byte) 4);
+		byte[] tag = new byte[32];
+		Argon2PasswordHasher.derive(password, salt, secret, associatedData, 32, 3, 4, tag);
+		assertEquals("0d640df58d78766c08c037a34a8b53c9d01ef0452d75b65eb52520e96b01e659",
+				ScryptPasswordHasherTest.hex(tag));
+	}
+
+	public void testBlake2b() {
+		Blake2b blake2b = new Blake2b();
+		byte[] digest = new byte[64];
+		blake2b.update(new byte[] { 'a', 'b', 'c' });
+		blake2b.digest(digest, 0);
+		assertEquals("ba80a53f981c4d0d6a2797b69f12f6e94c212f14685ac4b74b12bb6fdbffa2d17d87c5392aab792dc252d5de4533cc"
+				+ "9518d38aa8dbf1925ab92386edd4009923", ScryptPasswordHasherTest.hex(digest));
+		blake2b.digest(digest, 0);
+		assertEquals("786a02f742015903c6c6fd852552d272912f4740e15847618a86e217f71f5419d25e1031afee585313896444934eb0"
+				+ "4b903a685b1448b755d56f701afe9be2ce", ScryptPasswordHasherTest.hex(digest));
+
+		byte[] message = new byte[512];
+		for (int i = 0; i < message.length; i++) {
+			message[i] = (byte) i;
+		}
+		digest = new byte[32];
+		blake2b.reset(32);
+		blake2b.update(message, 0, 100);
+		blake2b.update(message, 100, 412);
+		blake2b.digest(digest, 0);
+		assertEquals("540b20132d8aeae54057cb69c24f95d26a1c472cc700dd450defe9bb796d4f14",
+				ScryptPasswordHasherTest.hex(digest));
+
+		digest = new byte[20];
+		blake2b.reset(20);
+		blake2b.update(message, 0, 128);
+		blake2b.digest(digest, 0);
+		assertEquals("e6992372ab022447b34f6d6032fbab707a11adef", ScryptPasswordHasherTest.hex(digest));
+	}
+
+	public void testHashesAndVerifies() {
+		Argon2PasswordHasher hasher = new Argon2PasswordHasher(256, 2, 2, 32, 16);
+		String encoded = hasher.hash(PASSWORD);
+		assertTrue(encoded, encoded.startsWith("$argon2id$v=19$m=256,t=2,p=2$"));
+		assertTrue(hasher.verify(PASSWORD, encoded));
+		assertTrue(hasher.verify("Cafe\u0301 s3cret", encoded));
+		assertFalse(hasher.verify("cafe s3cret", encoded));
+		assertFalse(hasher.needsRehash(encoded));
+		assertTrue(new Argon2PasswordHasher().needsRehash(encoded));
+	}
+
+	public void testRejectsMalformedHashes() {
+		Argon2PasswordHasher hasher = new Argon2PasswordHasher(64, 1, 1, 32, 16);
+		for (String malformed : new String[] { "", "$argon2i$v=19$m=64,t=1,p=1$c2FsdHNhbHQ$aGFzaA",
+				"$argon2id$v=16$m=64,t=1,p=1$c2FsdHNhbHQ$aGFzaA", "$argon2id$v=19$m=4,t=1,p=1$c2FsdHNhbHQ$aGFzaA",
+				"$argon2id$v=19$m=64,t=1$c2FsdHNhbHQ$aGFzaA" }) {
+			try {
+				hasher.verify(PASSWORD, malformed);
+				fail(malformed);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.xpath.XPathConstants;
+
+import junit.framework.TestCase;
+
+public class AsyncUtilsTest extends TestCase {
+
+	private static final int TASKS = 3000;
+
+	private Path directory;
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = Files.createTempDirectory("async-utils");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory)) {
+			for (Path path : paths) {
+				Files.delete(path);
+			}
+		}
+		Files.delete(directory);
+	}
+
+	private Path write(String name, byte[] content) throws Exception {
+		return Files.write(directory.resolve(name), content);
+	}
+
+	public void testChannels() throws Exception {
+		AsyncUtils async = AsyncUtils.getDefault();
+		byte[] docx = DocxFixtures.docx("Dear ${name},");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		async.replaceVariables(Channels.newChannel(new ByteArrayInputStream(docx)),
+				Collections.singletonMap("name", "Ann"), Channels.newChannel(out)).get();
+		assertTrue(DocxFixtures.entry(out.toByteArray(), "word/document.xml").contains("Dear Ann,"));
+
+		XPathResults results = async.getElementValues(
+				Channels.newChannel(new ByteArrayInputStream(
+						"<order id=\"7\"><total>12.5</total></order>".getBytes(StandardCharsets.UTF_8))),
+				new XPathQueries().add("id", "/order/@id").add("total", "/order/total")).get();
+		assertEquals("7", results.getString("id"));
+		assertEquals("12.5", results.getString("total"));
+	}
+
+	public void testFailsWithTheOriginalException() throws Exception {
+		try {
+			AsyncUtils.getDefault().replaceVariables(directory.resolve("missing.docx"),
+					Collections.<String, String> emptyMap()).get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof NoSuchFileException);
+		}
+	}
+
+	public void testRejectedCallsFail() throws Exception {
+		ExecutorService executor = AsyncUtils.newDefaultExecutor();
+		executor.shutdown();
+		CompletableFuture<String> call = new AsyncUtils(executor).encodePassword("s3cret");
+		assertTrue(call.isCompletedExceptionally());
+	}
+
+	/**
+	 * Runs thousands of mixed calls at once on the default pool and checks
+	 * every result.
+	 */
+	public void testManyConcurrentCalls() throws Exception {
+		runManyConcurrentCalls(AsyncUtils.newDefaultExecutor());
+	}
+
+	/**
+	 * Runs the same calls each on its own virtual thread, where the JDK has
+	 * them.
+	 */
+	public void testManyConcurrentCallsOnVirtualThreads() throws Exception {
+		ExecutorService executor;
+		try {
+			executor = AsyncUtils.newVirtualThreadExecutor();
+		} catch (UnsupportedOperationException e) {
+			return;
+		}
+		runManyConcurrentCalls(executor);
+	}
+
+	private void runManyConcurrentCalls(ExecutorService executor) throws Exception {
+		AsyncUtils async = new AsyncUtils(executor);
+		try {
+			Path template = write("template.docx", DocxFixtures.docx("Dear ${name},", "Order ${order}"));
+			byte[] salt = SecurityUtils.generateSalt();
+			byte[] hash = SecurityUtils.hashPassword("s3cret", salt);
+			String encoded = SecurityUtils.encodePassword("s3cret");
+			XPathQueries queries = new XPathQueries().add("id", "/order/@id").add("name", "/order/name");
+
+			List<CompletableFuture<?>> calls = new ArrayList<CompletableFuture<?>>();
+			List<Object> expected = new ArrayList<Object>();
+			for (int i = 0; i < TASKS; i++) {
+				switch (i % 4) {
+				case 0:
+					calls.add(async.replaceVariables(template, Collections.singletonMap("name", "n" + i),
+							directory.resolve(i + ".docx")));
+					expected.add("Dear n" + i + ",");
+					break;
+				case 1:
+					Path xml = write(i + ".xml",
+							("<order id=\"" + i + "\"><name>n" + i + "</name></order>").getBytes(StandardCharsets.UTF_8));
+					calls.add(async.getElementValues(xml, queries));
+					expected.add(String.valueOf(i));
+					break;
+				case 2:
+					calls.add(async.getElementValue(directory.resolve(i - 1 + ".xml"), "/order/name",
+							XPathConstants.STRING));
+					expected.add("n" + (i - 1));
+					break;
+				default:
+					if (i % 40 == 3) {
+						calls.add(async.verifyPassword(i % 80 == 3 ? "s3cret" : "secret", encoded));
+						expected.add(Boolean.valueOf(i % 80 == 3));
+					} else {
+						calls.add(async.matchPassword("s3cret", salt, hash));
+						expected.add(Boolean.TRUE);
+					}
+				}
+			}
+			CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[calls.size()])).get(5,
+					TimeUnit.MINUTES);
+
+			for (int i = 0; i < TASKS; i++) {
+				Object result = calls.get(i).get();
+				switch (i % 4) {
+				case 0:
+					assertEquals(directory.resolve(i + ".docx"), result);
+					assertTrue(DocxFixtures.entry(Files.readAllBytes((Path) result), "word/document.xml")
+							.contains((String) expected.get(i)));
+					break;
+				case 1:
+					assertEquals(expected.get(i), ((XPathResults) result).getString("id"));
+					assertEquals("n" + i, ((XPathResults) result).getString("name"));
+					break;
+				default:
+					assertEquals(expected.get(i), result);
+				}
+			}
+			List<String> names = new ArrayList<String>();
+			try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory)) {
+				for (Path path : paths) {
+					names.add(path.getFileName().toString());
+				}
+			}
+			for (String name : names) {
+				assertFalse(name, name.endsWith(".tmp"));
+			}
+			assertEquals(1 + TASKS / 4 * 2, names.size());
+		} finally {
+			executor.shutdown();
+			assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+		}
+	}
+
+}
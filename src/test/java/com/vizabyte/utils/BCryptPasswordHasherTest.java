@@ -0,0 +1,58 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import junit.framework.TestCase;
+
+public class BCryptPasswordHasherTest extends TestCase {
+
+	private static final String PASSWORD = "Caf\u00e9 s3cret";
+
+	public void testVerifiesKnownHashes() {
+		BCryptPasswordHasher hasher = new BCryptPasswordHasher(4);
+		assertTrue(hasher.verify("U*U", "$2a$05$CCCCCCCCCCCCCCCCCCCCC.E5YPO9kmyuRGyh0XouQYb4YMJKvyOeW"));
+		assertTrue(hasher.verify("U*U*", "$2a$05$CCCCCCCCCCCCCCCCCCCCC.VGOzA784oUp/Z0DY336zx7pLYAy0lwK"));
+		assertTrue(hasher.verify("", "$2a$06$DCq7YPn5Rq63x1Lad4cll.TV4S6ytwfsfvkgY8jIucDrjc8deX1s."));
+		assertFalse(hasher.verify("U*U*", "$2a$05$CCCCCCCCCCCCCCCCCCCCC.E5YPO9kmyuRGyh0XouQYb4YMJKvyOeW"));
+	}
+
+	public void testHashesAndVerifies() {
+		BCryptPasswordHasher hasher = new BCryptPasswordHasher(5);
+		String encoded = hasher.hash(PASSWORD);
+		assertEquals(60, encoded.length());
+		assertTrue(encoded, encoded.startsWith("$2b$05$"));
+		assertTrue(hasher.verify(PASSWORD, encoded));
+		assertTrue(hasher.verify("Cafe\u0301 s3cret", encoded));
+		assertFalse(hasher.verify("cafe s3cret", encoded));
+		assertFalse(hasher.needsRehash(encoded));
+		assertTrue(new BCryptPasswordHasher(6).needsRehash(encoded));
+	}
+
+	public void testRejectsMalformedHashes() {
+		BCryptPasswordHasher hasher = new BCryptPasswordHasher(4);
+		for (String malformed : new String[] { "", "$2x$05$CCCCCCCCCCCCCCCCCCCCC.E5YPO9kmyuRGyh0XouQYb4YMJKvyOeW",
+				"$2a$05$CCCCCCCCCCCCCCCCCCCCC.E5YPO9kmyuRGyh0XouQYb4YMJKvyOe",
+				"$2a$05$CCCCCCCCCCCCCCCCCCCC!.E5YPO9kmyuRGyh0XouQYb4YMJKvyOeW" }) {
+			try {
+				hasher.verify(PASSWORD, malformed);
+				fail(malformed);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import junit.framework.TestCase;
+
+public class DelegatingPasswordHasherTest extends TestCase {
+
+	private static final String PASSWORD = "Caf\u00e9 s3cret";
+
+	public void testVerifiesByPrefix() {
+		PasswordHasher[] hashers = { new Pbkdf2PasswordHasher(Pbkdf2PasswordHasher.PBKDF2_SHA256, 1000, 256, 16),
+				new BCryptPasswordHasher(4), new ScryptPasswordHasher(8, 8, 1, 32, 16),
+				new Argon2PasswordHasher(64, 1, 1, 32, 16) };
+		Argon2PasswordHasher argon2 = new Argon2PasswordHasher(128, 1, 1, 32, 16);
+		DelegatingPasswordHasher hasher = new DelegatingPasswordHasher(argon2, hashers);
+		assertSame(argon2, hasher.getDefaultHasher());
+		for (PasswordHasher other : hashers) {
+			String encoded = other.hash(PASSWORD);
+			assertTrue(encoded, hasher.supports(encoded));
+			assertTrue(encoded, hasher.verify(PASSWORD, encoded));
+			assertFalse(encoded, hasher.verify("cafe s3cret", encoded));
+			assertTrue(encoded, hasher.needsRehash(encoded));
+		}
+		String encoded = hasher.hash(PASSWORD);
+		assertTrue(encoded, encoded.startsWith("$argon2id$v=19$m=128,"));
+		assertTrue(hasher.verify(PASSWORD.toCharArray(), encoded));
+		assertFalse(hasher.needsRehash(encoded));
+	}
+
+	public void testRejectsUnknownHashes() {
+		DelegatingPasswordHasher hasher = new DelegatingPasswordHasher(new Pbkdf2PasswordHasher());
+		assertFalse(hasher.supports("$md5$c2FsdA$aGFzaA"));
+		try {
+			hasher.verify(PASSWORD, "$md5$c2FsdA$aGFzaA");
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().endsWith("$md5$"));
+		}
+	}
+
+	public void testSecurityUtilsVerifiesEveryAlgorithm() {
+		PasswordHasher previous = SecurityUtils.getPasswordHasher();
+		String pbkdf2 = SecurityUtils.encodePassword(PASSWORD);
+		try {
+			BCryptPasswordHasher bcrypt = new BCryptPasswordHasher(4);
+			SecurityUtils.setPasswordHasher(bcrypt);
+			assertSame(bcrypt, SecurityUtils.getPasswordHasher());
+			String encoded = SecurityUtils.encodePassword(PASSWORD);
+			assertTrue(encoded, encoded.startsWith("$2b$04$"));
+			assertTrue(SecurityUtils.verifyPassword(PASSWORD, encoded));
+			assertTrue(SecurityUtils.verifyPassword(PASSWORD, pbkdf2));
+			assertTrue(SecurityUtils.needsRehash(pbkdf2));
+			assertFalse(SecurityUtils.needsRehash(encoded));
+		} finally {
+			SecurityUtils.setPasswordHasher(previous);
+		}
+	}
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.docx4j.jaxb.Context;
+import org.docx4j.openpackaging.exceptions.Docx4JException;
+import org.docx4j.openpackaging.packages.WordprocessingMLPackage;
+import org.docx4j.openpackaging.parts.WordprocessingML.FooterPart;
+import org.docx4j.openpackaging.parts.WordprocessingML.HeaderPart;
+import org.docx4j.openpackaging.parts.WordprocessingML.MainDocumentPart;
+import org.docx4j.wml.FooterReference;
+import org.docx4j.wml.Ftr;
+import org.docx4j.wml.HdrFtrRef;
+import org.docx4j.wml.Hdr;
+import org.docx4j.wml.HeaderReference;
+import org.docx4j.wml.ObjectFactory;
+import org.docx4j.wml.P;
+import org.docx4j.wml.R;
+import org.docx4j.wml.SectPr;
+import org.docx4j.wml.Text;
+
+/**
+ * Builds small .docx packages for the tests, so no binary fixtures have to be
+ * checked in.
+ */
+final class DocxFixtures {
+
+	private DocxFixtures() {
+	}
+
+	/**
+	 * @param paragraphs
+	 *            - the text of each paragraph
+	 * @return a .docx package with one run per paragraph
+	 */
+	static byte[] docx(String... paragraphs) throws Docx4JException {
+		WordprocessingMLPackage wordMLPackage = WordprocessingMLPackage.createPackage();
+		MainDocumentPart documentPart = wordMLPackage.getMainDocumentPart();
+		for (String paragraph : paragraphs) {
+			documentPart.addParagraphOfText(paragraph);
+		}
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		wordMLPackage.save(baos);
+		return baos.toByteArray();
+	}
+
+	/**
+	 * @param runs
+	 *            - the text of each run
+	 * @return a .docx package with a single paragraph made of the given runs
+	 */
+	static byte[] docxWithRuns(String... runs) throws Docx4JException {
+		WordprocessingMLPackage wordMLPackage = WordprocessingMLPackage.createPackage();
+		ObjectFactory factory = Context.getWmlObjectFactory();
+		P p = factory.createP();
+		for (String run : runs) {
+			Text text = factory.createText();
+			text.setValue(run);
+			R r = factory.createR();
+			r.getContent().add(factory.createRT(text));
+			p.getContent().add(r);
+		}
+		wordMLPackage.getMainDocumentPart().addObject(p);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		wordMLPackage.save(baos);
+		return baos.toByteArray();
+	}
+
+	/**
+	 * @param body
+	 *            - the text of the only paragraph of the body
+	 * @param header
+	 *            - the text of the default header
+	 * @param footer
+	 *            - the text of the default footer
+	 * @return a .docx package with a header and a footer
+	 */
+	@SuppressWarnings("deprecation")
+	static byte[] docxWithHeaderAndFooter(String body, String header, String footer) throws Docx4JException {
+		WordprocessingMLPackage wordMLPackage = WordprocessingMLPackage.createPackage();
+		MainDocumentPart documentPart = wordMLPackage.getMainDocumentPart();
+		documentPart.addParagraphOfText(body);
+		ObjectFactory factory = Context.getWmlObjectFactory();
+
+		HeaderPart headerPart = new HeaderPart();
+		Hdr hdr = factory.createHdr();
+		hdr.getContent().add(documentPart.createParagraphOfText(header));
+		headerPart.setJaxbElement(hdr);
+		HeaderReference headerReference = factory.createHeaderReference();
+		headerReference.setId(documentPart.addTargetPart(headerPart).getId());
+		headerReference.setType(HdrFtrRef.DEFAULT);
+
+		FooterPart footerPart = new FooterPart();
+		Ftr ftr = factory.createFtr();
+		ftr.getContent().add(documentPart.createParagraphOfText(footer));
+		footerPart.setJaxbElement(ftr);
+		FooterReference footerReference = factory.createFooterReference();
+		footerReference.setId(documentPart.addTargetPart(footerPart).getId());
+		footerReference.setType(HdrFtrRef.DEFAULT);
+
+		SectPr sectPr = documentPart.getJaxbElement().getBody().getSectPr();
+		if (sectPr == null) {
+			sectPr = factory.createSectPr();
+			documentPart.getJaxbElement().getBody().setSectPr(sectPr);
+		}
+		sectPr.getEGHdrFtrReferences().add(headerReference);
+		sectPr.getEGHdrFtrReferences().add(footerReference);
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		wordMLPackage.save(baos);
+		return baos.toByteArray();
+	}
+
+	/**
+	 * @return the content of the named entry as a UTF-8 string, or null when
+	 *         the package has no such entry
+	 */
+	static String entry(byte[] docx, String name) throws IOException {
+		ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(docx));
+		try {
+			ZipEntry zipEntry;
+			while ((zipEntry = zis.getNextEntry()) != null) {
+				if (zipEntry.getName().equals(name)) {
+					return new String(IOUtils.toByteArray(zis), StandardCharsets.UTF_8);
+				}
+			}
+			return null;
+		} finally {
+			zis.close();
+		}
+	}
+
+	/**
+	 * @return the inflated content streams of a PDF, where the text drawn in
+	 *         the standard fonts appears as PDF string literals
+	 */
+	static String pdfContent(byte[] pdf) throws IOException {
+		String raw = new String(pdf, StandardCharsets.ISO_8859_1);
+		StringBuilder content = new StringBuilder();
+		int start = 0;
+		while ((start = raw.indexOf("stream\n", start)) >= 0) {
+			int end = raw.indexOf("endstream", start);
+			byte[] data = raw.substring(start + 7, end).getBytes(StandardCharsets.ISO_8859_1);
+			try {
+				content.append(new String(IOUtils.toByteArray(new InflaterInputStream(new ByteArrayInputStream(data))),
+						StandardCharsets.ISO_8859_1));
+			} catch (IOException e) {
+				// not a deflated stream
+			}
+			start = end + "endstream".length();
+		}
+		return content.toString();
+	}
+
+}
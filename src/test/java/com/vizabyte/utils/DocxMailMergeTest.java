@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+public class DocxMailMergeTest extends TestCase {
+
+	private List<Map<String, String>> records(int count) {
+		List<Map<String, String>> records = new ArrayList<Map<String, String>>();
+		for (int i = 0; i < count; i++) {
+			records.add(Collections.singletonMap("name", "Person " + i));
+		}
+		return records;
+	}
+
+	public void testMergeIntoZip() throws Exception {
+		mergeIntoZip(SpoolOutputStream.DEFAULT_THRESHOLD);
+	}
+
+	public void testMergeIntoZipThroughSpoolFiles() throws Exception {
+		mergeIntoZip(0);
+	}
+
+	private void mergeIntoZip(int spoolThreshold) throws Exception {
+		DocxTemplate template = DocxTemplate.compile(DocxFixtures.docx("Dear ${name}"));
+		ByteArrayOutputStream zip = new ByteArrayOutputStream();
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			MailMergeResult result = new DocxMailMerge(template, executor, 3).merge(records(25),
+					MailMergeSink.toZip(zip, MailMergeSink.DEFAULT_NAME_PATTERN, spoolThreshold));
+			assertTrue(result.isSuccessful());
+			assertEquals(25, result.getSucceeded());
+		} finally {
+			executor.shutdown();
+		}
+
+		ZipArchive archive = ZipArchive.open(ByteBuffer.wrap(zip.toByteArray()));
+		assertEquals(25, archive.getEntries().size());
+		byte[] document = IOUtils.toByteArray(archive.getInputStream(archive.getEntry("document-000007.docx")));
+		assertTrue(DocxFixtures.entry(document, "word/document.xml").contains("Dear Person 7"));
+	}
+
+	public void testFailuresDoNotAbortTheBatch() throws Exception {
+		DocxTemplate template = DocxTemplate.compile(DocxFixtures.docx("Dear ${name}"));
+		final List<byte[]> written = Collections.synchronizedList(new ArrayList<byte[]>());
+		MailMergeSink sink = MailMergeSink.toStreams(new MailMergeSink.OutputStreamFactory() {
+			public ByteArrayOutputStream open(int index, Map<String, String> mappings) throws IOException {
+				if (index % 5 == 0) {
+					throw new IOException("no stream for " + index);
+				}
+				return new ByteArrayOutputStream() {
+					@Override
+					public void close() {
+						written.add(toByteArray());
+					}
+				};
+			}
+		});
+
+		MailMergeResult result = new DocxMailMerge(template).merge(records(20), sink);
+		assertEquals(16, result.getSucceeded());
+		assertEquals(4, result.getFailures().size());
+		assertEquals(15, result.getFailures().get(3).getIndex());
+		assertEquals("Person 15", result.getFailures().get(3).getMappings().get("name"));
+		assertEquals(16, written.size());
+		DocxUtils.replaceVariables(new ByteArrayInputStream(written.get(0)), Collections.<String, String> emptyMap());
+	}
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import junit.framework.TestCase;
+
+public class DocxTemplateTest extends TestCase {
+
+	private byte[] docx;
+	private Map<String, String> mappings;
+
+	protected void setUp() throws Exception {
+		docx = DocxFixtures.docx("Hello ${name}, welcome to ${city}!", "Missing ${unknown} & more");
+		mappings = new HashMap<String, String>();
+		mappings.put("name", "Ann");
+		mappings.put("city", "Paris");
+	}
+
+	public void testRenderMatchesReplaceVariables() throws Exception {
+		byte[] expected = DocxUtils.replaceVariables(new ByteArrayInputStream(docx), mappings);
+		byte[] actual = DocxTemplate.compile(docx).render(mappings);
+
+		String xml = DocxFixtures.entry(actual, "word/document.xml");
+		assertEquals(DocxFixtures.entry(expected, "word/document.xml"), xml);
+		assertTrue(xml.contains("Hello Ann, welcome to Paris!"));
+		assertTrue(xml.contains("Missing unknown &amp; more"));
+		assertEquals(DocxFixtures.entry(expected, "word/styles.xml"), DocxFixtures.entry(actual, "word/styles.xml"));
+	}
+
+	public void testValuesAreEscaped() throws Exception {
+		mappings.put("name", "<Ann & Bob>");
+		String xml = DocxFixtures.entry(DocxTemplate.compile(docx).render(mappings), "word/document.xml");
+		assertTrue(xml.contains("Hello &lt;Ann &amp; Bob&gt;, welcome"));
+	}
+
+	public void testPlaceholderIndex() throws Exception {
+		PlaceholderIndex index = DocxTemplate.compile(docx).getPlaceholderIndex();
+		assertEquals(Arrays.asList("name", "city", "unknown"), new ArrayList<String>(index.getNames()));
+		assertEquals(3, index.getPlaceholders().size());
+
+		PlaceholderIndex.Placeholder name = index.getPlaceholders("name").get(0);
+		assertEquals("word/document.xml", name.getPartName());
+		assertEquals(PlaceholderIndex.Location.BODY, name.getLocation());
+		String xml = DocxFixtures.entry(DocxTemplate.compile(docx).render(mappings), "word/document.xml");
+		assertTrue(xml.startsWith("Ann, welcome", name.getOffset()));
+
+		assertEquals(Collections.singleton("unknown"), index.getMissingNames(mappings));
+		mappings.put("country", "France");
+		assertEquals(Collections.singleton("country"), index.getUnusedNames(mappings));
+		try {
+			index.validate(mappings);
+			fail();
+		} catch (IllegalArgumentException expected) {
+			assertTrue(expected.getMessage().contains("unknown"));
+		}
+		mappings.put("unknown", "known");
+		index.validate(mappings);
+	}
+
+	public void testHeadersAndFooters() throws Exception {
+		byte[] headed = DocxFixtures.docxWithHeaderAndFooter("Dear ${name}", "Ref ${reference}", "Page for ${name}");
+		DocxTemplate template = DocxTemplate.compile(headed);
+		PlaceholderIndex index = template.getPlaceholderIndex();
+		assertEquals(Collections.singleton("name"), index.getNames(PlaceholderIndex.Location.BODY));
+		assertEquals(Collections.singleton("reference"), index.getNames(PlaceholderIndex.Location.HEADER));
+		assertEquals(Collections.singleton("name"), index.getNames(PlaceholderIndex.Location.FOOTER));
+		assertEquals(2, index.getPlaceholders("name").size());
+
+		mappings.put("reference", "A-42");
+		String header = index.getPlaceholders("reference").get(0).getPartName();
+		String footer = index.getPlaceholders("name").get(1).getPartName();
+
+		// as replaceVariables, which leaves headers and footers as they are
+		byte[] rendered = template.render(mappings);
+		byte[] expected = DocxUtils.replaceVariables(new ByteArrayInputStream(headed), mappings);
+		for (String part : new String[] { "word/document.xml", header, footer }) {
+			assertEquals(DocxFixtures.entry(expected, part), DocxFixtures.entry(rendered, part));
+		}
+		assertTrue(DocxFixtures.entry(rendered, header).contains("Ref ${reference}"));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		template.render(mappings, out, Deflater.DEFAULT_COMPRESSION, true);
+		rendered = out.toByteArray();
+		assertTrue(DocxFixtures.entry(rendered, "word/document.xml").contains("Dear Ann"));
+		assertTrue(DocxFixtures.entry(rendered, header).contains("Ref A-42"));
+		assertTrue(DocxFixtures.entry(rendered, footer).contains("Page for Ann"));
+	}
+
+	public void testCacheReturnsSameInstanceAndEvicts() throws Exception {
+		DocxTemplateCache cache = new DocxTemplateCache(1, Long.MAX_VALUE);
+		DocxTemplate template = cache.compile(docx);
+		assertSame(template, cache.compile(docx.clone()));
+		assertEquals(1, cache.size());
+
+		DocxTemplate other = cache.compile(DocxFixtures.docx("${other}"));
+		assertEquals(1, cache.size());
+		assertNull(cache.get(template.getContentHash()));
+		assertSame(other, cache.get(other.getContentHash()));
+	}
+
+}
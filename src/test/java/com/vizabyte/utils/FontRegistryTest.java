@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+public class FontRegistryTest extends TestCase {
+
+	public void testWarmUpIsIdempotent() throws Exception {
+		FontRegistry.warmUp();
+		assertTrue(FontRegistry.isWarm());
+		long start = System.nanoTime();
+		FontRegistry.warmUp();
+		assertTrue(System.nanoTime() - start < 10000000L);
+	}
+
+	public void testConcurrentConversions() throws Exception {
+		final byte[] docx = DocxFixtures.docx("Fonts");
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<byte[]>> pdfs = new ArrayList<Future<byte[]>>();
+			for (int i = 0; i < 8; i++) {
+				pdfs.add(executor.submit(new Callable<byte[]>() {
+					public byte[] call() throws Exception {
+						ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+						DocxUtils.toPdf(new ByteArrayInputStream(docx), pdf);
+						return pdf.toByteArray();
+					}
+				}));
+			}
+			for (Future<byte[]> pdf : pdfs) {
+				assertTrue(pdf.get().length > 0);
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	public void testCacheFileIsWrittenOnFirstWarmUpOnly() throws Exception {
+		File cacheFile = File.createTempFile("fonts", ".cache");
+		cacheFile.delete();
+		try {
+			// the registry is process wide, so another test may have warmed it
+			boolean wasWarm = FontRegistry.isWarm();
+			FontRegistry.warmUp(cacheFile);
+			assertEquals(!wasWarm, cacheFile.isFile());
+		} finally {
+			cacheFile.delete();
+		}
+	}
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.xpath.XPathConstants;
+
+import junit.framework.TestCase;
+
+public class JaxpProviderTest extends TestCase {
+
+	public void testBuildersAreReusedPerThread() throws Exception {
+		final JaxpProvider provider = JaxpProvider.getDefault();
+		DocumentBuilder builder = provider.getDocumentBuilder();
+		assertSame(builder, provider.getDocumentBuilder());
+		assertSame(provider.getXPath(), provider.getXPath());
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			DocumentBuilder other = executor.submit(new Callable<DocumentBuilder>() {
+				public DocumentBuilder call() throws Exception {
+					return provider.getDocumentBuilder();
+				}
+			}).get();
+			assertNotSame(builder, other);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	public void testConcurrentEvaluation() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<String>> values = new ArrayList<Future<String>>();
+			for (int i = 0; i < 200; i++) {
+				final String xml = "<order><id>" + i + "</id></order>";
+				values.add(executor.submit(new Callable<String>() {
+					public String call() throws Exception {
+						return (String) XmlProcessorUtils.getElementValue(
+								new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), "/order/id",
+								XPathConstants.STRING);
+					}
+				}));
+			}
+			for (int i = 0; i < values.size(); i++) {
+				assertEquals(String.valueOf(i), values.get(i).get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	public void testPluggedInImplementation() throws Exception {
+		JaxpProvider provider = JaxpProvider.newInstance(
+				"com.sun.org.apache.xerces.internal.jaxp.DocumentBuilderFactoryImpl",
+				"com.sun.org.apache.xpath.internal.jaxp.XPathFactoryImpl", null);
+		JaxpProvider previous = XmlProcessorUtils.getJaxpProvider();
+		XmlProcessorUtils.setJaxpProvider(provider);
+		try {
+			assertEquals("42", XmlProcessorUtils.getElementValue(
+					new ByteArrayInputStream("<a><b>42</b></a>".getBytes(StandardCharsets.UTF_8)), "/a/b",
+					XPathConstants.STRING));
+		} finally {
+			XmlProcessorUtils.setJaxpProvider(previous);
+		}
+	}
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+
+import javax.xml.xpath.XPathConstants;
+
+import com.vizabyte.utils.Instrumentation.Phase;
+import com.vizabyte.utils.MetricsRegistry.Histogram;
+
+import junit.framework.TestCase;
+
+public class MetricsRegistryTest extends TestCase {
+
+	private MetricsRegistry metrics;
+
+	@Override
+	protected void setUp() {
+		metrics = new MetricsRegistry();
+		Instrumentation.setListener(metrics);
+	}
+
+	@Override
+	protected void tearDown() {
+		Instrumentation.setListener(null);
+	}
+
+	public void testHistogramBuckets() {
+		for (long value = 0; value < 100000; value++) {
+			int bucket = Histogram.bucket(value);
+			assertTrue(value <= Histogram.upperBound(bucket));
+			assertTrue(bucket == 0 || value > Histogram.upperBound(bucket - 1));
+		}
+		assertEquals(7, Histogram.upperBound(Histogram.bucket(7)));
+		assertEquals(Long.MAX_VALUE, Histogram.upperBound(Histogram.bucket(Long.MAX_VALUE)));
+	}
+
+	public void testHistogramPercentiles() {
+		Histogram histogram = new Histogram();
+		assertEquals(0, histogram.getPercentileNanos(99));
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000L);
+		}
+		assertEquals(1000, histogram.getCount());
+		assertEquals(500500000L, histogram.getTotalNanos());
+		assertEquals(500500.0, histogram.getMeanNanos(), 1e-9);
+		assertEquals(1000000, histogram.getMaxNanos());
+		assertEquals(1000000, histogram.getPercentileNanos(100));
+		long median = histogram.getPercentileNanos(50);
+		assertTrue(median >= 500000 && median <= 500000 * 1.125);
+		long p99 = histogram.getPercentileNanos(99);
+		assertTrue(p99 >= 990000 && p99 <= 1000000);
+	}
+
+	public void testDocxPhases() throws Exception {
+		byte[] docx = DocxFixtures.docx("Dear ${name},");
+		byte[] result = DocxUtils.replaceVariables(new ByteArrayInputStream(docx),
+				Collections.singletonMap("${name}", "Ada"));
+
+		assertEquals(1, metrics.getCount(Phase.LOAD));
+		assertEquals(docx.length, metrics.getBytesIn(Phase.LOAD));
+		assertEquals(1, metrics.getCount(Phase.REPLACE));
+		assertEquals(1, metrics.getCount(Phase.SAVE));
+		assertEquals(result.length, metrics.getBytesOut(Phase.SAVE));
+		assertEquals(0, metrics.getErrorCount(Phase.LOAD));
+	}
+
+	public void testXmlPhases() throws Exception {
+		String xml = "<order><id>7</id></order>";
+		// a fresh expression, so the first lookup misses the shared cache
+		String expression = "/order[" + System.nanoTime() + " > 0]/id";
+		XmlProcessorUtils.getElementValue(xml, expression, XPathConstants.STRING);
+		assertEquals("7", XmlProcessorUtils.getElementValue(xml, expression, XPathConstants.STRING));
+
+		assertEquals(2, metrics.getCount(Phase.PARSE));
+		assertEquals(2 * xml.length(), metrics.getBytesIn(Phase.PARSE));
+		assertEquals(1, metrics.getCount(Phase.COMPILE));
+		assertEquals(2, metrics.getCount(Phase.EVALUATE));
+		assertEquals(1, metrics.getCacheMisses(Instrumentation.XPATH_CACHE));
+		assertEquals(1, metrics.getCacheHits(Instrumentation.XPATH_CACHE));
+		assertEquals(0.5, metrics.getCacheHitRate(Instrumentation.XPATH_CACHE), 1e-9);
+	}
+
+	public void testErrorsAreCounted() throws Exception {
+		try {
+			XmlProcessorUtils.getXmlDocument("<order>");
+			fail();
+		} catch (Exception expected) {
+		}
+		assertEquals(1, metrics.getErrorCount(Phase.PARSE));
+		assertEquals(0, metrics.getCount(Phase.PARSE));
+	}
+
+	public void testKeyDerivation() {
+		SecurityUtils.hashPassword("secret", SecurityUtils.generateSalt());
+		assertEquals(1, metrics.getCount(Phase.KDF));
+		assertTrue(metrics.getHistogram(Phase.KDF).getMaxNanos() > 0);
+	}
+
+	public void testListenerFailuresAreIgnored() throws Exception {
+		Instrumentation.setListener(new MetricsRegistry() {
+			@Override
+			public void phase(Phase phase, long nanos, long bytesIn, long bytesOut) {
+				throw new IllegalStateException();
+			}
+		});
+		assertNotNull(XmlProcessorUtils.getXmlDocument("<order/>"));
+	}
+
+	public void testDisabled() throws Exception {
+		Instrumentation.setListener(null);
+		XmlProcessorUtils.getXmlDocument("<order/>");
+		assertEquals(0, metrics.getCount(Phase.PARSE));
+	}
+
+}
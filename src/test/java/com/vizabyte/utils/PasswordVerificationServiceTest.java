@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.TestCase;
+
+public class PasswordVerificationServiceTest extends TestCase {
+
+	public void testHashesAndVerifies() throws Exception {
+		PasswordVerificationService service = new PasswordVerificationService();
+		try {
+			String encoded = service.hashAsync("s3cret").get();
+			assertTrue(service.verifyAsync("s3cret", encoded).get());
+			assertFalse(service.verifyAsync("secret", encoded).get());
+			byte[] salt = SecurityUtils.generateSalt();
+			assertTrue(service.matchAsync("s3cret", salt, SecurityUtils.hashPassword("s3cret", salt)).get());
+			assertEquals(4, service.getCompletedCount());
+			assertTrue(service.getTotalHashNanos() > 0);
+			assertTrue(service.getMaxHashNanos() <= service.getTotalHashNanos());
+		} finally {
+			service.close();
+		}
+	}
+
+	public void testRejectsWhenSaturated() throws Exception {
+		PasswordVerificationService service = new PasswordVerificationService(new Pbkdf2PasswordHasher(
+				Pbkdf2PasswordHasher.PBKDF2_SHA512, 200000, 512, 16), 1, 1, 1, TimeUnit.MINUTES);
+		try {
+			List<CompletableFuture<String>> calls = new ArrayList<CompletableFuture<String>>();
+			for (int i = 0; i < 4; i++) {
+				calls.add(service.hashAsync("s3cret"));
+			}
+			assertTrue(calls.get(3).isCompletedExceptionally());
+			try {
+				calls.get(3).get();
+				fail();
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof RejectedExecutionException);
+			}
+			assertTrue(service.getRejectedCount() >= 2);
+			assertNotNull(calls.get(0).get());
+		} finally {
+			service.close();
+		}
+	}
+
+	public void testTimesOut() throws Exception {
+		PasswordVerificationService service = new PasswordVerificationService(new Pbkdf2PasswordHasher(
+				Pbkdf2PasswordHasher.PBKDF2_SHA512, 200000, 512, 16), 1, 8, 1, TimeUnit.MINUTES);
+		try {
+			String encoded = new Pbkdf2PasswordHasher(Pbkdf2PasswordHasher.PBKDF2_SHA512, 200000, 512, 16)
+					.hash("s3cret");
+			List<CompletableFuture<Boolean>> calls = new ArrayList<CompletableFuture<Boolean>>();
+			for (int i = 0; i < 4; i++) {
+				calls.add(service.verifyAsync("s3cret", encoded, 1, TimeUnit.MILLISECONDS));
+			}
+			try {
+				calls.get(3).get();
+				fail();
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof TimeoutException);
+			}
+			service.close();
+			assertTrue(service.awaitTermination(1, TimeUnit.MINUTES));
+			assertTrue(service.getTimedOutCount() >= 3);
+			assertTrue(service.getCompletedCount() <= 1);
+		} finally {
+			service.close();
+		}
+	}
+
+	public void testCallsRacingCloseAlwaysComplete() throws Exception {
+		for (int round = 0; round < 50; round++) {
+			final PasswordVerificationService service = new PasswordVerificationService(new Pbkdf2PasswordHasher(
+					Pbkdf2PasswordHasher.PBKDF2_SHA512, 1000, 512, 16), 2, 64, 1, TimeUnit.MINUTES);
+			final List<CompletableFuture<String>> calls = new ArrayList<CompletableFuture<String>>();
+			Thread submitter = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 64; i++) {
+						calls.add(service.hashAsync("s3cret"));
+					}
+				}
+			};
+			submitter.start();
+			Thread.yield();
+			service.close();
+			submitter.join();
+
+			assertEquals(64, calls.size());
+			for (CompletableFuture<String> call : calls) {
+				try {
+					assertNotNull(call.get(1, TimeUnit.MINUTES));
+				} catch (ExecutionException e) {
+					assertTrue(e.getCause() instanceof RejectedExecutionException);
+				}
+			}
+		}
+	}
+
+}
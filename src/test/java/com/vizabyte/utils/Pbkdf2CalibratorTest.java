@@ -0,0 +1,47 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import junit.framework.TestCase;
+
+public class Pbkdf2CalibratorTest extends TestCase {
+
+	public void testFitsBudget() {
+		int small = Pbkdf2Calibrator.calibrate(Pbkdf2PasswordHasher.PBKDF2_SHA512, 512, 5, 1000);
+		int large = Pbkdf2Calibrator.calibrate(Pbkdf2PasswordHasher.PBKDF2_SHA512, 512, 100, 1000);
+		assertTrue(small >= 1000);
+		assertEquals(0, large % Pbkdf2Calibrator.ITERATION_STEP);
+		assertTrue(small + " < " + large, small < large);
+	}
+
+	public void testKeepsFloor() {
+		assertEquals(2000000, Pbkdf2Calibrator.calibrate(Pbkdf2PasswordHasher.PBKDF2_SHA512, 512, 1, 2000000));
+	}
+
+	public void testCalibratesPasswordHasher() {
+		PasswordHasher previous = SecurityUtils.getPasswordHasher();
+		try {
+			Pbkdf2PasswordHasher hasher = SecurityUtils.calibratePasswordHasher(10,
+					SecurityUtils.MINIMUM_ITERATIONS);
+			assertSame(hasher, SecurityUtils.getPasswordHasher());
+			assertTrue(hasher.getIterations() >= SecurityUtils.MINIMUM_ITERATIONS);
+			assertTrue(SecurityUtils.verifyPassword("s3cret", SecurityUtils.encodePassword("s3cret")));
+		} finally {
+			SecurityUtils.setPasswordHasher(previous);
+		}
+	}
+
+}
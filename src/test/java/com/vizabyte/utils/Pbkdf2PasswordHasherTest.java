@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.TestCase;
+
+public class Pbkdf2PasswordHasherTest extends TestCase {
+
+	private static final String PASSWORD = "Caf\u00e9 s3cret";
+
+	public void testHashesAndVerifies() {
+		Pbkdf2PasswordHasher hasher = new Pbkdf2PasswordHasher(Pbkdf2PasswordHasher.PBKDF2_SHA256, 2000, 256, 16);
+		String encoded = hasher.hash(PASSWORD);
+		assertTrue(encoded, encoded.startsWith("$pbkdf2-sha256$i=2000$"));
+		assertTrue(hasher.verify(PASSWORD, encoded));
+		assertTrue(hasher.verify("Cafe\u0301 s3cret", encoded));
+		assertFalse(hasher.verify("cafe s3cret", encoded));
+		assertFalse(encoded.equals(hasher.hash(PASSWORD)));
+		assertFalse(hasher.needsRehash(encoded));
+	}
+
+	public void testVerifiesWithRecordedSettings() {
+		String weak = new Pbkdf2PasswordHasher(Pbkdf2PasswordHasher.PBKDF2_SHA1, 1000, 160, 16).hash(PASSWORD);
+		Pbkdf2PasswordHasher hasher = new Pbkdf2PasswordHasher();
+		assertTrue(hasher.verify(PASSWORD, weak));
+		assertTrue(hasher.needsRehash(weak));
+		assertTrue(hasher.needsRehash(new Pbkdf2PasswordHasher(Pbkdf2PasswordHasher.PBKDF2_SHA512,
+				SecurityUtils.MINIMUM_ITERATIONS, SecurityUtils.SAFER_KEY_LENGTH, SecurityUtils.SAFE_SALT_LENGTH)
+						.hash(PASSWORD)));
+		assertFalse(hasher.needsRehash(hasher.hash(PASSWORD)));
+	}
+
+	public void testVerifiesLegacyHashes() {
+		// hashPassword goes through the platform charset, which may not
+		// encode non ASCII passwords as UTF-8
+		byte[] salt = SecurityUtils.generateSalt();
+		String encoded = SecurityUtils.toEncodedHash(salt, SecurityUtils.hashPassword(PASSWORD, salt));
+		assertTrue(SecurityUtils.verifyPassword(PASSWORD, encoded));
+		assertTrue(SecurityUtils.verifyPassword("Cafe\u0301 s3cret", encoded));
+		assertFalse(SecurityUtils.verifyPassword("s3cret", encoded));
+		assertTrue(SecurityUtils.needsRehash(encoded));
+		assertTrue(SecurityUtils.verifyPassword(PASSWORD, SecurityUtils.encodePassword(PASSWORD)));
+
+		Charset[] charsets = { StandardCharsets.UTF_8, StandardCharsets.US_ASCII, StandardCharsets.ISO_8859_1,
+				Charset.forName("windows-1251"), Charset.forName("GBK") };
+		for (Charset charset : charsets) {
+			for (String password : new String[] { PASSWORD, "\ud83d\udd11", "\u0420\u2122", "caf\u8305" }) {
+				encoded = SecurityUtils.toEncodedHash(salt,
+						SecurityUtils.hashPassword(password.toCharArray(), salt, charset), charset);
+				assertEquals(encoded, !charset.equals(StandardCharsets.UTF_8), encoded.contains(",enc="));
+				assertTrue(encoded, SecurityUtils.verifyPassword(password, encoded));
+				assertTrue(encoded, SecurityUtils.needsRehash(encoded));
+			}
+		}
+	}
+
+	public void testRejectsMalformedHashes() {
+		Pbkdf2PasswordHasher hasher = new Pbkdf2PasswordHasher();
+		for (String malformed : new String[] { "", "$pbkdf2-sha512$5000$c2FsdA$aGFzaA", "$md5$i=1$c2FsdA$aGFzaA",
+				"$pbkdf2-sha512$i=x$c2FsdA$aGFzaA", "$pbkdf2-sha512$i=10$c2Fsd!$aGFzaA",
+				"$pbkdf2-sha512$i=10,enc=nope!$c2FsdA$aGFzaA", "$pbkdf2-sha512$i=10,r=8$c2FsdA$aGFzaA" }) {
+			try {
+				hasher.verify(PASSWORD, malformed);
+				fail(malformed);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+}
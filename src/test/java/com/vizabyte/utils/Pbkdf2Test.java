@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import junit.framework.TestCase;
+
+public class Pbkdf2Test extends TestCase {
+
+	private static final String[] PASSWORDS = { "s3cret", "Caf\u00e9", "Cafe\u0301", "\ud83d\udd11 key",
+			"a password longer than any hmac block size, so that it is hashed down first, "
+					+ "which takes well over one hundred and twenty eight bytes to trigger" };
+
+	// encoded by the legacy String hashing, as in windows-1251 and GBK, to
+	// the UTF-8 of a precomposed character
+	private static final String[] LEGACY_PASSWORDS = { "\u0420\u2122", "caf\u8305" };
+
+	private static byte[] jca(String algorithm, String password, byte[] salt, int iterations, int keyLength)
+			throws Exception {
+		return jcaUnnormalized(algorithm, Normalizer.normalize(password, Normalizer.Form.NFD), salt, iterations,
+				keyLength);
+	}
+
+	private static byte[] jcaUnnormalized(String algorithm, String password, byte[] salt, int iterations,
+			int keyLength) throws Exception {
+		return SecretKeyFactory.getInstance(algorithm)
+				.generateSecret(new PBEKeySpec(password.toCharArray(), salt, iterations, keyLength)).getEncoded();
+	}
+
+	public void testMatchesJca() throws Exception {
+		byte[] salt = SecurityUtils.generateSalt();
+		String[] algorithms = { Pbkdf2PasswordHasher.PBKDF2_SHA512, Pbkdf2PasswordHasher.PBKDF2_SHA256,
+				Pbkdf2PasswordHasher.PBKDF2_SHA1 };
+		for (String algorithm : algorithms) {
+			for (String password : PASSWORDS) {
+				for (int keyLength : new int[] { 64, 256, 1000 }) {
+					char[] chars = password.toCharArray();
+					byte[] expected = jca(algorithm, password, salt, 37, keyLength);
+					assertTrue(algorithm + " " + password + " " + keyLength,
+							Arrays.equals(expected, Pbkdf2.get(algorithm).derive(chars, salt, 37, keyLength)));
+					assertEquals(password, new String(chars));
+				}
+			}
+		}
+	}
+
+	public void testMatchesExistingHashes() {
+		byte[] salt = SecurityUtils.generateSalt();
+		byte[] expected = SecurityUtils.hashPassword("s3cret", salt);
+		assertTrue(Arrays.equals(expected, SecurityUtils.hashPassword("s3cret".toCharArray(), salt)));
+		assertTrue(Arrays.equals(expected,
+				SecurityUtils.hashPassword("s3cret".getBytes(StandardCharsets.UTF_8), salt)));
+		assertTrue(SecurityUtils.matchPassword("s3cret".toCharArray(), salt, expected));
+		assertFalse(SecurityUtils.matchPassword("s3cret!".toCharArray(), salt, expected));
+	}
+
+	/**
+	 * Run once more by the build with an ISO-8859-1 default charset, where
+	 * the legacy String hashing changes non-ASCII passwords.
+	 */
+	public void testMatchesExistingHashesOfNonAsciiPasswords() throws Exception {
+		byte[] salt = SecurityUtils.generateSalt();
+		for (String password : PASSWORDS) {
+			byte[] expected = SecurityUtils.hashPassword(password, salt);
+			assertTrue(password, Arrays.equals(expected, SecurityUtils.hashPassword(password.toCharArray(), salt)));
+			assertTrue(password, SecurityUtils.matchPassword(password.toCharArray(), salt, expected));
+		}
+
+		List<String> passwords = new ArrayList<String>(Arrays.asList(PASSWORDS));
+		passwords.addAll(Arrays.asList(LEGACY_PASSWORDS));
+		Charset[] charsets = { StandardCharsets.UTF_8, StandardCharsets.US_ASCII, StandardCharsets.ISO_8859_1,
+				Charset.forName("windows-1251"), Charset.forName("GBK") };
+		for (Charset charset : charsets) {
+			for (String password : passwords) {
+				// as the baseline did: the round trip is hashed by the JCA as is
+				String legacy = new String(Normalizer.normalize(password, Normalizer.Form.NFD).getBytes(charset),
+						StandardCharsets.UTF_8);
+				byte[] expected = jcaUnnormalized(Pbkdf2PasswordHasher.PBKDF2_SHA512, legacy, salt,
+						SecurityUtils.MINIMUM_ITERATIONS, SecurityUtils.SAFE_KEY_LENGTH);
+				char[] chars = password.toCharArray();
+				assertTrue(charset + " " + password,
+						Arrays.equals(expected, SecurityUtils.hashPassword(chars, salt, charset)));
+				assertEquals(password, new String(chars));
+			}
+		}
+		char[] cyrillic = LEGACY_PASSWORDS[0].toCharArray();
+		assertFalse(Arrays.equals(SecurityUtils.hashPassword(cyrillic, salt, StandardCharsets.UTF_8),
+				SecurityUtils.hashPassword(cyrillic, salt, Charset.forName("windows-1251"))));
+	}
+
+	public void testHasherAcceptsCharacters() {
+		Pbkdf2PasswordHasher hasher = new Pbkdf2PasswordHasher();
+		String encoded = hasher.hash("Caf\u00e9".toCharArray());
+		assertTrue(hasher.verify("Cafe\u0301", encoded));
+		assertTrue(hasher.verify("Caf\u00e9".toCharArray(), encoded));
+	}
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.TestCase;
+
+public class PdfConversionServiceTest extends TestCase {
+
+	/**
+	 * A stream holding its reader until released, keeping a worker busy.
+	 */
+	private static InputStream blocking(final CountDownLatch release) {
+		return new InputStream() {
+			@Override
+			public int read() {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return -1;
+			}
+		};
+	}
+
+	public void testConvertsToPdf() throws Exception {
+		PdfConversionService service = new PdfConversionService();
+		try {
+			ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+			service.convert(new ByteArrayInputStream(DocxFixtures.docx("Hello PDF")), pdf);
+			String header = new String(pdf.toByteArray(), 0, 5, StandardCharsets.US_ASCII);
+			assertEquals("%PDF-", header);
+		} finally {
+			service.close();
+		}
+	}
+
+	public void testReplacesVariablesStraightToPdf() throws Exception {
+		ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+		DocxUtils.toPdf(new ByteArrayInputStream(DocxFixtures.docx("Hello ${name}")),
+				Collections.singletonMap("name", "World"), pdf);
+		assertTrue(DocxFixtures.pdfContent(pdf.toByteArray()).contains("(Hello World)"));
+	}
+
+	public void testRejectsWhenSaturated() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		PdfConversionService service = new PdfConversionService(1, 1, 1, TimeUnit.MINUTES);
+		try {
+			service.convertAsync(blocking(release), new ByteArrayOutputStream());
+			service.convertAsync(blocking(release), new ByteArrayOutputStream());
+			CompletableFuture<Void> rejected = service.convertAsync(blocking(release), new ByteArrayOutputStream());
+			try {
+				rejected.get();
+				fail();
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof RejectedExecutionException);
+			}
+		} finally {
+			release.countDown();
+			service.close();
+		}
+	}
+
+	public void testTimesOut() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		PdfConversionService service = new PdfConversionService(1, 1, 100, TimeUnit.MILLISECONDS);
+		try {
+			CompletableFuture<Void> conversion = service.convertAsync(blocking(release), new ByteArrayOutputStream());
+			try {
+				conversion.get(10, TimeUnit.SECONDS);
+				fail();
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof TimeoutException);
+			}
+		} finally {
+			release.countDown();
+			service.close();
+		}
+	}
+
+}
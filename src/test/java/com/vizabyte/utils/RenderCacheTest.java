@@ -0,0 +1,184 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class RenderCacheTest extends TestCase {
+
+	private File directory;
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = Files.createTempDirectory("render-cache").toFile();
+	}
+
+	@Override
+	protected void tearDown() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	public void testKeyIgnoresMappingOrder() {
+		Map<String, String> a = new LinkedHashMap<String, String>();
+		a.put("${first}", "Ada");
+		a.put("${last}", "Lovelace");
+		Map<String, String> b = new LinkedHashMap<String, String>();
+		b.put("${last}", "Lovelace");
+		b.put("${first}", "Ada");
+		assertEquals(RenderCache.key(RenderCache.DOCX, "t", a), RenderCache.key(RenderCache.DOCX, "t", b));
+
+		assertFalse(RenderCache.key(RenderCache.DOCX, "t", a).equals(RenderCache.key(RenderCache.PDF, "t", a)));
+		assertFalse(RenderCache.key(RenderCache.DOCX, "t", a).equals(RenderCache.key(RenderCache.DOCX, "u", a)));
+		b.put("${first}", "Grace");
+		assertFalse(RenderCache.key(RenderCache.DOCX, "t", a).equals(RenderCache.key(RenderCache.DOCX, "t", b)));
+	}
+
+	public void testKeyIsUnambiguous() {
+		Map<String, String> a = new HashMap<String, String>();
+		a.put("ab", "c");
+		Map<String, String> b = new HashMap<String, String>();
+		b.put("a", "bc");
+		assertFalse(RenderCache.key(RenderCache.DOCX, "t", a).equals(RenderCache.key(RenderCache.DOCX, "t", b)));
+
+		Map<String, String> nullValue = Collections.singletonMap("a", null);
+		Map<String, String> emptyValue = Collections.singletonMap("a", "");
+		assertFalse(RenderCache.key(RenderCache.DOCX, "t", nullValue)
+				.equals(RenderCache.key(RenderCache.DOCX, "t", emptyValue)));
+	}
+
+	public void testMemoryEviction() {
+		RenderCache cache = new RenderCache(10);
+		cache.put("a", new byte[4]);
+		cache.put("b", new byte[4]);
+		assertNotNull(cache.get("a"));
+		cache.put("c", new byte[4]);
+
+		assertNull(cache.get("b"));
+		assertNotNull(cache.get("a"));
+		assertNotNull(cache.get("c"));
+		assertEquals(8, cache.getMemoryWeight());
+		cache.put("d", new byte[11]);
+		assertNull(cache.get("d"));
+		assertEquals(3, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+	}
+
+	public void testResultsAreCopied() {
+		RenderCache cache = new RenderCache(10);
+		byte[] value = { 1, 2 };
+		cache.put("a", value);
+		value[0] = 9;
+		byte[] cached = cache.get("a");
+		assertEquals(1, cached[0]);
+		cached[1] = 9;
+		assertEquals(2, cache.get("a")[1]);
+	}
+
+	public void testSpillToDisk() throws Exception {
+		RenderCache cache = new RenderCache(10, directory, 100);
+		cache.put("a", new byte[] { 1, 2, 3, 4, 5, 6 });
+		cache.put("b", new byte[6]);
+		assertEquals(6, cache.getMemoryWeight());
+		assertEquals(6, cache.getDiskWeight());
+		assertEquals(1, directory.list().length);
+
+		assertTrue(Arrays.equals(new byte[] { 1, 2, 3, 4, 5, 6 }, cache.get("a")));
+		assertEquals(1, cache.getDiskHitCount());
+		// reading a back spilled b in turn
+		assertEquals(12, cache.getDiskWeight());
+
+		cache.put("large", new byte[50]);
+		assertEquals(62, cache.getDiskWeight());
+		assertEquals(50, cache.get("large").length);
+	}
+
+	public void testDiskEviction() throws Exception {
+		RenderCache cache = new RenderCache(1, directory, 20);
+		cache.put("a", new byte[8]);
+		cache.put("b", new byte[8]);
+		assertNotNull(cache.get("a"));
+		cache.put("c", new byte[8]);
+
+		assertNull(cache.get("b"));
+		assertNotNull(cache.get("a"));
+		assertNotNull(cache.get("c"));
+		assertEquals(16, cache.getDiskWeight());
+		assertEquals(2, directory.list().length);
+	}
+
+	public void testDirectoryIsReused() throws Exception {
+		RenderCache cache = new RenderCache(1, directory, 100);
+		cache.put("a", new byte[] { 7, 7 });
+		cache.put("b", new byte[] { 8, 8, 8 });
+
+		RenderCache reopened = new RenderCache(1, directory, 100);
+		assertEquals(5, reopened.getDiskWeight());
+		assertEquals(8, reopened.get("b")[1]);
+
+		reopened.clear();
+		assertEquals(0, reopened.getDiskWeight());
+		assertEquals(0, directory.list().length);
+	}
+
+	public void testReplaceVariables() throws Exception {
+		RenderCache cache = new RenderCache(RenderCache.DEFAULT_MAX_MEMORY);
+		byte[] template = DocxFixtures.docx("Dear ${name},");
+		Map<String, String> mappings = Collections.singletonMap("name", "Ada");
+
+		byte[] first = DocxUtils.replaceVariables(new ByteArrayInputStream(template), mappings, cache);
+		byte[] second = DocxUtils.replaceVariables(new ByteArrayInputStream(template), mappings, cache);
+		assertTrue(Arrays.equals(first, second));
+		assertTrue(DocxFixtures.entry(second, "word/document.xml").contains("Dear Ada,"));
+		assertEquals(1, cache.getHitCount());
+
+		byte[] other = DocxUtils.replaceVariables(new ByteArrayInputStream(template),
+				Collections.singletonMap("name", "Grace"), cache);
+		assertTrue(DocxFixtures.entry(other, "word/document.xml").contains("Dear Grace,"));
+		assertEquals(2, cache.getMissCount());
+	}
+
+	public void testToPdf() throws Exception {
+		RenderCache cache = new RenderCache(RenderCache.DEFAULT_MAX_MEMORY, directory, 1024 * 1024);
+		byte[] template = DocxFixtures.docx("Hello ${name}");
+		Map<String, String> mappings = Collections.singletonMap("name", "World");
+
+		ByteArrayOutputStream first = new ByteArrayOutputStream();
+		DocxUtils.toPdf(new ByteArrayInputStream(template), mappings, first, cache);
+		ByteArrayOutputStream second = new ByteArrayOutputStream();
+		DocxUtils.toPdf(new ByteArrayInputStream(template), mappings, second, cache);
+
+		assertTrue(DocxFixtures.pdfContent(first.toByteArray()).contains("(Hello World)"));
+		assertTrue(Arrays.equals(first.toByteArray(), second.toByteArray()));
+		assertEquals(1, cache.getHitCount());
+	}
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.TestCase;
+
+public class ScryptPasswordHasherTest extends TestCase {
+
+	private static final String PASSWORD = "Caf\u00e9 s3cret";
+
+	public void testDerivesRfcVector() {
+		byte[] key = new byte[64];
+		ScryptPasswordHasher.derive("password".getBytes(StandardCharsets.US_ASCII),
+				"NaCl".getBytes(StandardCharsets.US_ASCII), 10, 8, 16, key);
+		assertEquals("fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b3731622eaf30d92e22a3886ff109279d"
+				+ "9830dac727afb94a83ee6d8360cbdfa2cc0640", hex(key));
+	}
+
+	public void testHashesAndVerifies() {
+		ScryptPasswordHasher hasher = new ScryptPasswordHasher(10, 8, 2, 32, 16);
+		String encoded = hasher.hash(PASSWORD);
+		assertTrue(encoded, encoded.startsWith("$scrypt$ln=10,r=8,p=2$"));
+		assertTrue(hasher.verify(PASSWORD, encoded));
+		assertTrue(hasher.verify("Cafe\u0301 s3cret", encoded));
+		assertFalse(hasher.verify("cafe s3cret", encoded));
+		assertFalse(hasher.needsRehash(encoded));
+		assertTrue(new ScryptPasswordHasher().needsRehash(encoded));
+		assertTrue(hasher.needsRehash("$pbkdf2$i=1000$c2FsdA$aGFzaA"));
+	}
+
+	public void testRejectsMalformedHashes() {
+		ScryptPasswordHasher hasher = new ScryptPasswordHasher(10, 8, 1, 32, 16);
+		for (String malformed : new String[] { "", "$scrypt$ln=10,r=8$c2FsdA$aGFzaA",
+				"$scrypt$ln=40,r=8,p=1$c2FsdA$aGFzaA", "$scrypt$ln=10,r=8,p=1$c2Fsd!$aGFzaA" }) {
+			try {
+				hasher.verify(PASSWORD, malformed);
+				fail(malformed);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	static String hex(byte[] bytes) {
+		String hex = new BigInteger(1, bytes).toString(16);
+		while (hex.length() < bytes.length * 2) {
+			hex = "0" + hex;
+		}
+		return hex;
+	}
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class SpoolOutputStreamTest extends TestCase {
+
+	private File directory;
+
+	@Override
+	protected void setUp() throws Exception {
+		directory = Files.createTempDirectory("spool").toFile();
+	}
+
+	@Override
+	protected void tearDown() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	private static byte[] random(int length) {
+		byte[] bytes = new byte[length];
+		new Random(length).nextBytes(bytes);
+		return bytes;
+	}
+
+	private static byte[] read(SpoolOutputStream spool) throws IOException {
+		InputStream in = spool.toInputStream();
+		try {
+			return IOUtils.toByteArray(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	public void testStaysInMemoryBelowThreshold() throws Exception {
+		byte[] content = random(50000);
+		SpoolOutputStream spool = new SpoolOutputStream(50000, directory);
+		for (int i = 0; i < content.length; i += 777) {
+			spool.write(content, i, Math.min(777, content.length - i));
+		}
+		spool.close();
+
+		assertTrue(spool.isInMemory());
+		assertEquals(0, directory.list().length);
+		assertEquals(content.length, spool.getLength());
+		assertTrue(Arrays.equals(content, read(spool)));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		spool.writeTo(out);
+		assertTrue(Arrays.equals(content, out.toByteArray()));
+	}
+
+	public void testSpillsPastThreshold() throws Exception {
+		byte[] content = random(100000);
+		SpoolOutputStream spool = new SpoolOutputStream(30000, directory);
+		spool.write(content, 0, 20000);
+		assertTrue(spool.isInMemory());
+		spool.write(content[20000]);
+		spool.write(content, 20001, content.length - 20001);
+		spool.close();
+
+		assertFalse(spool.isInMemory());
+		assertEquals(1, directory.list().length);
+		assertTrue(Arrays.equals(content, read(spool)));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		spool.writeTo(Channels.newChannel(out));
+		assertTrue(Arrays.equals(content, out.toByteArray()));
+
+		spool.delete();
+		assertEquals(0, directory.list().length);
+	}
+
+	public void testWritesAfterCloseFail() throws Exception {
+		SpoolOutputStream spool = new SpoolOutputStream();
+		spool.close();
+		try {
+			spool.write(1);
+			fail();
+		} catch (IOException expected) {
+		}
+	}
+
+	public void testReplaceVariablesToPath() throws Exception {
+		byte[] docx = DocxFixtures.docx("Dear ${name},");
+		Map<String, String> mappings = Collections.singletonMap("name", "Ada");
+		Path target = new File(directory, "letter.docx").toPath();
+		Files.write(target, new byte[] { 1 });
+
+		assertEquals(target, DocxUtils.replaceVariables(new ByteArrayInputStream(docx), mappings, target));
+		assertTrue(DocxFixtures.entry(Files.readAllBytes(target), "word/document.xml").contains("Dear Ada,"));
+		assertEquals(1, directory.list().length);
+	}
+
+	public void testFailedWriteKeepsTarget() throws Exception {
+		Path target = new File(directory, "letter.docx").toPath();
+		Files.write(target, new byte[] { 1 });
+		try {
+			DocxUtils.replaceVariables(new ByteArrayInputStream(new byte[] { 'P', 'K' }),
+					Collections.<String, String> emptyMap(), target);
+			fail();
+		} catch (Exception expected) {
+		}
+		assertTrue(Arrays.equals(new byte[] { 1 }, Files.readAllBytes(target)));
+		assertEquals(1, directory.list().length);
+	}
+
+	public void testReplaceVariablesToChannel() throws Exception {
+		byte[] docx = DocxFixtures.docx("Dear ${name},");
+		Map<String, String> mappings = Collections.singletonMap("name", "Ada");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DocxUtils.replaceVariables(new ByteArrayInputStream(docx), mappings, Channels.newChannel(out));
+		assertTrue(DocxFixtures.entry(out.toByteArray(), "word/document.xml").contains("Dear Ada,"));
+	}
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class StreamingVariableReplacerTest extends TestCase {
+
+	private Map<String, String> mappings;
+
+	protected void setUp() throws Exception {
+		mappings = new HashMap<String, String>();
+		mappings.put("name", "Ann");
+		mappings.put("city", "Paris");
+	}
+
+	private byte[] replaceStreaming(byte[] docx) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DocxUtils.replaceVariablesStreaming(new ByteArrayInputStream(docx), mappings, out);
+		return out.toByteArray();
+	}
+
+	public void testSameOutputAsJaxbPath() throws Exception {
+		byte[] docx = DocxFixtures.docx("Hello ${name}, welcome to ${city}!", "Missing ${unknown} & more", "");
+		byte[] expected = DocxUtils.replaceVariables(new ByteArrayInputStream(docx), mappings);
+
+		byte[] actual = replaceStreaming(docx);
+		assertEquals(DocxFixtures.entry(expected, "word/document.xml"), DocxFixtures.entry(actual, "word/document.xml"));
+		assertEquals(DocxFixtures.entry(docx, "word/styles.xml"), DocxFixtures.entry(actual, "word/styles.xml"));
+	}
+
+	public void testTokensSplitAcrossRuns() throws Exception {
+		byte[] docx = DocxFixtures.docxWithRuns("Dear $", "{na", "me} from ${ci", "ty}, hi");
+		String xml = DocxFixtures.entry(replaceStreaming(docx), "word/document.xml");
+		assertTrue(xml, xml.contains("<w:t>Dear Ann</w:t>"));
+		assertTrue(xml, xml.contains("<w:t xml:space=\"preserve\"> from Paris</w:t>"));
+		assertTrue(xml, xml.contains("<w:t>, hi</w:t>"));
+		assertFalse(xml, xml.contains("${"));
+	}
+
+	public void testFilesWithPassthrough() throws Exception {
+		File file = File.createTempFile("template", ".docx");
+		try {
+			FileOutputStream fos = new FileOutputStream(file);
+			fos.write(DocxFixtures.docx("Hello ${name}"));
+			fos.close();
+
+			// in place, so the input cannot stay mapped while it is written
+			DocxUtils.replaceVariablesStreaming(file, mappings, file);
+			FileInputStream fis = new FileInputStream(file);
+			byte[] result = IOUtils.toByteArray(fis);
+			fis.close();
+			assertTrue(DocxFixtures.entry(result, "word/document.xml").contains("<w:t>Hello Ann</w:t>"));
+		} finally {
+			file.delete();
+		}
+	}
+
+	public void testJaxbFilesAreWrittenAtomically() throws Exception {
+		File directory = File.createTempFile("templates", "");
+		directory.delete();
+		directory.mkdir();
+		try {
+			File file = new File(directory, "template.docx");
+			FileOutputStream fos = new FileOutputStream(file);
+			fos.write(DocxFixtures.docx("Hello ${name}"));
+			fos.close();
+			File outFile = new File(directory, "out.docx");
+
+			assertEquals(outFile, DocxUtils.replaceVariables(file, mappings, outFile));
+			assertEquals(file, DocxUtils.replaceVariables(file, mappings));
+			for (File result : new File[] { file, outFile }) {
+				FileInputStream fis = new FileInputStream(result);
+				byte[] bytes = IOUtils.toByteArray(fis);
+				fis.close();
+				assertTrue(DocxFixtures.entry(bytes, "word/document.xml").contains("<w:t>Hello Ann</w:t>"));
+			}
+			assertEquals(2, directory.list().length);
+		} finally {
+			for (File child : directory.listFiles()) {
+				child.delete();
+			}
+			directory.delete();
+		}
+	}
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathConstants;
+
+import junit.framework.TestCase;
+
+public class StreamingXPathEvaluatorTest extends TestCase {
+
+	private static final String FEED = "<feed version=\"2\">"
+			+ "<header><title>Books <b>and</b> more</title><count> 3 </count></header>"
+			+ "<item type=\"book\" id=\"1\"><title>Dune</title><price>9.5</price></item>"
+			+ "<item type=\"film\" id=\"2\"><title>Alien</title><price>7</price></item>"
+			+ "<item type=\"book\" id=\"3\"><title/><title>Emma</title><price>n/a</price>"
+			+ "<item type=\"book\" id=\"4\"><title>Nested</title></item></item>"
+			+ "<x:meta xmlns:x=\"urn:x\">m</x:meta>"
+			+ "</feed>";
+
+	private static final String[][] EXPRESSIONS = {
+			{ "/feed/@version", "NUMBER" },
+			{ "/feed/header/title", "STRING" },
+			{ "/feed/header/title/text()", "STRING" },
+			{ "/feed/header/count", "NUMBER" },
+			{ "//title", "STRING" },
+			{ "//item[@type='book'][2]/title", "STRING" },
+			{ "//item[2]/@id", "STRING" },
+			{ "/feed/item[3]/title/text()", "STRING" },
+			{ "//item[@type='film']/price", "NUMBER" },
+			{ "/feed/item[3]/price", "NUMBER" },
+			{ "//item[@id='4']", "BOOLEAN" },
+			{ "//item[@id='5']", "BOOLEAN" },
+			{ "/feed/*[2]/@type", "STRING" },
+			{ "//item//title", "STRING" },
+			{ "/feed/meta", "STRING" },
+			{ "/feed/missing", "STRING" },
+			{ "/feed/missing/@id", "NUMBER" },
+	};
+
+	private static InputStream stream(String xml) {
+		return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static QName type(String name) {
+		return name.equals("NUMBER") ? XPathConstants.NUMBER
+				: name.equals("BOOLEAN") ? XPathConstants.BOOLEAN : XPathConstants.STRING;
+	}
+
+	public void testMatchesDomEvaluation() throws Exception {
+		XPathQueries queries = new XPathQueries();
+		for (String[] expression : EXPRESSIONS) {
+			queries.add(expression[0], expression[0], type(expression[1]));
+			assertNotNull(expression[0],
+					StreamingXPathEvaluator.compile(new XPathQueries().add("e", expression[0], type(expression[1]))));
+		}
+		XPathResults streamed = StreamingXPathEvaluator.compile(queries).evaluate(stream(FEED));
+		XPathResults parsed = XmlProcessorUtils.getElementValues(stream(FEED), queries);
+		for (String[] expression : EXPRESSIONS) {
+			assertEquals(expression[0], parsed.get(expression[0]), streamed.get(expression[0]));
+		}
+	}
+
+	public void testStopsReadingOnceResolved() throws Exception {
+		InputStream truncated = new SequenceInputStream(stream("<feed><header><id>42</id></header>"),
+				new InputStream() {
+					@Override
+					public int read() {
+						throw new IllegalStateException("read past the values");
+					}
+				});
+		assertEquals("42", XmlProcessorUtils.getElementValueStreaming(truncated, "/feed/header/id",
+				XPathConstants.STRING));
+	}
+
+	public void testFallsBackToDom() throws Exception {
+		assertNull(StreamingXPathEvaluator.compile(new XPathQueries().add("n", "count(//item)")));
+		assertNull(StreamingXPathEvaluator.compile(new XPathQueries().add("m", "/feed/x:meta")));
+		assertEquals(4.0, XmlProcessorUtils.getElementValueStreaming(stream(FEED), "count(//item)",
+				XPathConstants.NUMBER));
+	}
+
+}
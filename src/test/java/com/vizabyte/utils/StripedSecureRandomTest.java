@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+public class StripedSecureRandomTest extends TestCase {
+
+	public void testGeneratesDistinctSalts() {
+		StripedSecureRandom random = new StripedSecureRandom("SHA1PRNG", 3, 64);
+		Set<String> seen = new HashSet<String>();
+		for (byte[] salt : random.generateSalts(100, 16)) {
+			assertEquals(16, salt.length);
+			assertTrue(seen.add(Arrays.toString(salt)));
+		}
+		assertTrue(seen.add(Arrays.toString(random.generateSalt(16))));
+	}
+
+	public void testGeneratesUrlSafeTokens() {
+		StripedSecureRandom random = new StripedSecureRandom();
+		for (int length = 1; length < 40; length++) {
+			String token = random.generateToken(length);
+			assertEquals(StripedSecureRandom.tokenLength(length), token.length());
+			assertTrue(token, token.matches("[A-Za-z0-9_-]+"));
+		}
+		String[] tokens = random.generateTokens(50, 24);
+		assertEquals(50, new HashSet<String>(Arrays.asList(tokens)).size());
+
+		byte[] buffer = new byte[40];
+		int written = random.generateToken(24, buffer, 4);
+		assertEquals(32, written);
+		assertEquals(0, buffer[3]);
+		assertTrue(new String(buffer, 4, written, StandardCharsets.US_ASCII).matches("[A-Za-z0-9_-]{32}"));
+	}
+
+	public void testRejectsUnknownAlgorithm() {
+		try {
+			new StripedSecureRandom("NoSuchPRNG", 1, 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public void testGeneratesConcurrently() throws Exception {
+		final StripedSecureRandom random = new StripedSecureRandom();
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			Set<Future<byte[][]>> results = new HashSet<Future<byte[][]>>();
+			for (int i = 0; i < 32; i++) {
+				results.add(pool.submit(new Callable<byte[][]>() {
+					public byte[][] call() {
+						return random.generateSalts(100, SecurityUtils.SAFE_SALT_LENGTH);
+					}
+				}));
+			}
+			Set<String> seen = new HashSet<String>();
+			for (Future<byte[][]> result : results) {
+				for (byte[] salt : result.get()) {
+					assertTrue(seen.add(Arrays.toString(salt)));
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(SecurityUtils.SAFE_SALT_LENGTH, SecurityUtils.generateSalts(2)[1].length);
+		assertEquals(43, SecurityUtils.generateToken(32).length());
+	}
+
+	public void testReseedsConcurrently() throws Exception {
+		// one stripe reseeded every other salt, shared by every thread
+		final StripedSecureRandom random = new StripedSecureRandom(null, 1, 64);
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			Set<Future<byte[]>> results = new HashSet<Future<byte[]>>();
+			for (int i = 0; i < 400; i++) {
+				results.add(pool.submit(new Callable<byte[]>() {
+					public byte[] call() {
+						return random.generateSalt(SecurityUtils.SAFE_SALT_LENGTH);
+					}
+				}));
+			}
+			Set<String> seen = new HashSet<String>();
+			for (Future<byte[]> result : results) {
+				assertTrue(seen.add(Arrays.toString(result.get())));
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.xml.xpath.XPathExpression;
+
+import junit.framework.TestCase;
+
+public class XPathExpressionCacheTest extends TestCase {
+
+	public void testStatistics() throws Exception {
+		XPathExpressionCache cache = new XPathExpressionCache(JaxpProvider.getDefault(), 2);
+		XPathExpression a = cache.compile("/a");
+		assertSame(a, cache.compile("/a"));
+		cache.compile("/b");
+		cache.compile("/c");
+		assertNotSame(a, cache.compile("/a"));
+
+		assertEquals(1, cache.getHitCount());
+		assertEquals(4, cache.getMissCount());
+		assertEquals(2, cache.getEvictionCount());
+		assertEquals(0.2, cache.getHitRate(), 1e-9);
+	}
+
+	public void testExpressionsAreNotSharedBetweenThreads() throws Exception {
+		final XPathExpressionCache cache = new XPathExpressionCache(JaxpProvider.getDefault(), 8);
+		XPathExpression mine = cache.compile("/a");
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			XPathExpression theirs = executor.submit(new Callable<XPathExpression>() {
+				public XPathExpression call() throws Exception {
+					return cache.compile("/a");
+				}
+			}).get();
+			assertNotSame(mine, theirs);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	public void testClear() throws Exception {
+		XPathExpressionCache cache = new XPathExpressionCache(JaxpProvider.getDefault(), 8);
+		XPathExpression a = cache.compile("/a");
+		cache.clear();
+		assertNotSame(a, cache.compile("/a"));
+		assertEquals(0, cache.getHitCount());
+	}
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.xml.xpath.XPathConstants;
+
+import org.w3c.dom.Document;
+
+import junit.framework.TestCase;
+
+public class XmlProcessorUtilsTest extends TestCase {
+
+	private static final String ORDER = "<order id=\"7\"><customer>Ann</customer>"
+			+ "<line sku=\"a\" qty=\"2\"/><line sku=\"b\" qty=\"3\"/><paid>true</paid></order>";
+
+	private static InputStream stream(String xml) {
+		return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static XPathQueries orderQueries() {
+		return new XPathQueries()
+				.add("id", "/order/@id")
+				.add("customer", "/order/customer")
+				.add("quantity", "sum(/order/line/@qty)", XPathConstants.NUMBER)
+				.add("paid", "/order/paid = 'true'", XPathConstants.BOOLEAN)
+				.add("lines", "/order/line", XPathConstants.NODESET);
+	}
+
+	public void testGetElementValues() throws Exception {
+		XPathResults results = XmlProcessorUtils.getElementValues(stream(ORDER), orderQueries());
+		assertEquals("7", results.getString("id"));
+		assertEquals("Ann", results.getString("customer"));
+		assertEquals(5.0, results.getNumber("quantity"), 0);
+		assertTrue(results.getBoolean("paid"));
+		assertEquals(2, results.getNodeList("lines").getLength());
+		assertEquals(5, results.asMap().size());
+	}
+
+	public void testGetElementValuesInParallel() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			for (int i = 0; i < 20; i++) {
+				XPathResults results = XmlProcessorUtils.getElementValues(stream(ORDER), orderQueries(), executor);
+				assertEquals("Ann", results.getString("customer"));
+				assertEquals(5.0, results.getNumber("quantity"), 0);
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	public void testRejectedQueriesCancelTheOthers() throws Exception {
+		final List<Runnable> accepted = new ArrayList<Runnable>();
+		Executor executor = new Executor() {
+			public void execute(Runnable command) {
+				if (accepted.size() == 2) {
+					throw new RejectedExecutionException();
+				}
+				accepted.add(command);
+			}
+		};
+		try {
+			XmlProcessorUtils.getElementValues(stream(ORDER), orderQueries(), executor);
+			fail();
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+		assertEquals(2, accepted.size());
+		for (Runnable task : accepted) {
+			assertTrue(((Future<?>) task).isCancelled());
+		}
+	}
+
+	public void testParsesStringContent() throws Exception {
+		assertEquals("Ann", XmlProcessorUtils.getElementValue(ORDER, "/order/customer", XPathConstants.STRING));
+		assertEquals("7", XmlProcessorUtils.getElementValues(
+				XmlProcessorUtils.getXmlDocument(new StringBuilder(ORDER)), orderQueries()).getString("id"));
+		assertEquals("7", XmlProcessorUtils.getElementValues(
+				XmlProcessorUtils.getXmlDocument(CharBuffer.wrap(ORDER)), orderQueries()).getString("id"));
+	}
+
+	public void testParsesBytesInPlace() throws Exception {
+		byte[] order = ORDER.getBytes(StandardCharsets.UTF_8);
+		byte[] framed = new byte[order.length + 8];
+		System.arraycopy(order, 0, framed, 4, order.length);
+		assertEquals("Ann", XmlProcessorUtils.getElementValues(
+				XmlProcessorUtils.getXmlDocument(framed, 4, order.length), orderQueries()).getString("customer"));
+
+		ByteBuffer direct = ByteBuffer.allocateDirect(framed.length);
+		direct.put(framed).position(4).limit(4 + order.length);
+		assertEquals("Ann", XmlProcessorUtils.getElementValues(XmlProcessorUtils.getXmlDocument(direct),
+				orderQueries()).getString("customer"));
+		assertEquals(4, direct.position());
+	}
+
+	public void testParsesMappedFile() throws Exception {
+		File file = File.createTempFile("order", ".xml");
+		try {
+			Files.write(file.toPath(), ORDER.getBytes(StandardCharsets.UTF_8));
+			Document doc = XmlProcessorUtils.getXmlDocument(file);
+			assertEquals(5.0, XmlProcessorUtils.getElementValues(doc, orderQueries()).getNumber("quantity"), 0);
+			assertEquals(file.toURI().toString(), doc.getDocumentURI());
+		} finally {
+			file.delete();
+		}
+	}
+
+	public void testDuplicateNamesAreRejected() {
+		try {
+			new XPathQueries().add("a", "/a").add("a", "/b");
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+}
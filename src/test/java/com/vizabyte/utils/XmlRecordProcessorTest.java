@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.xml.xpath.XPathConstants;
+
+import junit.framework.TestCase;
+
+public class XmlRecordProcessorTest extends TestCase {
+
+	private static final int RECORDS = 500;
+
+	private static String record(int i) {
+		return "<record id=\"" + i + "\"><name>Name " + i + "</name><!-- c --><x:qty xmlns:x=\"urn:x\">" + (i % 7)
+				+ "</x:qty><lines><line>a</line><line>b</line></lines></record>";
+	}
+
+	private static InputStream export() {
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\"?><export><header><record-count>" + RECORDS
+				+ "</record-count></header><records>");
+		for (int i = 0; i < RECORDS; i++) {
+			xml.append(record(i));
+		}
+		xml.append("</records></export>");
+		return new ByteArrayInputStream(xml.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static XPathQueries queries() {
+		return new XPathQueries()
+				.add("id", "/record/@id")
+				.add("name", "/record/name")
+				.add("qty", "sum(//qty)", XPathConstants.NUMBER)
+				.add("lines", "count(/record/lines/line)", XPathConstants.NUMBER);
+	}
+
+	public void testMatchesWholeRecordParse() throws Exception {
+		final List<XPathResults> results = new ArrayList<XPathResults>();
+		long count = new XmlRecordProcessor("record", queries()).process(export(),
+				new XmlRecordProcessor.RecordHandler() {
+					public void record(long index, XPathResults values) {
+						assertEquals(results.size(), index);
+						results.add(values);
+					}
+				});
+		assertEquals(RECORDS, count);
+		for (int i = 0; i < RECORDS; i++) {
+			XPathResults expected = XmlProcessorUtils.getElementValues(
+					new ByteArrayInputStream(record(i).getBytes(StandardCharsets.UTF_8)), queries());
+			assertEquals(expected.asMap(), results.get(i).asMap());
+		}
+	}
+
+	public void testUnorderedKeepsInFlightBounded() throws Exception {
+		final ExecutorService pool = Executors.newFixedThreadPool(4);
+		final AtomicInteger outstanding = new AtomicInteger();
+		final AtomicInteger maxOutstanding = new AtomicInteger();
+		Executor counting = new Executor() {
+			public void execute(final Runnable task) {
+				// called from the processing thread only, as is the handler
+				maxOutstanding.set(Math.max(maxOutstanding.get(), outstanding.incrementAndGet()));
+				pool.execute(task);
+			}
+		};
+		try {
+			final Set<String> ids = new HashSet<String>();
+			new XmlRecordProcessor("record", queries(), counting, 8, false).process(export(),
+					new XmlRecordProcessor.RecordHandler() {
+						public void record(long index, XPathResults values) {
+							outstanding.decrementAndGet();
+							assertEquals(String.valueOf(index), values.getString("id"));
+							assertTrue(ids.add(values.getString("id")));
+						}
+					});
+			assertEquals(RECORDS, ids.size());
+			assertTrue(maxOutstanding.get() <= 8);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	public void testStream() throws Exception {
+		Stream<XPathResults> stream = new XmlRecordProcessor("record", queries()).stream(export());
+		try {
+			List<String> names = stream.limit(3).map(new Function<XPathResults, String>() {
+				public String apply(XPathResults results) {
+					return results.getString("name");
+				}
+			}).collect(Collectors.<String> toList());
+			assertEquals(3, names.size());
+			assertEquals("Name 2", names.get(2));
+		} finally {
+			stream.close();
+		}
+	}
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017, Vizabyte LLP and the original author(s) and contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.vizabyte.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.ZipFile;
+
+import org.docx4j.openpackaging.packages.WordprocessingMLPackage;
+
+import junit.framework.TestCase;
+
+public class ZipArchiveWriterTest extends TestCase {
+
+	public void testCopiedEntriesKeepTheirCompressedBytes() throws Exception {
+		byte[] docx = DocxFixtures.docx("Hello ${name}");
+		ZipArchive source = ZipArchive.open(ByteBuffer.wrap(docx));
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ZipArchiveWriter writer = new ZipArchiveWriter(baos, Deflater.BEST_SPEED);
+		for (ZipArchive.Entry entry : source.getEntries()) {
+			writer.copy(source, entry);
+		}
+		OutputStream added = writer.newEntry("extra/added.txt");
+		added.write("added".getBytes(StandardCharsets.UTF_8));
+		added.close();
+		writer.write("extra/stored.txt", "stored".getBytes(StandardCharsets.UTF_8));
+		writer.finish();
+
+		ZipArchive copy = ZipArchive.open(ByteBuffer.wrap(baos.toByteArray()));
+		ZipArchive.Entry styles = source.getEntry("word/styles.xml");
+		assertEquals(source.getRawData(styles), copy.getRawData(copy.getEntry("word/styles.xml")));
+		assertEquals("added", DocxFixtures.entry(baos.toByteArray(), "extra/added.txt"));
+		assertEquals("stored", DocxFixtures.entry(baos.toByteArray(), "extra/stored.txt"));
+
+		File file = File.createTempFile("copy", ".zip");
+		try {
+			FileOutputStream fos = new FileOutputStream(file);
+			fos.write(baos.toByteArray());
+			fos.close();
+			ZipFile zipFile = new ZipFile(file);
+			assertEquals(source.getEntries().size() + 2, zipFile.size());
+			zipFile.close();
+		} finally {
+			file.delete();
+		}
+	}
+
+	public void testReplaceVariablesWithPassthrough() throws Exception {
+		byte[] docx = DocxFixtures.docx("Hello ${name}");
+		Map<String, String> mappings = Collections.singletonMap("name", "Ann");
+
+		ByteArrayOutputStream jaxb = new ByteArrayOutputStream();
+		DocxUtils.replaceVariables(new ByteArrayInputStream(docx), mappings, jaxb, Deflater.BEST_COMPRESSION);
+		WordprocessingMLPackage result = WordprocessingMLPackage.load(new ByteArrayInputStream(jaxb.toByteArray()));
+		assertTrue(result.getMainDocumentPart().getXML().contains("Hello Ann"));
+
+		ZipArchive source = ZipArchive.open(ByteBuffer.wrap(docx));
+		ZipArchive output = ZipArchive.open(ByteBuffer.wrap(jaxb.toByteArray()));
+		assertEquals(source.getRawData(source.getEntry("word/styles.xml")),
+				output.getRawData(output.getEntry("word/styles.xml")));
+
+		byte[] rendered = DocxTemplate.compile(docx).render(mappings);
+		assertTrue(DocxFixtures.entry(rendered, "word/document.xml").contains("Hello Ann"));
+	}
+
+}